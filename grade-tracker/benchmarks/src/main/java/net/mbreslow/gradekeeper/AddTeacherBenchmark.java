@@ -0,0 +1,64 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of {@code addTeacher} with unique names, starting from a service that already has
+ * {@code existingTeachers} teachers.  The service is recreated every iteration so it does not grow without bound.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddTeacherBenchmark {
+    private static final ScoringPreferences PREFERENCES = new ScoringPreferences(0.5, 0.5, 1);
+
+    @State(Scope.Benchmark)
+    public static class Service {
+        @Param({"0", "10000"})
+        public int existingTeachers;
+
+        GradeTrackerImpl service;
+        final AtomicInteger threads = new AtomicInteger();
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            service = new GradeTrackerImpl();
+            for (int i = 0; i < existingTeachers; i++) {
+                service.addTeacher("existing" + i, PREFERENCES);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Names {
+        String prefix;
+        long next;
+
+        @Setup(Level.Iteration)
+        public void setUp(Service service) {
+            prefix = "teacher" + service.threads.incrementAndGet() + "-";
+            next = 0;
+        }
+    }
+
+    @Benchmark
+    public void addTeacher(Service service, Names names) {
+        service.service.addTeacher(names.prefix + names.next++, PREFERENCES);
+    }
+}
@@ -0,0 +1,95 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares recording exam scores through the synchronous {@link GradeTrackerImpl} with the mailbox-based
+ * {@link AsyncGradeTrackerImpl}, as throughput and as a latency distribution (JMH sample mode reports percentiles).
+ * {@code asyncRoundTrip} waits for each score; {@code asyncPipelined} keeps 64 scores in flight per thread, the way a
+ * request thread that does not wait would.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncGradeTrackerBenchmark {
+    private static final int IN_FLIGHT = 64;
+
+    @State(Scope.Benchmark)
+    public static class Services {
+        @Param({"1", "4"})
+        public int teachers;
+
+        @Param({"1000"})
+        public int rosterSize;
+
+        GradeTrackerImpl sync;
+        AsyncGradeTrackerImpl async;
+        String[] teacherNames;
+        String[] studentNames;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            sync = new GradeTrackerImpl();
+            GradeTrackerImpl state = new GradeTrackerImpl();
+            teacherNames = new String[teachers];
+            for (int t = 0; t < teachers; t++) {
+                teacherNames[t] = "teacher" + t;
+                sync.addTeacher(teacherNames[t], new ScoringPreferences(0.5, 0.5, 1));
+                state.addTeacher(teacherNames[t], new ScoringPreferences(0.5, 0.5, 1));
+            }
+            async = new AsyncGradeTrackerImpl(state, ForkJoinPool.commonPool(),
+                    AsyncGradeTrackerImpl.DEFAULT_MAILBOX_CAPACITY);
+            studentNames = new String[rosterSize];
+            for (int i = 0; i < rosterSize; i++) {
+                studentNames[i] = "student" + i;
+            }
+        }
+
+        String teacher() {
+            return teacherNames[ThreadLocalRandom.current().nextInt(teacherNames.length)];
+        }
+
+        String student() {
+            return studentNames[ThreadLocalRandom.current().nextInt(studentNames.length)];
+        }
+    }
+
+    @Benchmark
+    public void sync(Services services) {
+        services.sync.recordExamScore(services.teacher(), services.student(), 90);
+    }
+
+    @Benchmark
+    public Void asyncRoundTrip(Services services) {
+        return services.async.recordExamScore(services.teacher(), services.student(), 90).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IN_FLIGHT)
+    public Void asyncPipelined(Services services) {
+        CompletableFuture<?>[] pending = new CompletableFuture<?>[IN_FLIGHT];
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            pending[i] = services.async.recordExamScore(services.teacher(), services.student(), 90);
+        }
+        return CompletableFuture.allOf(pending).join();
+    }
+}
@@ -0,0 +1,97 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times exporting every student's average: {@link AverageExporter} to a file in CSV and binary at 1 and 4 threads,
+ * against calling {@code getStudentAverage} for every teacher/student pair.  Students are spread over 100 teachers.
+ * Larger classes need more heap, for example {@code -p students=10000000 -jvmArgsAppend -Xmx4g}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AverageExportBenchmark {
+    private static final int TEACHERS = 100;
+
+    @State(Scope.Benchmark)
+    public static class Graded {
+        @Param({"1000000"})
+        public int students;
+
+        GradeTrackerImpl service;
+        String[] teacherNames;
+        String[] studentNames;
+        File file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            service = new GradeTrackerImpl(RosterLayout.COLUMNAR);
+            for (int t = 0; t < TEACHERS; t++) {
+                service.addTeacher("teacher" + t, new ScoringPreferences(0.5, 0.5, 1));
+            }
+            teacherNames = new String[students];
+            studentNames = new String[students];
+            for (int i = 0; i < students; i++) {
+                teacherNames[i] = "teacher" + (i % TEACHERS);
+                studentNames[i] = "student" + i;
+                Student student = service.teachersByName.get(teacherNames[i]).getOrAddStudent(studentNames[i]);
+                student.addTotals(ScoreTotals.EMPTY.plusExam(i % 101).plusAssignment(i % 97).plusAssignment(50));
+            }
+            file = File.createTempFile("averages", ".export");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Export {
+        @Param({"CSV", "BINARY"})
+        public AverageExporter.Format format;
+
+        @Param({"1", "4"})
+        public int threads;
+    }
+
+    @Benchmark
+    public long export(Graded graded, Export export) throws IOException {
+        FileChannel channel = new FileOutputStream(graded.file).getChannel();
+        try {
+            return AverageExporter.export(graded.service, channel, export.format, export.threads);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    @Benchmark
+    public double getStudentAveragePerPair(Graded graded) {
+        double sum = 0;
+        for (int i = 0; i < graded.students; i++) {
+            sum += graded.service.getStudentAverage(graded.teacherNames[i], graded.studentNames[i]);
+        }
+        return sum;
+    }
+}
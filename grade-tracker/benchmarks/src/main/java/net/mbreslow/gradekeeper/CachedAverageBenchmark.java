@@ -0,0 +1,84 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-heavy benchmark for the cached weighted average: each invocation records one score and reads 50 averages,
+ * spread over a 10,000 student class.  Compares reads that use each {@link Student}'s cached average against
+ * recomputing it from the totals on every read.  Thread count comes from JMH's {@code -t} option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachedAverageBenchmark {
+    private static final int STUDENTS = 10000;
+    private static final int READS_PER_WRITE = 50;
+
+    @State(Scope.Benchmark)
+    public static class ClassState {
+        @Param({"cached", "recomputed"})
+        public String reads;
+
+        Teacher teacher;
+        Student[] students;
+        boolean cached;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            teacher = new Teacher("teacher", new ScoringPreferences(0.4, 0.6, 2));
+            students = new Student[STUDENTS];
+            for (int i = 0; i < STUDENTS; i++) {
+                students[i] = teacher.addStudent("student" + i);
+                students[i].addAssignment(80);
+                students[i].addExam(90);
+            }
+            cached = reads.equals("cached");
+        }
+    }
+
+    /**
+     * Where each thread is in the class
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            next = ThreadLocalRandom.current().nextInt(STUDENTS);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS_PER_WRITE + 1)
+    public double recordAndRead(ClassState state, Cursor cursor) {
+        Student[] students = state.students;
+        int next = cursor.next++;
+        students[next % STUDENTS].addExam(next % 100);
+        double sum = 0;
+        for (int r = 0; r < READS_PER_WRITE; r++) {
+            Student read = students[(next + r * 31) % STUDENTS];
+            ScoringPreferences preferences = state.teacher.getScoringPreferences();
+            sum += state.cached ? read.getWeightedAverage(preferences)
+                    : read.getTotals().getWeightedAverage(preferences);
+        }
+        return sum;
+    }
+}
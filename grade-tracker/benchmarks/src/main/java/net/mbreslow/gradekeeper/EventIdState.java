@@ -0,0 +1,36 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Each benchmark thread's own event ids, built up front.  A thread's ids come around again only after many times the
+ * teacher's event window has been recorded, so every id is new to the teacher.
+ */
+@State(Scope.Thread)
+public class EventIdState {
+    private static final int EVENT_IDS = 1 << 15;
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    private String[] eventIds;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        String prefix = "thread" + threads.incrementAndGet() + "-event";
+        eventIds = new String[EVENT_IDS];
+        for (int i = 0; i < EVENT_IDS; i++) {
+            eventIds[i] = prefix + i;
+        }
+    }
+
+    /**
+     * @return an event id the teacher has not recorded recently
+     */
+    String nextEventId() {
+        return eventIds[next++ & (EVENT_IDS - 1)];
+    }
+}
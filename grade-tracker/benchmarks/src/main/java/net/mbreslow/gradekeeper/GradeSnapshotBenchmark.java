@@ -0,0 +1,115 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a {@link GradeSnapshot} costs writers and readers over a 100,000 student class: {@code recordExamScore}
+ * with no snapshot open and with one open for the whole iteration, opening and closing a snapshot, and computing class
+ * statistics over an open snapshot.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GradeSnapshotBenchmark {
+    private static final String TEACHER = "teacher";
+    private static final int STUDENTS = 100000;
+
+    @State(Scope.Benchmark)
+    public abstract static class ClassState {
+        @Param({"OBJECTS", "COLUMNAR"})
+        public RosterLayout layout;
+
+        GradeTrackerImpl service;
+        String[] names;
+
+        void populate() {
+            service = new GradeTrackerImpl(layout);
+            service.addTeacher(TEACHER, new ScoringPreferences(0.5, 0.5, 1));
+            names = new String[STUDENTS];
+            for (int i = 0; i < STUDENTS; i++) {
+                names[i] = "student" + i;
+                service.recordExamScore(TEACHER, names[i], 50);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Writes extends ClassState {
+        @Param({"none", "open"})
+        public String snapshot;
+
+        GradeSnapshot open;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            populate();
+        }
+
+        @Setup(Level.Iteration)
+        public void openSnapshot() {
+            if (snapshot.equals("open")) {
+                open = service.openSnapshot();
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void closeSnapshot() {
+            if (open != null) {
+                open.close();
+                open = null;
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Reads extends ClassState {
+        GradeSnapshot open;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            populate();
+            open = service.openSnapshot();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            open.close();
+        }
+    }
+
+    @Benchmark
+    public void recordExamScore(Writes state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        state.service.recordExamScore(TEACHER, state.names[random.nextInt(STUDENTS)], random.nextInt(101));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void openSnapshot(Reads state) {
+        state.service.openSnapshot().close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ClassStatistics getClassStatistics(Reads state) {
+        return state.open.getClassStatistics(TEACHER);
+    }
+}
@@ -0,0 +1,56 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A {@link GradeTrackerImpl} shared by every benchmark thread, with one teacher whose roster is filled up front.  A
+ * roster size of 1 is the worst case: every thread records and reads scores for the same {@link Student}.
+ */
+@State(Scope.Benchmark)
+public class GradeTrackerState {
+    static final String TEACHER = "teacher";
+
+    @Param({"1", "1000", "100000"})
+    public int rosterSize;
+
+    @Param({"OBJECTS", "COLUMNAR"})
+    public RosterLayout layout;
+
+    GradeTrackerImpl service;
+    String[] studentNames;
+    StudentHandle[] handles;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new GradeTrackerImpl(layout);
+        service.addTeacher(TEACHER, new ScoringPreferences(0.4, 0.6, 2));
+        studentNames = new String[rosterSize];
+        handles = new StudentHandle[rosterSize];
+        for (int i = 0; i < rosterSize; i++) {
+            studentNames[i] = "student" + i;
+            service.recordAssignmentScore(TEACHER, studentNames[i], 80);
+            service.recordExamScore(TEACHER, studentNames[i], 90);
+            handles[i] = service.resolveStudent(TEACHER, studentNames[i]);
+        }
+    }
+
+    /**
+     * @return a student picked uniformly at random
+     */
+    String randomStudent() {
+        return studentNames[ThreadLocalRandom.current().nextInt(studentNames.length)];
+    }
+
+    /**
+     * @return the resolved handle of a student picked uniformly at random
+     */
+    StudentHandle randomHandle() {
+        return handles[ThreadLocalRandom.current().nextInt(handles.length)];
+    }
+}
@@ -0,0 +1,119 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times importing a generated CSV gradebook into an empty service, once per iteration: with {@link GradebookImporter}
+ * at 1 and 4 threads, and with a line-at-a-time reader that splits each line into Strings and calls the record methods
+ * one score at a time.  Rows are spread over 100 teachers of 1,000 students each.  Larger files need more heap, for
+ * example {@code -p rows=10000000 -jvmArgsAppend -Xmx4g}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GradebookImporterBenchmark {
+    private static final int TEACHERS = 100;
+    private static final int STUDENTS = 1000;
+
+    @State(Scope.Benchmark)
+    public static class Gradebook {
+        @Param({"1000000"})
+        public int rows;
+
+        File file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            file = File.createTempFile("gradebook", ".csv");
+            BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+            writer.write("teacher,student,type,score\n");
+            for (int i = 0; i < rows; i++) {
+                String type = i % 10 == 0 ? "extra_credit" : i % 3 == 0 ? "exam" : "assignment";
+                writer.write("teacher" + (i % TEACHERS) + ",student" + (i / TEACHERS % STUDENTS) + "," + type + ","
+                        + (i % 101) + "." + (i % 10) + "\n");
+            }
+            writer.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    /**
+     * A service with every teacher and no scores, made fresh for each iteration
+     */
+    @State(Scope.Benchmark)
+    public static class EmptyService {
+        GradeTrackerImpl service;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            service = new GradeTrackerImpl(RosterLayout.COLUMNAR);
+            for (int t = 0; t < TEACHERS; t++) {
+                service.addTeacher("teacher" + t, new ScoringPreferences(0.5, 0.5, 1));
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Parallelism {
+        @Param({"1", "4"})
+        public int threads;
+    }
+
+    @Benchmark
+    public ImportResult importer(Gradebook gradebook, EmptyService empty, Parallelism parallelism) {
+        return GradebookImporter.importFile(empty.service, gradebook.file, GradebookImporter.Format.CSV,
+                parallelism.threads, null);
+    }
+
+    @Benchmark
+    public GradeTrackerImpl lineAtATime(Gradebook gradebook, EmptyService empty) throws IOException {
+        GradeTrackerImpl service = empty.service;
+        BufferedReader reader = new BufferedReader(new FileReader(gradebook.file));
+        try {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                if (fields[2].equals("extra_credit")) {
+                    service.recordExtraCredit(fields[0], fields[1]);
+                }
+                else if (fields[2].equals("exam")) {
+                    service.recordExamScore(fields[0], fields[1], Double.parseDouble(fields[3]));
+                }
+                else {
+                    service.recordAssignmentScore(fields[0], fields[1], Double.parseDouble(fields[3]));
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return service;
+    }
+}
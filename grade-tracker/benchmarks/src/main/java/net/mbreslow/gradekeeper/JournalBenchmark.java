@@ -0,0 +1,74 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares recordAssignmentScore throughput of an in-memory {@link GradeTrackerImpl} against journaled ones using each
+ * {@link SyncPolicy}, over a 10,000 student class.  Thread count comes from JMH's {@code -t} option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+    private static final String TEACHER = "teacher";
+    private static final int STUDENTS = 10000;
+
+    @State(Scope.Benchmark)
+    public static class Journaled {
+        @Param({"none", "everyMillis", "everyRecords", "everyWrite"})
+        public String sync;
+
+        File file;
+        Journal journal;
+        GradeTracker service;
+        String[] names;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            if (!sync.equals("none")) {
+                file = File.createTempFile("grades", ".journal");
+                file.delete();
+                journal = Journal.open(file, sync.equals("everyMillis") ? SyncPolicy.everyMillis(10)
+                        : sync.equals("everyRecords") ? SyncPolicy.everyRecords(1000) : SyncPolicy.everyWrite());
+            }
+            service = GradeTrackerImpl.builder().journal(journal).build();
+            service.addTeacher(TEACHER, new ScoringPreferences(0.5, 0.5, 1));
+            names = new String[STUDENTS];
+            for (int i = 0; i < STUDENTS; i++) {
+                names[i] = "student" + i;
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (journal != null) {
+                journal.close();
+                file.delete();
+            }
+        }
+    }
+
+    @Benchmark
+    public void recordAssignmentScore(Journaled state) {
+        state.service.recordAssignmentScore(TEACHER, state.names[ThreadLocalRandom.current().nextInt(STUDENTS)], 85);
+    }
+}
@@ -0,0 +1,66 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the built-in {@link GradeTrackerMetrics} on the cheapest operations, where it shows most.  A
+ * {@code sampleEvery} of 0 turns latency recording off, 1 times every call and 64 is the default.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 3)
+public class MetricsOverheadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Service {
+        @Param({"0", "64", "16", "1"})
+        public int sampleEvery;
+
+        @Param({"1000"})
+        public int rosterSize;
+
+        GradeTrackerImpl service;
+        String[] studentNames;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            service = GradeTrackerImpl.builder().metricsSampleEvery(sampleEvery).build();
+            service.addTeacher(GradeTrackerState.TEACHER, new ScoringPreferences(0.4, 0.6, 2));
+            studentNames = new String[rosterSize];
+            for (int i = 0; i < rosterSize; i++) {
+                studentNames[i] = "student" + i;
+                service.recordExamScore(GradeTrackerState.TEACHER, studentNames[i], 90);
+            }
+        }
+
+        String randomStudent() {
+            return studentNames[ThreadLocalRandom.current().nextInt(studentNames.length)];
+        }
+    }
+
+    @Benchmark
+    public void recordExamScore(Service state) {
+        state.service.recordExamScore(GradeTrackerState.TEACHER, state.randomStudent(), 91);
+    }
+
+    @Benchmark
+    public double getStudentAverage(Service state) {
+        return state.service.getStudentAverage(GradeTrackerState.TEACHER, state.randomStudent());
+    }
+}
@@ -0,0 +1,54 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a read/write mix: each operation is a {@code getStudentAverage} with probability
+ * {@code readPercent}, otherwise an assignment, exam or extra credit in a 45:45:10 ratio.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixedWorkloadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Mix {
+        @Param({"0", "50", "98"})
+        public int readPercent;
+    }
+
+    @Benchmark
+    public double mixed(GradeTrackerState state, Mix mix) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String student = state.randomStudent();
+        int roll = random.nextInt(100);
+        if (roll < mix.readPercent) {
+            return state.service.getStudentAverage(GradeTrackerState.TEACHER, student);
+        }
+        int write = random.nextInt(20);
+        if (write < 9) {
+            state.service.recordAssignmentScore(GradeTrackerState.TEACHER, student, roll);
+        }
+        else if (write < 18) {
+            state.service.recordExamScore(GradeTrackerState.TEACHER, student, roll);
+        }
+        else {
+            state.service.recordExtraCredit(GradeTrackerState.TEACHER, student);
+        }
+        return roll;
+    }
+}
@@ -0,0 +1,49 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each {@link GradeTracker} hot path on its own, across roster sizes and layouts.  Thread count comes
+ * from JMH's {@code -t} option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordScoreBenchmark {
+
+    @Benchmark
+    public void recordAssignmentScore(GradeTrackerState state) {
+        state.service.recordAssignmentScore(GradeTrackerState.TEACHER, state.randomStudent(), 85);
+    }
+
+    @Benchmark
+    public void recordExamScore(GradeTrackerState state) {
+        state.service.recordExamScore(GradeTrackerState.TEACHER, state.randomStudent(), 91);
+    }
+
+    @Benchmark
+    public boolean recordExamScoreWithEventId(GradeTrackerState state, EventIdState eventIds) {
+        return state.service.recordExamScore(GradeTrackerState.TEACHER, state.randomStudent(), 91,
+                eventIds.nextEventId());
+    }
+
+    @Benchmark
+    public void recordExtraCredit(GradeTrackerState state) {
+        state.service.recordExtraCredit(GradeTrackerState.TEACHER, state.randomStudent());
+    }
+
+    @Benchmark
+    public double getStudentAverage(GradeTrackerState state) {
+        return state.service.getStudentAverage(GradeTrackerState.TEACHER, state.randomStudent());
+    }
+}
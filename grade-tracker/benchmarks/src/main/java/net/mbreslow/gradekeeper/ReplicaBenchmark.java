@@ -0,0 +1,150 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures journal shipping to a {@link GradeTrackerReplica} over loopback.  {@code catchUp} starts a replica against
+ * a primary with a backlog of exam scores and waits until it has applied them, reporting the bytes shipped and
+ * journaled.  The {@code replicated} group reads from a caught-up replica while a writer records scores on the primary.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplicaBenchmark {
+    private static final int TEACHERS = 100;
+    private static final int STUDENTS = 100000;
+    private static final long TIMEOUT_MILLIS = 600000;
+
+    /**
+     * A journaled primary with {@link #backlog} exam scores and a shipper for it
+     */
+    @State(Scope.Benchmark)
+    public abstract static class Primary {
+        @Param({"1000000"})
+        public int backlog;
+
+        File file;
+        Journal journal;
+        GradeTrackerImpl primary;
+        JournalShipper shipper;
+
+        void start() throws IOException {
+            file = File.createTempFile("primary", ".journal");
+            file.delete();
+            journal = Journal.open(file, SyncPolicy.everyRecords(100000));
+            primary = GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR).journal(journal).build();
+            for (int t = 0; t < TEACHERS; t++) {
+                primary.addTeacher("teacher" + t, new ScoringPreferences(0.5, 0.5, 1));
+            }
+            for (int i = 0; i < backlog; i++) {
+                primary.recordExamScore("teacher" + (i % TEACHERS), "student" + (i % STUDENTS), i % 101);
+            }
+            shipper = new JournalShipper(journal);
+        }
+
+        void stop() {
+            shipper.close();
+            journal.close();
+            file.delete();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Backlog extends Primary {
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            stop();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Replicated extends Primary {
+        GradeTrackerReplica replica;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            start();
+            replica = new GradeTrackerReplica(shipper.getAddress(), RosterLayout.COLUMNAR);
+            replica.awaitPosition(shipper.getPosition(), TIMEOUT_MILLIS);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            replica.close();
+            stop();
+        }
+    }
+
+    /**
+     * Bytes shipped to and journaled for each replica {@code catchUp} starts.  JMH sums them over the iterations, so
+     * divide one by the other for the compression.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Shipped {
+        public long shippedBytes;
+        public long journaledBytes;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public long catchUp(Backlog primary, Shipped shipped) throws InterruptedException {
+        GradeTrackerReplica replica = new GradeTrackerReplica(primary.shipper.getAddress(), RosterLayout.COLUMNAR);
+        try {
+            replica.awaitPosition(primary.shipper.getPosition(), TIMEOUT_MILLIS);
+            shipped.shippedBytes = replica.getReceivedBytes();
+            shipped.journaledBytes = primary.shipper.getPosition() - primary.journal.getStartPosition();
+            return replica.getAppliedRecords();
+        }
+        finally {
+            replica.close();
+        }
+    }
+
+    @Benchmark
+    @Group("replicated")
+    @GroupThreads(1)
+    public void primaryWrites(Replicated state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        state.primary.recordAssignmentScore("teacher" + random.nextInt(TEACHERS), "student" + random.nextInt(STUDENTS),
+                random.nextInt(101));
+    }
+
+    @Benchmark
+    @Group("replicated")
+    @GroupThreads(1)
+    public double replicaReads(Replicated state) {
+        int teacher = ThreadLocalRandom.current().nextInt(TEACHERS);
+        return state.replica.getStudentAverage("teacher" + teacher, "student" + teacher);
+    }
+}
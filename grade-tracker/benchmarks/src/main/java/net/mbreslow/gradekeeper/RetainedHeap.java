@@ -0,0 +1,22 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Heap in use once the garbage collector has settled, for benchmarks that report what a structure retains rather than
+ * how fast it is
+ */
+final class RetainedHeap {
+    private RetainedHeap() {
+    }
+
+    /**
+     * @return bytes of heap in use after a few collections
+     */
+    static long usedBytes() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,89 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the retained heap of the two {@link RosterLayout}s by filling one teacher's roster with a million students
+ * that each have an assignment and an exam recorded.  Student names are created up front and kept reachable so only
+ * the roster's own overhead is counted.  The time includes settling the heap after the fill; the footprint is in the
+ * {@code retainedBytes} and {@code students} counters.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class RosterFootprintBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Roster {
+        @Param({"1000000"})
+        public int students;
+
+        @Param({"OBJECTS", "COLUMNAR"})
+        public RosterLayout layout;
+
+        String[] names;
+        Teacher teacher;
+        long before;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            names = new String[students];
+            for (int i = 0; i < students; i++) {
+                names[i] = "student" + i;
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void measureBefore() throws InterruptedException {
+            teacher = null;
+            before = RetainedHeap.usedBytes();
+        }
+
+        @TearDown(Level.Iteration)
+        public void release() {
+            teacher = null;
+        }
+    }
+
+    /**
+     * Heap retained by the rosters filled and the students in them.  JMH sums them over the iterations, so divide one
+     * by the other for the bytes per student.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long retainedBytes;
+        public long students;
+    }
+
+    @Benchmark
+    public int fillRoster(Roster roster, Footprint footprint) throws InterruptedException {
+        Teacher teacher = new Teacher("teacher", new ScoringPreferences(0.5, 0.5, 1), roster.layout);
+        for (String name : roster.names) {
+            Student student = teacher.addStudent(name);
+            student.addAssignment(85);
+            student.addExam(91);
+        }
+        roster.teacher = teacher;
+        footprint.retainedBytes = RetainedHeap.usedBytes() - roster.before;
+        footprint.students = teacher.getStudentCount();
+        return teacher.getStudentCount();
+    }
+}
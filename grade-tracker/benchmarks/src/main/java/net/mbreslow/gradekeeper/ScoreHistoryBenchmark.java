@@ -0,0 +1,122 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what retaining score history costs: heap per retained score, and how fast a whole class's history streams
+ * back.  One teacher's class of 100,000 students each gets 100 scores with two decimal places, plus one in 50 scores
+ * that needs the full double.  The time of {@code retain} includes settling the heap afterwards; the footprint is in
+ * its counters.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ScoreHistoryBenchmark {
+    private static final int STUDENTS = 100000;
+    private static final int SCORES_PER_STUDENT = 100;
+
+    @State(Scope.Benchmark)
+    public abstract static class ClassState {
+        Teacher teacher;
+        Student[] students;
+
+        void enroll() {
+            teacher = new Teacher("teacher", new ScoringPreferences(0.5, 0.5, 1), RosterLayout.COLUMNAR);
+            students = new Student[STUDENTS];
+            for (int i = 0; i < STUDENTS; i++) {
+                students[i] = teacher.addStudent("student" + i);
+            }
+            teacher.retainHistory();
+        }
+
+        void recordScores() {
+            for (int s = 0; s < SCORES_PER_STUDENT; s++) {
+                for (int i = 0; i < STUDENTS; i++) {
+                    double score = s % 50 == 49 ? 100.0 / 3 : ((i * 31 + s * 17) % 10001) / 100.0;
+                    teacher.recordHistory(students[i], s % 2 == 0 ? ScoreType.ASSIGNMENT : ScoreType.EXAM, score);
+                }
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Empty extends ClassState {
+        long before;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws InterruptedException {
+            teacher = null;
+            students = null;
+            enroll();
+            before = RetainedHeap.usedBytes();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            teacher = null;
+            students = null;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Retained extends ClassState {
+        @Setup(Level.Trial)
+        public void setUp() {
+            enroll();
+            recordScores();
+        }
+    }
+
+    /**
+     * Heap retained by the scores recorded, the history's own count of its pages and state, and the number of scores.
+     * JMH sums them over the iterations, so divide by {@code scores} for the bytes per score.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long retainedBytes;
+        public long historyBytes;
+        public long scores;
+    }
+
+    @Benchmark
+    public long retain(Empty state, Footprint footprint) throws InterruptedException {
+        state.recordScores();
+        ScoreHistory history = state.teacher.getHistory();
+        footprint.retainedBytes = RetainedHeap.usedBytes() - state.before;
+        footprint.historyBytes = history.getRetainedBytes();
+        footprint.scores = history.getScoreCount();
+        return history.getScoreCount();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public double visitClassHistory(Retained state) {
+        final double[] sum = new double[1];
+        state.teacher.visitHistory(new ScoreHistoryVisitor() {
+            @Override
+            public void score(String studentName, ScoreType type, double score) {
+                sum[0] += score;
+            }
+        });
+        return sum[0];
+    }
+}
@@ -0,0 +1,91 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares recording exam scores directly on {@link GradeTrackerImpl} with publishing them to a {@link ScorePipeline}.
+ * Run with {@code -prof gc} to compare allocation per score on the calling thread.  {@code pipelined} measures the
+ * producer side only; the pipeline's ring applies back pressure once consumers fall a full lap behind.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScorePipelineBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Services {
+        @Param({"4"})
+        public int teachers;
+
+        @Param({"1000"})
+        public int rosterSize;
+
+        @Param({"1", "2"})
+        public int consumers;
+
+        @Param({"BACK_OFF", "YIELD"})
+        public WaitStrategy waitStrategy;
+
+        GradeTrackerImpl direct;
+        ScorePipeline pipeline;
+        String[] teacherNames;
+        String[] studentNames;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            direct = new GradeTrackerImpl();
+            GradeTrackerImpl behindPipeline = new GradeTrackerImpl();
+            teacherNames = new String[teachers];
+            for (int t = 0; t < teachers; t++) {
+                teacherNames[t] = "teacher" + t;
+                direct.addTeacher(teacherNames[t], new ScoringPreferences(0.5, 0.5, 1));
+                behindPipeline.addTeacher(teacherNames[t], new ScoringPreferences(0.5, 0.5, 1));
+            }
+            pipeline = ScorePipeline.start(behindPipeline, 1 << 14, consumers, waitStrategy, null);
+            studentNames = new String[rosterSize];
+            for (int i = 0; i < rosterSize; i++) {
+                studentNames[i] = "student" + i;
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pipeline.close();
+        }
+
+        String teacher() {
+            return teacherNames[ThreadLocalRandom.current().nextInt(teacherNames.length)];
+        }
+
+        String student() {
+            return studentNames[ThreadLocalRandom.current().nextInt(studentNames.length)];
+        }
+    }
+
+    @Benchmark
+    public void direct(Services services) {
+        services.direct.recordExamScore(services.teacher(), services.student(), 90);
+    }
+
+    @Benchmark
+    public void pipelined(Services services) {
+        services.pipeline.publish(ScoreType.EXAM, services.teacher(), services.student(), 90);
+    }
+}
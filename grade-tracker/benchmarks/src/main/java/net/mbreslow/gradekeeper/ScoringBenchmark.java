@@ -0,0 +1,92 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of each {@link GradingPolicy} on the paths it changes: grading a student's totals with the compiled
+ * {@link Scorer}, reading a student's average and recording a score, which also keeps the lowest scores a drop-lowest
+ * policy needs.  The {@code default} policy is the one to compare against {@link RecordScoreBenchmark} on an earlier
+ * build.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark {
+    private static final String TEACHER = "teacher";
+    private static final int STUDENTS = 1000;
+
+    @State(Scope.Benchmark)
+    public static class PolicyState {
+        @Param({"default", "drop-lowest", "curve-cap"})
+        public String policy;
+
+        @Param({"OBJECTS", "COLUMNAR"})
+        public RosterLayout layout;
+
+        GradeTrackerImpl service;
+        StudentHandle[] handles;
+        ScoreTotals[] totals;
+        Scorer scorer;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            String definition = "";
+            if (policy.equals("drop-lowest")) {
+                definition = "drop-lowest assignments 2; drop-lowest exams 1";
+            }
+            else if (policy.equals("curve-cap")) {
+                definition = "curve exams 5; cap assignments 100; cap extra-credit 3";
+            }
+            ScoringPreferences preferences = new ScoringPreferences(0.4, 0.6, 2, GradingPolicy.parse(definition));
+            service = new GradeTrackerImpl(layout);
+            service.addTeacher(TEACHER, preferences);
+            handles = new StudentHandle[STUDENTS];
+            totals = new ScoreTotals[STUDENTS];
+            for (int i = 0; i < STUDENTS; i++) {
+                handles[i] = service.resolveStudent(TEACHER, "student" + i);
+                for (int s = 0; s < 10; s++) {
+                    handles[i].recordAssignmentScore(60 + (i + s * 7) % 41);
+                    handles[i].recordExamScore(50 + (i * 3 + s * 11) % 51);
+                }
+                handles[i].recordExtraCredit();
+                totals[i] = service.teachersByName.get(TEACHER).getStudent("student" + i).getTotals();
+            }
+            scorer = preferences.getScorer();
+        }
+
+        int randomIndex() {
+            return ThreadLocalRandom.current().nextInt(STUDENTS);
+        }
+    }
+
+    @Benchmark
+    public double score(PolicyState state) {
+        return state.scorer.score(state.totals[state.randomIndex()]);
+    }
+
+    @Benchmark
+    public double getAverage(PolicyState state) {
+        return state.handles[state.randomIndex()].getAverage();
+    }
+
+    @Benchmark
+    public void recordExamScore(PolicyState state) {
+        state.handles[state.randomIndex()].recordExamScore(ThreadLocalRandom.current().nextInt(101));
+    }
+}
@@ -0,0 +1,163 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a 4-node {@link ShardedGradeTracker} over the in-process and loopback socket transports: batches of 1,000
+ * exam scores (reported per event), single reads, and adding a fifth node.  {@code addNode} rebalances once, so it runs
+ * as a single shot against a freshly populated cluster each iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardedGradeTrackerBenchmark {
+    private static final int NODES = 4;
+    private static final int TEACHERS = 200;
+    private static final int STUDENTS = 50000;
+    private static final int BATCH = 1000;
+    private static final int BATCHES = 64;
+
+    /**
+     * {@link #NODES} nodes in the tracker and one more to add, connected by {@link #transport}
+     */
+    @State(Scope.Benchmark)
+    public abstract static class Cluster {
+        @Param({"in-process", "loopback"})
+        public String transport;
+
+        ShardedGradeTracker sharded;
+        String spareAddress;
+        private ShardServer[] servers = new ShardServer[0];
+        private SocketTransport sockets;
+
+        void start() {
+            ShardTransport connector;
+            List<String> addresses = new ArrayList<String>();
+            if (transport.equals("loopback")) {
+                servers = new ShardServer[NODES + 1];
+                for (int n = 0; n <= NODES; n++) {
+                    servers[n] = new ShardServer(new GradeTrackerImpl(RosterLayout.COLUMNAR));
+                    addresses.add(servers[n].getAddress());
+                }
+                sockets = new SocketTransport();
+                connector = sockets;
+            }
+            else {
+                InProcessTransport local = new InProcessTransport();
+                for (int n = 0; n <= NODES; n++) {
+                    local.register("node-" + n, new GradeTrackerImpl(RosterLayout.COLUMNAR));
+                    addresses.add("node-" + n);
+                }
+                connector = local;
+            }
+            spareAddress = addresses.get(NODES);
+            sharded = new ShardedGradeTracker(connector, addresses.subList(0, NODES));
+            for (int t = 0; t < TEACHERS; t++) {
+                sharded.addTeacher("teacher" + t, new ScoringPreferences(0.5, 0.5, 1));
+            }
+            sharded.recordScores(batch(0));
+        }
+
+        void stop() {
+            if (sockets != null) {
+                sockets.close();
+                sockets = null;
+            }
+            for (ShardServer server : servers) {
+                server.close();
+            }
+            servers = new ShardServer[0];
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Running extends Cluster {
+        List<List<ScoreEvent>> batches;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            start();
+            batches = new ArrayList<List<ScoreEvent>>(BATCHES);
+            for (int b = 0; b < BATCHES; b++) {
+                batches.add(batch(b));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            stop();
+        }
+
+        List<ScoreEvent> nextBatch() {
+            next = (next + 1) % BATCHES;
+            return batches.get(next);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Rebalancing extends Cluster {
+        @Setup(Level.Iteration)
+        public void setUp() {
+            start();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            stop();
+        }
+    }
+
+    static List<ScoreEvent> batch(int b) {
+        List<ScoreEvent> batch = new ArrayList<ScoreEvent>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            int event = b * BATCH + i;
+            batch.add(ScoreEvent.exam("teacher" + (event % TEACHERS), "student" + (event % STUDENTS), event % 101));
+        }
+        return batch;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void recordScores(Running cluster) {
+        cluster.sharded.recordScores(cluster.nextBatch());
+    }
+
+    /**
+     * Reads the students the first batch recorded for each teacher
+     */
+    @Benchmark
+    public double getStudentAverage(Running cluster) {
+        int teacher = ThreadLocalRandom.current().nextInt(TEACHERS);
+        return cluster.sharded.getStudentAverage("teacher" + teacher, "student" + teacher);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public int addNode(Rebalancing cluster) {
+        return cluster.sharded.addNode(cluster.spareAddress);
+    }
+}
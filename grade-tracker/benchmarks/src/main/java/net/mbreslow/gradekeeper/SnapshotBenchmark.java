@@ -0,0 +1,119 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures restart time from a snapshot of students spread over 100 teachers with the columnar roster: writing it,
+ * opening it (directory only), opening it and answering a query for the first teacher, and opening it and decoding
+ * every teacher's students.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SnapshotBenchmark {
+    private static final int TEACHERS = 100;
+
+    @State(Scope.Benchmark)
+    public abstract static class Populated {
+        @Param({"10000000"})
+        public int students;
+
+        GradeTrackerImpl service;
+        File file;
+
+        void populate() throws IOException {
+            service = new GradeTrackerImpl(RosterLayout.COLUMNAR);
+            for (int t = 0; t < TEACHERS; t++) {
+                service.addTeacher("teacher" + t, new ScoringPreferences(0.5, 0.5, 1));
+            }
+            for (int i = 0; i < students; i++) {
+                Student student = service.teachersByName.get("teacher" + (i % TEACHERS)).getOrAddStudent("student" + i);
+                student.addTotals(ScoreTotals.EMPTY.plusExam(i % 101).plusAssignment(i % 97).plusAssignment(50));
+            }
+            file = File.createTempFile("grades", ".snapshot");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Writes extends Populated {
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            populate();
+        }
+    }
+
+    /**
+     * A snapshot written once, with the service that wrote it dropped
+     */
+    @State(Scope.Benchmark)
+    public static class Restarts extends Populated {
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            populate();
+            service.writeSnapshot(file);
+            service = null;
+        }
+
+        GradeTrackerImpl restore() {
+            return GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR).snapshot(file).build();
+        }
+    }
+
+    /**
+     * Size of each snapshot written.  JMH sums it over the iterations.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Written {
+        public long snapshotBytes;
+    }
+
+    @Benchmark
+    public void writeSnapshot(Writes state, Written written) throws IOException {
+        state.service.writeSnapshot(state.file);
+        written.snapshotBytes = state.file.length();
+    }
+
+    @Benchmark
+    public GradeTrackerImpl open(Restarts state) {
+        return state.restore();
+    }
+
+    @Benchmark
+    public double firstTeacher(Restarts state) {
+        return state.restore().getStudentAverage("teacher0", "student0");
+    }
+
+    @Benchmark
+    public int allTeachers(Restarts state) {
+        int total = 0;
+        for (Teacher teacher : state.restore().teachersByName.values()) {
+            total += teacher.getClassStatistics().getStudentCount();
+        }
+        return total;
+    }
+}
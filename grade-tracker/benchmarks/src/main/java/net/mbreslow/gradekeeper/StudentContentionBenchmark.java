@@ -0,0 +1,114 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the compare-and-set {@link Student} against the previous monitor-based implementation when every thread
+ * records scores for the same student.  Each invocation is three writes and one read.  Thread count comes from JMH's
+ * {@code -t} option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StudentContentionBenchmark {
+    private static final ScoringPreferences PREFERENCES = new ScoringPreferences(0.101, 0.899, 2);
+
+    /**
+     * The operations every benchmark thread performs against a single student
+     */
+    interface Target {
+        void addAssignment(double score);
+        void addExam(double score);
+        void addExtraCredit();
+        double getWeightedAverage(ScoringPreferences weights);
+    }
+
+    /**
+     * Copy of the original Student that took the object's monitor for every call, kept as the baseline
+     */
+    static class SynchronizedStudent implements Target {
+        private int extraCredits = 0;
+        private int examsCount = 0;
+        private double examsSum = 0;
+        private int assignmentsCount = 0;
+        private double assignmentsSum = 0;
+
+        public synchronized void addAssignment(double score) {
+            assignmentsCount++;
+            assignmentsSum += score;
+        }
+
+        public synchronized void addExam(double score) {
+            examsCount++;
+            examsSum += score;
+        }
+
+        public synchronized void addExtraCredit() {
+            extraCredits++;
+        }
+
+        public synchronized double getWeightedAverage(ScoringPreferences weights) {
+            return new ScoreTotals(extraCredits, examsCount, examsSum, assignmentsCount, assignmentsSum)
+                    .getWeightedAverage(weights);
+        }
+    }
+
+    static class LockFreeStudent implements Target {
+        private final Student student = new Student("Sally Student");
+
+        public void addAssignment(double score) {
+            student.addAssignment(score);
+        }
+
+        public void addExam(double score) {
+            student.addExam(score);
+        }
+
+        public void addExtraCredit() {
+            student.addExtraCredit();
+        }
+
+        public double getWeightedAverage(ScoringPreferences weights) {
+            return student.getWeightedAverage(weights);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedStudent {
+        @Param({"synchronized", "lock-free"})
+        public String implementation;
+
+        Target target;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            target = implementation.equals("synchronized") ? new SynchronizedStudent() : new LockFreeStudent();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4)
+    public double recordAndRead(SharedStudent state) {
+        Target target = state.target;
+        target.addAssignment(85);
+        target.addExam(91);
+        target.addExtraCredit();
+        return target.getWeightedAverage(PREFERENCES);
+    }
+}
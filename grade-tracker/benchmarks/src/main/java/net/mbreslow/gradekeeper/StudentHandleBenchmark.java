@@ -0,0 +1,43 @@
+package net.mbreslow.gradekeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording and reading by name against the same calls through a {@link StudentHandle} resolved up front, across
+ * roster sizes and layouts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StudentHandleBenchmark {
+
+    @Benchmark
+    public void recordExamScoreByName(GradeTrackerState state) {
+        state.service.recordExamScore(GradeTrackerState.TEACHER, state.randomStudent(), 91);
+    }
+
+    @Benchmark
+    public void recordExamScoreByHandle(GradeTrackerState state) {
+        state.randomHandle().recordExamScore(91);
+    }
+
+    @Benchmark
+    public double getStudentAverageByName(GradeTrackerState state) {
+        return state.service.getStudentAverage(GradeTrackerState.TEACHER, state.randomStudent());
+    }
+
+    @Benchmark
+    public double getStudentAverageByHandle(GradeTrackerState state) {
+        return state.randomHandle().getAverage();
+    }
+}
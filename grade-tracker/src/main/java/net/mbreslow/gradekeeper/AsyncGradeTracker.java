@@ -0,0 +1,116 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of {@link GradeTracker}.  Every method returns with a future for the outcome; errors that
+ * {@link GradeTracker} would throw complete the future exceptionally instead.  Operations for the same teacher (and so
+ * for the same student) take effect in the order they were called.  Implementations may make a caller that outpaces
+ * them wait before returning, as long as the wait is bounded.
+ */
+public interface AsyncGradeTracker {
+    /**
+     * Record the score for an assignment
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @param score score for the assignment
+     * @return completes once the score is recorded
+     */
+    CompletableFuture<Void> recordAssignmentScore(String teacherName, String studentName, double score);
+
+    /**
+     * Record the score for an exam
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @param score score for the exam
+     * @return completes once the score is recorded
+     */
+    CompletableFuture<Void> recordExamScore(String teacherName, String studentName, double score);
+
+    /**
+     * Record an extra-credit for a student
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @return completes once the extra credit is recorded
+     */
+    CompletableFuture<Void> recordExtraCredit(String teacherName, String studentName);
+
+    /**
+     * Record a batch of scores, see {@link GradeTracker#recordScores(Iterable)}
+     * @param events scores to record
+     * @return completes with the number of events recorded and the rows that failed
+     */
+    CompletableFuture<BatchResult> recordScores(Iterable<ScoreEvent> events);
+
+    /**
+     * Add a new teacher to the system
+     * @param name teacher's name
+     * @param scoringPreferences teacher's scoring preferences
+     * @return completes once the teacher is added
+     */
+    CompletableFuture<Void> addTeacher(String name, ScoringPreferences scoringPreferences);
+
+    /**
+     * Update teacher's scoring preferences, adding the teacher if there is none by that name
+     * @param name teacher's name
+     * @param scoringPreferences teacher's scoring preferences
+     * @return completes once the class has been regraded with the new preferences
+     */
+    CompletableFuture<Void> updateTeacher(String name, ScoringPreferences scoringPreferences);
+
+    /**
+     * Get the student's current weighted average
+     * @param teacherName name of the teacher of the student's class
+     * @param studentName name of the student
+     * @return completes with the average, including every score for the teacher submitted before this call
+     */
+    CompletableFuture<Double> getStudentAverage(String teacherName, String studentName);
+
+    /**
+     * Get the class-level statistics for a teacher
+     * @param teacherName name of the teacher
+     * @return completes with the statistics
+     */
+    CompletableFuture<ClassStatistics> getClassStatistics(String teacherName);
+
+    /**
+     * Get where a student stands in their class
+     * @param teacherName name of the teacher of the student's class
+     * @param studentName name of the student
+     * @return completes with the student's rank and percentile rank
+     */
+    CompletableFuture<RankedStudent> getStudentRank(String teacherName, String studentName);
+
+    /**
+     * Get the students with the highest weighted averages
+     * @param teacherName name of the teacher
+     * @param count maximum number of students to return
+     * @return completes with the students in descending order of weighted average
+     */
+    CompletableFuture<List<RankedStudent>> getTopStudents(String teacherName, int count);
+
+    /**
+     * Get the students with the lowest weighted averages
+     * @param teacherName name of the teacher
+     * @param count maximum number of students to return
+     * @return completes with the students in ascending order of weighted average
+     */
+    CompletableFuture<List<RankedStudent>> getBottomStudents(String teacherName, int count);
+
+    /**
+     * Get a percentile of a class's weighted averages
+     * @param teacherName name of the teacher
+     * @param percentile percentile between 0 (exclusive) and 100 (inclusive)
+     * @return completes with the smallest weighted average such that at least that percentage of the class is at or
+     * below it
+     */
+    CompletableFuture<Double> getPercentile(String teacherName, double percentile);
+
+    /**
+     * Subscribe to changes in students' weighted averages, see {@link GradeTracker#subscribe(GradeChangeListener)}
+     * @param listener receives the changes
+     * @return the subscription, used to cancel it
+     */
+    GradeSubscription subscribe(GradeChangeListener listener);
+}
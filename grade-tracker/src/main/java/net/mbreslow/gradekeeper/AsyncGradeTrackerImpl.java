@@ -0,0 +1,345 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * {@link AsyncGradeTracker} that gives every teacher a {@link Mailbox}: all operations for a teacher's class are queued
+ * on it and run one at a time on a shared executor, so a teacher's students are only ever touched by one thread and
+ * calling threads never wait on them.  State is kept in a {@link GradeTrackerImpl}, whose concurrency control is then
+ * never contended.
+ * <br/>
+ * Mailboxes are bounded.  A call for a teacher whose mailbox is full waits, for at most the offer timeout, for one of
+ * the teacher's operations to finish, so callers that outpace a class are slowed to its pace instead of queueing
+ * without bound; if the mailbox is still full then, the returned future fails with {@link MailboxFullError}.  Callers
+ * that must never wait should use an offer timeout of 0 and back off on that error.
+ */
+public class AsyncGradeTrackerImpl implements AsyncGradeTracker {
+    static final int DEFAULT_MAILBOX_CAPACITY = 65536;
+    static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 1000;
+
+    private final GradeTrackerImpl delegate;
+    private final Executor executor;
+    private final int mailboxCapacity;
+    private final long offerTimeoutMillis;
+    private final ConcurrentHashMap<String, Mailbox> mailboxesByTeacher = new ConcurrentHashMap<String, Mailbox>();
+
+    /**
+     * Create an in-memory service that runs on the common fork/join pool
+     */
+    public AsyncGradeTrackerImpl() {
+        this(new GradeTrackerImpl(), ForkJoinPool.commonPool(), DEFAULT_MAILBOX_CAPACITY);
+    }
+
+    /**
+     * Create a service over existing state
+     * @param delegate holds the teachers and students; should not be used directly while this service is
+     * @param executor runs the mailboxes
+     * @param mailboxCapacity maximum operations pending per teacher
+     */
+    public AsyncGradeTrackerImpl(GradeTrackerImpl delegate, Executor executor, int mailboxCapacity) {
+        this(delegate, executor, mailboxCapacity, DEFAULT_OFFER_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Create a service over existing state
+     * @param delegate holds the teachers and students; should not be used directly while this service is
+     * @param executor runs the mailboxes
+     * @param mailboxCapacity maximum operations pending per teacher
+     * @param offerTimeoutMillis longest a call waits for room in a full mailbox, 0 to fail at once
+     */
+    public AsyncGradeTrackerImpl(GradeTrackerImpl delegate, Executor executor, int mailboxCapacity,
+                                 long offerTimeoutMillis) {
+        assert delegate != null;
+        assert executor != null;
+        if (mailboxCapacity <= 0) {
+            throw new IllegalArgumentException("mailboxCapacity (" + mailboxCapacity + ") must be positive");
+        }
+        if (offerTimeoutMillis < 0) {
+            throw new IllegalArgumentException("offerTimeoutMillis (" + offerTimeoutMillis + ") must not be negative");
+        }
+        this.delegate = delegate;
+        this.executor = executor;
+        this.mailboxCapacity = mailboxCapacity;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        for (String teacherName : delegate.teachersByName.keySet()) {
+            mailboxFor(teacherName);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> recordAssignmentScore(final String teacherName, final String studentName,
+                                                         final double score) {
+        return submit(teacherName, new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.recordAssignmentScore(teacherName, studentName, score);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> recordExamScore(final String teacherName, final String studentName,
+                                                   final double score) {
+        return submit(teacherName, new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.recordExamScore(teacherName, studentName, score);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> recordExtraCredit(final String teacherName, final String studentName) {
+        return submit(teacherName, new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.recordExtraCredit(teacherName, studentName);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Record a batch of scores.  The batch is split by teacher and each part is queued on its teacher's mailbox.
+     * @param events scores to record
+     * @return completes when every part has been recorded, with failures reported at their position in the batch
+     */
+    @Override
+    public CompletableFuture<BatchResult> recordScores(Iterable<ScoreEvent> events) {
+        final BatchResult result = new BatchResult();
+        Map<String, List<ScoreEvent>> eventsByTeacher = new HashMap<String, List<ScoreEvent>>();
+        Map<String, List<Integer>> indexesByTeacher = new HashMap<String, List<Integer>>();
+        int index = 0;
+        for (ScoreEvent event : events) {
+            if (event == null || event.getTeacherName() == null || event.getStudentName() == null) {
+                result.failed(index, event,
+                        new IllegalArgumentException("Score events must name a teacher and a student: " + event));
+            }
+            else if (!mailboxesByTeacher.containsKey(event.getTeacherName())) {
+                result.failed(index, event, noTeacher(event.getTeacherName()));
+            }
+            else {
+                List<ScoreEvent> teacherEvents = eventsByTeacher.get(event.getTeacherName());
+                if (teacherEvents == null) {
+                    teacherEvents = new ArrayList<ScoreEvent>();
+                    eventsByTeacher.put(event.getTeacherName(), teacherEvents);
+                    indexesByTeacher.put(event.getTeacherName(), new ArrayList<Integer>());
+                }
+                teacherEvents.add(event);
+                indexesByTeacher.get(event.getTeacherName()).add(index);
+            }
+            index++;
+        }
+
+        List<CompletableFuture<Void>> parts = new ArrayList<CompletableFuture<Void>>();
+        for (final Map.Entry<String, List<ScoreEvent>> entry : eventsByTeacher.entrySet()) {
+            final List<Integer> indexes = indexesByTeacher.get(entry.getKey());
+            CompletableFuture<BatchResult> part = submit(entry.getKey(), new Callable<BatchResult>() {
+                @Override
+                public BatchResult call() {
+                    return delegate.recordScores(entry.getValue());
+                }
+            });
+            parts.add(part.handle(new BiFunction<BatchResult, Throwable, Void>() {
+                @Override
+                public Void apply(BatchResult partResult, Throwable error) {
+                    synchronized (result) {
+                        if (error != null) {
+                            RuntimeException cause = unwrap(error);
+                            for (int i = 0; i < indexes.size(); i++) {
+                                result.failed(indexes.get(i), entry.getValue().get(i), cause);
+                            }
+                            return null;
+                        }
+                        result.applied(partResult.getAppliedCount());
+                        result.duplicates(partResult.getDuplicateCount());
+                        for (BatchResult.Failure failure : partResult.getFailures()) {
+                            result.failed(indexes.get(failure.getIndex()), failure.getEvent(), failure.getError());
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+                .thenApply(new Function<Void, BatchResult>() {
+                    @Override
+                    public BatchResult apply(Void ignored) {
+                        synchronized (result) {
+                            return result;
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> addTeacher(final String name, final ScoringPreferences scoringPreferences) {
+        return register(name, new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.addTeacher(name, scoringPreferences);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> updateTeacher(final String name, final ScoringPreferences scoringPreferences) {
+        return register(name, new Callable<CompletableFuture<Void>>() {
+            @Override
+            public CompletableFuture<Void> call() {
+                // the regrade runs off the mailbox; scores queued behind it are folded in once it finishes
+                return delegate.updateTeacherAsync(name, scoringPreferences);
+            }
+        }).thenCompose(new Function<CompletableFuture<Void>, CompletableFuture<Void>>() {
+            @Override
+            public CompletableFuture<Void> apply(CompletableFuture<Void> regraded) {
+                return regraded;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Double> getStudentAverage(final String teacherName, final String studentName) {
+        return submit(teacherName, new Callable<Double>() {
+            @Override
+            public Double call() {
+                return delegate.getStudentAverage(teacherName, studentName);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<ClassStatistics> getClassStatistics(final String teacherName) {
+        return submit(teacherName, new Callable<ClassStatistics>() {
+            @Override
+            public ClassStatistics call() {
+                return delegate.getClassStatistics(teacherName);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<RankedStudent> getStudentRank(final String teacherName, final String studentName) {
+        return submit(teacherName, new Callable<RankedStudent>() {
+            @Override
+            public RankedStudent call() {
+                return delegate.getStudentRank(teacherName, studentName);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<RankedStudent>> getTopStudents(final String teacherName, final int count) {
+        return submit(teacherName, new Callable<List<RankedStudent>>() {
+            @Override
+            public List<RankedStudent> call() {
+                return delegate.getTopStudents(teacherName, count);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<RankedStudent>> getBottomStudents(final String teacherName, final int count) {
+        return submit(teacherName, new Callable<List<RankedStudent>>() {
+            @Override
+            public List<RankedStudent> call() {
+                return delegate.getBottomStudents(teacherName, count);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Double> getPercentile(final String teacherName, final double percentile) {
+        return submit(teacherName, new Callable<Double>() {
+            @Override
+            public Double call() {
+                return delegate.getPercentile(teacherName, percentile);
+            }
+        });
+    }
+
+    @Override
+    public GradeSubscription subscribe(GradeChangeListener listener) {
+        // changes are published by whichever thread applies them, so the delegate's feed already covers this service
+        return delegate.subscribe(listener, executor, GradeTrackerImpl.DEFAULT_SUBSCRIPTION_CAPACITY);
+    }
+
+    /**
+     * @return number of operations waiting or running for a teacher, 0 for an unknown teacher
+     */
+    int getPending(String teacherName) {
+        Mailbox mailbox = mailboxesByTeacher.get(teacherName);
+        return mailbox == null ? 0 : mailbox.getPending();
+    }
+
+    private <T> CompletableFuture<T> submit(String teacherName, Callable<T> operation) {
+        Mailbox mailbox = teacherName == null ? null : mailboxesByTeacher.get(teacherName);
+        if (mailbox == null) {
+            CompletableFuture<T> future = new CompletableFuture<T>();
+            future.completeExceptionally(noTeacher(teacherName));
+            return future;
+        }
+        return mailbox.submit(operation);
+    }
+
+    /**
+     * Queue an operation that may add a teacher.  The teacher's mailbox is opened at once, so calls made after this one
+     * queue behind it, but it stays open only if the teacher exists once the operation has run.
+     */
+    private <T> CompletableFuture<T> register(final String teacherName, final Callable<T> operation) {
+        final Mailbox mailbox = mailboxFor(teacherName);
+        return mailbox.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    T result = operation.call();
+                    // a failed registration may have closed the mailbox while this call waited in it
+                    mailboxesByTeacher.putIfAbsent(teacherName, mailbox);
+                    return result;
+                }
+                catch (Throwable e) {
+                    if (!delegate.teachersByName.containsKey(teacherName)) {
+                        mailboxesByTeacher.remove(teacherName, mailbox);
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+
+    private Mailbox mailboxFor(String teacherName) {
+        Mailbox mailbox = mailboxesByTeacher.get(teacherName);
+        if (mailbox == null) {
+            Mailbox created = new Mailbox(teacherName, executor, mailboxCapacity, offerTimeoutMillis);
+            mailbox = mailboxesByTeacher.putIfAbsent(teacherName, created);
+            if (mailbox == null) {
+                mailbox = created;
+            }
+        }
+        return mailbox;
+    }
+
+    private static ObjectNotFoundError noTeacher(String teacherName) {
+        return new ObjectNotFoundError("No teacher with the name " + teacherName + " exists");
+    }
+
+    private static RuntimeException unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+    }
+}
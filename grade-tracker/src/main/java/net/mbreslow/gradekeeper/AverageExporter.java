@@ -0,0 +1,382 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk export of every student's weighted average, for report cards and other consumers that want all of them at
+ * once.  Teachers are exported in parallel, each by one thread walking the teacher's students directly, so no name is
+ * looked up and no miss throws.  Records are encoded straight into pooled direct buffers of {@link #BUFFER_SIZE} bytes,
+ * without a String or byte[] per record, and a full buffer is written to the channel in one go; memory use does not
+ * grow with the number of students.
+ * <br/>
+ * CSV output is a {@code teacher,student,average} header and then one record per student, with the average rounded
+ * to four decimal places.  Names are quoted when they contain a comma, quote or line break, with {@code ""} for a
+ * quote, which is how {@link GradebookImporter} reads quoted fields: a name with a line break stays within its record.
+ * Binary output is the magic number and format version as ints, then blocks of one teacher's students: the
+ * varint-length UTF-8 teacher name, the record count as an int, then for each student the varint-length UTF-8 name and
+ * the average as a double.  Multi-byte values are big-endian.
+ * <br/>
+ * Within a teacher students come out in roster order, but teachers are interleaved a buffer at a time when exported in
+ * parallel.  Each student's average is read atomically, but the export is not a point-in-time view of the whole
+ * service: scores recorded while it runs may or may not be included.
+ */
+public class AverageExporter {
+    static final int MAGIC = 0x47544131;
+    static final int FORMAT_VERSION = 1;
+    static final int BUFFER_SIZE = 64 << 10;
+
+    private static final int POOLED_BUFFERS = 16;
+    private static final BlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<ByteBuffer>(POOLED_BUFFERS);
+    private static final String CSV_HEADER = "teacher,student,average\n";
+    // longest average written in CSV, a sign, 14 digits, a point and 4 decimals, or a Double.toString
+    private static final int MAX_AVERAGE_LENGTH = 32;
+
+    /**
+     * Supported output formats
+     */
+    public enum Format {
+        CSV,
+        BINARY
+    }
+
+    private final WritableByteChannel channel;
+    private final Format format;
+    private final List<Teacher> teachers;
+    private final AtomicInteger nextTeacher = new AtomicInteger();
+    private final AtomicLong recordsWritten = new AtomicLong();
+
+    private AverageExporter(WritableByteChannel channel, Format format, List<Teacher> teachers) {
+        this.channel = channel;
+        this.format = format;
+        this.teachers = teachers;
+    }
+
+    /**
+     * Write every student's weighted average to a channel.  The channel is not closed.
+     * <br/>
+     * Unlike {@link GradebookImporter}, which only needs the {@link GradeTracker} operations, this takes the concrete
+     * service: {@link GradeTracker} can neither list teachers nor a class's students, and the export walks both
+     * directly instead of looking students up by name.
+     * @param service service whose averages are exported
+     * @param channel where the records are written; writes to it are synchronized on the channel
+     * @param format CSV or binary
+     * @param parallelism number of threads encoding teachers
+     * @return number of students exported
+     * @throws ExportError when the channel cannot be written
+     */
+    public static long export(GradeTrackerImpl service, WritableByteChannel channel, Format format, int parallelism) {
+        assert service != null;
+        assert channel != null;
+        assert format != null;
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism (" + parallelism + ") must be positive");
+        }
+        AverageExporter exporter = new AverageExporter(channel, format,
+                new ArrayList<Teacher>(service.teachersByName.values()));
+        try {
+            exporter.run(parallelism);
+        }
+        catch (IOException e) {
+            throw new ExportError("Unable to export averages", e);
+        }
+        return exporter.recordsWritten.get();
+    }
+
+    private void run(int parallelism) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(CSV_HEADER.length());
+        if (format == Format.CSV) {
+            putUtf8(header, CSV_HEADER, false);
+        }
+        else {
+            header.putInt(MAGIC).putInt(FORMAT_VERSION);
+        }
+        header.flip();
+        write(header);
+
+        int threadCount = Math.min(parallelism, Math.max(1, teachers.size()));
+        List<Worker> workers = new ArrayList<Worker>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            workers.add(new Worker());
+        }
+        final AtomicInteger threads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "average-export-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for (Future<Void> done : executor.invokeAll(workers)) {
+                done.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExportError("Interrupted while exporting", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new ExportError(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        synchronized (channel) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Exports teachers until none are left, through one buffer
+     */
+    private class Worker implements Callable<Void> {
+        private ByteBuffer buffer;
+        // binary only: position of the open block's record count, -1 when no block is open
+        private int countPosition = -1;
+        private int blockRecords;
+
+        @Override
+        public Void call() throws IOException {
+            buffer = BUFFERS.poll();
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            }
+            try {
+                int next;
+                while ((next = nextTeacher.getAndIncrement()) < teachers.size()) {
+                    Teacher teacher = teachers.get(next);
+                    // an evicted roster is decoded for the export and may be evicted again afterwards
+                    teacher.pin();
+                    try {
+                        exportTeacher(teacher);
+                    }
+                    finally {
+                        teacher.unpin();
+                    }
+                }
+                flush();
+            }
+            finally {
+                if (buffer.capacity() == BUFFER_SIZE) {
+                    buffer.clear();
+                    BUFFERS.offer(buffer);
+                }
+            }
+            return null;
+        }
+
+        private void exportTeacher(Teacher teacher) throws IOException {
+            String teacherName = teacher.getName();
+            int teacherLength = utf8Length(teacherName);
+            boolean quoteTeacher = needsQuotes(teacherName);
+            ScoringPreferences preferences = teacher.getScoringPreferences();
+            long records = 0;
+            for (Student student : teacher.getStudents()) {
+                String name = student.getName();
+                int nameLength = utf8Length(name);
+                double average = student.getWeightedAverage(preferences);
+                if (format == Format.CSV) {
+                    ensureRemaining(2 * teacherLength + 2 * nameLength + MAX_AVERAGE_LENGTH + 7);
+                    putCsvField(buffer, teacherName, quoteTeacher);
+                    buffer.put((byte) ',');
+                    putCsvField(buffer, name, needsQuotes(name));
+                    buffer.put((byte) ',');
+                    putAverage(buffer, average);
+                    buffer.put((byte) '\n');
+                }
+                else {
+                    int needed = 5 + nameLength + 8;
+                    if (countPosition < 0 || buffer.remaining() < needed) {
+                        ensureRemaining(5 + teacherLength + 4 + needed);
+                        Journal.putVarint(buffer, teacherLength);
+                        putUtf8(buffer, teacherName, false);
+                        countPosition = buffer.position();
+                        buffer.putInt(0);
+                        blockRecords = 0;
+                    }
+                    Journal.putVarint(buffer, nameLength);
+                    putUtf8(buffer, name, false);
+                    buffer.putDouble(average);
+                    blockRecords++;
+                }
+                records++;
+            }
+            endBlock();
+            recordsWritten.addAndGet(records);
+        }
+
+        /**
+         * Make room for a record, writing out the buffer when it is too full.  A record larger than an empty buffer
+         * gets a buffer of its own, which is not pooled.
+         */
+        private void ensureRemaining(int needed) throws IOException {
+            if (buffer.remaining() >= needed) {
+                return;
+            }
+            flush();
+            if (buffer.capacity() < needed) {
+                if (buffer.capacity() == BUFFER_SIZE) {
+                    BUFFERS.offer(buffer);
+                }
+                buffer = ByteBuffer.allocateDirect(needed);
+            }
+        }
+
+        private void endBlock() {
+            if (countPosition >= 0) {
+                buffer.putInt(countPosition, blockRecords);
+                countPosition = -1;
+            }
+        }
+
+        private void flush() throws IOException {
+            endBlock();
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
+    }
+
+    private static boolean needsQuotes(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void putCsvField(ByteBuffer buffer, String field, boolean quote) {
+        if (quote) {
+            buffer.put((byte) '"');
+            putUtf8(buffer, field, true);
+            buffer.put((byte) '"');
+        }
+        else {
+            putUtf8(buffer, field, false);
+        }
+    }
+
+    /**
+     * Write an average rounded to four decimal places, without trailing zeros
+     */
+    static void putAverage(ByteBuffer buffer, double average) {
+        double magnitude = Math.abs(average);
+        if (Double.isNaN(average) || magnitude >= 1e14) {
+            putUtf8(buffer, Double.toString(average), false);
+            return;
+        }
+        long scaled = Math.round(magnitude * 10000);
+        if (average < 0 && scaled != 0) {
+            buffer.put((byte) '-');
+        }
+        long whole = scaled / 10000;
+        int digits = 1;
+        for (long rest = whole / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + whole % 10));
+            whole /= 10;
+        }
+        buffer.position(end);
+        int fraction = (int) (scaled % 10000);
+        if (fraction != 0) {
+            buffer.put((byte) '.');
+            for (int divisor = 1000; fraction != 0; divisor /= 10) {
+                buffer.put((byte) ('0' + fraction / divisor));
+                fraction %= divisor;
+            }
+        }
+    }
+
+    /**
+     * @return length of a string in UTF-8, with unpaired surrogates replaced by '?' as {@link String#getBytes} does
+     */
+    static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else if (Character.isSurrogate(c)) {
+                length++;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encode a string as UTF-8 without an intermediate byte[]
+     * @param doubleQuotes whether to write each '"' twice, as inside a quoted CSV field
+     */
+    static void putUtf8(ByteBuffer buffer, String s, boolean doubleQuotes) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+                if (c == '"' && doubleQuotes) {
+                    buffer.put((byte) c);
+                }
+            }
+            else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xf0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+            }
+            else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            }
+            else {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+}
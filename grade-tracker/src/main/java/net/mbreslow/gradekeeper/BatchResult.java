@@ -0,0 +1,103 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a {@link GradeTracker#recordScores(Iterable)} call: how many events were applied, how many were
+ * dropped as duplicates of events already recorded, and which rows failed
+ */
+public class BatchResult {
+    private int appliedCount = 0;
+    private int duplicateCount = 0;
+    private List<Failure> failures = new ArrayList<Failure>();
+
+    void applied(int count) {
+        appliedCount += count;
+    }
+
+    void duplicates(int count) {
+        duplicateCount += count;
+    }
+
+    void failed(int index, ScoreEvent event, RuntimeException error) {
+        failures.add(new Failure(index, event, error));
+    }
+
+    /**
+     * @return number of events that were recorded
+     */
+    public int getAppliedCount() {
+        return appliedCount;
+    }
+
+    /**
+     * @return number of events dropped because the teacher had already recorded an event with the same id
+     */
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * @return the rows that could not be recorded, in no particular order
+     */
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return true when every event in the batch was recorded
+     */
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{" +
+                "appliedCount=" + appliedCount +
+                ", duplicateCount=" + duplicateCount +
+                ", failures=" + failures +
+                '}';
+    }
+
+    /**
+     * A single row of a batch that could not be recorded
+     */
+    public static class Failure {
+        private final int index;
+        private final ScoreEvent event;
+        private final RuntimeException error;
+
+        Failure(int index, ScoreEvent event, RuntimeException error) {
+            this.index = index;
+            this.event = event;
+            this.error = error;
+        }
+
+        /**
+         * @return zero-based position of the event in the batch
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public ScoreEvent getEvent() {
+            return event;
+        }
+
+        public RuntimeException getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return "Failure{" +
+                    "index=" + index +
+                    ", event=" + event +
+                    ", error=" + error +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a {@link GradeTrackerImpl} snapshot on a fixed schedule from a background thread, so a restart only has to
+ * replay the journal written since the last one
+ */
+public class Checkpointer implements Closeable {
+    private final ScheduledExecutorService executor;
+    private volatile RuntimeException lastError;
+
+    private Checkpointer(final GradeTrackerImpl service, final File file, long periodMillis) {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "checkpointer " + file.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    service.writeSnapshot(file);
+                    lastError = null;
+                }
+                catch (RuntimeException e) {
+                    // keep the schedule running; the previous snapshot is still intact
+                    lastError = e;
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start writing snapshots
+     * @param service service to snapshot
+     * @param file snapshot file, replaced atomically each time
+     * @param periodMillis milliseconds between the end of one snapshot and the start of the next
+     * @return the running checkpointer
+     */
+    public static Checkpointer start(GradeTrackerImpl service, File file, long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("periodMillis (" + periodMillis + ") must be positive");
+        }
+        return new Checkpointer(service, file, periodMillis);
+    }
+
+    /**
+     * @return the error from the most recent snapshot, null when it succeeded or none has been written yet
+     */
+    public RuntimeException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Stop writing snapshots, waiting for one in progress to finish
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
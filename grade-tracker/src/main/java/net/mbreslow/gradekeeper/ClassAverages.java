@@ -0,0 +1,452 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps a Teacher's class-level statistics and {@link RankingIndex} up to date as scores are recorded, so that
+ * neither {@link #getStatistics()} nor the ranking queries have to visit every student.
+ * <br/>
+ * Writers never block here.  A changed student is flagged and queued once; whichever thread next wins
+ * {@link ReentrantLock#tryLock()} drains the queue, replacing each student's previously counted weighted average with
+ * its current one.  Draining is idempotent because it always reads the student's latest totals, and a student's flag is
+ * cleared before its totals are read, so a write that races with the drain simply queues the student again.
+ * Readers drain whatever is left before returning the published statistics.
+ * <br/>
+ * New scoring preferences are applied by {@link #rebuild(ScoringPreferences, Collection)}, which computes every
+ * average in parallel while the old state keeps answering queries, then swaps the preferences, statistics and ranking
+ * in together.  Readers see either the old grades or the new ones, never a mix.
+ * <br/>
+ * Every change to a student's counted average is reported to the {@link Listener}, if one is set, while the lock is
+ * held, so a class's changes are reported one at a time and in the order they were made.
+ */
+class ClassAverages {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    // students per fork/join task when recomputing averages
+    private static final int REBUILD_THRESHOLD = 4096;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Object rebuildLock = new Object();
+    private final Queue<Student> changed = new ConcurrentLinkedQueue<Student>();
+    private volatile Published published;
+    private volatile Listener listener;
+
+    // everything below is guarded by lock
+    private ScoringPreferences preferences;
+    private double[][] averagesById = new double[0][];
+    private double sum = 0;
+    private int count = 0;
+    private RankingIndex ranking = new RankingIndex();
+    // while true, changed students stay queued so the rebuild can fold them in with the new preferences
+    private boolean rebuilding = false;
+
+    ClassAverages(ScoringPreferences preferences) {
+        this.preferences = preferences;
+        this.published = new Published(preferences, ClassStatistics.EMPTY);
+    }
+
+    /**
+     * @return the preferences the published statistics and ranking were computed with
+     */
+    ScoringPreferences getPreferences() {
+        return published.preferences;
+    }
+
+    /**
+     * @param listener told about every change to a student's average from now on
+     */
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Note that a student's scores changed.  Called after the student's totals were updated.
+     * @param student student whose scores changed
+     */
+    void studentChanged(Student student) {
+        if (student.markDirty()) {
+            changed.add(student);
+        }
+        if (lock.tryLock()) {
+            try {
+                drain();
+            }
+            finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * @return current statistics, including every score recorded before the call unless new preferences are being
+     * applied, in which case the statistics from before the change are returned until they are
+     */
+    ClassStatistics getStatistics() {
+        if (!changed.isEmpty()) {
+            lock.lock();
+            try {
+                drain();
+            }
+            finally {
+                release();
+            }
+        }
+        return published.statistics;
+    }
+
+    /**
+     * Fold in the students still queued, then drop the per-student averages and ranking, keeping the published
+     * preferences and statistics.  Called when the roster is evicted; a {@link #rebuild} counts the students again once
+     * they are reloaded.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            drain();
+            averagesById = new double[0][];
+            ranking = new RankingIndex();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Recompute every student's weighted average with new scoring preferences.  The averages are computed on the
+     * fork/join pool without holding the lock, so queries keep being answered from the old state.  Students changed in
+     * the meantime stay queued and are folded in with the new preferences once the new state is swapped in.
+     * @param preferences the teacher's new scoring preferences
+     * @param students every student in the class
+     */
+    void rebuild(ScoringPreferences preferences, Collection<Student> students) {
+        rebuild(preferences, students, true);
+    }
+
+    /**
+     * Recompute every student's weighted average with the preferences in effect, for example after every student's
+     * totals were started over for a new grading period.  A regrade running concurrently finishes first, so its
+     * preferences are the ones used.
+     * @param students every student in the class
+     */
+    void recount(Collection<Student> students) {
+        synchronized (rebuildLock) {
+            rebuild(getPreferences(), students, true);
+        }
+    }
+
+    /**
+     * Recompute every student's weighted average, see {@link #rebuild(ScoringPreferences, Collection)}
+     * @param preferences the teacher's scoring preferences
+     * @param students every student in the class
+     * @param report whether to report the averages that changed to the listener; false when first counting students
+     * decoded from a snapshot, whose averages are not new
+     */
+    void rebuild(ScoringPreferences preferences, Collection<Student> students, boolean report) {
+        synchronized (rebuildLock) {
+            lock.lock();
+            try {
+                // let a drain in progress finish against the old state, then hold further drains off
+                rebuilding = true;
+            }
+            finally {
+                lock.unlock();
+            }
+            try {
+                Student[] all = students.toArray(new Student[0]);
+                double[] averages = new double[all.length];
+                ForkJoinPool.commonPool().invoke(new ComputeAverages(all, averages, preferences, 0, all.length));
+
+                double[][] byId = new double[0][];
+                double[] rankedAverages = new double[all.length];
+                Student[] ranked = new Student[all.length];
+                double newSum = 0;
+                int newCount = 0;
+                for (int i = 0; i < all.length; i++) {
+                    int id = all[i].getId();
+                    byId = grow(byId, id);
+                    byId[id >>> CHUNK_BITS][id & (CHUNK_SIZE - 1)] = averages[i];
+                    if (!Double.isNaN(averages[i])) {
+                        rankedAverages[newCount] = averages[i];
+                        ranked[newCount] = all[i];
+                        newSum += averages[i];
+                        newCount++;
+                    }
+                }
+                RankingIndex newRanking = new RankingIndex();
+                newRanking.rebuild(rankedAverages, ranked, newCount);
+
+                lock.lock();
+                try {
+                    Listener current = listener;
+                    if (report && current != null) {
+                        // no drain has run since rebuilding was set, so these are the averages last reported
+                        reportChanges(current, all, averages, averagesById);
+                    }
+                    this.preferences = preferences;
+                    averagesById = byId;
+                    sum = newSum;
+                    count = newCount;
+                    ranking = newRanking;
+                    rebuilding = false;
+                    drain();
+                    publish();
+                }
+                finally {
+                    release();
+                }
+            }
+            finally {
+                lock.lock();
+                try {
+                    rebuilding = false;
+                }
+                finally {
+                    release();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param student a student in the class
+     * @return the student's rank and percentile, or null when the student has no recorded scores
+     */
+    RankedStudent getRank(Student student) {
+        lock.lock();
+        try {
+            drain();
+            int id = student.getId();
+            double average = id >>> CHUNK_BITS < averagesById.length ? chunkFor(id)[id & (CHUNK_SIZE - 1)] : Double.NaN;
+            return Double.isNaN(average) ? null : ranking.rank(student, average);
+        }
+        finally {
+            release();
+        }
+    }
+
+    /**
+     * @param count maximum number of students
+     * @return the highest ranked students, best first
+     */
+    List<RankedStudent> getTop(int count) {
+        lock.lock();
+        try {
+            drain();
+            return ranking.top(count);
+        }
+        finally {
+            release();
+        }
+    }
+
+    /**
+     * @param count maximum number of students
+     * @return the lowest ranked students, worst first
+     */
+    List<RankedStudent> getBottom(int count) {
+        lock.lock();
+        try {
+            drain();
+            return ranking.bottom(count);
+        }
+        finally {
+            release();
+        }
+    }
+
+    /**
+     * Nearest-rank percentile of the class's weighted averages
+     * @param percentile percentile between 0 (exclusive) and 100 (inclusive)
+     * @return the smallest average such that at least that percentage of the class is at or below it, NaN when no
+     * student has a score
+     */
+    double getPercentile(double percentile) {
+        lock.lock();
+        try {
+            drain();
+            if (count == 0) {
+                return Double.NaN;
+            }
+            int index = (int) Math.ceil(percentile / 100 * count) - 1;
+            return ranking.select(Math.max(0, Math.min(count - 1, index)));
+        }
+        finally {
+            release();
+        }
+    }
+
+    /**
+     * Unlock after draining.  A writer whose tryLock failed while the lock was held relies on the holder to count its
+     * student, so anything queued after the holder's drain is drained here before giving up.
+     */
+    private void release() {
+        lock.unlock();
+        while (!changed.isEmpty() && !rebuilding && lock.tryLock()) {
+            try {
+                drain();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void drain() {
+        if (rebuilding) {
+            return;
+        }
+        Student student;
+        boolean drained = false;
+        while ((student = changed.poll()) != null) {
+            student.clearDirty();
+            update(student);
+            drained = true;
+        }
+        if (drained) {
+            publish();
+        }
+    }
+
+    /**
+     * Replace the student's counted weighted average with the one computed from their current totals
+     */
+    private void update(Student student) {
+        int id = student.getId();
+        double[] chunk = chunkFor(id);
+        int i = id & (CHUNK_SIZE - 1);
+        double previous = chunk[i];
+        ScoreTotals totals = student.getTotals();
+        double current = totals.getEventCount() == 0 ? Double.NaN : totals.getWeightedAverage(preferences);
+        if (Double.compare(previous, current) == 0) {
+            return;
+        }
+        if (!Double.isNaN(previous)) {
+            sum -= previous;
+            count--;
+            ranking.remove(previous, id);
+            if (count == 0) {
+                // don't let rounding error from earlier updates linger once the class is empty again
+                sum = 0;
+            }
+        }
+        if (!Double.isNaN(current)) {
+            sum += current;
+            count++;
+            ranking.insert(current, student);
+        }
+        chunk[i] = current;
+        Listener reportTo = listener;
+        if (reportTo != null && !Double.isNaN(current)) {
+            reportTo.averageChanged(student, current);
+        }
+    }
+
+    /**
+     * Report each student whose new average differs from the one counted before a rebuild.  Caller holds the lock.
+     */
+    private static void reportChanges(Listener listener, Student[] students, double[] averages,
+                                      double[][] previousById) {
+        for (int i = 0; i < students.length; i++) {
+            if (Double.isNaN(averages[i])) {
+                continue;
+            }
+            int id = students[i].getId();
+            double previous = id >>> CHUNK_BITS < previousById.length
+                    ? previousById[id >>> CHUNK_BITS][id & (CHUNK_SIZE - 1)] : Double.NaN;
+            if (Double.compare(previous, averages[i]) != 0) {
+                listener.averageChanged(students[i], averages[i]);
+            }
+        }
+    }
+
+    private double[] chunkFor(int id) {
+        averagesById = grow(averagesById, id);
+        return averagesById[id >>> CHUNK_BITS];
+    }
+
+    /**
+     * @return the chunks, with chunks of NaN added if needed to hold the given id
+     */
+    private static double[][] grow(double[][] chunks, int id) {
+        int chunkIndex = id >>> CHUNK_BITS;
+        if (chunkIndex < chunks.length) {
+            return chunks;
+        }
+        double[][] grown = Arrays.copyOf(chunks, chunkIndex + 1);
+        for (int i = chunks.length; i < grown.length; i++) {
+            grown[i] = new double[CHUNK_SIZE];
+            Arrays.fill(grown[i], Double.NaN);
+        }
+        return grown;
+    }
+
+    private void publish() {
+        ClassStatistics statistics = count == 0 ? ClassStatistics.EMPTY
+                : new ClassStatistics(count, sum / count, ranking.first(), ranking.last());
+        published = new Published(preferences, statistics);
+    }
+
+    /**
+     * Told about changes to students' counted averages
+     */
+    interface Listener {
+        /**
+         * @param student student whose average changed
+         * @param average new weighted average
+         */
+        void averageChanged(Student student, double average);
+    }
+
+    /**
+     * Preferences and the statistics computed with them, published together
+     */
+    private static class Published {
+        final ScoringPreferences preferences;
+        final ClassStatistics statistics;
+
+        Published(ScoringPreferences preferences, ClassStatistics statistics) {
+            this.preferences = preferences;
+            this.statistics = statistics;
+        }
+    }
+
+    /**
+     * Computes the weighted average of a range of students, NaN for a student without scores
+     */
+    private static class ComputeAverages extends RecursiveAction {
+        private final Student[] students;
+        private final double[] averages;
+        private final ScoringPreferences preferences;
+        private final int from;
+        private final int to;
+
+        ComputeAverages(Student[] students, double[] averages, ScoringPreferences preferences, int from, int to) {
+            this.students = students;
+            this.averages = averages;
+            this.preferences = preferences;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= REBUILD_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    ScoreTotals totals = students[i].getTotals();
+                    averages[i] = totals.getEventCount() == 0 ? Double.NaN : totals.getWeightedAverage(preferences);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ComputeAverages(students, averages, preferences, from, middle),
+                    new ComputeAverages(students, averages, preferences, middle, to));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Immutable class-level statistics for one Teacher: how many students have recorded scores and the average, lowest and
+ * highest of their weighted averages
+ */
+public class ClassStatistics {
+    /**
+     * Statistics for a class in which no student has recorded a score
+     */
+    public static final ClassStatistics EMPTY = new ClassStatistics(0, Double.NaN, Double.NaN, Double.NaN);
+
+    private final int studentCount;
+    private final double average;
+    private final double minimum;
+    private final double maximum;
+
+    ClassStatistics(int studentCount, double average, double minimum, double maximum) {
+        this.studentCount = studentCount;
+        this.average = average;
+        this.minimum = minimum;
+        this.maximum = maximum;
+    }
+
+    /**
+     * @return number of students with at least one recorded score
+     */
+    public int getStudentCount() {
+        return studentCount;
+    }
+
+    /**
+     * @return mean of the students' weighted averages, NaN when no student has a score
+     */
+    public double getAverage() {
+        return average;
+    }
+
+    /**
+     * @return lowest weighted average in the class, NaN when no student has a score
+     */
+    public double getMinimum() {
+        return minimum;
+    }
+
+    /**
+     * @return highest weighted average in the class, NaN when no student has a score
+     */
+    public double getMaximum() {
+        return maximum;
+    }
+
+    @Override
+    public String toString() {
+        return "ClassStatistics{" +
+                "studentCount=" + studentCount +
+                ", average=" + average +
+                ", minimum=" + minimum +
+                ", maximum=" + maximum +
+                '}';
+    }
+}
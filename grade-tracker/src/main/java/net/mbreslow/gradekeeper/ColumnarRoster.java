@@ -0,0 +1,498 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Roster that interns student names to dense int ids and keeps every student's counts and sums in parallel primitive
+ * arrays (structure-of-arrays) that grow in fixed-size chunks.  There is no per-student object on the heap besides
+ * the name; {@link #get(String)} hands out a lightweight {@link Student} view over the arrays.  The views most recently
+ * handed out are kept in a small table indexed by id, so looking up the same students again allocates nothing, while
+ * a roster of any size holds at most {@link #VIEW_CACHE_SIZE} of them.
+ * <br/>
+ * Thread safety: adding students is serialized on the roster.  Scores are guarded by one of {@link #LOCK_STRIPES}
+ * locks chosen by student id, so writers for different students rarely contend and readers always see a consistent
+ * set of counts and sums.  Each student's column of {@link VersionClock} epochs is updated under the same lock, before
+ * the counts and sums, so an open {@link GradeSnapshot} is handed the totals it sees before they change.
+ * <br/>
+ * A column of {@link LowestScores} is added once a {@link GradingPolicy} that drops scores needs them, so rosters of
+ * Teachers without one pay nothing for it.
+ */
+class ColumnarRoster implements Roster {
+    static final int CHUNK_BITS = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int LOCK_STRIPES = 64;
+    static final int VIEW_CACHE_SIZE = 64;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    // the view last handed out for each id modulo the cache size, so a student looked up again allocates no new one
+    private final AtomicReferenceArray<StudentView> views = new AtomicReferenceArray<StudentView>(VIEW_CACHE_SIZE);
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile NameTable names = new NameTable(16);
+    private volatile int size = 0;
+    // lowest scores a student with none recorded keeps, null while the roster keeps no lowest scores
+    private volatile LowestScores emptyLowest;
+
+    ColumnarRoster() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public Student get(String name) {
+        int id = names.find(name);
+        return id < 0 ? null : view(name, id);
+    }
+
+    @Override
+    public Student add(String name) {
+        synchronized (this) {
+            if (names.find(name) >= 0) {
+                throw new NameCollisionError("A student already exists with the name " + name);
+            }
+            return view(name, intern(name));
+        }
+    }
+
+    @Override
+    public Student getOrAdd(String name) {
+        Student student = get(name);
+        if (student == null) {
+            synchronized (this) {
+                int id = names.find(name);
+                student = view(name, id < 0 ? intern(name) : id);
+            }
+        }
+        return student;
+    }
+
+    /**
+     * @return the cached view of a student, or a new one that replaces the view cached for another id in its slot
+     */
+    private StudentView view(String name, int id) {
+        int slot = id & (VIEW_CACHE_SIZE - 1);
+        StudentView view = views.get(slot);
+        if (view == null || view.id != id) {
+            view = new StudentView(name, id);
+            views.set(slot, view);
+        }
+        return view;
+    }
+
+    /**
+     * Assign the next id to a name, growing the arrays by a chunk when needed.  Caller holds the roster lock.
+     */
+    private int intern(String name) {
+        int id = size;
+        int chunkIndex = id >>> CHUNK_BITS;
+        if (chunkIndex == chunks.length) {
+            Chunk[] grown = new Chunk[chunkIndex + 1];
+            System.arraycopy(chunks, 0, grown, 0, chunkIndex);
+            grown[chunkIndex] = new Chunk();
+            if (emptyLowest != null) {
+                grown[chunkIndex].lowest = new LowestScores[CHUNK_SIZE];
+            }
+            chunks = grown;
+        }
+        chunks[chunkIndex].names[id & (CHUNK_SIZE - 1)] = name;
+        NameTable table = names;
+        if ((id + 1) * 2 > table.capacity()) {
+            table = table.resize();
+        }
+        table.insert(name, id);
+        names = table;
+        size = id + 1;
+        return id;
+    }
+
+    @Override
+    public Collection<Student> getStudents() {
+        return new AbstractCollection<Student>() {
+            @Override
+            public Iterator<Student> iterator() {
+                final int end = size;
+                return new Iterator<Student>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < end;
+                    }
+
+                    @Override
+                    public Student next() {
+                        if (next >= end) {
+                            throw new NoSuchElementException();
+                        }
+                        int id = next++;
+                        return new StudentView(chunks[id >>> CHUNK_BITS].names[id & (CHUNK_SIZE - 1)], id);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException("Students cannot be removed from a roster");
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void trackLowest(int assignments, int exams) {
+        LowestScores empty = emptyLowest == null ? LowestScores.empty(assignments, exams)
+                : emptyLowest.withCapacity(assignments, exams);
+        // set before the columns, so that a writer finding a column also finds the empty record
+        emptyLowest = empty;
+        for (int c = 0; c < chunks.length; c++) {
+            Chunk chunk = chunks[c];
+            if (chunk.lowest == null) {
+                chunk.lowest = new LowestScores[CHUNK_SIZE];
+                continue;
+            }
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                synchronized (locks[((c << CHUNK_BITS) + i) & (LOCK_STRIPES - 1)]) {
+                    if (chunk.lowest[i] != null) {
+                        chunk.lowest[i] = chunk.lowest[i].withCapacity(assignments, exams);
+                    }
+                }
+            }
+        }
+    }
+
+    ScoreTotals getTotals(int id) {
+        Chunk chunk = chunks[id >>> CHUNK_BITS];
+        int i = id & (CHUNK_SIZE - 1);
+        synchronized (locks[id & (LOCK_STRIPES - 1)]) {
+            return totalsAt(chunk, i);
+        }
+    }
+
+    ScoreTotals add(int id, ScoreType type, double score, VersionClock clock) {
+        Chunk chunk = chunks[id >>> CHUNK_BITS];
+        int i = id & (CHUNK_SIZE - 1);
+        synchronized (locks[id & (LOCK_STRIPES - 1)]) {
+            stamp(chunk, i, id, clock);
+            LowestScores[] lowest = chunk.lowest;
+            if (lowest != null) {
+                LowestScores kept = keptAt(chunk, i);
+                lowest[i] = type == ScoreType.ASSIGNMENT ? kept.plusAssignment(score)
+                        : type == ScoreType.EXAM ? kept.plusExam(score) : kept;
+            }
+            switch (type) {
+                case ASSIGNMENT:
+                    chunk.assignmentsCounts[i]++;
+                    chunk.assignmentsSums[i] += score;
+                    break;
+                case EXAM:
+                    chunk.examsCounts[i]++;
+                    chunk.examsSums[i] += score;
+                    break;
+                case EXTRA_CREDIT:
+                    chunk.extraCredits[i]++;
+                    break;
+            }
+            return totalsAt(chunk, i);
+        }
+    }
+
+    ScoreTotals add(int id, ScoreTotals delta, VersionClock clock) {
+        Chunk chunk = chunks[id >>> CHUNK_BITS];
+        int i = id & (CHUNK_SIZE - 1);
+        synchronized (locks[id & (LOCK_STRIPES - 1)]) {
+            stamp(chunk, i, id, clock);
+            LowestScores[] lowest = chunk.lowest;
+            if (lowest != null) {
+                lowest[i] = keptAt(chunk, i).plus(delta);
+            }
+            chunk.assignmentsCounts[i] += delta.getAssignmentsCount();
+            chunk.assignmentsSums[i] += delta.getAssignmentsSum();
+            chunk.examsCounts[i] += delta.getExamsCount();
+            chunk.examsSums[i] += delta.getExamsSum();
+            chunk.extraCredits[i] += delta.getExtraCredits();
+            return totalsAt(chunk, i);
+        }
+    }
+
+    ScoreTotals reset(int id, VersionClock clock) {
+        Chunk chunk = chunks[id >>> CHUNK_BITS];
+        int i = id & (CHUNK_SIZE - 1);
+        synchronized (locks[id & (LOCK_STRIPES - 1)]) {
+            ScoreTotals totals = totalsAt(chunk, i);
+            stamp(chunk, i, id, clock);
+            chunk.assignmentsCounts[i] = 0;
+            chunk.assignmentsSums[i] = 0;
+            chunk.examsCounts[i] = 0;
+            chunk.examsSums[i] = 0;
+            chunk.extraCredits[i] = 0;
+            if (chunk.lowest != null && chunk.lowest[i] != null) {
+                chunk.lowest[i] = chunk.lowest[i].cleared();
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * Set a student's totals as decoded from storage, untagged
+     */
+    void restore(int id, ScoreTotals totals) {
+        Chunk chunk = chunks[id >>> CHUNK_BITS];
+        int i = id & (CHUNK_SIZE - 1);
+        synchronized (locks[id & (LOCK_STRIPES - 1)]) {
+            chunk.assignmentsCounts[i] = totals.getAssignmentsCount();
+            chunk.assignmentsSums[i] = totals.getAssignmentsSum();
+            chunk.examsCounts[i] = totals.getExamsCount();
+            chunk.examsSums[i] = totals.getExamsSum();
+            chunk.extraCredits[i] = totals.getExtraCredits();
+            chunk.epochs[i] = 0;
+            if (chunk.lowest != null) {
+                chunk.lowest[i] = totals.getLowest();
+            }
+        }
+    }
+
+    /**
+     * Read a student's totals for an open snapshot, retagging totals written before it with its epoch just as
+     * {@link Student#totalsAsOf(VersionClock.Versions)} does
+     */
+    ScoreTotals totalsAsOf(int id, VersionClock.Versions versions, Student view) {
+        Chunk chunk = chunks[id >>> CHUNK_BITS];
+        int i = id & (CHUNK_SIZE - 1);
+        synchronized (locks[id & (LOCK_STRIPES - 1)]) {
+            if (chunk.epochs[i] <= versions.epoch) {
+                stamp(chunk, i, id, versions.getClock(), versions.epoch);
+                return totalsAt(chunk, i);
+            }
+        }
+        // already handed over, under the lock, by the write that tagged the totals later
+        return versions.preserved(view);
+    }
+
+    /**
+     * Tag a student's totals with the clock's current epoch before a write changes them.  The epoch is read under the
+     * student's lock, so a write after a snapshot retagged the student is always tagged later.
+     */
+    private void stamp(Chunk chunk, int i, int id, VersionClock clock) {
+        if (clock != null) {
+            stamp(chunk, i, id, clock, clock.current());
+        }
+    }
+
+    /**
+     * Tag a student's totals with a later epoch, first handing the totals to any open {@link GradeSnapshot} that still
+     * sees them.  Called with the student's lock held.
+     */
+    private void stamp(Chunk chunk, int i, int id, VersionClock clock, long epoch) {
+        long replaced = chunk.epochs[i];
+        if (replaced < epoch) {
+            if (clock.isVisible(replaced, epoch)) {
+                clock.preserve(new StudentView(chunk.names[i], id), totalsAt(chunk, i), epoch);
+            }
+            chunk.epochs[i] = epoch;
+        }
+    }
+
+    private ScoreTotals totalsAt(Chunk chunk, int i) {
+        ScoreTotals totals = new ScoreTotals(chunk.extraCredits[i], chunk.examsCounts[i], chunk.examsSums[i],
+                chunk.assignmentsCounts[i], chunk.assignmentsSums[i], chunk.epochs[i]);
+        return chunk.lowest == null ? totals : totals.withLowest(keptAt(chunk, i));
+    }
+
+    /**
+     * @return a student's lowest scores, once the roster keeps them.  A student without a record of their own has
+     * seen none of their scores, which were recorded before the roster kept lowest scores or restored without them.
+     * Called with the student's lock held.
+     */
+    private LowestScores keptAt(Chunk chunk, int i) {
+        LowestScores kept = chunk.lowest[i];
+        return kept != null ? kept : emptyLowest.plusUnseen(chunk.assignmentsCounts[i], chunk.examsCounts[i]);
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarRoster{size=" + size + '}';
+    }
+
+    /**
+     * The columns for {@link #CHUNK_SIZE} consecutive student ids
+     */
+    private static class Chunk {
+        final String[] names = new String[CHUNK_SIZE];
+        final int[] assignmentsCounts = new int[CHUNK_SIZE];
+        final double[] assignmentsSums = new double[CHUNK_SIZE];
+        final int[] examsCounts = new int[CHUNK_SIZE];
+        final double[] examsSums = new double[CHUNK_SIZE];
+        final int[] extraCredits = new int[CHUNK_SIZE];
+        final long[] epochs = new long[CHUNK_SIZE];
+        // each student's lowest scores once the roster keeps them, see keptAt for null entries
+        volatile LowestScores[] lowest;
+        final AtomicIntegerArray dirty = new AtomicIntegerArray(CHUNK_SIZE);
+    }
+
+    /**
+     * Open-addressing hash table from name to id.  Readers never lock: an id is written before its key is published
+     * through the AtomicReferenceArray, and a resized table is published through the volatile {@link #names} field.
+     */
+    private static class NameTable {
+        private final AtomicReferenceArray<String> keys;
+        private final int[] ids;
+        private final int mask;
+
+        NameTable(int capacity) {
+            keys = new AtomicReferenceArray<String>(capacity);
+            ids = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        int capacity() {
+            return ids.length;
+        }
+
+        int find(String name) {
+            for (int slot = spread(name.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+                String key = keys.get(slot);
+                if (key == null) {
+                    return -1;
+                }
+                if (key.equals(name)) {
+                    return ids[slot];
+                }
+            }
+        }
+
+        void insert(String name, int id) {
+            int slot = spread(name.hashCode()) & mask;
+            while (keys.get(slot) != null) {
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = id;
+            keys.set(slot, name);
+        }
+
+        NameTable resize() {
+            NameTable resized = new NameTable(ids.length * 2);
+            for (int slot = 0; slot < ids.length; slot++) {
+                String key = keys.get(slot);
+                if (key != null) {
+                    resized.insert(key, ids[slot]);
+                }
+            }
+            return resized;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /**
+     * Lightweight Student handed out by the roster.  Holds no scores of its own; every call reads or updates the
+     * roster's arrays.
+     */
+    private class StudentView extends Student {
+        private final int id;
+
+        StudentView(String name, int id) {
+            super(name, id);
+            this.id = id;
+        }
+
+        @Override
+        boolean markDirty() {
+            return chunks[id >>> CHUNK_BITS].dirty.compareAndSet(id & (CHUNK_SIZE - 1), 0, 1);
+        }
+
+        @Override
+        void clearDirty() {
+            chunks[id >>> CHUNK_BITS].dirty.set(id & (CHUNK_SIZE - 1), 0);
+        }
+
+        // writes take a striped lock rather than racing a compare-and-set, so there is no contention to count
+
+        @Override
+        ScoreTotals addAssignment(double score, VersionClock clock, LongAdder contended) {
+            return add(id, ScoreType.ASSIGNMENT, score, clock);
+        }
+
+        @Override
+        ScoreTotals addExam(double score, VersionClock clock, LongAdder contended) {
+            return add(id, ScoreType.EXAM, score, clock);
+        }
+
+        @Override
+        ScoreTotals addExtraCredit(VersionClock clock, LongAdder contended) {
+            return add(id, ScoreType.EXTRA_CREDIT, 0, clock);
+        }
+
+        @Override
+        ScoreTotals addTotals(ScoreTotals delta, VersionClock clock, LongAdder contended) {
+            return add(id, delta, clock);
+        }
+
+        @Override
+        ScoreTotals resetTotals(VersionClock clock, LongAdder contended) {
+            return reset(id, clock);
+        }
+
+        @Override
+        void restoreTotals(ScoreTotals restored) {
+            restore(id, restored);
+        }
+
+        @Override
+        public double getWeightedAverage(ScoringPreferences weights) {
+            // the totals are rebuilt from the arrays on every read, so an average cached with them is never found
+            return getTotals().getWeightedAverage(weights);
+        }
+
+        @Override
+        public ScoreTotals getTotals() {
+            return ColumnarRoster.this.getTotals(id);
+        }
+
+        @Override
+        ScoreTotals totalsAsOf(VersionClock.Versions versions) {
+            return ColumnarRoster.this.totalsAsOf(id, versions, this);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof StudentView)) return false;
+            StudentView that = (StudentView) o;
+            return id == that.id && roster() == that.roster();
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        private ColumnarRoster roster() {
+            return ColumnarRoster.this;
+        }
+
+        @Override
+        public String toString() {
+            return "Student{" +
+                    "name='" + getName() + '\'' +
+                    ", totals=" + getTotals() +
+                    '}';
+        }
+    }
+}
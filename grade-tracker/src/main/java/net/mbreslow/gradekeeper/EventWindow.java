@@ -0,0 +1,223 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size window of the event ids a {@link Teacher} most recently accepted, used to drop score events delivered
+ * more than once.  An id is a duplicate when it is among roughly the last {@link #getCapacity()} ids the window
+ * accepted.
+ * <br/>
+ * Ids are kept as 64-bit hashes in rings, oldest overwritten first, so memory stays flat however many events arrive:
+ * about 12 bytes per id.  In front of each ring, a Bloom filter in two generations, each covering the ring's capacity,
+ * answers most checks from one cache line: an id it has not seen is new without looking at the ring.  Only when the
+ * filter reports the id, which for a new id happens about once in a thousand, is the ring searched for an exact match.
+ * When the current generation is full the older one is cleared and takes its place, so the filter always covers at
+ * least the ids in the ring.
+ * <br/>
+ * The window is split into up to 16 stripes by hash, each with its own ring, filter and lock, so writers recording
+ * for the same teacher rarely wait for each other.  Each stripe forgets its own oldest ids, so an id is remembered for
+ * about, rather than exactly, {@code capacity} ids; windows of fewer than 1024 ids have a single stripe and are exact.
+ * <br/>
+ * Two different ids whose 64-bit hashes collide within one window are treated as the same; the chance is negligible.
+ * <br/>
+ * An id whose score could not be recorded is {@link #forget(String) forgotten}, so a retry is not taken for a
+ * duplicate.  The id's filter bits stay set, which costs at most a search of the ring.
+ * <br/>
+ * Thread safety: {@link #accept(String)} locks one stripe; it holds the lock for well under a microsecond unless the
+ * ring is searched.
+ */
+class EventWindow {
+    static final int DEFAULT_CAPACITY = 16384;
+
+    private static final int MAX_STRIPES = 16;
+    private static final int MIN_STRIPE_CAPACITY = 64;
+    // bits per id in each filter generation, and bits set per id within the id's 512-bit block
+    private static final int BITS_PER_ID = 16;
+    private static final int BITS_PER_BLOCK = 512;
+    private static final int HASHES = 8;
+
+    private final int capacity;
+    private final Stripe[] stripes;
+
+    /**
+     * @param capacity number of most recent ids checked for duplicates, a power of two of at least 64
+     */
+    EventWindow(int capacity) {
+        if (capacity < MIN_STRIPE_CAPACITY || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity (" + capacity + ") must be a power of two of at least 64");
+        }
+        this.capacity = capacity;
+        int count = Math.min(MAX_STRIPES, capacity / MIN_STRIPE_CAPACITY);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(capacity / count);
+        }
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Accept an id unless it is among the ids most recently accepted
+     * @param eventId the event's id
+     * @return false when the id is a duplicate
+     */
+    boolean accept(String eventId) {
+        long hash = HashRing.hash(eventId);
+        // the top bits pick the stripe; the filter uses the bits below them
+        return stripes[(int) (hash >>> 60) & (stripes.length - 1)].accept(hash);
+    }
+
+    /**
+     * Take back an id that was accepted but whose event could not be recorded
+     * @param eventId the event's id
+     */
+    void forget(String eventId) {
+        long hash = HashRing.hash(eventId);
+        stripes[(int) (hash >>> 60) & (stripes.length - 1)].forget(hash);
+    }
+
+    /**
+     * @return number of ids in the window
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return approximate heap used by the window
+     */
+    long estimateHeapBytes() {
+        long bytes = 32;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.estimateHeapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * One ring of hashes and the filter in front of it
+     */
+    private static class Stripe {
+        private final int capacity;
+        private final long[] ring;
+        private int next = 0;
+        private int size = 0;
+        private long[] current;
+        private long[] previous;
+        private final int blockMask;
+        private int currentCount = 0;
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+            this.ring = new long[capacity];
+            int blocks = capacity * BITS_PER_ID / BITS_PER_BLOCK;
+            this.blockMask = blocks - 1;
+            this.current = new long[blocks * (BITS_PER_BLOCK / 64)];
+            this.previous = new long[current.length];
+        }
+
+        synchronized boolean accept(long hash) {
+            if ((mayContain(current, hash) || mayContain(previous, hash)) && find(hash) >= 0) {
+                return false;
+            }
+            ring[next] = hash;
+            next = (next + 1) & (capacity - 1);
+            if (size < capacity) {
+                size++;
+            }
+            if (currentCount == capacity) {
+                long[] cleared = previous;
+                Arrays.fill(cleared, 0);
+                previous = current;
+                current = cleared;
+                currentCount = 0;
+            }
+            add(current, hash);
+            currentCount++;
+            return true;
+        }
+
+        synchronized void forget(long hash) {
+            int at = find(hash);
+            if (at < 0) {
+                return;
+            }
+            // move the newer ids back a slot over it
+            int mask = capacity - 1;
+            for (int i = at; i != ((next - 1) & mask); i = (i + 1) & mask) {
+                ring[i] = ring[(i + 1) & mask];
+            }
+            next = (next - 1) & mask;
+            size--;
+        }
+
+        /**
+         * @return the hash's slot in the ring, searched newest first, or -1
+         */
+        private int find(long hash) {
+            for (int back = 1; back <= size; back++) {
+                int at = (next - back) & (capacity - 1);
+                if (ring[at] == hash) {
+                    return at;
+                }
+            }
+            return -1;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * The id's block is chosen by the hash's bits from 40 up and each of its {@link #HASHES} bits by 9 more bits
+         * of the hash, remixed for the bits beyond the first 36
+         */
+        private boolean mayContain(long[] filter, long hash) {
+            int base = ((int) (hash >>> 40) & blockMask) * (BITS_PER_BLOCK / 64);
+            long bits = hash;
+            for (int i = 0; i < HASHES; i++) {
+                if (i == 4) {
+                    bits = hash * 0x9e3779b97f4a7c15L;
+                }
+                int bit = (int) bits & (BITS_PER_BLOCK - 1);
+                bits >>>= 9;
+                if ((filter[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void add(long[] filter, long hash) {
+            int base = ((int) (hash >>> 40) & blockMask) * (BITS_PER_BLOCK / 64);
+            long bits = hash;
+            for (int i = 0; i < HASHES; i++) {
+                if (i == 4) {
+                    bits = hash * 0x9e3779b97f4a7c15L;
+                }
+                int bit = (int) bits & (BITS_PER_BLOCK - 1);
+                bits >>>= 9;
+                filter[base + (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        long estimateHeapBytes() {
+            return 8L * ring.length + 16L * current.length + 64;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EventWindow{" +
+                "capacity=" + capacity +
+                ", stripes=" + stripes.length +
+                ", size=" + size() +
+                '}';
+    }
+}
@@ -0,0 +1,21 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Runtime error thrown when averages cannot be written to an export channel
+ */
+public class ExportError extends RuntimeException {
+    public ExportError() {
+    }
+
+    public ExportError(String s) {
+        super(s);
+    }
+
+    public ExportError(String s, Throwable throwable) {
+        super(s, throwable);
+    }
+
+    public ExportError(Throwable throwable) {
+        super(throwable);
+    }
+}
@@ -0,0 +1,22 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Receives student-average changes from {@link GradeTracker#subscribe(GradeChangeListener)}.  Methods are called one at
+ * a time, never concurrently, on the subscription's executor.
+ */
+public interface GradeChangeListener {
+    /**
+     * A student's weighted average changed, because of a new score or new scoring preferences.  Changes made in quick
+     * succession may be reported once, with the latest average.
+     * @param teacherName name of the teacher of the student's class
+     * @param studentName name of the student
+     * @param average the student's weighted average
+     */
+    void averageChanged(String teacherName, String studentName, double average);
+
+    /**
+     * The subscription's buffer was full, so changes for some students were not reported.  Re-read any averages the
+     * listener depends on.
+     */
+    void changesDropped();
+}
@@ -0,0 +1,51 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Fans student-average changes out to every {@link GradeSubscription} of a service.  Subscriptions are kept in a
+ * copy-on-write array, so publishing a change reads one volatile field and, without subscribers, does nothing else.
+ */
+class GradeFeed {
+    private volatile GradeSubscription[] subscriptions = new GradeSubscription[0];
+
+    /**
+     * @param listener receives the changes
+     * @param executor runs the listener
+     * @param capacity most students with unreported changes buffered for the listener
+     * @return the new subscription
+     */
+    synchronized GradeSubscription subscribe(GradeChangeListener listener, Executor executor, int capacity) {
+        GradeSubscription subscription = new GradeSubscription(this, listener, executor, capacity);
+        GradeSubscription[] grown = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        grown[grown.length - 1] = subscription;
+        subscriptions = grown;
+        return subscription;
+    }
+
+    synchronized void remove(GradeSubscription subscription) {
+        GradeSubscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == subscription) {
+                GradeSubscription[] shrunk = new GradeSubscription[current.length - 1];
+                System.arraycopy(current, 0, shrunk, 0, i);
+                System.arraycopy(current, i + 1, shrunk, i, current.length - i - 1);
+                subscriptions = shrunk;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Report a changed average to every subscription
+     * @param teacherName name of the teacher of the student's class
+     * @param student student whose average changed
+     * @param average new weighted average
+     */
+    void averageChanged(String teacherName, Student student, double average) {
+        for (GradeSubscription subscription : subscriptions) {
+            subscription.offer(teacherName, student, average);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Point-in-time view of one or all of a {@link GradeTrackerImpl}'s teachers: every query answers as of the moment the
+ * snapshot was opened, however many scores are recorded and grading periods closed while it is read.  Across every
+ * teacher and student in the snapshot, a score recorded before another is never missing while the later one is
+ * visible, so reports built from it add up.
+ * <br/>
+ * Writers are not held up by an open snapshot.  A student written while one is open keeps the totals the snapshot
+ * sees on the side until it is closed, whichever teacher the student belongs to; students left alone cost nothing.
+ * Close every snapshot: an open one keeps its teachers in memory and its kept totals on the heap.
+ * <br/>
+ * The teachers are those present when the snapshot was opened, graded with the preferences in effect then.  Those are
+ * read just after the scores are fixed, so a preference change that lands in between is reflected; scores never are.
+ * <br/>
+ * Thread safety: a snapshot can be read from any number of threads.
+ */
+public final class GradeSnapshot implements Closeable {
+    private final VersionClock.Versions versions;
+    private final Map<String, View> views;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * @param clock the service's clock
+     * @param teachers the teachers to cover by name, pinned by the caller; the snapshot unpins them when closed
+     */
+    GradeSnapshot(VersionClock clock, Map<String, Teacher> teachers) {
+        this.versions = clock.open();
+        this.views = new LinkedHashMap<String, View>();
+        for (Map.Entry<String, Teacher> entry : teachers.entrySet()) {
+            views.put(entry.getKey(), new View(entry.getValue()));
+        }
+    }
+
+    /**
+     * @return names of the teachers in the snapshot, in ascending order
+     */
+    public List<String> getTeacherNames() {
+        checkOpen();
+        List<String> names = new ArrayList<String>(views.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * @param teacherName name of a teacher in the snapshot
+     * @return names of the teacher's students with scores in the snapshot, active or in a closed period, in ascending
+     * order
+     * @throws ObjectNotFoundError when the teacher is not in the snapshot
+     */
+    public List<String> getStudentNames(String teacherName) {
+        View view = view(teacherName);
+        List<String> names = new ArrayList<String>();
+        for (Student student : view.teacher.getStudents()) {
+            if (view.isVisible(student)) {
+                names.add(student.getName());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * @param teacherName name of a teacher in the snapshot
+     * @param studentName name of the student
+     * @return the student's totals for the active period as of the snapshot
+     * @throws ObjectNotFoundError when teacher or student not found in the snapshot
+     */
+    public ScoreTotals getTotals(String teacherName, String studentName) {
+        View view = view(teacherName);
+        return view.totalsOf(view.student(studentName));
+    }
+
+    /**
+     * @param teacherName name of a teacher in the snapshot
+     * @param studentName name of the student
+     * @return the student's weighted average for the active period as of the snapshot
+     * @throws ObjectNotFoundError when teacher or student not found in the snapshot
+     */
+    public double getStudentAverage(String teacherName, String studentName) {
+        View view = view(teacherName);
+        return view.totalsOf(view.student(studentName)).getWeightedAverage(view.preferences);
+    }
+
+    /**
+     * Computed from every student's totals each time it is called
+     * @param teacherName name of a teacher in the snapshot
+     * @return statistics over the students with scores in the active period as of the snapshot
+     * @throws ObjectNotFoundError when the teacher is not in the snapshot
+     */
+    public ClassStatistics getClassStatistics(String teacherName) {
+        View view = view(teacherName);
+        int count = 0;
+        double sum = 0;
+        double minimum = Double.POSITIVE_INFINITY;
+        double maximum = Double.NEGATIVE_INFINITY;
+        for (Student student : view.teacher.getStudents()) {
+            ScoreTotals totals = view.totalsOf(student);
+            if (totals.getEventCount() > 0) {
+                double average = totals.getWeightedAverage(view.preferences);
+                count++;
+                sum += average;
+                minimum = Math.min(minimum, average);
+                maximum = Math.max(maximum, average);
+            }
+        }
+        return count == 0 ? ClassStatistics.EMPTY : new ClassStatistics(count, sum / count, minimum, maximum);
+    }
+
+    /**
+     * @param teacherName name of a teacher in the snapshot
+     * @return names of the periods the teacher had closed as of the snapshot, oldest first
+     * @throws ObjectNotFoundError when the teacher is not in the snapshot
+     */
+    public List<String> getGradingPeriods(String teacherName) {
+        View view = view(teacherName);
+        List<String> names = new ArrayList<String>(view.periods.size());
+        for (PeriodSegment period : view.periods) {
+            names.add(period.getName());
+        }
+        return names;
+    }
+
+    /**
+     * @param teacherName name of a teacher in the snapshot
+     * @param studentName name of the student
+     * @param periodName name of a period closed as of the snapshot
+     * @return the student's average for the period, NaN when the student recorded nothing in it
+     * @throws ObjectNotFoundError when teacher, student or period not found in the snapshot
+     */
+    public double getPeriodAverage(String teacherName, String studentName, String periodName) {
+        View view = view(teacherName);
+        return view.period(periodName).getAverage(view.student(studentName).getId());
+    }
+
+    /**
+     * @param teacherName name of a teacher in the snapshot
+     * @param periodName name of a period closed as of the snapshot
+     * @return statistics precomputed when the period closed
+     * @throws ObjectNotFoundError when teacher or period not found in the snapshot
+     */
+    public ClassStatistics getPeriodStatistics(String teacherName, String periodName) {
+        return view(teacherName).period(periodName).getStatistics();
+    }
+
+    /**
+     * @return number of totals kept for the snapshot because they were replaced after it was opened
+     */
+    int getPreservedCount() {
+        return versions.getPreservedCount();
+    }
+
+    /**
+     * Release the teachers and the totals kept for the snapshot.  Queries afterwards throw IllegalStateException.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            versions.getClock().close(versions);
+            for (View view : views.values()) {
+                view.teacher.unpin();
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("The snapshot is closed");
+        }
+    }
+
+    private View view(String teacherName) {
+        checkOpen();
+        View view = views.get(teacherName);
+        if (view == null) {
+            throw new ObjectNotFoundError("No teacher found for name " + teacherName + " in the snapshot");
+        }
+        return view;
+    }
+
+    /**
+     * One teacher as of the snapshot
+     */
+    private class View {
+        final Teacher teacher;
+        final ScoringPreferences preferences;
+        final List<PeriodSegment> periods = new ArrayList<PeriodSegment>();
+
+        View(Teacher teacher) {
+            this.teacher = teacher;
+            this.preferences = teacher.getScoringPreferences();
+            for (PeriodSegment period : teacher.getPeriods()) {
+                if (period.getEpoch() <= versions.epoch) {
+                    periods.add(period);
+                }
+            }
+        }
+
+        ScoreTotals totalsOf(Student student) {
+            return student.totalsAsOf(versions);
+        }
+
+        boolean isVisible(Student student) {
+            if (totalsOf(student).getEventCount() > 0) {
+                return true;
+            }
+            for (PeriodSegment period : periods) {
+                if (period.getTotals(student.getId()).getEventCount() > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Student student(String studentName) {
+            Student student = teacher.getStudent(studentName);
+            if (student == null || !isVisible(student)) {
+                throw new ObjectNotFoundError("No student found for name " + studentName + " for teacher "
+                        + teacher.getName() + " in the snapshot");
+            }
+            return student;
+        }
+
+        PeriodSegment period(String periodName) {
+            for (PeriodSegment period : periods) {
+                if (period.getName().equals(periodName)) {
+                    return period;
+                }
+            }
+            throw new ObjectNotFoundError("No grading period named " + periodName + " for teacher "
+                    + teacher.getName() + " in the snapshot");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GradeSnapshot{" +
+                "teachers=" + views.keySet() +
+                ", epoch=" + versions.epoch +
+                ", closed=" + closed.get() +
+                '}';
+    }
+}
@@ -0,0 +1,161 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One listener's subscription to student-average changes.
+ * <br/>
+ * Changes are buffered per student: a student changed again before the listener has heard about it keeps its place in
+ * line and is reported once, with the latest average.  The buffer holds at most {@code capacity} students; changes for
+ * further students are dropped and the listener is told so through {@link GradeChangeListener#changesDropped()}.
+ * Writers therefore never wait for the listener, however slow it is.
+ * <br/>
+ * The listener is called from a task on the subscription's {@link Executor}, at most one task at a time, the same way
+ * a {@link Mailbox} runs its operations.  Exceptions thrown by the listener are ignored.
+ */
+public class GradeSubscription {
+    // changes reported per turn on the executor before giving other tasks a chance
+    static final int CHANGES_PER_TURN = 256;
+
+    private final GradeFeed feed;
+    private final GradeChangeListener listener;
+    private final Executor executor;
+    private final int capacity;
+    private final ConcurrentHashMap<Student, PendingChange> pending = new ConcurrentHashMap<Student, PendingChange>();
+    private final Queue<PendingChange> order = new ConcurrentLinkedQueue<PendingChange>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile boolean cancelled = false;
+    private final Runnable deliver = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    GradeSubscription(GradeFeed feed, GradeChangeListener listener, Executor executor, int capacity) {
+        this.feed = feed;
+        this.listener = listener;
+        this.executor = executor;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Stop reporting changes.  Changes not yet reported are discarded.
+     */
+    public void cancel() {
+        cancelled = true;
+        feed.remove(this);
+        pending.clear();
+        order.clear();
+        size.set(0);
+    }
+
+    /**
+     * @return number of students with a change not yet reported
+     */
+    public int getPendingCount() {
+        return size.get();
+    }
+
+    /**
+     * @return number of changes dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Buffer a change, called on the write path
+     */
+    void offer(String teacherName, Student student, double average) {
+        if (cancelled) {
+            return;
+        }
+        for (;;) {
+            PendingChange existing = pending.get(student);
+            if (existing != null) {
+                existing.average = average;
+                // still buffered, so the listener will read the new average; otherwise buffer it again
+                if (pending.get(student) == existing) {
+                    return;
+                }
+                continue;
+            }
+            if (size.incrementAndGet() > capacity) {
+                size.decrementAndGet();
+                droppedCount.incrementAndGet();
+                overflowed.set(true);
+                schedule();
+                return;
+            }
+            PendingChange created = new PendingChange(teacherName, student, average);
+            if (pending.putIfAbsent(student, created) == null) {
+                order.add(created);
+                schedule();
+                return;
+            }
+            size.decrementAndGet();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(deliver);
+        }
+    }
+
+    private void deliver() {
+        int delivered = 0;
+        PendingChange change;
+        while (!cancelled && delivered < CHANGES_PER_TURN) {
+            if (overflowed.getAndSet(false)) {
+                try {
+                    listener.changesDropped();
+                }
+                catch (RuntimeException ignored) {
+                }
+            }
+            if ((change = order.poll()) == null) {
+                break;
+            }
+            // remove before reading the average, so a later change either is read here or buffers the student again
+            pending.remove(change.student, change);
+            size.decrementAndGet();
+            try {
+                listener.averageChanged(change.teacherName, change.student.getName(), change.average);
+            }
+            catch (RuntimeException ignored) {
+            }
+            delivered++;
+        }
+        scheduled.set(false);
+        // a change buffered after the last poll but before the flag was cleared would otherwise be stranded
+        if (!cancelled && (!order.isEmpty() || overflowed.get()) && scheduled.compareAndSet(false, true)) {
+            executor.execute(deliver);
+        }
+    }
+
+    /**
+     * A student's change waiting to be reported; the average is replaced while it waits
+     */
+    private static class PendingChange {
+        final String teacherName;
+        final Student student;
+        volatile double average;
+
+        PendingChange(String teacherName, Student student, double average) {
+            this.teacherName = teacherName;
+            this.student = student;
+            this.average = average;
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package net.mbreslow.gradekeeper;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * GradeTracker service interface defines the API for the GradeTracker service
  */
@@ -28,6 +32,56 @@ public interface GradeTracker {
      */
     void recordExtraCredit(String teacherName, String studentName);
 
+    /**
+     * Record the score for an assignment once, however many times the event is delivered.  The event is dropped when
+     * the teacher recently recorded an event with the same id; see {@link ScoreEvent#getEventId()}.
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @param score score for the assignment
+     * @param eventId id the upstream system gave the event, unique per teacher
+     * @return false when the event was a duplicate and was not recorded
+     */
+    boolean recordAssignmentScore(String teacherName, String studentName, double score, String eventId);
+
+    /**
+     * Record the score for an exam once, however many times the event is delivered
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @param score score for the exam
+     * @param eventId id the upstream system gave the event, unique per teacher
+     * @return false when the event was a duplicate and was not recorded
+     */
+    boolean recordExamScore(String teacherName, String studentName, double score, String eventId);
+
+    /**
+     * Record an extra-credit for a student once, however many times the event is delivered
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @param eventId id the upstream system gave the event, unique per teacher
+     * @return false when the event was a duplicate and was not recorded
+     */
+    boolean recordExtraCredit(String teacherName, String studentName, String eventId);
+
+    /**
+     * Record a batch of scores.  Events are grouped by teacher and student so each roster and each student is looked
+     * up once and each student's scores are applied in a single update.  A row that cannot be recorded (for example
+     * because its teacher does not exist) is reported in the result and does not stop the rest of the batch.
+     * A {@link java.util.stream.Stream} can be passed as {@code stream::iterator}.  Events with an id the teacher
+     * recently recorded, in this batch or before, are dropped and counted in the result.
+     * @param events scores to record
+     * @return number of events recorded, the duplicates dropped and the rows that failed
+     */
+    BatchResult recordScores(Iterable<ScoreEvent> events);
+
+    /**
+     * Resolve a teacher/student pair once for clients that record many scores for the same students.  Like the record
+     * methods, the student is added to the teacher's class when not already in it.
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @return handle that records and reads without looking either name up again
+     */
+    StudentHandle resolveStudent(String teacherName, String studentName);
+
     /**
      * Add a new teacher to the system
      * @param name teacher's name
@@ -36,17 +90,137 @@ public interface GradeTracker {
     void addTeacher(String name, ScoringPreferences scoringPreferences);
 
     /**
-     * Update teacher's scoring preferences
+     * Update teacher's scoring preferences, adding the teacher if there is none by that name.  Returns once every
+     * average, statistic and ranking for the class reflects the new preferences.
      * @param name teacher's name
      * @param scoringPreferences teacher's scoring preferences
      */
     void updateTeacher(String name, ScoringPreferences scoringPreferences);
 
+    /**
+     * Update teacher's scoring preferences, adding the teacher if there is none by that name, and regrade the class in
+     * the background.  Queries see the class graded entirely with the old preferences until the returned future
+     * completes, and entirely with the new ones after.
+     * @param name teacher's name
+     * @param scoringPreferences teacher's scoring preferences
+     * @return completes once the class has been regraded
+     */
+    CompletableFuture<Void> updateTeacherAsync(String name, ScoringPreferences scoringPreferences);
+
     /**
      * Get the student's current weighted average
      * @param teacherName name of the teacher of the student's class
      * @param studentName name of the student
      */
     double getStudentAverage(String teacherName, String studentName);
-}
 
+    /**
+     * Get the class-level statistics for a teacher.  Maintained incrementally as scores are recorded, so the cost does
+     * not grow with the size of the class.
+     * @param teacherName name of the teacher
+     * @return number of students with scores and the average, lowest and highest weighted average
+     */
+    ClassStatistics getClassStatistics(String teacherName);
+
+    /**
+     * Get where a student stands in their class
+     * @param teacherName name of the teacher of the student's class
+     * @param studentName name of the student
+     * @return the student's rank (1 is best) and percentile rank
+     */
+    RankedStudent getStudentRank(String teacherName, String studentName);
+
+    /**
+     * Get the students with the highest weighted averages
+     * @param teacherName name of the teacher
+     * @param count maximum number of students to return
+     * @return students in descending order of weighted average
+     */
+    List<RankedStudent> getTopStudents(String teacherName, int count);
+
+    /**
+     * Get the students with the lowest weighted averages
+     * @param teacherName name of the teacher
+     * @param count maximum number of students to return
+     * @return students in ascending order of weighted average
+     */
+    List<RankedStudent> getBottomStudents(String teacherName, int count);
+
+    /**
+     * Get a percentile of a class's weighted averages, for example 90 for the 90th percentile
+     * @param teacherName name of the teacher
+     * @param percentile percentile between 0 (exclusive) and 100 (inclusive)
+     * @return smallest weighted average such that at least that percentage of the class is at or below it
+     */
+    double getPercentile(String teacherName, double percentile);
+
+    /**
+     * Stream a student's retained scores in the order they were recorded, without copying the history
+     * @param teacherName name of the teacher of the student's class
+     * @param studentName name of the student
+     * @param visitor receives each score
+     */
+    void visitStudentHistory(String teacherName, String studentName, ScoreHistoryVisitor visitor);
+
+    /**
+     * Stream the retained scores of every student in a class, one student at a time, without copying the history
+     * @param teacherName name of the teacher
+     * @param visitor receives each score
+     */
+    void visitClassHistory(String teacherName, ScoreHistoryVisitor visitor);
+
+    /**
+     * Close a teacher's active grading period, such as a quarter, and start a new one.  The period's scores are sealed
+     * into a compact, read-only segment with every average precomputed, and the class starts the new period with no
+     * scores: from then on {@link #getStudentAverage}, {@link #getClassStatistics} and the rankings cover the new
+     * period only.
+     * @param teacherName name of the teacher
+     * @param periodName name of the period being closed, unique for the teacher
+     */
+    void closeGradingPeriod(String teacherName, String periodName);
+
+    /**
+     * Get the names of a teacher's closed grading periods
+     * @param teacherName name of the teacher
+     * @return period names, oldest first
+     */
+    List<String> getGradingPeriods(String teacherName);
+
+    /**
+     * Get a student's weighted average for a closed grading period, graded with the preferences in effect when it
+     * closed
+     * @param teacherName name of the teacher of the student's class
+     * @param studentName name of the student
+     * @param periodName name of a closed period
+     * @return the student's average for the period, NaN when the student recorded nothing in it
+     */
+    double getPeriodAverage(String teacherName, String studentName, String periodName);
+
+    /**
+     * Get the class-level statistics for a closed grading period
+     * @param teacherName name of the teacher
+     * @param periodName name of a closed period
+     * @return number of students with scores in the period and the average, lowest and highest weighted average
+     */
+    ClassStatistics getPeriodStatistics(String teacherName, String periodName);
+
+    /**
+     * Get a student's weighted average over several grading periods, for example a semester made of two quarters.
+     * The periods' scores are combined, not their averages, and graded with the teacher's current preferences.
+     * @param teacherName name of the teacher of the student's class
+     * @param studentName name of the student
+     * @param periodNames names of closed periods to include
+     * @param includeCurrentPeriod whether to include the scores recorded since the last period closed
+     * @return the student's average over those periods, NaN when the student recorded nothing in them
+     */
+    double getCombinedAverage(String teacherName, String studentName, Collection<String> periodNames,
+                              boolean includeCurrentPeriod);
+
+    /**
+     * Subscribe to changes in students' weighted averages, from new scores and new scoring preferences.  Rapid changes
+     * to the same student are reported once, with the latest average; a slow listener never slows down writers.
+     * @param listener receives the changes
+     * @return the subscription, used to cancel it
+     */
+    GradeSubscription subscribe(GradeChangeListener listener);
+}
@@ -1,15 +1,199 @@
 package net.mbreslow.gradekeeper;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Service implementation class.
  */
-public class GradeTrackerImpl implements GradeTracker {
+public class GradeTrackerImpl implements ShardNode {
+    // most students with unreported changes buffered per subscription by default
+    static final int DEFAULT_SUBSCRIPTION_CAPACITY = 65536;
+
     // use a ConcurrentHashMap as multiple threads could be adding teachers and retrieving teachers concurrently
     Map<String, Teacher> teachersByName = new ConcurrentHashMap<String, Teacher>();
+    private final RosterLayout rosterLayout;
+    private final Journal journal;
+    private final boolean retainHistory;
+    // serializes teacher changes so they reach the journal in the order they were applied
+    private final Object teacherLock = new Object();
+    // keeps period closes and snapshots apart, so a snapshot never sees a teacher halfway through a close
+    private final Object periodLock = new Object();
+    private final GradeFeed feed = new GradeFeed();
+    private final GradeTrackerMetrics metrics;
+    private final RosterTier rosterTier;
+    // epochs of this service's snapshots, shared with every teacher's students
+    final VersionClock versionClock = new VersionClock();
+
+    /**
+     * Create a service that keeps one {@link Student} object per student
+     */
+    public GradeTrackerImpl() {
+        this(RosterLayout.OBJECTS);
+    }
+
+    /**
+     * Create a service with the given roster storage for every teacher
+     * @param rosterLayout how each teacher's students are stored
+     */
+    public GradeTrackerImpl(RosterLayout rosterLayout) {
+        this(builder().rosterLayout(rosterLayout));
+    }
+
+    /**
+     * @return a builder for a service with a journal, a snapshot, history, sampled metrics or a roster tier
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private GradeTrackerImpl(Builder builder) {
+        RosterLayout rosterLayout = builder.rosterLayout;
+        Journal journal = builder.journal;
+        File snapshot = builder.snapshot;
+        RosterTier rosterTier = builder.rosterTier;
+        this.metrics = new GradeTrackerMetrics(teachersByName, builder.metricsSampleEvery, rosterTier);
+        this.rosterLayout = rosterLayout;
+        this.retainHistory = builder.retainHistory;
+        this.rosterTier = rosterTier;
+        if (rosterTier != null) {
+            rosterTier.attach(teachersByName);
+        }
+        long replayFrom = journal == null ? 0 : journal.getStartPosition();
+        boolean fromSnapshot = snapshot != null && snapshot.exists();
+        if (fromSnapshot) {
+            Snapshot.Contents contents = Snapshot.read(snapshot);
+            for (Snapshot.TeacherEntry entry : contents.teachers) {
+                teachersByName.put(entry.name,
+                        configure(new Teacher(entry.name, entry.preferences, rosterLayout, entry.section)));
+            }
+            if (contents.journalPosition >= 0) {
+                replayFrom = contents.journalPosition;
+            }
+        }
+        if (journal != null) {
+            journal.replay(replayFrom, new Replayer(fromSnapshot));
+        }
+        this.journal = journal;
+        if (rosterTier != null) {
+            rosterTier.trim();
+        }
+    }
+
+    /**
+     * Collects the options of a new service.  Every option has a default, so only the ones that matter need setting.
+     * Not thread safe.
+     */
+    public static class Builder {
+        private RosterLayout rosterLayout = RosterLayout.OBJECTS;
+        private Journal journal;
+        private File snapshot;
+        private boolean retainHistory = false;
+        private int metricsSampleEvery = GradeTrackerMetrics.DEFAULT_SAMPLE_EVERY;
+        private RosterTier rosterTier;
+
+        private Builder() {
+        }
+
+        /**
+         * @param rosterLayout how each teacher's students are stored, {@link RosterLayout#OBJECTS} by default
+         */
+        public Builder rosterLayout(RosterLayout rosterLayout) {
+            assert rosterLayout != null;
+            this.rosterLayout = rosterLayout;
+            return this;
+        }
+
+        /**
+         * Journal every mutation.  The journal's existing records are replayed first, so the service starts with the
+         * state it had when the journal was last written.
+         * @param journal journal to replay and then append to, or null to keep everything in memory only
+         */
+        public Builder journal(Journal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        /**
+         * Start from a snapshot written by {@link #writeSnapshot(File)} and replay only the journal records appended
+         * after it.  Only the snapshot's directory is read up front; each teacher's students are decoded the first time
+         * the teacher is used.
+         * @param snapshot snapshot file to start from, ignored when null or missing
+         */
+        public Builder snapshot(File snapshot) {
+            this.snapshot = snapshot;
+            return this;
+        }
+
+        /**
+         * Retain every recorded score for {@link #visitStudentHistory} and {@link #visitClassHistory}.  History is kept
+         * in memory only: it is not written to snapshots and is not rebuilt from the journal.
+         * @param retainHistory whether to retain each score recorded from now on
+         */
+        public Builder retainHistory(boolean retainHistory) {
+            this.retainHistory = retainHistory;
+            return this;
+        }
+
+        /**
+         * @param metricsSampleEvery time one call in this many for {@link #getMetrics()}, a power of two; 0 turns
+         * latency recording off
+         */
+        public Builder metricsSampleEvery(int metricsSampleEvery) {
+            this.metricsSampleEvery = metricsSampleEvery;
+            return this;
+        }
+
+        /**
+         * Evict idle rosters to disk when they exceed a memory budget, and decode them again the next time they are
+         * used.  Teachers that retain history are never evicted.
+         * @param rosterTier memory budget and file store for the rosters, or null to keep every roster on the heap
+         */
+        public Builder rosterTier(RosterTier rosterTier) {
+            this.rosterTier = rosterTier;
+            return this;
+        }
+
+        /**
+         * @return the service, with the journal replayed
+         * @throws JournalError when the snapshot cannot be read
+         */
+        public GradeTrackerImpl build() {
+            return new GradeTrackerImpl(this);
+        }
+    }
+
+    /**
+     * @return the service's latency histograms, error counts, roster sizes and contention counts
+     */
+    public GradeTrackerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Write a point-in-time snapshot of every teacher and student.  Writers are not paused: scores recorded while the
+     * snapshot is written may or may not be in it, and are replayed from the journal exactly once on restart.
+     * @param file snapshot file, replaced atomically
+     * @throws JournalError when the snapshot cannot be written
+     */
+    public void writeSnapshot(File file) {
+        synchronized (periodLock) {
+            // read the journal position before any student so every score missing from the snapshot is after it
+            long journalPosition = journal == null ? -1 : journal.getPosition();
+            Snapshot.write(teachersByName, journalPosition, file);
+        }
+    }
 
     /**
      * Record the score for an assignment
@@ -18,27 +202,56 @@ public class GradeTrackerImpl implements GradeTracker {
      * @param score score for the assignment
      */
     @Override
-    public void recordAssignmentScore(String teacherName, String studentName, double score) {
-        Student student = getStudent(teacherName, studentName);
-        student.addAssignment(score);
+    public void recordAssignmentScore(final String teacherName, final String studentName, final double score) {
+        withTeacher(GradeTrackerMetrics.Operation.RECORD_ASSIGNMENT_SCORE, teacherName, true, new TeacherCall<Void>() {
+            @Override
+            Void call(Teacher teacher) {
+                applyScore(teacher, getStudent(teacher, studentName), ScoreType.ASSIGNMENT, score);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Publish a score's journal record, claimed before the score was applied, with the student's event count once it
+     * is, or as a skipped record when it could not be
+     * @param slot the record, or null when there is no journal
+     * @param totals the student's totals including the score, or null when it was not applied
+     */
+    private static void publish(Journal.Slot slot, ScoreTotals totals) {
+        if (slot == null) {
+            return;
+        }
+        if (totals == null) {
+            slot.abandon();
+        }
+        else {
+            slot.commit(totals.getEventCount());
+        }
     }
 
     /**
-     * Lookup a student for a given teacher.  If not found, create one.
+     * Lookup a teacher for recording scores
      * @param teacherName unique name of the teacher
-     * @param studentName unique name of the student
-     * @return student for the given name
+     * @return teacher for the given name
+     * @throws ObjectNotFoundError when no teacher with that name exists
      */
-    private Student getStudent(String teacherName, String studentName) {
+    private Teacher getTeacher(String teacherName) {
         Teacher teacher = teachersByName.get(teacherName);
         if (teacher == null) {
-            throw new ObjectNotFoundError("No teacher with the name " + teacherName + " exists" );
+            throw metrics.notFound(new ObjectNotFoundError("No teacher with the name " + teacherName + " exists" ));
         }
-        Student student = teacher.getStudent(studentName);
-        if (student == null) {
-            student = teacher.addStudent(studentName);
-        }
-        return student;
+        return teacher;
+    }
+
+    /**
+     * Lookup a student in a teacher's roster.  If not found, create one.
+     * @param teacher the student's teacher
+     * @param studentName unique name of the student
+     * @return student for the given name
+     */
+    private Student getStudent(Teacher teacher, String studentName) {
+        return teacher.getOrAddStudent(studentName);
     }
 
     /**
@@ -48,9 +261,14 @@ public class GradeTrackerImpl implements GradeTracker {
      * @param score score for the assignment
      */
     @Override
-    public void recordExamScore(String teacherName, String studentName, double score) {
-        Student student = getStudent(teacherName, studentName);
-        student.addExam(score);
+    public void recordExamScore(final String teacherName, final String studentName, final double score) {
+        withTeacher(GradeTrackerMetrics.Operation.RECORD_EXAM_SCORE, teacherName, true, new TeacherCall<Void>() {
+            @Override
+            Void call(Teacher teacher) {
+                applyScore(teacher, getStudent(teacher, studentName), ScoreType.EXAM, score);
+                return null;
+            }
+        });
     }
 
     /**
@@ -59,9 +277,473 @@ public class GradeTrackerImpl implements GradeTracker {
      * @param studentName unique name of the student
      */
     @Override
-    public void recordExtraCredit(String teacherName, String studentName) {
-        Student student = getStudent(teacherName, studentName);
-        student.addExtraCredit();
+    public void recordExtraCredit(final String teacherName, final String studentName) {
+        withTeacher(GradeTrackerMetrics.Operation.RECORD_EXTRA_CREDIT, teacherName, true, new TeacherCall<Void>() {
+            @Override
+            Void call(Teacher teacher) {
+                applyScore(teacher, getStudent(teacher, studentName), ScoreType.EXTRA_CREDIT, 0);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Record the score for an assignment unless the teacher recently recorded an event with the same id
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @param score score for the assignment
+     * @param eventId id the upstream system gave the event
+     * @return false when the event was a duplicate
+     */
+    @Override
+    public boolean recordAssignmentScore(final String teacherName, final String studentName, final double score,
+                                         final String eventId) {
+        return withTeacher(GradeTrackerMetrics.Operation.RECORD_ASSIGNMENT_SCORE, teacherName, true,
+                new TeacherCall<Boolean>() {
+                    @Override
+                    Boolean call(Teacher teacher) {
+                        return applyEvent(teacher, studentName, ScoreType.ASSIGNMENT, score, eventId);
+                    }
+                });
+    }
+
+    /**
+     * Record the score for an exam unless the teacher recently recorded an event with the same id
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @param score score for the exam
+     * @param eventId id the upstream system gave the event
+     * @return false when the event was a duplicate
+     */
+    @Override
+    public boolean recordExamScore(final String teacherName, final String studentName, final double score,
+                                   final String eventId) {
+        return withTeacher(GradeTrackerMetrics.Operation.RECORD_EXAM_SCORE, teacherName, true,
+                new TeacherCall<Boolean>() {
+                    @Override
+                    Boolean call(Teacher teacher) {
+                        return applyEvent(teacher, studentName, ScoreType.EXAM, score, eventId);
+                    }
+                });
+    }
+
+    /**
+     * Record an extra-credit unless the teacher recently recorded an event with the same id
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @param eventId id the upstream system gave the event
+     * @return false when the event was a duplicate
+     */
+    @Override
+    public boolean recordExtraCredit(final String teacherName, final String studentName, final String eventId) {
+        return withTeacher(GradeTrackerMetrics.Operation.RECORD_EXTRA_CREDIT, teacherName, true,
+                new TeacherCall<Boolean>() {
+                    @Override
+                    Boolean call(Teacher teacher) {
+                        return applyEvent(teacher, studentName, ScoreType.EXTRA_CREDIT, 0, eventId);
+                    }
+                });
+    }
+
+    /**
+     * Apply a score that came with an event id, journaling the id with it.  When the score cannot be applied, because
+     * the student cannot be added or the journal cannot take the record, the id is forgotten again so a retry is
+     * recorded rather than dropped.
+     * @return false when the teacher's window already has the id
+     */
+    private boolean applyEvent(Teacher teacher, String studentName, ScoreType type, double score, String eventId) {
+        if (eventId == null) {
+            throw new IllegalArgumentException("Event id is null");
+        }
+        EventWindow window = teacher.getEventWindow();
+        if (!window.accept(eventId)) {
+            metrics.duplicate();
+            return false;
+        }
+        Student student;
+        try {
+            student = getStudent(teacher, studentName);
+        }
+        catch (RuntimeException e) {
+            window.forget(eventId);
+            throw e;
+        }
+        if (journal == null) {
+            addScore(teacher, student, type, score);
+        }
+        else {
+            teacher.beginJournaledWrite();
+            try {
+                Journal.Slot slot;
+                try {
+                    slot = journal.claimScores(teacher.getName(), student.getName(),
+                            type.applyTo(ScoreTotals.EMPTY, score), Collections.singletonList(eventId));
+                }
+                catch (RuntimeException e) {
+                    window.forget(eventId);
+                    throw e;
+                }
+                addScore(teacher, student, type, score, slot);
+            }
+            finally {
+                teacher.endJournaledWrite();
+            }
+        }
+        teacher.recordHistory(student, type, score);
+        teacher.studentChanged(student);
+        return true;
+    }
+
+    /**
+     * Resolve a teacher/student pair once, adding the student if not found
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @return handle that records and reads without looking either name up again
+     * @throws ObjectNotFoundError when teacher not found
+     */
+    @Override
+    public StudentHandle resolveStudent(final String teacherName, final String studentName) {
+        return withTeacher(GradeTrackerMetrics.Operation.RESOLVE_STUDENT, teacherName, true,
+                new TeacherCall<StudentHandle>() {
+                    @Override
+                    StudentHandle call(Teacher teacher) {
+                        return new StudentHandle(GradeTrackerImpl.this, teacher, getStudent(teacher, studentName));
+                    }
+                });
+    }
+
+    void recordScore(final StudentHandle handle, final ScoreType type, final double score) {
+        GradeTrackerMetrics.Operation operation = type == ScoreType.ASSIGNMENT
+                ? GradeTrackerMetrics.Operation.RECORD_ASSIGNMENT_SCORE
+                : type == ScoreType.EXAM ? GradeTrackerMetrics.Operation.RECORD_EXAM_SCORE
+                : GradeTrackerMetrics.Operation.RECORD_EXTRA_CREDIT;
+        withTeacher(operation, handle, new TeacherCall<Void>() {
+            @Override
+            Void call(Teacher teacher) {
+                applyScore(teacher, handle.student(), type, score);
+                return null;
+            }
+        });
+    }
+
+    double getAverage(final StudentHandle handle) {
+        return withTeacher(GradeTrackerMetrics.Operation.GET_STUDENT_AVERAGE, handle, new TeacherCall<Double>() {
+            @Override
+            Double call(Teacher teacher) {
+                return handle.student().getWeightedAverage(teacher.getScoringPreferences());
+            }
+        });
+    }
+
+    RankedStudent getRank(final StudentHandle handle) {
+        return withTeacher(GradeTrackerMetrics.Operation.GET_STUDENT_RANK, handle, new TeacherCall<RankedStudent>() {
+            @Override
+            RankedStudent call(Teacher teacher) {
+                RankedStudent rank = teacher.getRank(handle.student());
+                if (rank == null) {
+                    throw metrics.notFound(new ObjectNotFoundError("No student found for name " + handle.getStudentName() + " for teacher " + handle.getTeacherName()));
+                }
+                return rank;
+            }
+        });
+    }
+
+    private void checkRemoved(StudentHandle handle) {
+        if (handle.teacher.isRemoved()) {
+            throw metrics.notFound(new ObjectNotFoundError("No teacher found for name " + handle.getTeacherName()));
+        }
+    }
+
+    /**
+     * Body of an operation on one teacher's class, run by {@link #withTeacher}
+     */
+    private abstract static class TeacherCall<T> {
+        abstract T call(Teacher teacher);
+    }
+
+    /**
+     * Time an operation on a teacher's class and keep the teacher's roster pinned while it runs
+     * @param recording whether the operation records scores, which report a missing teacher in their own words
+     * @throws ObjectNotFoundError when teacher not found
+     */
+    private <T> T withTeacher(GradeTrackerMetrics.Operation operation, String teacherName, boolean recording,
+                              TeacherCall<T> call) {
+        long start = metrics.start();
+        Teacher teacher = null;
+        try {
+            teacher = pin(recording ? getTeacher(teacherName) : findTeacher(teacherName));
+            return call.call(teacher);
+        }
+        finally {
+            unpin(teacher);
+            metrics.finish(operation, start);
+        }
+    }
+
+    /**
+     * Time an operation on the class of a resolved student and keep the teacher's roster pinned while it runs
+     * @throws ObjectNotFoundError when the teacher has been removed from this service
+     */
+    private <T> T withTeacher(GradeTrackerMetrics.Operation operation, StudentHandle handle, TeacherCall<T> call) {
+        long start = metrics.start();
+        pin(handle.teacher);
+        try {
+            checkRemoved(handle);
+            return call.call(handle.teacher);
+        }
+        finally {
+            unpin(handle.teacher);
+            metrics.finish(operation, start);
+        }
+    }
+
+        /**
+     * Hold off eviction of a teacher's roster while an operation uses its students
+     * @param teacher the teacher
+     * @return the teacher
+     */
+    private Teacher pin(Teacher teacher) {
+        if (rosterTier != null) {
+            teacher.pin();
+        }
+        return teacher;
+    }
+
+    /**
+     * @param teacher a teacher pinned by {@link #pin(Teacher)}, or null when the operation failed before pinning one
+     */
+    private void unpin(Teacher teacher) {
+        if (rosterTier != null && teacher != null) {
+            teacher.unpin();
+        }
+    }
+
+    /**
+     * Record a score for a resolved student: journal it, retain it and account for it in the class averages
+     * @param teacher the student's teacher
+     * @param student the student
+     * @param type kind of score
+     * @param score score (percentage), ignored for extra credit
+     */
+    private void applyScore(Teacher teacher, Student student, ScoreType type, double score) {
+        if (journal == null) {
+            addScore(teacher, student, type, score);
+        }
+        else {
+            // a period close cannot come between the score and its record
+            teacher.beginJournaledWrite();
+            try {
+                addScore(teacher, student, type, score,
+                        journal.claimScore(journalType(type), teacher.getName(), student.getName(), score));
+            }
+            finally {
+                teacher.endJournaledWrite();
+            }
+        }
+        teacher.recordHistory(student, type, score);
+        teacher.studentChanged(student);
+    }
+
+    private static ScoreTotals addScore(Teacher teacher, Student student, ScoreType type, double score) {
+        switch (type) {
+            case ASSIGNMENT:
+                return student.addAssignment(score, teacher.getClock(), teacher.getContendedUpdates());
+            case EXAM:
+                return student.addExam(score, teacher.getClock(), teacher.getContendedUpdates());
+            default:
+                return student.addExtraCredit(teacher.getClock(), teacher.getContendedUpdates());
+        }
+    }
+
+    /**
+     * Apply a score under the journal record claimed for it, see {@link #publish(Journal.Slot, ScoreTotals)}
+     */
+    private static void addScore(Teacher teacher, Student student, ScoreType type, double score, Journal.Slot slot) {
+        ScoreTotals totals = null;
+        try {
+            totals = addScore(teacher, student, type, score);
+        }
+        finally {
+            publish(slot, totals);
+        }
+    }
+
+    private static byte journalType(ScoreType type) {
+        switch (type) {
+            case ASSIGNMENT:
+                return Journal.ASSIGNMENT;
+            case EXAM:
+                return Journal.EXAM;
+            default:
+                return Journal.EXTRA_CREDIT;
+        }
+    }
+
+    /**
+     * Record a batch of scores, resolving each teacher and student once and applying each student's scores in a
+     * single update
+     * @param events scores to record
+     * @return number of events recorded and the rows that failed
+     */
+    @Override
+    public BatchResult recordScores(Iterable<ScoreEvent> events) {
+        long start = metrics.start();
+        Map<String, TeacherBatch> batchesByTeacher = new HashMap<String, TeacherBatch>();
+        try {
+            BatchResult result = new BatchResult();
+            int index = 0;
+            for (ScoreEvent event : events) {
+                try {
+                    if (event == null || event.getTeacherName() == null || event.getStudentName() == null) {
+                        throw new IllegalArgumentException("Score events must name a teacher and a student: " + event);
+                    }
+                    TeacherBatch batch = batchesByTeacher.get(event.getTeacherName());
+                    if (batch == null) {
+                        Teacher teacher = teachersByName.get(event.getTeacherName());
+                        batch = new TeacherBatch(teacher == null ? null : pin(teacher));
+                        batchesByTeacher.put(event.getTeacherName(), batch);
+                    }
+                    if (batch.teacher == null) {
+                        throw metrics.notFound(new ObjectNotFoundError("No teacher with the name " + event.getTeacherName() + " exists" ));
+                    }
+                    // before the id is taken, so a row whose student cannot be added is not remembered
+                    batch.resolve(event.getStudentName());
+                    if (event.getEventId() != null && !batch.teacher.getEventWindow().accept(event.getEventId())) {
+                        metrics.duplicate();
+                        result.duplicates(1);
+                    }
+                    else {
+                        batch.add(event);
+                    }
+                }
+                catch (RuntimeException e) {
+                    result.failed(index, event, e);
+                }
+                index++;
+            }
+
+            try {
+                applyBatches(batchesByTeacher.values(), result);
+            }
+            catch (RuntimeException e) {
+                // the journal could not take a record: forget the ids of the scores not applied, so a retry of the
+                // batch records them and drops the rest as duplicates
+                for (TeacherBatch batch : batchesByTeacher.values()) {
+                    if (batch.teacher != null) {
+                        for (List<String> eventIds : batch.eventIdsByStudent.values()) {
+                            for (String eventId : eventIds) {
+                                batch.teacher.getEventWindow().forget(eventId);
+                            }
+                        }
+                    }
+                }
+                throw e;
+            }
+            return result;
+        }
+        finally {
+            for (TeacherBatch batch : batchesByTeacher.values()) {
+                unpin(batch.teacher);
+            }
+            metrics.finish(GradeTrackerMetrics.Operation.RECORD_SCORES, start);
+        }
+    }
+
+    /**
+     * Apply each student's summed scores in a single update, dropping the student's event ids from its batch once
+     * they are applied
+     */
+    private void applyBatches(Collection<TeacherBatch> batches, BatchResult result) {
+        for (TeacherBatch batch : batches) {
+            if (batch.teacher == null) {
+                continue;
+            }
+            for (Map.Entry<String, ScoreTotals> entry : batch.deltasByStudent.entrySet()) {
+                Student student = batch.studentsByName.get(entry.getKey());
+                ScoreTotals delta = entry.getValue();
+                if (journal == null) {
+                    student.addTotals(delta, batch.teacher.getClock(), batch.teacher.getContendedUpdates());
+                    batch.eventIdsByStudent.remove(entry.getKey());
+                }
+                else {
+                    batch.teacher.beginJournaledWrite();
+                    try {
+                        Journal.Slot slot = journal.claimScores(batch.teacher.getName(), entry.getKey(), delta,
+                                batch.eventIdsByStudent.get(entry.getKey()));
+                        ScoreTotals totals = null;
+                        try {
+                            totals = student.addTotals(delta, batch.teacher.getClock(),
+                                    batch.teacher.getContendedUpdates());
+                            batch.eventIdsByStudent.remove(entry.getKey());
+                        }
+                        finally {
+                            publish(slot, totals);
+                        }
+                    }
+                    finally {
+                        batch.teacher.endJournaledWrite();
+                    }
+                }
+                List<ScoreEvent> retained = batch.eventsByStudent.get(entry.getKey());
+                if (retained != null) {
+                    for (ScoreEvent event : retained) {
+                        batch.teacher.recordHistory(student, event.getType(), event.getScore());
+                    }
+                }
+                batch.teacher.studentChanged(student);
+                result.applied(delta.getEventCount());
+            }
+        }
+    }
+
+    /**
+     * Scores from one batch for a single teacher, summed per student.  When the teacher retains history, each student's
+     * events are also kept in order, and each student's event ids are kept for the journal.
+     */
+    private static class TeacherBatch {
+        private final Teacher teacher;
+        private final Map<String, Student> studentsByName = new HashMap<String, Student>();
+        private final Map<String, ScoreTotals> deltasByStudent = new HashMap<String, ScoreTotals>();
+        private final Map<String, List<ScoreEvent>> eventsByStudent = new HashMap<String, List<ScoreEvent>>();
+        private final Map<String, List<String>> eventIdsByStudent = new HashMap<String, List<String>>();
+
+        TeacherBatch(Teacher teacher) {
+            this.teacher = teacher;
+        }
+
+        /**
+         * Look up a student once per batch, adding it if not found
+         */
+        void resolve(String studentName) {
+            if (!studentsByName.containsKey(studentName)) {
+                studentsByName.put(studentName, teacher.getOrAddStudent(studentName));
+            }
+        }
+
+        void add(ScoreEvent event) {
+            ScoreTotals delta = deltasByStudent.get(event.getStudentName());
+            if (delta == null) {
+                // keeps the batch's lowest scores when the teacher's policy drops some
+                delta = teacher.getEmptyTotals();
+            }
+            deltasByStudent.put(event.getStudentName(), event.getType().applyTo(delta, event.getScore()));
+            if (teacher.getHistory() != null) {
+                List<ScoreEvent> events = eventsByStudent.get(event.getStudentName());
+                if (events == null) {
+                    events = new ArrayList<ScoreEvent>();
+                    eventsByStudent.put(event.getStudentName(), events);
+                }
+                events.add(event);
+            }
+            if (event.getEventId() != null) {
+                List<String> eventIds = eventIdsByStudent.get(event.getStudentName());
+                if (eventIds == null) {
+                    eventIds = new ArrayList<String>();
+                    eventIdsByStudent.put(event.getStudentName(), eventIds);
+                }
+                eventIds.add(event.getEventId());
+            }
+        }
     }
 
     /**
@@ -71,52 +753,668 @@ public class GradeTrackerImpl implements GradeTracker {
      */
     @Override
     public void addTeacher(String name, ScoringPreferences scoringPreferences) {
-        assert scoringPreferences != null;
-        if (teachersByName.containsKey(name)) {
-            throw new NameCollisionError("Unable to add a teacher named " + name + " because one already exists.  Use unique names.");
+        long start = metrics.start();
+        try {
+            assert scoringPreferences != null;
+            synchronized (teacherLock) {
+                if (teachersByName.containsKey(name)) {
+                    throw metrics.collision(new NameCollisionError("Unable to add a teacher named " + name + " because one already exists.  Use unique names."));
+                }
+                Teacher teacher = newTeacher(name, scoringPreferences);
+                teachersByName.put(name, teacher);
+                if (journal != null) {
+                    journal.appendTeacher(Journal.ADD_TEACHER, name, scoringPreferences);
+                }
+            }
         }
-        Teacher teacher = new Teacher(name, scoringPreferences);
-        teachersByName.put(name, teacher);
+        finally {
+            metrics.finish(GradeTrackerMetrics.Operation.ADD_TEACHER, start);
+        }
+    }
+
+    private Teacher newTeacher(String name, ScoringPreferences scoringPreferences) {
+        return configure(new Teacher(name, scoringPreferences, rosterLayout));
+    }
+
+    private Teacher configure(Teacher teacher) {
+        teacher.publishChangesTo(feed);
+        teacher.countContentionIn(metrics.contendedStudentUpdates());
+        teacher.useClock(versionClock);
+        if (retainHistory) {
+            teacher.retainHistory();
+        }
+        if (rosterTier != null) {
+            teacher.useTier(rosterTier);
+        }
+        return teacher;
     }
 
     /**
-     * Update teacher's scoring preferences
+     * Update a teacher's scoring preferences, or add the teacher if there is none by that name.  Returns once the
+     * teacher's class has been regraded with the new preferences.
      * @param name teacher's name
      * @param scoringPreferences teacher's scoring preferences
      */
     @Override
     public void updateTeacher(String name, ScoringPreferences scoringPreferences) {
-        Teacher teacher = teachersByName.get(name);
-        if (teacher == null) {
-            teacher = new Teacher(name, scoringPreferences);
+        long start = metrics.start();
+        try {
+            updateTeacherAndWait(name, scoringPreferences);
         }
-        else {
-            teacher.setScoringPreferences(scoringPreferences);
+        finally {
+            metrics.finish(GradeTrackerMetrics.Operation.UPDATE_TEACHER, start);
+        }
+    }
+
+    private void updateTeacherAndWait(String name, ScoringPreferences scoringPreferences) {
+        try {
+            applyTeacherUpdate(name, scoringPreferences).join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
     }
 
     /**
-     * Get the student's current weighted average
-     *
+     * Update a teacher's scoring preferences, or add the teacher if there is none by that name, without waiting for
+     * the class to be regraded.  Until the returned future completes, queries for the class answer with the old
+     * preferences; then they all switch to the new ones.
+     * @param name teacher's name
+     * @param scoringPreferences teacher's scoring preferences
+     * @return completes once the class has been regraded with the new preferences
+     */
+    @Override
+    public CompletableFuture<Void> updateTeacherAsync(String name, ScoringPreferences scoringPreferences) {
+        long start = metrics.start();
+        try {
+            return applyTeacherUpdate(name, scoringPreferences);
+        }
+        finally {
+            metrics.finish(GradeTrackerMetrics.Operation.UPDATE_TEACHER_ASYNC, start);
+        }
+    }
+
+    private CompletableFuture<Void> applyTeacherUpdate(String name, ScoringPreferences scoringPreferences) {
+        assert scoringPreferences != null;
+        synchronized (teacherLock) {
+            Teacher teacher = teachersByName.get(name);
+            CompletableFuture<Void> regraded;
+            if (teacher == null) {
+                teachersByName.put(name, newTeacher(name, scoringPreferences));
+                regraded = CompletableFuture.completedFuture(null);
+            }
+            else {
+                regraded = teacher.setScoringPreferencesAsync(scoringPreferences);
+            }
+            if (journal != null) {
+                journal.appendTeacher(Journal.UPDATE_TEACHER, name, scoringPreferences);
+            }
+            return regraded;
+        }
+    }
+
+    /**
+     * Get the class-level statistics for a teacher
+     * @param teacherName name of the teacher
+     * @return number of students with scores and the average, lowest and highest weighted average
+     * @throws ObjectNotFoundError when teacher not found
+     */
+    @Override
+    public ClassStatistics getClassStatistics(final String teacherName) {
+        return withTeacher(GradeTrackerMetrics.Operation.GET_CLASS_STATISTICS, teacherName, false,
+                new TeacherCall<ClassStatistics>() {
+                    @Override
+                    ClassStatistics call(Teacher teacher) {
+                        return teacher.getClassStatistics();
+                    }
+                });
+    }
+
+    /**
+     * Get where a student stands in their class
      * @param teacherName name of the teacher of the student's class
      * @param studentName name of the student
+     * @return the student's rank (1 is best) and percentile rank
      * @throws ObjectNotFoundError when teacher or student not found
      */
     @Override
-    public double getStudentAverage(String teacherName, String studentName) {
+    public RankedStudent getStudentRank(final String teacherName, final String studentName) {
+        return withTeacher(GradeTrackerMetrics.Operation.GET_STUDENT_RANK, teacherName, false,
+                new TeacherCall<RankedStudent>() {
+                    @Override
+                    RankedStudent call(Teacher teacher) {
+                        Student student = teacher.getStudent(studentName);
+                        RankedStudent rank = student == null ? null : teacher.getRank(student);
+                        if (rank == null) {
+                            throw metrics.notFound(new ObjectNotFoundError("No student found for name " + studentName + " for teacher " + teacherName));
+                        }
+                        return rank;
+                    }
+                });
+    }
+
+    /**
+     * Get the students with the highest weighted averages
+     * @param teacherName name of the teacher
+     * @param count maximum number of students to return
+     * @return students in descending order of weighted average
+     * @throws ObjectNotFoundError when teacher not found
+     * @throws IllegalArgumentException when count is negative
+     */
+    @Override
+    public List<RankedStudent> getTopStudents(final String teacherName, final int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count (" + count + ") must not be negative");
+        }
+        return withTeacher(GradeTrackerMetrics.Operation.GET_TOP_STUDENTS, teacherName, false,
+                new TeacherCall<List<RankedStudent>>() {
+                    @Override
+                    List<RankedStudent> call(Teacher teacher) {
+                        return teacher.getTopStudents(count);
+                    }
+                });
+    }
+
+    /**
+     * Get the students with the lowest weighted averages
+     * @param teacherName name of the teacher
+     * @param count maximum number of students to return
+     * @return students in ascending order of weighted average
+     * @throws ObjectNotFoundError when teacher not found
+     * @throws IllegalArgumentException when count is negative
+     */
+    @Override
+    public List<RankedStudent> getBottomStudents(final String teacherName, final int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count (" + count + ") must not be negative");
+        }
+        return withTeacher(GradeTrackerMetrics.Operation.GET_BOTTOM_STUDENTS, teacherName, false,
+                new TeacherCall<List<RankedStudent>>() {
+                    @Override
+                    List<RankedStudent> call(Teacher teacher) {
+                        return teacher.getBottomStudents(count);
+                    }
+                });
+    }
+
+    /**
+     * Get a percentile of a class's weighted averages
+     * @param teacherName name of the teacher
+     * @param percentile percentile between 0 (exclusive) and 100 (inclusive)
+     * @return smallest weighted average such that at least that percentage of the class is at or below it
+     * @throws ObjectNotFoundError when teacher not found
+     * @throws IllegalArgumentException when percentile is out of range
+     */
+    @Override
+    public double getPercentile(final String teacherName, final double percentile) {
+        if (!(percentile > 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("percentile (" + percentile + ") must be greater than 0 and at most 100");
+        }
+        return withTeacher(GradeTrackerMetrics.Operation.GET_PERCENTILE, teacherName, false, new TeacherCall<Double>() {
+            @Override
+            Double call(Teacher teacher) {
+                return teacher.getPercentile(percentile);
+            }
+        });
+    }
+
+    /**
+     * Stream a student's retained scores, oldest first
+     * @param teacherName name of the teacher of the student's class
+     * @param studentName name of the student
+     * @param visitor receives each score
+     * @throws ObjectNotFoundError when teacher or student not found
+     * @throws IllegalStateException when the service was not created to retain history
+     */
+    @Override
+    public void visitStudentHistory(final String teacherName, final String studentName,
+                                    final ScoreHistoryVisitor visitor) {
+        withTeacher(GradeTrackerMetrics.Operation.VISIT_STUDENT_HISTORY, teacherName, false, new TeacherCall<Void>() {
+            @Override
+            Void call(Teacher teacher) {
+                Student student = teacher.getStudent(studentName);
+                if (student == null) {
+                    throw metrics.notFound(new ObjectNotFoundError("No student found for name " + studentName + " for teacher " + teacherName));
+                }
+                teacher.visitHistory(student, visitor);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stream the retained scores of every student in a class
+     * @param teacherName name of the teacher
+     * @param visitor receives each score, one student at a time
+     * @throws ObjectNotFoundError when teacher not found
+     * @throws IllegalStateException when the service was not created to retain history
+     */
+    @Override
+    public void visitClassHistory(final String teacherName, final ScoreHistoryVisitor visitor) {
+        withTeacher(GradeTrackerMetrics.Operation.VISIT_CLASS_HISTORY, teacherName, false, new TeacherCall<Void>() {
+            @Override
+            Void call(Teacher teacher) {
+                teacher.visitHistory(visitor);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Lookup a teacher for a query
+     * @param teacherName unique name of the teacher
+     * @return teacher for the given name
+     * @throws ObjectNotFoundError when no teacher with that name exists
+     */
+    private Teacher findTeacher(String teacherName) {
         Teacher teacher = teachersByName.get(teacherName);
         if (teacher == null) {
-            throw new ObjectNotFoundError("No teacher found for name " + teacherName);
+            throw metrics.notFound(new ObjectNotFoundError("No teacher found for name " + teacherName));
         }
+        return teacher;
+    }
+
+    /**
+     * Get the student's current weighted average
+     *
+     * @param teacherName name of the teacher of the student's class
+     * @param studentName name of the student
+     * @throws ObjectNotFoundError when teacher or student not found
+     */
+    @Override
+    public double getStudentAverage(final String teacherName, final String studentName) {
+        return withTeacher(GradeTrackerMetrics.Operation.GET_STUDENT_AVERAGE, teacherName, false,
+                new TeacherCall<Double>() {
+                    @Override
+                    Double call(Teacher teacher) {
+                        Student student = teacher.getStudent(studentName);
+                        if (student == null) {
+                            throw metrics.notFound(new ObjectNotFoundError("No student found for name " + studentName + " for teacher " + teacherName));
+                        }
+                        ScoringPreferences preferences = teacher.getScoringPreferences();
+                        return student.getWeightedAverage(preferences);
+                    }
+                });
+    }
+
+    /**
+     * Close a teacher's active grading period.  Scores recorded concurrently land in exactly one of the two periods;
+     * with a journal, writers to the teacher wait while the students' totals are sealed and the close is appended.
+     * @param teacherName name of the teacher
+     * @param periodName name of the period being closed, unique for the teacher
+     * @throws ObjectNotFoundError when teacher not found
+     * @throws NameCollisionError when the teacher already has a period by that name
+     */
+    @Override
+    public void closeGradingPeriod(final String teacherName, final String periodName) {
+        assert periodName != null;
+        withTeacher(GradeTrackerMetrics.Operation.CLOSE_GRADING_PERIOD, teacherName, false, new TeacherCall<Void>() {
+            @Override
+            Void call(Teacher teacher) {
+                synchronized (periodLock) {
+                    if (teacher.getPeriod(periodName) != null) {
+                        throw metrics.collision(new NameCollisionError("Teacher " + teacherName + " already has a grading period named " + periodName));
+                    }
+                    teacher.sealPeriod(periodName, journal);
+                }
+                teacher.recountActivePeriod();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Get the names of a teacher's closed grading periods
+     * @param teacherName name of the teacher
+     * @return period names, oldest first
+     * @throws ObjectNotFoundError when teacher not found
+     */
+    @Override
+    public List<String> getGradingPeriods(final String teacherName) {
+        return withTeacher(GradeTrackerMetrics.Operation.GET_GRADING_PERIODS, teacherName, false,
+                new TeacherCall<List<String>>() {
+                    @Override
+                    List<String> call(Teacher teacher) {
+                        return teacher.getPeriodNames();
+                    }
+                });
+    }
+
+    /**
+     * Get a student's weighted average for a closed grading period
+     * @param teacherName name of the teacher of the student's class
+     * @param studentName name of the student
+     * @param periodName name of a closed period
+     * @return the average precomputed when the period closed, NaN when the student recorded nothing in it
+     * @throws ObjectNotFoundError when teacher, student or period not found
+     */
+    @Override
+    public double getPeriodAverage(final String teacherName, final String studentName, final String periodName) {
+        return withTeacher(GradeTrackerMetrics.Operation.GET_PERIOD_AVERAGE, teacherName, false,
+                new TeacherCall<Double>() {
+                    @Override
+                    Double call(Teacher teacher) {
+                        Student student = findStudent(teacher, teacherName, studentName);
+                        return findPeriod(teacher, teacherName, periodName).getAverage(student.getId());
+                    }
+                });
+    }
+
+    /**
+     * Get the class-level statistics for a closed grading period
+     * @param teacherName name of the teacher
+     * @param periodName name of a closed period
+     * @return statistics precomputed when the period closed
+     * @throws ObjectNotFoundError when teacher or period not found
+     */
+    @Override
+    public ClassStatistics getPeriodStatistics(final String teacherName, final String periodName) {
+        return withTeacher(GradeTrackerMetrics.Operation.GET_PERIOD_STATISTICS, teacherName, false,
+                new TeacherCall<ClassStatistics>() {
+                    @Override
+                    ClassStatistics call(Teacher teacher) {
+                        return findPeriod(teacher, teacherName, periodName).getStatistics();
+                    }
+                });
+    }
+
+    /**
+     * Get a student's weighted average over several grading periods, for example a semester made of two quarters
+     * @param teacherName name of the teacher of the student's class
+     * @param studentName name of the student
+     * @param periodNames names of closed periods to include
+     * @param includeCurrentPeriod whether to include the scores recorded since the last period closed
+     * @return average over every score in those periods, graded with the teacher's current preferences; NaN when the
+     * student recorded nothing in them
+     * @throws ObjectNotFoundError when teacher, student or a period not found
+     */
+    @Override
+    public double getCombinedAverage(final String teacherName, final String studentName,
+                                     final Collection<String> periodNames, final boolean includeCurrentPeriod) {
+        return withTeacher(GradeTrackerMetrics.Operation.GET_COMBINED_AVERAGE, teacherName, false,
+                new TeacherCall<Double>() {
+                    @Override
+                    Double call(Teacher teacher) {
+                        Student student = findStudent(teacher, teacherName, studentName);
+                        List<PeriodSegment> periods = new ArrayList<PeriodSegment>(periodNames.size());
+                        for (String periodName : periodNames) {
+                            periods.add(findPeriod(teacher, teacherName, periodName));
+                        }
+                        return teacher.getCombinedAverage(student, periods, includeCurrentPeriod);
+                    }
+                });
+    }
+
+    private Student findStudent(Teacher teacher, String teacherName, String studentName) {
         Student student = teacher.getStudent(studentName);
         if (student == null) {
-            throw new ObjectNotFoundError("No student found for name " + studentName + " for teacher " + teacherName);
+            throw metrics.notFound(new ObjectNotFoundError("No student found for name " + studentName + " for teacher " + teacherName));
+        }
+        return student;
+    }
+
+    private PeriodSegment findPeriod(Teacher teacher, String teacherName, String periodName) {
+        PeriodSegment period = teacher.getPeriod(periodName);
+        if (period == null) {
+            throw metrics.notFound(new ObjectNotFoundError("No grading period named " + periodName + " for teacher " + teacherName));
+        }
+        return period;
+    }
+
+    /**
+     * @return names of every teacher, in ascending order
+     */
+    @Override
+    public List<String> getTeacherNames() {
+        List<String> names = new ArrayList<String>(teachersByName.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Open a point-in-time view of every teacher.  Writers carry on while it is read; close it when done.
+     * @return the snapshot
+     */
+    public GradeSnapshot openSnapshot() {
+        Map<String, Teacher> teachers = new TreeMap<String, Teacher>();
+        for (Map.Entry<String, Teacher> entry : teachersByName.entrySet()) {
+            entry.getValue().pin();
+            teachers.put(entry.getKey(), entry.getValue());
+        }
+        return new GradeSnapshot(versionClock, teachers);
+    }
+
+    /**
+     * Open a point-in-time view of one teacher.  Writers carry on while it is read; close it when done.
+     * @param teacherName name of the teacher
+     * @return the snapshot
+     * @throws ObjectNotFoundError when teacher not found
+     */
+    public GradeSnapshot openSnapshot(String teacherName) {
+        Teacher teacher = findTeacher(teacherName);
+        teacher.pin();
+        return new GradeSnapshot(versionClock, Collections.singletonMap(teacherName, teacher));
+    }
+
+    /**
+     * Encode a teacher for {@link #importTeacher(byte[])} on another service, in the snapshot's section encoding
+     * @param teacherName name of the teacher
+     * @return the teacher's latest scoring preferences, students and sealed grading periods
+     * @throws ObjectNotFoundError when teacher not found
+     */
+    @Override
+    public byte[] exportTeacher(String teacherName) {
+        Teacher teacher = null;
+        // like a snapshot, the export must not run while a grading period is being closed
+        synchronized (periodLock) {
+            try {
+                teacher = pin(findTeacher(teacherName));
+                return Snapshot.writeTeacher(teacherName, teacher.getLatestScoringPreferences(), teacher.getStudents(),
+                        teacher.getPeriods());
+            }
+            finally {
+                unpin(teacher);
+            }
+        }
+    }
+
+    /**
+     * Add a teacher exported by another service.  Without a journal the students are decoded the first time the
+     * teacher is used, like a snapshot's; with one, every student's totals for each period are journaled so the
+     * teacher survives a restart.
+     * @param encoded bytes returned by {@link #exportTeacher(String)}
+     * @throws NameCollisionError when there already is a teacher by that name
+     * @throws JournalError when the bytes are not an exported teacher
+     */
+    @Override
+    public void importTeacher(byte[] encoded) {
+        Snapshot.TeacherEntry entry = Snapshot.readTeacher(encoded);
+        synchronized (periodLock) {
+            synchronized (teacherLock) {
+                if (teachersByName.containsKey(entry.name)) {
+                    throw metrics.collision(new NameCollisionError("Unable to import a teacher named " + entry.name + " because one already exists."));
+                }
+                Teacher teacher = configure(new Teacher(entry.name, entry.preferences, rosterLayout, entry.section));
+                if (journal != null) {
+                    journalImport(teacher);
+                }
+                teachersByName.put(entry.name, teacher);
+            }
+        }
+    }
+
+    /**
+     * Journal an imported teacher as the records that rebuild it: each sealed period's totals followed by its close,
+     * with the preferences it was sealed with, then the active period's totals
+     * @param teacher the imported teacher, not yet visible to other threads
+     */
+    private void journalImport(Teacher teacher) {
+        String name = teacher.getName();
+        Collection<Student> students = teacher.getStudents();
+        PeriodSegment[] periods = teacher.getPeriods();
+        ScoringPreferences preferences = periods.length > 0 ? periods[0].getPreferences()
+                : teacher.getLatestScoringPreferences();
+        journal.appendTeacher(Journal.ADD_TEACHER, name, preferences);
+        for (int p = 0; p < periods.length; p++) {
+            if (!periods[p].getPreferences().equals(preferences)) {
+                preferences = periods[p].getPreferences();
+                journal.appendTeacher(Journal.UPDATE_TEACHER, name, preferences);
+            }
+            for (Student student : students) {
+                ScoreTotals totals = periods[p].getTotals(student.getId());
+                if (totals.getEventCount() > 0) {
+                    journalTotals(name, student.getName(), totals);
+                }
+            }
+            journal.appendPeriodClosed(name, periods[p].getName(), p + 1);
+        }
+        if (!teacher.getLatestScoringPreferences().equals(preferences)) {
+            journal.appendTeacher(Journal.UPDATE_TEACHER, name, teacher.getLatestScoringPreferences());
+        }
+        for (Student student : students) {
+            // every student, so one without scores is in the roster after a replay too
+            journalTotals(name, student.getName(), student.getTotals());
+        }
+    }
+
+    private void journalTotals(String teacherName, String studentName, ScoreTotals totals) {
+        journal.appendScores(teacherName, studentName, totals, totals.getEventCount());
+    }
+
+    /**
+     * Remove a teacher and its class, for example once it has been moved to another service.  Calls already using
+     * the teacher finish against the removed class.
+     * @param teacherName name of the teacher
+     * @throws ObjectNotFoundError when teacher not found
+     */
+    @Override
+    public void removeTeacher(String teacherName) {
+        synchronized (periodLock) {
+            synchronized (teacherLock) {
+                Teacher teacher = teachersByName.remove(teacherName);
+                if (teacher == null) {
+                    throw metrics.notFound(new ObjectNotFoundError("No teacher found for name " + teacherName));
+                }
+                teacher.markRemoved();
+                if (journal != null) {
+                    journal.appendTeacherRemoved(teacherName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Subscribe to student-average changes.  The listener runs on the common fork/join pool and up to 65,536 students
+     * with unreported changes are buffered for it.
+     * @param listener receives every change to a student's weighted average from now on
+     * @return the subscription, used to cancel it
+     */
+    @Override
+    public GradeSubscription subscribe(GradeChangeListener listener) {
+        return subscribe(listener, ForkJoinPool.commonPool(), DEFAULT_SUBSCRIPTION_CAPACITY);
+    }
+
+    /**
+     * Subscribe to student-average changes.  Changes to the same student are coalesced until the listener is told
+     * about them, and writers never wait for the listener.
+     * @param listener receives every change to a student's weighted average from now on
+     * @param executor runs the listener, one call at a time
+     * @param capacity most students with unreported changes to buffer; changes for further students are dropped and
+     * reported through {@link GradeChangeListener#changesDropped()}
+     * @return the subscription, used to cancel it
+     */
+    public GradeSubscription subscribe(GradeChangeListener listener, Executor executor, int capacity) {
+        assert listener != null;
+        assert executor != null;
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity (" + capacity + ") must be positive");
         }
-        ScoringPreferences preferences = teacher.getScoringPreferences();
-        return student.getWeightedAverage(preferences);
+        return feed.subscribe(listener, executor, capacity);
+    }
+
+    /**
+     * @return handler applying the records a {@link JournalShipper} streams to a {@link GradeTrackerReplica}
+     */
+    Journal.Handler replicator() {
+        return new Replayer(false);
     }
 
+    /**
+     * Applies journal records to this service: the journal's own records while the service is being constructed, and
+     * for a {@link GradeTrackerReplica} the records a {@link JournalShipper} streams to it while it serves reads
+     */
+    private class Replayer implements Journal.Handler {
+        // event count of each student in the snapshot when the journal tail first mentions them, null without one
+        private final Map<Student, Integer> baselines;
+
+        Replayer(boolean fromSnapshot) {
+            this.baselines = fromSnapshot ? new HashMap<Student, Integer>() : null;
+        }
 
+        @Override
+        public void teacherAdded(String name, ScoringPreferences preferences) {
+            if (!teachersByName.containsKey(name)) {
+                teachersByName.put(name, newTeacher(name, preferences));
+            }
+        }
+
+        @Override
+        public void teacherUpdated(String name, ScoringPreferences preferences) {
+            updateTeacherAndWait(name, preferences);
+        }
+
+        @Override
+        public void scoresRecorded(String teacherName, String studentName, ScoreTotals delta, int version) {
+            Teacher teacher = getTeacher(teacherName);
+            Student student = getStudent(teacher, studentName);
+            if (baselines != null) {
+                Integer baseline = baselines.get(student);
+                if (baseline == null) {
+                    baseline = student.getTotals().getEventCount();
+                    baselines.put(student, baseline);
+                }
+                if (version <= baseline) {
+                    // already in the snapshot
+                    return;
+                }
+            }
+            student.addTotals(delta, teacher.getClock(), teacher.getContendedUpdates());
+            teacher.studentChanged(student);
+        }
+
+        @Override
+        public void periodClosed(String teacherName, String periodName, int ordinal) {
+            Teacher teacher = getTeacher(teacherName);
+            if (teacher.getPeriods().length >= ordinal) {
+                // already in the snapshot
+                return;
+            }
+            teacher.closePeriod(periodName);
+            if (baselines != null) {
+                // the students' event counts start over, and every later record is newer than the snapshot
+                for (Student student : teacher.getStudents()) {
+                    baselines.put(student, 0);
+                }
+            }
+        }
+
+        @Override
+        public void teacherRemoved(String name) {
+            teachersByName.remove(name);
+        }
+
+        @Override
+        public void eventsRecorded(String teacherName, List<String> eventIds) {
+            // even when the scores were already in the snapshot, since windows are not
+            EventWindow window = getTeacher(teacherName).getEventWindow();
+            for (String eventId : eventIds) {
+                window.accept(eventId);
+            }
+        }
+    }
 
     @Override
     public String toString() {
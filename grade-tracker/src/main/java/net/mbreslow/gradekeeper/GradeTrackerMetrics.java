@@ -0,0 +1,233 @@
+package net.mbreslow.gradekeeper;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Built-in instrumentation of a {@link GradeTrackerImpl}: a {@link LatencyHistogram} per operation, counts of
+ * {@link ObjectNotFoundError} and {@link NameCollisionError}, duplicate events dropped, roster sizes and
+ * {@link Student} update contention.
+ * <br/>
+ * Cheap enough to leave on: only a random one call in {@code sampleEvery} (64 by default) is timed and recorded, and
+ * every other call costs one random number.  Calls are therefore counted by estimate, while errors are counted
+ * exactly.  Read everything at once with {@link #getSnapshot()}, or over JMX after {@link #register(String)}.
+ */
+public class GradeTrackerMetrics implements GradeTrackerMetricsMXBean {
+    /**
+     * Time one call in this many by default
+     */
+    public static final int DEFAULT_SAMPLE_EVERY = 64;
+    static final long NOT_TIMED = Long.MIN_VALUE;
+
+    /**
+     * The instrumented operations
+     */
+    enum Operation {
+        RECORD_ASSIGNMENT_SCORE("recordAssignmentScore"),
+        RECORD_EXAM_SCORE("recordExamScore"),
+        RECORD_EXTRA_CREDIT("recordExtraCredit"),
+        RECORD_SCORES("recordScores"),
+        RESOLVE_STUDENT("resolveStudent"),
+        ADD_TEACHER("addTeacher"),
+        UPDATE_TEACHER("updateTeacher"),
+        UPDATE_TEACHER_ASYNC("updateTeacherAsync"),
+        GET_STUDENT_AVERAGE("getStudentAverage"),
+        GET_CLASS_STATISTICS("getClassStatistics"),
+        GET_STUDENT_RANK("getStudentRank"),
+        GET_TOP_STUDENTS("getTopStudents"),
+        GET_BOTTOM_STUDENTS("getBottomStudents"),
+        GET_PERCENTILE("getPercentile"),
+        VISIT_STUDENT_HISTORY("visitStudentHistory"),
+        VISIT_CLASS_HISTORY("visitClassHistory"),
+        CLOSE_GRADING_PERIOD("closeGradingPeriod"),
+        GET_GRADING_PERIODS("getGradingPeriods"),
+        GET_PERIOD_AVERAGE("getPeriodAverage"),
+        GET_PERIOD_STATISTICS("getPeriodStatistics"),
+        GET_COMBINED_AVERAGE("getCombinedAverage");
+
+        private final String methodName;
+
+        Operation(String methodName) {
+            this.methodName = methodName;
+        }
+    }
+
+    private final Map<String, Teacher> teachersByName;
+    private final boolean enabled;
+    private final int sampleEvery;
+    private final int sampleMask;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+    private final LongAdder objectNotFoundErrors = new LongAdder();
+    private final LongAdder nameCollisionErrors = new LongAdder();
+    private final LongAdder duplicateEvents = new LongAdder();
+    private final LongAdder contendedStudentUpdates = new LongAdder();
+    private final RosterTier rosterTier;
+    private volatile ObjectName registeredAs;
+
+    /**
+     * @param teachersByName the service's teachers, read for roster sizes
+     * @param sampleEvery time one call in this many, a power of two; 0 turns latency recording off
+     * @param rosterTier the service's roster tier, or null
+     */
+    GradeTrackerMetrics(Map<String, Teacher> teachersByName, int sampleEvery, RosterTier rosterTier) {
+        if (sampleEvery < 0 || Integer.bitCount(sampleEvery) > 1) {
+            throw new IllegalArgumentException("sampleEvery (" + sampleEvery + ") must be 0 or a power of two");
+        }
+        this.teachersByName = teachersByName;
+        this.rosterTier = rosterTier;
+        this.enabled = sampleEvery > 0;
+        this.sampleEvery = sampleEvery;
+        this.sampleMask = sampleEvery - 1;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Call when an operation starts
+     * @return the value to pass to {@link #finish}
+     */
+    long start() {
+        if (!enabled || (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+            return NOT_TIMED;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Call when an operation returns or throws
+     * @param operation the operation
+     * @param start what {@link #start()} returned
+     */
+    void finish(Operation operation, long start) {
+        if (start != NOT_TIMED) {
+            histograms[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Count an error about to be thrown or reported
+     * @param error the error
+     * @return the error
+     */
+    ObjectNotFoundError notFound(ObjectNotFoundError error) {
+        objectNotFoundErrors.increment();
+        return error;
+    }
+
+    /**
+     * Count an error about to be thrown
+     * @param error the error
+     * @return the error
+     */
+    NameCollisionError collision(NameCollisionError error) {
+        nameCollisionErrors.increment();
+        return error;
+    }
+
+    /**
+     * Count an event dropped because its id was recorded before
+     */
+    void duplicate() {
+        duplicateEvents.increment();
+    }
+
+    /**
+     * @return the counter the service's Teachers hand their students for compare-and-set races lost
+     */
+    LongAdder contendedStudentUpdates() {
+        return contendedStudentUpdates;
+    }
+
+    /**
+     * Register with the platform MBean server as {@code net.mbreslow.gradekeeper:type=GradeTracker,name=<name>}
+     * @param name distinguishes this service from others in the JVM
+     * @return the name the MBean was registered under
+     * @throws IllegalStateException when the MBean cannot be registered, for example because the name is taken
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("net.mbreslow.gradekeeper:type=GradeTracker,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            registeredAs = objectName;
+            return objectName;
+        }
+        catch (JMException e) {
+            throw new IllegalStateException("Unable to register metrics as " + name, e);
+        }
+    }
+
+    /**
+     * Remove the MBean registered by {@link #register(String)}, if any
+     */
+    public void unregister() {
+        ObjectName objectName = registeredAs;
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            registeredAs = null;
+        }
+        catch (JMException e) {
+            throw new IllegalStateException("Unable to unregister metrics " + objectName, e);
+        }
+    }
+
+    @Override
+    public MetricsSnapshot getSnapshot() {
+        return new MetricsSnapshot(getLatencies(), getObjectNotFoundErrors(), getNameCollisionErrors(),
+                getDuplicateEvents(), getContendedStudentUpdates(), getRosterSizes(), getRosterTier());
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getLatencies() {
+        Map<String, LatencySnapshot> latencies = new LinkedHashMap<String, LatencySnapshot>();
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation.methodName, histograms[operation.ordinal()].snapshot(sampleEvery));
+        }
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    @Override
+    public long getObjectNotFoundErrors() {
+        return objectNotFoundErrors.sum();
+    }
+
+    @Override
+    public long getNameCollisionErrors() {
+        return nameCollisionErrors.sum();
+    }
+
+    @Override
+    public long getDuplicateEvents() {
+        return duplicateEvents.sum();
+    }
+
+    @Override
+    public long getContendedStudentUpdates() {
+        return contendedStudentUpdates.sum();
+    }
+
+    @Override
+    public Map<String, Integer> getRosterSizes() {
+        Map<String, Integer> sizes = new TreeMap<String, Integer>();
+        for (Map.Entry<String, Teacher> entry : teachersByName.entrySet()) {
+            sizes.put(entry.getKey(), entry.getValue().peekStudentCount());
+        }
+        return Collections.unmodifiableMap(sizes);
+    }
+
+    @Override
+    public RosterTierSnapshot getRosterTier() {
+        return rosterTier == null ? null : rosterTier.getSnapshot();
+    }
+}
@@ -0,0 +1,43 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.Map;
+
+/**
+ * JMX view of a service's {@link GradeTrackerMetrics}, registered with
+ * {@link GradeTrackerMetrics#register(String)}
+ */
+public interface GradeTrackerMetricsMXBean {
+    /**
+     * @return every metric, read at one point in time
+     */
+    MetricsSnapshot getSnapshot();
+
+    /**
+     * @return latency of each operation, keyed by method name
+     */
+    Map<String, LatencySnapshot> getLatencies();
+
+    long getObjectNotFoundErrors();
+
+    long getNameCollisionErrors();
+
+    /**
+     * @return number of score events dropped because the teacher had recorded their ids before
+     */
+    long getDuplicateEvents();
+
+    /**
+     * @return number of times an update to one of this service's students lost a compare-and-set race and was retried
+     */
+    long getContendedStudentUpdates();
+
+    /**
+     * @return number of students in each teacher's roster
+     */
+    Map<String, Integer> getRosterSizes();
+
+    /**
+     * @return hit, miss and eviction counts of the service's {@link RosterTier}, null when it has none
+     */
+    RosterTierSnapshot getRosterTier();
+}
@@ -0,0 +1,511 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only copy of a primary {@link GradeTrackerImpl}, kept up to date from the primary's journal by a
+ * {@link JournalShipper}.  Reads are served from the replica's own teachers and students, so they never contend with
+ * the primary's writers; every write throws {@link UnsupportedOperationException}.
+ * <br/>
+ * A background thread applies the shipped records in journal order, the same way a restart replays them, so a read
+ * sees a state the primary was in a moment ago.  {@link #getLagBytes()} and {@link #getLagMillis()} report how far
+ * behind it is, and {@link #awaitPosition(long, long)} waits for a given primary position, for example to read a
+ * change the caller has just made on the primary.  The replica reconnects after losing the primary, resuming from the
+ * position it has applied.
+ * <br/>
+ * A replica starts empty and applies the primary's journal from the beginning.  Subscriptions work as on the primary,
+ * reporting each change as the replica applies it.
+ */
+public class GradeTrackerReplica implements GradeTracker, Closeable {
+    static final int RECONNECT_MILLIS = 500;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final String primaryAddress;
+    private final String host;
+    private final int port;
+    private final GradeTrackerImpl service;
+    private final Journal.Handler applier;
+    private final Thread thread;
+    private final Object progress = new Object();
+    private volatile Socket socket;
+    private volatile boolean closed = false;
+
+    // guarded by progress
+    private long appliedPosition = 0;
+    private long primaryPosition = 0;
+    private boolean connected = false;
+    private long caughtUpNanos;
+    private long appliedRecords = 0;
+    private long receivedBytes = 0;
+    private JournalError failure;
+
+    /**
+     * @param primaryAddress host:port of the primary's {@link JournalShipper}
+     */
+    public GradeTrackerReplica(String primaryAddress) {
+        this(primaryAddress, RosterLayout.OBJECTS);
+    }
+
+    /**
+     * @param primaryAddress host:port of the primary's {@link JournalShipper}
+     * @param rosterLayout how each teacher's students are stored on the replica
+     * @throws IllegalArgumentException when the address is not host:port
+     */
+    public GradeTrackerReplica(String primaryAddress, RosterLayout rosterLayout) {
+        int colon = primaryAddress.lastIndexOf(':');
+        int port;
+        try {
+            port = colon < 0 ? -1 : Integer.parseInt(primaryAddress.substring(colon + 1));
+        }
+        catch (NumberFormatException e) {
+            port = -1;
+        }
+        if (colon <= 0 || port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Primary address " + primaryAddress + " is not host:port");
+        }
+        this.primaryAddress = primaryAddress;
+        this.host = primaryAddress.substring(0, colon);
+        this.port = port;
+        this.service = new GradeTrackerImpl(rosterLayout);
+        this.applier = service.replicator();
+        this.caughtUpNanos = System.nanoTime();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replicate();
+            }
+        }, "replica-" + primaryAddress);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void replicate() {
+        while (!closed) {
+            Socket connection = new Socket();
+            try {
+                socket = connection;
+                if (closed) {
+                    return;
+                }
+                connection.setTcpNoDelay(true);
+                connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(),
+                        BUFFER_SIZE));
+                synchronized (progress) {
+                    out.writeInt(JournalShipper.MAGIC);
+                    out.writeLong(appliedPosition);
+                }
+                out.flush();
+                synchronized (progress) {
+                    connected = true;
+                }
+                receive(in);
+            }
+            catch (IOException e) {
+                // the primary is down or went away; try again from the applied position
+            }
+            catch (JournalError e) {
+                synchronized (progress) {
+                    failure = e;
+                    progress.notifyAll();
+                }
+                return;
+            }
+            finally {
+                synchronized (progress) {
+                    connected = false;
+                }
+                try {
+                    connection.close();
+                }
+                catch (IOException ignored) {
+                }
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(RECONNECT_MILLIS);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Apply frames until the connection ends
+     */
+    private void receive(DataInputStream in) throws IOException {
+        byte[] body = new byte[JournalShipper.MAX_FRAME_BYTES];
+        byte[] compressed = new byte[JournalShipper.MAX_FRAME_BYTES];
+        Inflater inflater = new Inflater();
+        try {
+            while (!closed) {
+                byte flags = in.readByte();
+                if (flags == JournalShipper.FAILED) {
+                    throw new JournalError("Primary " + primaryAddress + " refused the replica: " + in.readUTF());
+                }
+                int count = in.readInt();
+                long position = in.readLong();
+                long end = in.readLong();
+                int size = in.readInt();
+                int length = size;
+                if (flags == JournalShipper.DEFLATED) {
+                    length = in.readInt();
+                    if (compressed.length < size) {
+                        compressed = new byte[size];
+                    }
+                    in.readFully(compressed, 0, size);
+                    if (body.length < length) {
+                        body = new byte[length];
+                    }
+                    inflater.reset();
+                    inflater.setInput(compressed, 0, size);
+                    try {
+                        if (inflater.inflate(body, 0, length) != length) {
+                            throw new IOException("Frame inflated to fewer than " + length + " bytes");
+                        }
+                    }
+                    catch (DataFormatException e) {
+                        throw new IOException("Corrupt frame from " + primaryAddress, e);
+                    }
+                }
+                else {
+                    if (body.length < length) {
+                        body = new byte[length];
+                    }
+                    in.readFully(body, 0, length);
+                }
+                apply(ByteBuffer.wrap(body, 0, length), count);
+                synchronized (progress) {
+                    if (position > appliedPosition) {
+                        appliedPosition = position;
+                    }
+                    primaryPosition = end;
+                    appliedRecords += count;
+                    receivedBytes += size;
+                    if (appliedPosition >= primaryPosition) {
+                        caughtUpNanos = System.nanoTime();
+                    }
+                    progress.notifyAll();
+                }
+            }
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    private void apply(ByteBuffer records, int count) {
+        for (int i = 0; i < count; i++) {
+            int length = Journal.getVarint(records);
+            ByteBuffer payload = records.duplicate();
+            payload.limit(records.position() + length);
+            try {
+                Journal.decode(payload, applier);
+            }
+            catch (RuntimeException e) {
+                throw new JournalError("Unable to apply a record from " + primaryAddress, e);
+            }
+            records.position(records.position() + length);
+        }
+    }
+
+    /**
+     * Wait until the replica has applied the primary's journal up to a position
+     * @param position a position from {@link JournalShipper#getPosition()}
+     * @param timeoutMillis longest time to wait
+     * @return true when the position was reached, false when the wait timed out or replication failed
+     */
+    public boolean awaitPosition(long position, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (progress) {
+            while (appliedPosition < position) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0 || failure != null || closed) {
+                    return false;
+                }
+                progress.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return position in the primary's journal up to which every record has been applied
+     */
+    public long getAppliedPosition() {
+        synchronized (progress) {
+            return appliedPosition;
+        }
+    }
+
+    /**
+     * @return bytes of the primary's journal not yet applied, as of the last frame received
+     */
+    public long getLagBytes() {
+        synchronized (progress) {
+            return Math.max(0, primaryPosition - appliedPosition);
+        }
+    }
+
+    /**
+     * @return milliseconds since the replica last had every record the primary had written, 0 while it is caught up;
+     * keeps growing while the primary cannot be reached
+     */
+    public long getLagMillis() {
+        synchronized (progress) {
+            if (connected && appliedPosition >= primaryPosition) {
+                return 0;
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - caughtUpNanos);
+        }
+    }
+
+    /**
+     * @return true while the replica is connected to the primary
+     */
+    public boolean isConnected() {
+        synchronized (progress) {
+            return connected;
+        }
+    }
+
+    /**
+     * @return the error that stopped replication, such as a primary whose journal does not contain the replica's
+     * position, or null
+     */
+    public JournalError getFailure() {
+        synchronized (progress) {
+            return failure;
+        }
+    }
+
+    /**
+     * @return records applied since the replica started
+     */
+    public long getAppliedRecords() {
+        synchronized (progress) {
+            return appliedRecords;
+        }
+    }
+
+    /**
+     * @return bytes of frames received since the replica started, deflated frames counted as sent
+     */
+    public long getReceivedBytes() {
+        synchronized (progress) {
+            return receivedBytes;
+        }
+    }
+
+    /**
+     * @return the replica's latency histograms and error counts, for its reads
+     */
+    public GradeTrackerMetrics getMetrics() {
+        return service.getMetrics();
+    }
+
+    private UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Replica of " + primaryAddress + " is read-only; write to the primary");
+    }
+
+    @Override
+    public void recordAssignmentScore(String teacherName, String studentName, double score) {
+        throw readOnly();
+    }
+
+    @Override
+    public void recordExamScore(String teacherName, String studentName, double score) {
+        throw readOnly();
+    }
+
+    @Override
+    public void recordExtraCredit(String teacherName, String studentName) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean recordAssignmentScore(String teacherName, String studentName, double score, String eventId) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean recordExamScore(String teacherName, String studentName, double score, String eventId) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean recordExtraCredit(String teacherName, String studentName, String eventId) {
+        throw readOnly();
+    }
+
+    @Override
+    public BatchResult recordScores(Iterable<ScoreEvent> events) {
+        throw readOnly();
+    }
+
+    /**
+     * Not supported: a handle records scores
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public StudentHandle resolveStudent(String teacherName, String studentName) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addTeacher(String name, ScoringPreferences scoringPreferences) {
+        throw readOnly();
+    }
+
+    @Override
+    public void updateTeacher(String name, ScoringPreferences scoringPreferences) {
+        throw readOnly();
+    }
+
+    @Override
+    public CompletableFuture<Void> updateTeacherAsync(String name, ScoringPreferences scoringPreferences) {
+        throw readOnly();
+    }
+
+    /**
+     * @return a point-in-time view of every teacher as applied so far, see {@link GradeTrackerImpl#openSnapshot()}
+     */
+    public GradeSnapshot openSnapshot() {
+        return service.openSnapshot();
+    }
+
+    /**
+     * @param teacherName name of the teacher
+     * @return a point-in-time view of the teacher as applied so far, see {@link GradeTrackerImpl#openSnapshot(String)}
+     */
+    public GradeSnapshot openSnapshot(String teacherName) {
+        return service.openSnapshot(teacherName);
+    }
+
+    @Override
+    public double getStudentAverage(String teacherName, String studentName) {
+        return service.getStudentAverage(teacherName, studentName);
+    }
+
+    @Override
+    public ClassStatistics getClassStatistics(String teacherName) {
+        return service.getClassStatistics(teacherName);
+    }
+
+    @Override
+    public RankedStudent getStudentRank(String teacherName, String studentName) {
+        return service.getStudentRank(teacherName, studentName);
+    }
+
+    @Override
+    public List<RankedStudent> getTopStudents(String teacherName, int count) {
+        return service.getTopStudents(teacherName, count);
+    }
+
+    @Override
+    public List<RankedStudent> getBottomStudents(String teacherName, int count) {
+        return service.getBottomStudents(teacherName, count);
+    }
+
+    @Override
+    public double getPercentile(String teacherName, double percentile) {
+        return service.getPercentile(teacherName, percentile);
+    }
+
+    /**
+     * Replicas do not retain history
+     * @throws IllegalStateException always, once the teacher exists
+     */
+    @Override
+    public void visitStudentHistory(String teacherName, String studentName, ScoreHistoryVisitor visitor) {
+        service.visitStudentHistory(teacherName, studentName, visitor);
+    }
+
+    /**
+     * Replicas do not retain history
+     * @throws IllegalStateException always, once the teacher exists
+     */
+    @Override
+    public void visitClassHistory(String teacherName, ScoreHistoryVisitor visitor) {
+        service.visitClassHistory(teacherName, visitor);
+    }
+
+    @Override
+    public void closeGradingPeriod(String teacherName, String periodName) {
+        throw readOnly();
+    }
+
+    @Override
+    public List<String> getGradingPeriods(String teacherName) {
+        return service.getGradingPeriods(teacherName);
+    }
+
+    @Override
+    public double getPeriodAverage(String teacherName, String studentName, String periodName) {
+        return service.getPeriodAverage(teacherName, studentName, periodName);
+    }
+
+    @Override
+    public ClassStatistics getPeriodStatistics(String teacherName, String periodName) {
+        return service.getPeriodStatistics(teacherName, periodName);
+    }
+
+    @Override
+    public double getCombinedAverage(String teacherName, String studentName, Collection<String> periodNames,
+                                     boolean includeCurrentPeriod) {
+        return service.getCombinedAverage(teacherName, studentName, periodNames, includeCurrentPeriod);
+    }
+
+    @Override
+    public GradeSubscription subscribe(GradeChangeListener listener) {
+        return service.subscribe(listener);
+    }
+
+    /**
+     * Stop replicating and disconnect from the primary.  Reads keep working against the state applied so far.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        Socket connection = socket;
+        if (connection != null) {
+            try {
+                connection.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+        synchronized (progress) {
+            progress.notifyAll();
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (progress) {
+            return "GradeTrackerReplica{" +
+                    "primary=" + primaryAddress +
+                    ", connected=" + connected +
+                    ", appliedPosition=" + appliedPosition +
+                    ", primaryPosition=" + primaryPosition +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,564 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk importer for gradebook exports: one score per line, as {@code teacher,student,type,score} in CSV or the same
+ * four columns in TSV.  The type is {@code assignment}, {@code exam} or {@code extra_credit} in any case, and the
+ * score may be left out for extra credit.  CSV fields may be quoted, with {@code ""} for a quote inside them, and a
+ * quoted field may span lines.  A first line that does not parse, such as a header, is skipped.  A score must be a
+ * finite decimal number, optionally with an exponent; {@code NaN}, {@code Infinity}, type suffixes such as
+ * {@code 85f} and values too large for a double fail the row.
+ * <br/>
+ * The file is split into chunks on row boundaries and each chunk is memory-mapped and parsed on its own thread.  A
+ * line break ends a row only where the quotes before it are balanced, so the quotes in each stretch of the file are
+ * counted in parallel first, and each chunk boundary is placed knowing whether it falls inside a quoted field.  An
+ * unbalanced quote runs its row on to the next quote, and the whole stretch fails as one row.
+ * Parsing works on the mapped bytes: types and scores are read without creating a String, and teacher and student
+ * names go through a small per-chunk cache so a name repeated on many lines becomes a String once.  Each chunk feeds
+ * the service through {@link GradeTracker#recordScores(Iterable)} in batches of {@link #BATCH_SIZE} rows.
+ * <br/>
+ * Rows are recorded in parallel, so scores for one student from different chunks may be recorded in any order.  That
+ * does not change any average, but a retained score history sees them in that order.
+ */
+public class GradebookImporter {
+    static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+    static final int BATCH_SIZE = 4096;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Supported file formats
+     */
+    public enum Format {
+        CSV(','),
+        TSV('\t');
+
+        private final byte delimiter;
+
+        Format(char delimiter) {
+            this.delimiter = (byte) delimiter;
+        }
+    }
+
+    /**
+     * Receives progress and the rows that could not be imported.  Called from the importing threads, one call at a
+     * time.
+     */
+    public interface Listener {
+        /**
+         * @param bytesRead bytes of the file parsed and recorded so far
+         * @param totalBytes size of the file
+         * @param rowsImported rows recorded so far
+         */
+        void progress(long bytesRead, long totalBytes, long rowsImported);
+
+        /**
+         * @param offset position of the row in the file
+         * @param row the row, without its line terminator
+         * @param error why it could not be parsed or recorded
+         */
+        void rowFailed(long offset, String row, RuntimeException error);
+    }
+
+    private final GradeTracker service;
+    private final Format format;
+    private final Listener listener;
+    private final FileChannel channel;
+    private final long size;
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong rowsImported = new AtomicLong();
+    private final AtomicLong rowsFailed = new AtomicLong();
+
+    private GradebookImporter(GradeTracker service, Format format, Listener listener, FileChannel channel, long size) {
+        this.service = service;
+        this.format = format;
+        this.listener = listener;
+        this.channel = channel;
+        this.size = size;
+    }
+
+    /**
+     * Import a gradebook file.  Every teacher must already exist; rows for other teachers fail.
+     * @param service service the scores are recorded in
+     * @param file file to import
+     * @param format CSV or TSV
+     * @param parallelism number of threads parsing and recording chunks
+     * @param listener receives progress and failed rows, or null
+     * @return number of rows imported and failed
+     * @throws ImportError when the file cannot be read
+     */
+    public static ImportResult importFile(GradeTracker service, File file, Format format, int parallelism,
+                                          Listener listener) {
+        return importFile(service, file, format, parallelism, listener, DEFAULT_CHUNK_SIZE);
+    }
+
+    static ImportResult importFile(GradeTracker service, File file, Format format, int parallelism,
+                                   Listener listener, int chunkSize) {
+        assert service != null;
+        assert format != null;
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism (" + parallelism + ") must be positive");
+        }
+        long started = System.currentTimeMillis();
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                GradebookImporter importer = new GradebookImporter(service, format, listener, channel, channel.size());
+                importer.run(chunkSize, parallelism);
+                return new ImportResult(importer.rowsImported.get(), importer.rowsFailed.get(), importer.size,
+                        System.currentTimeMillis() - started);
+            }
+            finally {
+                randomAccessFile.close();
+            }
+        }
+        catch (IOException e) {
+            throw new ImportError("Unable to import " + file, e);
+        }
+    }
+
+    private void run(int chunkSize, int parallelism) throws IOException {
+        int stretches = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        final AtomicInteger threads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, stretches),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "gradebook-import-" + threads.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        try {
+            List<QuoteCount> counts = new ArrayList<QuoteCount>(stretches);
+            for (int i = 0; i < stretches; i++) {
+                counts.add(new QuoteCount((long) i * chunkSize, Math.min(size, (long) (i + 1) * chunkSize)));
+            }
+            List<Future<Integer>> quotes = executor.invokeAll(counts);
+            List<Chunk> chunks = new ArrayList<Chunk>();
+            long start = 0;
+            boolean quoted = false;
+            for (int i = 0; i < stretches && start < size; i++) {
+                // odd quotes before the stretch's end mean it falls inside a quoted field
+                quoted ^= (quotes.get(i).get() & 1) != 0;
+                long end = i == stretches - 1 ? size : rowEndAfter((long) (i + 1) * chunkSize, quoted);
+                if (end > start) {
+                    chunks.add(new Chunk(start, end));
+                    start = end;
+                }
+            }
+            for (Future<Void> done : executor.invokeAll(chunks)) {
+                done.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImportError("Interrupted while importing", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new ImportError(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param quoted whether the position is inside a quoted field
+     * @return position just after the first line terminator at or after a position that is outside quotes, or the
+     * file size
+     */
+    private long rowEndAfter(long position, boolean quoted) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = probe.get(i);
+                if (b == '"') {
+                    quoted = !quoted;
+                }
+                else if (b == '\n' && !quoted) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Number of quotes between two positions of the file
+     */
+    private class QuoteCount implements Callable<Integer> {
+        private final long start;
+        private final long end;
+
+        QuoteCount(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            int count = 0;
+            for (int i = 0, limit = mapped.limit(); i < limit; i++) {
+                if (mapped.get(i) == '"') {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private void failed(long offset, String row, RuntimeException error) {
+        rowsFailed.incrementAndGet();
+        if (listener != null) {
+            synchronized (listener) {
+                listener.rowFailed(offset, row, error);
+            }
+        }
+    }
+
+    private void progressed(long bytes, long rows) {
+        if (listener == null) {
+            bytesRead.addAndGet(bytes);
+            rowsImported.addAndGet(rows);
+            return;
+        }
+        // count under the lock so the listener sees the totals in order
+        synchronized (listener) {
+            listener.progress(bytesRead.addAndGet(bytes), size, rowsImported.addAndGet(rows));
+        }
+    }
+
+    /**
+     * Lines between two positions of the file, parsed and recorded by one thread
+     */
+    private class Chunk implements Callable<Void> {
+        private final long start;
+        private final long end;
+        private ByteBuffer buffer;
+        private final NameCache names = new NameCache();
+        private final List<ScoreEvent> batch = new ArrayList<ScoreEvent>(BATCH_SIZE);
+        // where each row of the batch starts and ends in the chunk
+        private final int[] rowStarts = new int[BATCH_SIZE];
+        private final int[] rowEnds = new int[BATCH_SIZE];
+        private int reported = 0;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            int limit = buffer.limit();
+            boolean firstLine = start == 0;
+            int position = 0;
+            while (position < limit) {
+                // a line break inside a quoted field is part of the field
+                int lineEnd = position;
+                boolean quoted = false;
+                for (; lineEnd < limit; lineEnd++) {
+                    byte b = buffer.get(lineEnd);
+                    if (b == '"') {
+                        quoted = !quoted;
+                    }
+                    else if (b == '\n' && !quoted) {
+                        break;
+                    }
+                }
+                int rowEnd = lineEnd > position && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                if (rowEnd > position) {
+                    try {
+                        ScoreEvent event = parse(position, rowEnd);
+                        rowStarts[batch.size()] = position;
+                        rowEnds[batch.size()] = rowEnd;
+                        batch.add(event);
+                    }
+                    catch (IllegalArgumentException e) {
+                        if (!firstLine) {
+                            failed(start + position, decode(position, rowEnd), e);
+                        }
+                    }
+                    firstLine = false;
+                }
+                position = lineEnd + 1;
+                if (batch.size() == BATCH_SIZE) {
+                    record(Math.min(position, limit));
+                }
+            }
+            record(limit);
+            return null;
+        }
+
+        /**
+         * Record the batch and report progress up to a position in the chunk
+         */
+        private void record(int upTo) {
+            long imported = 0;
+            if (!batch.isEmpty()) {
+                BatchResult result = service.recordScores(batch);
+                imported = result.getAppliedCount();
+                for (BatchResult.Failure failure : result.getFailures()) {
+                    int row = failure.getIndex();
+                    failed(start + rowStarts[row], decode(rowStarts[row], rowEnds[row]), failure.getError());
+                }
+                batch.clear();
+            }
+            progressed(upTo - reported, imported);
+            reported = upTo;
+        }
+
+        private ScoreEvent parse(int from, int to) {
+            byte delimiter = format.delimiter;
+            int teacherEnd = fieldEnd(from, to, delimiter);
+            int studentStart = teacherEnd + 1;
+            int studentEnd = studentStart > to ? to : fieldEnd(studentStart, to, delimiter);
+            int typeStart = studentEnd + 1;
+            if (studentStart > to || typeStart > to) {
+                throw new IllegalArgumentException("Expected teacher, student, type and score");
+            }
+            int typeEnd = fieldEnd(typeStart, to, delimiter);
+            ScoreType type = parseType(typeStart, typeEnd);
+            double score = 0;
+            if (typeEnd < to) {
+                int scoreEnd = fieldEnd(typeEnd + 1, to, delimiter);
+                if (scoreEnd != to) {
+                    throw new IllegalArgumentException("Expected teacher, student, type and score");
+                }
+                if (type != ScoreType.EXTRA_CREDIT) {
+                    score = parseScore(typeEnd + 1, to);
+                }
+            }
+            else if (type != ScoreType.EXTRA_CREDIT) {
+                throw new IllegalArgumentException("Missing score for " + type);
+            }
+            String teacherName = name(from, teacherEnd);
+            String studentName = name(studentStart, studentEnd);
+            if (teacherName.isEmpty() || studentName.isEmpty()) {
+                throw new IllegalArgumentException("Rows must name a teacher and a student");
+            }
+            return new ScoreEvent(type, teacherName, studentName, score);
+        }
+
+        /**
+         * @return position of the delimiter ending the field starting at a position, or the end of the row
+         */
+        private int fieldEnd(int from, int to, byte delimiter) {
+            int i = from;
+            if (i < to && buffer.get(i) == '"') {
+                i++;
+                while (true) {
+                    if (i >= to) {
+                        throw new IllegalArgumentException("Unterminated quoted field");
+                    }
+                    if (buffer.get(i) == '"') {
+                        if (i + 1 < to && buffer.get(i + 1) == '"') {
+                            i += 2;
+                            continue;
+                        }
+                        i++;
+                        break;
+                    }
+                    i++;
+                }
+                if (i < to && buffer.get(i) != delimiter) {
+                    throw new IllegalArgumentException("Unexpected text after a quoted field");
+                }
+                return i;
+            }
+            while (i < to && buffer.get(i) != delimiter) {
+                i++;
+            }
+            return i;
+        }
+
+        private String name(int from, int to) {
+            if (to > from && buffer.get(from) == '"') {
+                return decode(from + 1, to - 1).replace("\"\"", "\"");
+            }
+            return names.get(this, from, to);
+        }
+
+        private ScoreType parseType(int from, int to) {
+            while (from < to && buffer.get(from) == ' ') {
+                from++;
+            }
+            while (to > from && buffer.get(to - 1) == ' ') {
+                to--;
+            }
+            if (matches(from, to, "ASSIGNMENT")) {
+                return ScoreType.ASSIGNMENT;
+            }
+            if (matches(from, to, "EXAM")) {
+                return ScoreType.EXAM;
+            }
+            if (matches(from, to, "EXTRA_CREDIT")) {
+                return ScoreType.EXTRA_CREDIT;
+            }
+            throw new IllegalArgumentException("Unknown score type " + decode(from, to));
+        }
+
+        private boolean matches(int from, int to, String upperCase) {
+            if (to - from != upperCase.length()) {
+                return false;
+            }
+            for (int i = 0; i < upperCase.length(); i++) {
+                int b = buffer.get(from + i);
+                if (b >= 'a' && b <= 'z') {
+                    b -= 'a' - 'A';
+                }
+                if (b != upperCase.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Parse a plain decimal such as {@code 91} or {@code 88.25} directly from the bytes.  With at most 15 digits
+         * both the digits and the power of ten are exact doubles, so the one division rounds exactly like
+         * {@link Double#parseDouble(String)}; anything else goes through it, once it is known to hold only digits,
+         * signs, points and exponents, and must come out finite.
+         */
+        private double parseScore(int from, int to) {
+            while (from < to && buffer.get(from) == ' ') {
+                from++;
+            }
+            while (to > from && buffer.get(to - 1) == ' ') {
+                to--;
+            }
+            int i = from;
+            boolean negative = i < to && buffer.get(i) == '-';
+            if (negative) {
+                i++;
+            }
+            long digits = 0;
+            int digitCount = 0;
+            int fractionDigits = -1;
+            for (; i < to; i++) {
+                byte b = buffer.get(i);
+                if (b >= '0' && b <= '9') {
+                    digits = digits * 10 + (b - '0');
+                    digitCount++;
+                    if (fractionDigits >= 0) {
+                        fractionDigits++;
+                    }
+                }
+                else if (b == '.' && fractionDigits < 0) {
+                    fractionDigits = 0;
+                }
+                else {
+                    break;
+                }
+            }
+            if (i == to && digitCount > 0 && digitCount <= 15) {
+                double value = fractionDigits > 0 ? digits / POWERS_OF_TEN[fractionDigits] : digits;
+                return negative ? -value : value;
+            }
+            String text = decode(from, to);
+            for (i = from; i < to; i++) {
+                byte b = buffer.get(i);
+                // parseDouble also takes NaN, Infinity, hex and a trailing f or d
+                if ((b < '0' || b > '9') && b != '.' && b != '-' && b != '+' && b != 'e' && b != 'E') {
+                    throw new IllegalArgumentException("Not a score: " + text);
+                }
+            }
+            double value;
+            try {
+                value = Double.parseDouble(text);
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a score: " + text);
+            }
+            if (Double.isInfinite(value)) {
+                throw new IllegalArgumentException("Score out of range: " + text);
+            }
+            return value;
+        }
+
+        String decode(int from, int to) {
+            return new String(copy(from, to), UTF_8);
+        }
+
+        byte[] copy(int from, int to) {
+            byte[] bytes = new byte[to - from];
+            ByteBuffer reader = buffer.duplicate();
+            reader.position(from);
+            reader.get(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Direct-mapped cache from a name's bytes to its String.  A name seen again while still cached costs a hash and a
+     * comparison instead of a new String.
+     */
+    private static class NameCache {
+        private static final int SLOTS = 1 << 13;
+
+        private final byte[][] keys = new byte[SLOTS][];
+        private final String[] values = new String[SLOTS];
+
+        String get(Chunk chunk, int from, int to) {
+            int hash = 0;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + chunk.buffer.get(i);
+            }
+            int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+            byte[] key = keys[slot];
+            if (key != null && key.length == to - from) {
+                int i = 0;
+                while (i < key.length && key[i] == chunk.buffer.get(from + i)) {
+                    i++;
+                }
+                if (i == key.length) {
+                    return values[slot];
+                }
+            }
+            byte[] bytes = chunk.copy(from, to);
+            String value = new String(bytes, UTF_8);
+            keys[slot] = bytes;
+            values[slot] = value;
+            return value;
+        }
+    }
+}
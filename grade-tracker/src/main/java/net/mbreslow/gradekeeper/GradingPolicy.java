@@ -0,0 +1,255 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable set of grading rules applied on top of a Teacher's {@link ScoringPreferences}, parsed from a definition
+ * such as {@code "drop-lowest assignments 2; curve exams 5; cap assignments 100"}.  Rules are separated by semicolons
+ * or newlines; each applies to one category, {@code assignments} or {@code exams}:
+ * <ul>
+ *     <li>{@code drop-lowest <category> <n>}: leave out the category's n lowest scores, keeping at least one</li>
+ *     <li>{@code curve <category> <points>}: add points, possibly negative, to the category's average</li>
+ *     <li>{@code cap <category> <max>}: limit the category's average, after extra credit and the curve</li>
+ *     <li>{@code cap extra-credit <n>}: count at most n extra credit assignments</li>
+ * </ul>
+ * A policy is validated when it is parsed and compiled into a {@link Scorer} once per ScoringPreferences, so grading a
+ * student never looks at the rules.
+ * <br/>
+ * Dropping needs each student's lowest scores, which are only kept once a policy that drops them is in effect for the
+ * Teacher, as many as any of its policies has dropped.  A score recorded earlier might be lower than every kept one, so
+ * while a student has any in a category, that category's scores are averaged without dropping, until a new grading
+ * period starts the student's scores over.
+ */
+public final class GradingPolicy {
+    /**
+     * Most scores a rule can drop from one category
+     */
+    public static final int MAX_DROPPED = 16;
+
+    /**
+     * No rules: the weighted average of the category averages, plus the extra credit bonus on assignments
+     */
+    public static final GradingPolicy DEFAULT = new GradingPolicy(0, 0, 0, 0, Double.POSITIVE_INFINITY,
+            Double.POSITIVE_INFINITY, Integer.MAX_VALUE);
+
+    private static final String ASSIGNMENTS = "assignments";
+    private static final String EXAMS = "exams";
+    private static final String EXTRA_CREDIT = "extra-credit";
+
+    private final int droppedAssignments;
+    private final int droppedExams;
+    private final double curveAssignments;
+    private final double curveExams;
+    private final double capAssignments;
+    private final double capExams;
+    private final int maxExtraCredits;
+    private final String definition;
+
+    private GradingPolicy(int droppedAssignments, int droppedExams, double curveAssignments, double curveExams,
+                          double capAssignments, double capExams, int maxExtraCredits) {
+        this.droppedAssignments = droppedAssignments;
+        this.droppedExams = droppedExams;
+        this.curveAssignments = curveAssignments;
+        this.curveExams = curveExams;
+        this.capAssignments = capAssignments;
+        this.capExams = capExams;
+        this.maxExtraCredits = maxExtraCredits;
+        this.definition = define();
+    }
+
+    /**
+     * @param definition rules separated by semicolons or newlines; blank for {@link #DEFAULT}
+     * @return the policy
+     * @throws IllegalArgumentException when a rule is malformed, repeated or out of range
+     */
+    public static GradingPolicy parse(String definition) {
+        if (definition == null) {
+            throw new IllegalArgumentException("Grading policy definition is null");
+        }
+        int droppedAssignments = 0;
+        int droppedExams = 0;
+        double curveAssignments = 0;
+        double curveExams = 0;
+        double capAssignments = Double.POSITIVE_INFINITY;
+        double capExams = Double.POSITIVE_INFINITY;
+        int maxExtraCredits = Integer.MAX_VALUE;
+        List<String> seen = new ArrayList<String>();
+        for (String rule : definition.split("[;\n]")) {
+            String[] words = rule.trim().split("\\s+");
+            if (words.length == 1 && words[0].isEmpty()) {
+                continue;
+            }
+            if (words.length != 3) {
+                throw new IllegalArgumentException("Grading rule '" + rule.trim() + "' must be <rule> <category> <value>");
+            }
+            String kind = words[0] + " " + words[1];
+            if (seen.contains(kind)) {
+                throw new IllegalArgumentException("Grading rule '" + kind + "' is given more than once");
+            }
+            seen.add(kind);
+            if (kind.equals("drop-lowest " + ASSIGNMENTS)) {
+                droppedAssignments = parseCount(rule, words[2], 1, MAX_DROPPED);
+            }
+            else if (kind.equals("drop-lowest " + EXAMS)) {
+                droppedExams = parseCount(rule, words[2], 1, MAX_DROPPED);
+            }
+            else if (kind.equals("curve " + ASSIGNMENTS)) {
+                curveAssignments = parsePoints(rule, words[2]);
+            }
+            else if (kind.equals("curve " + EXAMS)) {
+                curveExams = parsePoints(rule, words[2]);
+            }
+            else if (kind.equals("cap " + ASSIGNMENTS)) {
+                capAssignments = parseCap(rule, words[2]);
+            }
+            else if (kind.equals("cap " + EXAMS)) {
+                capExams = parseCap(rule, words[2]);
+            }
+            else if (kind.equals("cap " + EXTRA_CREDIT)) {
+                maxExtraCredits = parseCount(rule, words[2], 0, Integer.MAX_VALUE);
+            }
+            else {
+                throw new IllegalArgumentException("Unknown grading rule '" + rule.trim() + "'");
+            }
+        }
+        GradingPolicy policy = new GradingPolicy(droppedAssignments, droppedExams, curveAssignments, curveExams,
+                capAssignments, capExams, maxExtraCredits);
+        return policy.equals(DEFAULT) ? DEFAULT : policy;
+    }
+
+    private static int parseCount(String rule, String value, int minimum, int maximum) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count >= minimum && count <= maximum) {
+                return count;
+            }
+        }
+        catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Grading rule '" + rule.trim() + "' needs a whole number from " + minimum
+                + (maximum == Integer.MAX_VALUE ? " up" : " to " + maximum));
+    }
+
+    private static double parsePoints(String rule, String value) {
+        try {
+            double points = Double.parseDouble(value);
+            if (!Double.isNaN(points) && !Double.isInfinite(points)) {
+                return points;
+            }
+        }
+        catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Grading rule '" + rule.trim() + "' needs a finite number");
+    }
+
+    private static double parseCap(String rule, String value) {
+        double cap = parsePoints(rule, value);
+        if (cap < 0) {
+            throw new IllegalArgumentException("Grading rule '" + rule.trim() + "' needs a cap of at least 0");
+        }
+        return cap;
+    }
+
+    /**
+     * @return the rules in a fixed order, which {@link #parse(String)} turns back into an equal policy; empty for
+     * {@link #DEFAULT}
+     */
+    public String getDefinition() {
+        return definition;
+    }
+
+    private String define() {
+        StringBuilder rules = new StringBuilder();
+        if (droppedAssignments > 0) {
+            append(rules, "drop-lowest " + ASSIGNMENTS, droppedAssignments);
+        }
+        if (droppedExams > 0) {
+            append(rules, "drop-lowest " + EXAMS, droppedExams);
+        }
+        if (curveAssignments != 0) {
+            append(rules, "curve " + ASSIGNMENTS, curveAssignments);
+        }
+        if (curveExams != 0) {
+            append(rules, "curve " + EXAMS, curveExams);
+        }
+        if (capAssignments != Double.POSITIVE_INFINITY) {
+            append(rules, "cap " + ASSIGNMENTS, capAssignments);
+        }
+        if (capExams != Double.POSITIVE_INFINITY) {
+            append(rules, "cap " + EXAMS, capExams);
+        }
+        if (maxExtraCredits != Integer.MAX_VALUE) {
+            append(rules, "cap " + EXTRA_CREDIT, maxExtraCredits);
+        }
+        return rules.toString();
+    }
+
+    private static void append(StringBuilder rules, String kind, double value) {
+        if (rules.length() > 0) {
+            rules.append("; ");
+        }
+        rules.append(kind).append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            rules.append((long) value);
+        }
+        else {
+            rules.append(value);
+        }
+    }
+
+    /**
+     * @return true when the policy has no rules
+     */
+    public boolean isDefault() {
+        return definition.isEmpty();
+    }
+
+    int getDroppedAssignments() {
+        return droppedAssignments;
+    }
+
+    int getDroppedExams() {
+        return droppedExams;
+    }
+
+    double getCurveAssignments() {
+        return curveAssignments;
+    }
+
+    double getCurveExams() {
+        return curveExams;
+    }
+
+    double getCapAssignments() {
+        return capAssignments;
+    }
+
+    double getCapExams() {
+        return capExams;
+    }
+
+    int getMaxExtraCredits() {
+        return maxExtraCredits;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        GradingPolicy that = (GradingPolicy) o;
+
+        return definition.equals(that.definition);
+    }
+
+    @Override
+    public int hashCode() {
+        return definition.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "GradingPolicy{" + definition + '}';
+    }
+}
@@ -0,0 +1,151 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable consistent-hash ring mapping teacher names to nodes.  Each node is hashed to a number of points (virtual
+ * nodes) on a 64-bit ring, and a name belongs to the node owning the first point at or after the name's hash.  Adding
+ * or removing a node therefore only moves the names between its points and their predecessors, about 1/N of them, and
+ * the virtual nodes spread each node's share evenly.
+ * <br/>
+ * Lookups are a binary search over a sorted array of points; no objects are allocated.
+ */
+class HashRing {
+    static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<String> nodes;
+    private final int virtualNodes;
+    // sorted hashes of the virtual nodes, and the node at each
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * @param nodes node addresses, unique
+     * @param virtualNodes points per node on the ring
+     */
+    HashRing(Collection<String> nodes, int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("virtualNodes (" + virtualNodes + ") must be positive");
+        }
+        List<String> sorted = new ArrayList<String>(nodes);
+        Collections.sort(sorted);
+        this.nodes = Collections.unmodifiableList(sorted);
+        this.virtualNodes = virtualNodes;
+        int size = sorted.size() * virtualNodes;
+        long[] hashes = new long[size];
+        for (int n = 0; n < sorted.size(); n++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                hashes[n * virtualNodes + v] = hash(sorted.get(n) + '#' + v);
+            }
+        }
+        // order the points by hash; equal hashes, which are vanishingly rare, by node
+        Integer[] index = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            index[i] = i;
+        }
+        final long[] keys = hashes;
+        Arrays.sort(index, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byHash = Long.compareUnsigned(keys[a], keys[b]);
+                return byHash != 0 ? byHash : Integer.compare(a, b);
+            }
+        });
+        this.points = new long[size];
+        this.owners = new String[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = hashes[index[i]];
+            owners[i] = sorted.get(index[i] / virtualNodes);
+        }
+    }
+
+    /**
+     * @return the nodes on the ring, in ascending order
+     */
+    List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @param node address of a node not on the ring
+     * @return a ring with the node added
+     */
+    HashRing withNode(String node) {
+        if (nodes.contains(node)) {
+            throw new IllegalArgumentException("Node " + node + " is already on the ring");
+        }
+        List<String> added = new ArrayList<String>(nodes);
+        added.add(node);
+        return new HashRing(added, virtualNodes);
+    }
+
+    /**
+     * @param node address of a node on the ring
+     * @return a ring without the node
+     */
+    HashRing withoutNode(String node) {
+        if (!nodes.contains(node)) {
+            throw new IllegalArgumentException("Node " + node + " is not on the ring");
+        }
+        List<String> removed = new ArrayList<String>(nodes);
+        removed.remove(node);
+        return new HashRing(removed, virtualNodes);
+    }
+
+    /**
+     * @param key a teacher name
+     * @return address of the node owning the name
+     * @throws IllegalStateException when the ring has no nodes
+     */
+    String nodeFor(String key) {
+        if (points.length == 0) {
+            throw new IllegalStateException("The ring has no nodes");
+        }
+        long hash = hash(key);
+        // first point at or after the hash, wrapping around to the first point
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(points[middle], hash) < 0) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return owners[low == points.length ? 0 : low];
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units, finished with MurmurHash3's mixer so that similar names, such as
+     * numbered virtual nodes, land far apart
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+            hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "HashRing{" +
+                "nodes=" + nodes +
+                ", virtualNodes=" + virtualNodes +
+                '}';
+    }
+}
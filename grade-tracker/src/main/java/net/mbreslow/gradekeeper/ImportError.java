@@ -0,0 +1,21 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Runtime error thrown when a gradebook file cannot be read
+ */
+public class ImportError extends RuntimeException {
+    public ImportError() {
+    }
+
+    public ImportError(String s) {
+        super(s);
+    }
+
+    public ImportError(String s, Throwable throwable) {
+        super(s, throwable);
+    }
+
+    public ImportError(Throwable throwable) {
+        super(throwable);
+    }
+}
@@ -0,0 +1,61 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Outcome of a {@link GradebookImporter} run.  The failed rows themselves go to the importer's
+ * {@link GradebookImporter.Listener}.
+ */
+public class ImportResult {
+    private final long rowsImported;
+    private final long rowsFailed;
+    private final long bytesRead;
+    private final long elapsedMillis;
+
+    ImportResult(long rowsImported, long rowsFailed, long bytesRead, long elapsedMillis) {
+        this.rowsImported = rowsImported;
+        this.rowsFailed = rowsFailed;
+        this.bytesRead = bytesRead;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return number of rows recorded
+     */
+    public long getRowsImported() {
+        return rowsImported;
+    }
+
+    /**
+     * @return number of rows that could not be parsed or recorded
+     */
+    public long getRowsFailed() {
+        return rowsFailed;
+    }
+
+    /**
+     * @return size of the file
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return true when every row was recorded
+     */
+    public boolean isSuccess() {
+        return rowsFailed == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportResult{" +
+                "rowsImported=" + rowsImported +
+                ", rowsFailed=" + rowsFailed +
+                ", bytesRead=" + bytesRead +
+                ", elapsedMillis=" + elapsedMillis +
+                '}';
+    }
+}
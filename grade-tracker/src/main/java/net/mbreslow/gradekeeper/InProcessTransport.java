@@ -0,0 +1,39 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ShardTransport} for a cluster whose nodes all run in this JVM, such as {@link GradeTrackerImpl}s registered
+ * under made-up addresses.  Calls go straight to the node.
+ */
+public class InProcessTransport implements ShardTransport {
+    private final ConcurrentHashMap<String, ShardNode> nodesByAddress = new ConcurrentHashMap<String, ShardNode>();
+
+    /**
+     * @param address any unique name for the node
+     * @param node the node
+     * @throws IllegalArgumentException when a node is already registered at the address
+     */
+    public void register(String address, ShardNode node) {
+        assert node != null;
+        if (nodesByAddress.putIfAbsent(address, node) != null) {
+            throw new IllegalArgumentException("A node is already registered at " + address);
+        }
+    }
+
+    @Override
+    public ShardNode connect(String address) {
+        ShardNode node = nodesByAddress.get(address);
+        if (node == null) {
+            throw new ShardError("No node registered at " + address);
+        }
+        return node;
+    }
+
+    @Override
+    public String toString() {
+        return "InProcessTransport{" +
+                "addresses=" + nodesByAddress.keySet() +
+                '}';
+    }
+}
@@ -0,0 +1,902 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of every {@link GradeTrackerImpl} mutation, written through a memory-mapped file.
+ * <br/>
+ * The file starts with a header (magic number, region size) followed by records.  Each record is an int payload length,
+ * an int CRC32 of the payload and the payload itself: a type byte followed by varint-length UTF-8 names, doubles and
+ * varints.  The file is mapped in fixed-size regions; a record never spans two regions, and a length of -1 (or fewer
+ * than 8 bytes left) means the rest of the region is padding.  A length of 0, or a record whose CRC does not match,
+ * marks the end of the journal, so a record torn by a crash is dropped and overwritten by the next append.
+ * <br/>
+ * Teacher records carry the {@link GradingPolicy} definition after the weights when it is not the default, and batch
+ * score records carry the delta's {@link LowestScores} last when it has them; a replay reads either only when bytes
+ * are left, so older records decode unchanged.
+ * <br/>
+ * Score records carry the student's event count after the change (see {@link ScoreTotals#getEventCount()}), which lets
+ * a replay tell which records a student's totals already include.  The count is written in five bytes, a varint padded
+ * with continuation bits, since the record is claimed before the score is applied.  Scores recorded with event ids
+ * carry the ids too, so a replay restores each teacher's {@link EventWindow}.
+ * <br/>
+ * Thread safety: only claiming room for a record takes the journal lock.  The claiming thread writes and checksums
+ * the payload without it, and records are published, by writing their length, in the order they were claimed, so the
+ * journal up to {@link #getPosition()} has no gaps.  The journal orders nothing else: keeping a
+ * {@link #appendPeriodClosed period close} after the scores of its period is the caller's job.  Forcing to disk
+ * happens outside the lock according to the {@link SyncPolicy}, with concurrent writers sharing a single force.
+ * {@link #awaitAppend(long, long)} lets a {@link JournalShipper} wait for new records, which it copies with
+ * {@link #read(long, long, ByteBuffer, Records)} through ordinary file reads.
+ */
+public class Journal implements Closeable {
+    static final int MAGIC = 0x47544a31;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 8;
+    static final int DEFAULT_REGION_SIZE = 64 << 20;
+
+    static final byte ADD_TEACHER = 1;
+    static final byte UPDATE_TEACHER = 2;
+    static final byte ASSIGNMENT = 3;
+    static final byte EXAM = 4;
+    static final byte EXTRA_CREDIT = 5;
+    static final byte SCORES = 6;
+    static final byte CLOSE_PERIOD = 7;
+    static final byte REMOVE_TEACHER = 8;
+    static final byte EVENT_SCORES = 9;
+    static final byte SKIPPED = 10;
+    // bytes a score record claims for the student's event count, the most a varint int takes
+    static final int VERSION_SIZE = 5;
+    static final long DEFAULT_PUBLISH_TIMEOUT_MILLIS = 30000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives the mutations read back by {@link #replay(long, Handler)}
+     */
+    interface Handler {
+        void teacherAdded(String name, ScoringPreferences preferences);
+
+        void teacherUpdated(String name, ScoringPreferences preferences);
+
+        /**
+         * @param delta scores recorded by the mutation
+         * @param version the student's event count once the mutation was applied
+         */
+        void scoresRecorded(String teacherName, String studentName, ScoreTotals delta, int version);
+
+        /**
+         * @param ordinal number of periods the teacher had sealed once this one was
+         */
+        void periodClosed(String teacherName, String periodName, int ordinal);
+
+        void teacherRemoved(String name);
+
+        /**
+         * Called after {@link #scoresRecorded} for scores recorded with event ids
+         * @param eventIds the ids of the events the scores came from
+         */
+        void eventsRecorded(String teacherName, List<String> eventIds);
+    }
+
+    /**
+     * Receives the payloads copied by {@link #read(long, long, ByteBuffer, Records)}
+     */
+    interface Records {
+        /**
+         * @param payload the record's type byte and fields, valid only during the call
+         * @return false to stop before this record
+         */
+        boolean record(ByteBuffer payload);
+    }
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final SyncPolicy policy;
+    private final int regionSize;
+    private final Object syncLock = new Object();
+    private final ScheduledExecutorService syncer;
+    // longest a record waits for the records claimed before it to be published; tests shorten it
+    long publishTimeoutMillis = DEFAULT_PUBLISH_TIMEOUT_MILLIS;
+
+    // guarded by this
+    private MappedByteBuffer region;
+    private long regionStart;
+    // end of the records claimed so far, and the region holding the end of the published ones
+    private long claimed;
+    private MappedByteBuffer positionRegion;
+    private long recordsSinceSync = 0;
+    private boolean closed = false;
+    // position of a record that was claimed and never published, -1 while every record is published in time
+    private long stalledAt = -1;
+    // threads in awaitAppend or waiting to publish
+    private int waiters = 0;
+
+    // end of the records published so far; only the publisher of the record that starts there moves it
+    private volatile long position;
+    private volatile long syncedPosition;
+
+    private Journal(File file, SyncPolicy policy, int regionSize) throws IOException {
+        this.file = file;
+        this.policy = policy;
+        boolean created = !file.exists() || file.length() == 0;
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        if (created) {
+            this.regionSize = regionSize;
+            mapRegion(0);
+            region.putInt(0, MAGIC);
+            region.putInt(4, regionSize);
+            position = HEADER_SIZE;
+        }
+        else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC) {
+                throw new JournalError(file + " is not a grade tracker journal");
+            }
+            this.regionSize = header.getInt(4);
+            position = scan(HEADER_SIZE, null);
+            mapRegion(position - position % this.regionSize);
+        }
+        claimed = position;
+        positionRegion = region;
+        syncedPosition = position;
+        if (policy.getKind() == SyncPolicy.Kind.EVERY_MILLIS) {
+            syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "journal-sync " + Journal.this.file.getName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            syncer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sync();
+                }
+            }, policy.getInterval(), policy.getInterval(), TimeUnit.MILLISECONDS);
+        }
+        else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Open a journal for appending, creating the file if it does not exist.  Call {@link #replay(long, Handler)} (or
+     * hand the journal to {@link GradeTrackerImpl}, which does) before appending.
+     * @param file journal file
+     * @param policy when appended records are forced to disk
+     * @return the open journal
+     * @throws JournalError when the file cannot be opened or is not a journal
+     */
+    public static Journal open(File file, SyncPolicy policy) {
+        return open(file, policy, DEFAULT_REGION_SIZE);
+    }
+
+    static Journal open(File file, SyncPolicy policy, int regionSize) {
+        try {
+            return new Journal(file, policy, regionSize);
+        }
+        catch (IOException e) {
+            throw new JournalError("Unable to open journal " + file, e);
+        }
+    }
+
+    /**
+     * @return position of the first record
+     */
+    long getStartPosition() {
+        return HEADER_SIZE;
+    }
+
+    /**
+     * @return position just after the last published record; every record before it is published too
+     */
+    long getPosition() {
+        return position;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Read back every record from a position up to the current end of the journal
+     * @param from position of the first record to read
+     * @param handler receives the records in the order they were appended
+     * @return position just after the last record read
+     */
+    long replay(long from, Handler handler) {
+        try {
+            return scan(from, handler);
+        }
+        catch (IOException e) {
+            throw new JournalError("Unable to read journal " + file, e);
+        }
+    }
+
+    /**
+     * Wait until a record is appended past a position
+     * @param beyond position the caller has already seen
+     * @param timeoutMillis longest time to wait
+     * @return the current end of the journal, which is still {@code beyond} when the wait timed out or the journal
+     * was closed
+     */
+    synchronized long awaitAppend(long beyond, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        waiters++;
+        try {
+            while (position <= beyond && !closed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+            return position;
+        }
+        finally {
+            waiters--;
+        }
+    }
+
+    /**
+     * Copy records between two positions through file reads rather than the mapped regions, so that tailing the
+     * journal maps nothing
+     * @param from position of the first record to copy
+     * @param to position to stop at, no further than {@link #getPosition()} returned
+     * @param scratch buffer the records are read into; a record larger than the buffer is read into one of its own
+     * @param records receives each payload, and may stop the copy early
+     * @return position just after the last record copied
+     * @throws JournalError when the file cannot be read
+     */
+    long read(long from, long to, ByteBuffer scratch, Records records) {
+        long at = from;
+        try {
+            while (at < to) {
+                long regionEnd = at - at % regionSize + regionSize;
+                if (regionEnd - at < RECORD_HEADER_SIZE) {
+                    at = regionEnd;
+                    continue;
+                }
+                ByteBuffer chunk = scratch;
+                chunk.clear();
+                chunk.limit((int) Math.min(chunk.capacity(), Math.min(to, regionEnd) - at));
+                readFully(chunk, at);
+                int offset = 0;
+                boolean padding = false;
+                while (chunk.limit() - offset >= RECORD_HEADER_SIZE) {
+                    int length = chunk.getInt(offset);
+                    if (length == -1) {
+                        padding = true;
+                        break;
+                    }
+                    if (length <= 0) {
+                        throw new JournalError("Journal " + file + " has no record at " + (at + offset));
+                    }
+                    if (offset + RECORD_HEADER_SIZE + length > chunk.limit()) {
+                        if (offset == 0 && RECORD_HEADER_SIZE + length > chunk.capacity()) {
+                            // larger than the scratch buffer
+                            chunk = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+                            readFully(chunk, at);
+                            continue;
+                        }
+                        break;
+                    }
+                    ByteBuffer payload = chunk.duplicate();
+                    payload.limit(offset + RECORD_HEADER_SIZE + length);
+                    payload.position(offset + RECORD_HEADER_SIZE);
+                    if (!records.record(payload)) {
+                        return at + offset;
+                    }
+                    offset += RECORD_HEADER_SIZE + length;
+                }
+                if (offset == 0 && !padding) {
+                    throw new JournalError("Journal " + file + " has a torn record at " + at);
+                }
+                at = padding ? regionEnd : at + offset;
+            }
+            return at;
+        }
+        catch (IOException e) {
+            throw new JournalError("Unable to read journal " + file, e);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, at + buffer.position()) < 0) {
+                throw new IOException("Journal " + file + " ends at " + (at + buffer.position()));
+            }
+        }
+        buffer.flip();
+    }
+
+    void appendTeacher(byte type, String name, ScoringPreferences preferences) {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        byte[] policyBytes = preferences.getPolicy().isDefault() ? null
+                : preferences.getPolicy().getDefinition().getBytes(UTF_8);
+        int length = 1 + sizeOf(nameBytes) + 24 + (policyBytes == null ? 0 : sizeOf(policyBytes));
+        Slot slot = claim(length);
+        try {
+            ByteBuffer buffer = slot.buffer;
+            buffer.put(type);
+            putBytes(buffer, nameBytes);
+            buffer.putDouble(preferences.getWeightAssignments());
+            buffer.putDouble(preferences.getWeightExams());
+            buffer.putDouble(preferences.getExtraCreditBonus());
+            if (policyBytes != null) {
+                putBytes(buffer, policyBytes);
+            }
+        }
+        catch (RuntimeException e) {
+            slot.abandon();
+            throw e;
+        }
+        slot.commit();
+    }
+
+    void appendTeacherRemoved(String name) {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        Slot slot = claim(1 + sizeOf(nameBytes));
+        try {
+            slot.buffer.put(REMOVE_TEACHER);
+            putBytes(slot.buffer, nameBytes);
+        }
+        catch (RuntimeException e) {
+            slot.abandon();
+            throw e;
+        }
+        slot.commit();
+    }
+
+    /**
+     * Claim a score record before the score is applied, so a journal that cannot take the record fails the write
+     * before anything changed.  Once the score is applied, {@link Slot#commit(int)} fills in the student's event count.
+     */
+    Slot claimScore(byte type, String teacherName, String studentName, double score) {
+        byte[] teacherBytes = teacherName.getBytes(UTF_8);
+        byte[] studentBytes = studentName.getBytes(UTF_8);
+        int length = 1 + sizeOf(teacherBytes) + sizeOf(studentBytes) + (type == EXTRA_CREDIT ? 0 : 8) + VERSION_SIZE;
+        Slot slot = claim(length);
+        try {
+            ByteBuffer buffer = slot.buffer;
+            buffer.put(type);
+            putBytes(buffer, teacherBytes);
+            putBytes(buffer, studentBytes);
+            if (type != EXTRA_CREDIT) {
+                buffer.putDouble(score);
+            }
+            slot.skipVersion();
+        }
+        catch (RuntimeException e) {
+            slot.abandon();
+            throw e;
+        }
+        return slot;
+    }
+
+    /**
+     * Append a batch score record whose scores are already applied
+     */
+    void appendScores(String teacherName, String studentName, ScoreTotals delta, int version) {
+        claimScores(teacherName, studentName, delta, null).commit(version);
+    }
+
+    /**
+     * Claim a batch score record, like {@link #claimScore}, together with the ids of the events it sums, so a replay
+     * knows the ids as well
+     * @param eventIds ids of the events, or null
+     */
+    Slot claimScores(String teacherName, String studentName, ScoreTotals delta, List<String> eventIds) {
+        byte[] teacherBytes = teacherName.getBytes(UTF_8);
+        byte[] studentBytes = studentName.getBytes(UTF_8);
+        int length = 1 + sizeOf(teacherBytes) + sizeOf(studentBytes)
+                + sizeOf(delta.getAssignmentsCount()) + 8 + sizeOf(delta.getExamsCount()) + 8
+                + sizeOf(delta.getExtraCredits()) + VERSION_SIZE;
+        byte[][] idBytes = null;
+        if (eventIds != null && !eventIds.isEmpty()) {
+            idBytes = new byte[eventIds.size()][];
+            length += sizeOf(idBytes.length);
+            for (int i = 0; i < idBytes.length; i++) {
+                idBytes[i] = eventIds.get(i).getBytes(UTF_8);
+                length += sizeOf(idBytes[i]);
+            }
+        }
+        LowestScores lowest = delta.getLowest();
+        if (lowest != null) {
+            length += lowest.encodedSize();
+        }
+        Slot slot = claim(length);
+        try {
+            ByteBuffer buffer = slot.buffer;
+            buffer.put(idBytes == null ? SCORES : EVENT_SCORES);
+            putBytes(buffer, teacherBytes);
+            putBytes(buffer, studentBytes);
+            putVarint(buffer, delta.getAssignmentsCount());
+            buffer.putDouble(delta.getAssignmentsSum());
+            putVarint(buffer, delta.getExamsCount());
+            buffer.putDouble(delta.getExamsSum());
+            putVarint(buffer, delta.getExtraCredits());
+            slot.skipVersion();
+            if (idBytes != null) {
+                putVarint(buffer, idBytes.length);
+                for (byte[] id : idBytes) {
+                    putBytes(buffer, id);
+                }
+            }
+            if (lowest != null) {
+                lowest.put(buffer);
+            }
+        }
+        catch (RuntimeException e) {
+            slot.abandon();
+            throw e;
+        }
+        return slot;
+    }
+
+    /**
+     * Append a period close.  The caller keeps the teacher's score writers out while sealing the period and
+     * appending its record, so every score record of the teacher is on the right side of it.
+     */
+    void appendPeriodClosed(String teacherName, String periodName, int ordinal) {
+        byte[] teacherBytes = teacherName.getBytes(UTF_8);
+        byte[] periodBytes = periodName.getBytes(UTF_8);
+        Slot slot = claim(1 + sizeOf(teacherBytes) + sizeOf(periodBytes) + sizeOf(ordinal));
+        try {
+            ByteBuffer buffer = slot.buffer;
+            buffer.put(CLOSE_PERIOD);
+            putBytes(buffer, teacherBytes);
+            putBytes(buffer, periodBytes);
+            putVarint(buffer, ordinal);
+        }
+        catch (RuntimeException e) {
+            slot.abandon();
+            throw e;
+        }
+        slot.commit();
+    }
+
+    /**
+     * Force every record appended so far to disk
+     */
+    public void sync() {
+        sync(position);
+    }
+
+    /**
+     * Force the journal to disk unless another writer already forced it past the given position
+     */
+    private void sync(long upTo) {
+        if (syncedPosition >= upTo) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedPosition >= upTo) {
+                return;
+            }
+            MappedByteBuffer current;
+            long end;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                current = positionRegion;
+                end = position;
+            }
+            // earlier regions were forced when the first record past them was published
+            current.force();
+            syncedPosition = end;
+        }
+    }
+
+    /**
+     * Force outstanding records to disk and release the file
+     */
+    @Override
+    public void close() {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        sync();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            try {
+                channel.close();
+                randomAccessFile.close();
+            }
+            catch (IOException e) {
+                throw new JournalError("Unable to close journal " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Reserve room for a record in the current region, moving to the next region when it doesn't fit.  This is the
+     * only part of an append that holds the journal lock.
+     * @return the record's slot, positioned at the start of its payload
+     */
+    private Slot claim(int length) {
+        synchronized (this) {
+            if (closed) {
+                throw new JournalError("Journal " + file + " is closed");
+            }
+            if (stalledAt >= 0) {
+                throw stalled();
+            }
+            if (RECORD_HEADER_SIZE + length > regionSize - (regionStart == 0 ? HEADER_SIZE : 0)) {
+                throw new JournalError("Record of " + length + " bytes does not fit in a journal region");
+            }
+            long after = claimed;
+            int offset = (int) (claimed - regionStart);
+            MappedByteBuffer finished = null;
+            if (offset + RECORD_HEADER_SIZE + length > regionSize) {
+                finished = region;
+                mapRegion(regionStart + regionSize);
+                if (regionSize - offset >= 4) {
+                    finished.putInt(offset, -1);
+                }
+                offset = 0;
+            }
+            claimed = regionStart + offset + RECORD_HEADER_SIZE + length;
+            return new Slot(region, regionStart + offset, offset, length, after, finished);
+        }
+    }
+
+    /**
+     * Publish a record by writing its length, once every record claimed before it is published, then force to disk
+     * according to the sync policy
+     */
+    private void publish(Slot slot) {
+        // records are published in the order they were claimed, so the journal has no gap before its position
+        if (position != slot.after) {
+            awaitPublished(slot.after);
+        }
+        if (slot.finished != null) {
+            // make the finished region durable before the writers in the next one can be acknowledged
+            slot.finished.force();
+        }
+        slot.region.putInt(slot.offset, slot.length);
+        long end = slot.start + RECORD_HEADER_SIZE + slot.length;
+        synchronized (this) {
+            positionRegion = slot.region;
+            position = end;
+            recordsSinceSync++;
+            if (waiters > 0) {
+                notifyAll();
+            }
+            if (policy.getKind() == SyncPolicy.Kind.EVERY_RECORDS) {
+                if (recordsSinceSync < policy.getInterval()) {
+                    return;
+                }
+                recordsSinceSync = 0;
+            }
+            else if (policy.getKind() != SyncPolicy.Kind.EVERY_WRITE) {
+                return;
+            }
+        }
+        sync(end);
+    }
+
+    /**
+     * Wait for every record claimed before a position to be published.  Every claim site abandons a record it cannot
+     * commit, so the wait is normally short; it gives up after {@link #publishTimeoutMillis} only when a thread
+     * stopped between claiming a record and committing it.  The journal then refuses new records, rather than have
+     * every later writer wait for one that will never come.
+     */
+    private synchronized void awaitPublished(long after) {
+        long deadline = System.currentTimeMillis() + publishTimeoutMillis;
+        waiters++;
+        try {
+            while (position != after) {
+                if (closed) {
+                    throw new JournalError("Journal " + file + " is closed");
+                }
+                if (stalledAt >= 0) {
+                    throw stalled();
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    stalledAt = position;
+                    notifyAll();
+                    throw stalled();
+                }
+                wait(remaining);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JournalError("Interrupted while publishing to journal " + file, e);
+        }
+        finally {
+            waiters--;
+        }
+    }
+
+    private JournalError stalled() {
+        return new JournalError("Journal " + file + " stopped at " + stalledAt
+                + ", where a record was claimed and never published");
+    }
+
+    /**
+     * Room claimed for one record.  The claiming thread writes the payload through {@link #buffer}, without the
+     * journal lock, and then commits it.  Records are published in the order they were claimed, so a slot must be
+     * committed, or abandoned when its payload could not be written or its change applied, or later records wait for
+     * it until the journal gives up, see {@link #awaitPublished(long)}.
+     */
+    final class Slot {
+        final ByteBuffer buffer;
+        private final MappedByteBuffer region;
+        private final long start;
+        private final int offset;
+        private final int length;
+        // end of the record claimed before this one
+        private final long after;
+        // the region this record's claim moved past, or null
+        private final MappedByteBuffer finished;
+        private int versionAt = -1;
+
+        private Slot(MappedByteBuffer region, long start, int offset, int length, long after,
+                     MappedByteBuffer finished) {
+            this.region = region;
+            this.start = start;
+            this.offset = offset;
+            this.length = length;
+            this.after = after;
+            this.finished = finished;
+            this.buffer = region.duplicate();
+            buffer.limit(offset + RECORD_HEADER_SIZE + length);
+            buffer.position(offset + RECORD_HEADER_SIZE);
+        }
+
+        private void skipVersion() {
+            versionAt = buffer.position();
+            buffer.position(versionAt + VERSION_SIZE);
+        }
+
+        /**
+         * Checksum the payload and publish the record
+         */
+        void commit() {
+            ByteBuffer payload = region.duplicate();
+            payload.limit(offset + RECORD_HEADER_SIZE + length);
+            payload.position(offset + RECORD_HEADER_SIZE);
+            CRC32 checksum = new CRC32();
+            checksum.update(payload);
+            region.putInt(offset + 4, (int) checksum.getValue());
+            publish(this);
+        }
+
+        /**
+         * Fill in a score record's event count and publish it
+         * @param version the student's event count once the score was applied
+         */
+        void commit(int version) {
+            int at = versionAt;
+            for (int i = 1; i < VERSION_SIZE; i++) {
+                // padded with continuation bits to the size claimed for it
+                region.put(at++, (byte) ((version & 0x7f) | 0x80));
+                version >>>= 7;
+            }
+            region.put(at, (byte) version);
+            commit();
+        }
+
+        /**
+         * Publish the record as one a replay skips, when the change it was claimed for failed
+         */
+        void abandon() {
+            region.put(offset + RECORD_HEADER_SIZE, SKIPPED);
+            commit();
+        }
+    }
+
+    private void mapRegion(long start) {
+        try {
+            region = channel.map(FileChannel.MapMode.READ_WRITE, start, regionSize);
+            regionStart = start;
+        }
+        catch (IOException e) {
+            throw new JournalError("Unable to map journal " + file + " at " + start, e);
+        }
+    }
+
+    /**
+     * Walk the records from a position, validating each one
+     * @param handler receives the records, or null to only find the end
+     * @return position just after the last valid record
+     */
+    private long scan(long from, Handler handler) throws IOException {
+        long fileSize = channel.size();
+        long at = from;
+        CRC32 checksum = new CRC32();
+        while (at < fileSize) {
+            long start = at - at % regionSize;
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(regionSize, fileSize - start));
+            int offset = (int) (at - start);
+            while (true) {
+                if (mapped.limit() - offset < RECORD_HEADER_SIZE) {
+                    break;
+                }
+                int length = mapped.getInt(offset);
+                if (length == -1) {
+                    break;
+                }
+                if (length <= 0 || offset + RECORD_HEADER_SIZE + length > mapped.limit()) {
+                    return start + offset;
+                }
+                ByteBuffer payload = mapped.duplicate();
+                payload.position(offset + RECORD_HEADER_SIZE);
+                payload.limit(offset + RECORD_HEADER_SIZE + length);
+                checksum.reset();
+                checksum.update(payload.duplicate());
+                if ((int) checksum.getValue() != mapped.getInt(offset + 4)) {
+                    return start + offset;
+                }
+                if (handler != null) {
+                    decode(payload, handler);
+                }
+                offset += RECORD_HEADER_SIZE + length;
+            }
+            at = start + regionSize;
+            if (mapped.limit() < regionSize) {
+                return start + offset;
+            }
+        }
+        return Math.max(from, Math.min(at, fileSize));
+    }
+
+    static void decode(ByteBuffer payload, Handler handler) {
+        byte type = payload.get();
+        switch (type) {
+            case ADD_TEACHER:
+            case UPDATE_TEACHER: {
+                String name = getString(payload);
+                double weightAssignments = payload.getDouble();
+                double weightExams = payload.getDouble();
+                double extraCreditBonus = payload.getDouble();
+                GradingPolicy policy = payload.hasRemaining() ? GradingPolicy.parse(getString(payload))
+                        : GradingPolicy.DEFAULT;
+                ScoringPreferences preferences = new ScoringPreferences(weightAssignments, weightExams,
+                        extraCreditBonus, policy);
+                if (type == ADD_TEACHER) {
+                    handler.teacherAdded(name, preferences);
+                }
+                else {
+                    handler.teacherUpdated(name, preferences);
+                }
+                break;
+            }
+            case ASSIGNMENT:
+            case EXAM:
+            case EXTRA_CREDIT: {
+                String teacherName = getString(payload);
+                String studentName = getString(payload);
+                ScoreTotals delta;
+                if (type == ASSIGNMENT) {
+                    delta = ScoreTotals.EMPTY.plusAssignment(payload.getDouble());
+                }
+                else if (type == EXAM) {
+                    delta = ScoreTotals.EMPTY.plusExam(payload.getDouble());
+                }
+                else {
+                    delta = ScoreTotals.EMPTY.plusExtraCredit();
+                }
+                handler.scoresRecorded(teacherName, studentName, delta, getVarint(payload));
+                break;
+            }
+            case SCORES:
+            case EVENT_SCORES: {
+                String teacherName = getString(payload);
+                String studentName = getString(payload);
+                int assignmentsCount = getVarint(payload);
+                double assignmentsSum = payload.getDouble();
+                int examsCount = getVarint(payload);
+                double examsSum = payload.getDouble();
+                int extraCredits = getVarint(payload);
+                ScoreTotals delta = new ScoreTotals(extraCredits, examsCount, examsSum, assignmentsCount, assignmentsSum);
+                int version = getVarint(payload);
+                List<String> eventIds = null;
+                if (type == EVENT_SCORES) {
+                    int count = getVarint(payload);
+                    eventIds = new ArrayList<String>(count);
+                    for (int i = 0; i < count; i++) {
+                        eventIds.add(getString(payload));
+                    }
+                }
+                if (payload.hasRemaining()) {
+                    delta = delta.withLowest(LowestScores.get(payload));
+                }
+                handler.scoresRecorded(teacherName, studentName, delta, version);
+                if (eventIds != null) {
+                    handler.eventsRecorded(teacherName, eventIds);
+                }
+                break;
+            }
+            case CLOSE_PERIOD: {
+                String teacherName = getString(payload);
+                String periodName = getString(payload);
+                handler.periodClosed(teacherName, periodName, getVarint(payload));
+                break;
+            }
+            case REMOVE_TEACHER:
+                handler.teacherRemoved(getString(payload));
+                break;
+            case SKIPPED:
+                break;
+            default:
+                throw new JournalError("Unknown journal record type " + type);
+        }
+    }
+
+    static int sizeOf(byte[] bytes) {
+        return sizeOf(bytes.length) + bytes.length;
+    }
+
+    static int sizeOf(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        putVarint(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[getVarint(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "Journal{" +
+                "file=" + file +
+                ", policy=" + policy +
+                '}';
+    }
+}
@@ -0,0 +1,21 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Runtime error thrown when the journal cannot be read or written
+ */
+public class JournalError extends RuntimeException {
+    public JournalError() {
+    }
+
+    public JournalError(String s) {
+        super(s);
+    }
+
+    public JournalError(String s, Throwable throwable) {
+        super(s, throwable);
+    }
+
+    public JournalError(Throwable throwable) {
+        super(throwable);
+    }
+}
@@ -0,0 +1,290 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Streams a primary's {@link Journal} to {@link GradeTrackerReplica}s.  Each replica connects, names the journal
+ * position it has applied up to, and from then on receives every record appended past it.
+ * <br/>
+ * Records are shipped in frames: whatever was appended while the previous frame was being sent goes out together, up
+ * to 256KB, so a busy primary sends few large frames and an idle one sends each record as soon as it is appended.
+ * Each record is its journal payload behind a varint length, without the journal's CRC and region padding, and frames
+ * of 4KB or more are deflated; names repeat from record to record, so deflated frames are several times smaller.
+ * An idle connection gets an empty frame every second, which tells the replica it is caught up.
+ * <br/>
+ * Frame layout: flags byte ({@link #DEFLATED} or 0, or {@link #FAILED} followed by a message), int record count,
+ * long position after the frame's records, long end of the primary's journal, int body length, the int inflated
+ * length when deflated, and the body.
+ * <br/>
+ * There is no authentication or encryption: bind to the loopback interface, the default, or a trusted network.
+ */
+public class JournalShipper implements Closeable {
+    static final int MAGIC = 0x47545231;
+    static final byte DEFLATED = 1;
+    static final byte FAILED = 2;
+
+    static final int MAX_FRAME_BYTES = 256 << 10;
+    static final int HEARTBEAT_MILLIS = 1000;
+    private static final int DEFLATE_AT = 4 << 10;
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final Journal journal;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    /**
+     * Ship a journal from an ephemeral port of the loopback interface
+     * @param journal the primary's journal
+     * @throws JournalError when the port cannot be opened
+     */
+    public JournalShipper(Journal journal) {
+        this(journal, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    /**
+     * @param journal the primary's journal
+     * @param bindAddress interface and port to listen on; port 0 picks a free one
+     * @throws JournalError when the port cannot be opened
+     */
+    public JournalShipper(Journal journal, InetSocketAddress bindAddress) {
+        assert journal != null;
+        this.journal = journal;
+        try {
+            this.serverSocket = new ServerSocket();
+            // a restarted primary takes its port back while the old replica connections linger
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(bindAddress);
+        }
+        catch (IOException e) {
+            throw new JournalError("Unable to listen on " + bindAddress, e);
+        }
+        this.acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "journal-shipper-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return host:port to pass to {@link GradeTrackerReplica}
+     */
+    public String getAddress() {
+        return serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return end of the primary's journal; a replica whose applied position has reached it has every change made so
+     * far, see {@link GradeTrackerReplica#awaitPosition(long, long)}
+     */
+    public long getPosition() {
+        return journal.getPosition();
+    }
+
+    /**
+     * @return number of replicas connected
+     */
+    public int getReplicaCount() {
+        return connections.size();
+    }
+
+    private void accept() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+            }
+            catch (IOException e) {
+                // closed, or a connection that failed before it was accepted
+                continue;
+            }
+            connections.add(socket);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ship(socket);
+                }
+            }, "journal-replica-" + connectionCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void ship(Socket socket) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+                    BUFFER_SIZE));
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            long shipped = in.readLong();
+            if (shipped == 0) {
+                shipped = journal.getStartPosition();
+            }
+            long end = journal.getPosition();
+            if (shipped < journal.getStartPosition() || shipped > end) {
+                out.writeByte(FAILED);
+                out.writeUTF("Replica position " + shipped + " is not in the primary's journal, which ends at " + end);
+                out.flush();
+                return;
+            }
+            Frame frame = new Frame();
+            ByteBuffer scratch = ByteBuffer.allocate(MAX_FRAME_BYTES);
+            while (!closed) {
+                end = journal.awaitAppend(shipped, HEARTBEAT_MILLIS);
+                if (end == shipped && journal.isClosed()) {
+                    return;
+                }
+                do {
+                    frame.clear();
+                    long next = journal.read(shipped, end, scratch, frame);
+                    frame.write(out, deflater, next, end);
+                    out.flush();
+                    shipped = next;
+                } while (shipped < end && !closed);
+            }
+        }
+        catch (IOException e) {
+            // the replica went away; it reconnects from the position it has applied
+        }
+        catch (JournalError e) {
+            // the journal was closed
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            deflater.end();
+            connections.remove(socket);
+            try {
+                socket.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Records collected for one frame
+     */
+    private static class Frame implements Journal.Records {
+        private byte[] body = new byte[MAX_FRAME_BYTES + 16];
+        private byte[] deflated = new byte[MAX_FRAME_BYTES + 64];
+        private int length;
+        private int count;
+
+        void clear() {
+            length = 0;
+            count = 0;
+        }
+
+        @Override
+        public boolean record(ByteBuffer payload) {
+            int size = payload.remaining();
+            if (count > 0 && length + 5 + size > MAX_FRAME_BYTES) {
+                return false;
+            }
+            if (length + 5 + size > body.length) {
+                // a record larger than a frame goes out alone
+                body = Arrays.copyOf(body, length + 5 + size);
+            }
+            int value = size;
+            while ((value & ~0x7f) != 0) {
+                body[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            body[length++] = (byte) value;
+            payload.get(body, length, size);
+            length += size;
+            count++;
+            return true;
+        }
+
+        void write(DataOutputStream out, Deflater deflater, long position, long end) throws IOException {
+            if (length >= DEFLATE_AT) {
+                deflater.reset();
+                deflater.setInput(body, 0, length);
+                deflater.finish();
+                int size = 0;
+                while (!deflater.finished()) {
+                    if (size == deflated.length) {
+                        deflated = Arrays.copyOf(deflated, deflated.length * 2);
+                    }
+                    size += deflater.deflate(deflated, size, deflated.length - size);
+                }
+                out.writeByte(DEFLATED);
+                out.writeInt(count);
+                out.writeLong(position);
+                out.writeLong(end);
+                out.writeInt(size);
+                out.writeInt(length);
+                out.write(deflated, 0, size);
+            }
+            else {
+                out.writeByte(0);
+                out.writeInt(count);
+                out.writeLong(position);
+                out.writeLong(end);
+                out.writeInt(length);
+                out.write(body, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Stop shipping and disconnect every replica.  The journal stays open, and the port is free again once this
+     * returns.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+            // the socket keeps listening until the acceptor has left accept()
+            acceptor.join();
+        }
+        catch (IOException ignored) {
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JournalShipper{" +
+                "address=" + getAddress() +
+                ", replicas=" + connections.size() +
+                '}';
+    }
+}
@@ -0,0 +1,119 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets: values below 8ns get a bucket each, and every power of two above
+ * that is split into 8 buckets, so a reported percentile is within 1/16 of the true value.  Counts live in one
+ * {@link AtomicLongArray} per stripe, and each thread records into the stripe chosen by its id, so threads on different
+ * cores rarely write the same cache line.
+ * <br/>
+ * Callers record a random sample of calls, see {@link GradeTrackerMetrics}, so the histogram only sees timed calls.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 2^40ns is about 18 minutes; anything longer lands in the last bucket
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    // per stripe: calls recorded, sum of their nanos, max nanos, then the buckets
+    private static final int SAMPLES = 0;
+    private static final int SUM = 1;
+    private static final int MAX = 2;
+    private static final int HEADER = 3;
+    private static final int STRIPE_MASK = stripeCount() - 1;
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPE_MASK + 1];
+
+    LatencyHistogram() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AtomicLongArray(HEADER + BUCKETS);
+        }
+    }
+
+    /**
+     * Record a timed call
+     * @param nanos how long it took
+     */
+    void record(long nanos) {
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & STRIPE_MASK];
+        nanos = Math.max(0, nanos);
+        stripe.getAndIncrement(SAMPLES);
+        stripe.getAndAdd(SUM, nanos);
+        stripe.getAndIncrement(HEADER + bucket(nanos));
+        long max;
+        while (nanos > (max = stripe.get(MAX)) && !stripe.compareAndSet(MAX, max, nanos)) {
+            // another thread raised the max; compare again
+        }
+    }
+
+    /**
+     * @param sampleEvery one call in this many was recorded, used to estimate the number of calls
+     * @return counts and percentiles so far.  Calls recorded while the snapshot is taken may be partly included.
+     */
+    LatencySnapshot snapshot(int sampleEvery) {
+        long samples = 0;
+        long sum = 0;
+        long max = 0;
+        long[] buckets = new long[BUCKETS];
+        for (AtomicLongArray stripe : stripes) {
+            samples += stripe.get(SAMPLES);
+            sum += stripe.get(SUM);
+            max = Math.max(max, stripe.get(MAX));
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += stripe.get(HEADER + i);
+            }
+        }
+        long total = 0;
+        for (long count : buckets) {
+            total += count;
+        }
+        return new LatencySnapshot(samples * sampleEvery, samples, samples == 0 ? 0 : sum / samples,
+                percentile(buckets, total, 50, max), percentile(buckets, total, 90, max),
+                percentile(buckets, total, 99, max), percentile(buckets, total, 99.9, max), max);
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the middle of a bucket's range of values
+     */
+    static long midpoint(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return low + (1L << shift) / 2;
+    }
+
+    private static long percentile(long[] buckets, long total, double percentile, long max) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * total);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(midpoint(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int stripeCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.min(64, Integer.highestOneBit(Math.max(1, processors * 2 - 1)));
+    }
+}
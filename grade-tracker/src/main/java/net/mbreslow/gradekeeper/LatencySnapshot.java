@@ -0,0 +1,80 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Immutable summary of one operation's latency histogram.  Only a random sample of calls is timed; percentiles, mean
+ * and max come from that sample, and {@link #getEstimatedCount()} scales its size up to all calls.
+ */
+public class LatencySnapshot {
+    private final long estimatedCount;
+    private final long sampledCount;
+    private final long meanNanos;
+    private final long p50Nanos;
+    private final long p90Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+    private final long maxNanos;
+
+    LatencySnapshot(long estimatedCount, long sampledCount, long meanNanos, long p50Nanos, long p90Nanos, long p99Nanos,
+                    long p999Nanos, long maxNanos) {
+        this.estimatedCount = estimatedCount;
+        this.sampledCount = sampledCount;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * @return estimated number of calls, including ones that failed: the number timed times the sampling interval
+     */
+    public long getEstimatedCount() {
+        return estimatedCount;
+    }
+
+    /**
+     * @return number of calls that were timed
+     */
+    public long getSampledCount() {
+        return sampledCount;
+    }
+
+    public long getMeanNanos() {
+        return meanNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP90Nanos() {
+        return p90Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySnapshot{" +
+                "estimatedCount=" + estimatedCount +
+                ", sampledCount=" + sampledCount +
+                ", meanNanos=" + meanNanos +
+                ", p50Nanos=" + p50Nanos +
+                ", p90Nanos=" + p90Nanos +
+                ", p99Nanos=" + p99Nanos +
+                ", p999Nanos=" + p999Nanos +
+                ", maxNanos=" + maxNanos +
+                '}';
+    }
+}
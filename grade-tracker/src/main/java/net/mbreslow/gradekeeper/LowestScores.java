@@ -0,0 +1,263 @@
+package net.mbreslow.gradekeeper;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable record of a student's lowest assignment and exam scores, for {@link GradingPolicy} rules that drop them.
+ * Each category keeps up to its capacity of scores in ascending order: a bounded heap that, like {@link ScoreTotals},
+ * is replaced rather than changed.  A score above every kept one, once the category is full, leaves the record as it
+ * is, so in steady state most scores allocate nothing here.
+ * <br/>
+ * Each category also counts the scores the record never saw, such as those recorded before the student's Teacher
+ * started keeping lowest scores.  Any of those might be lower than the kept ones, so the kept scores of a category
+ * are its true lowest only while that count is zero.
+ * <br/>
+ * Encoding: for each category, assignments first, varint capacity, varint size, the scores as doubles and the varint
+ * count of unseen scores.
+ */
+final class LowestScores {
+    private static final double[] NONE = new double[0];
+
+    private final int assignmentsCapacity;
+    private final double[] assignments;
+    private final int assignmentsUnseen;
+    private final int examsCapacity;
+    private final double[] exams;
+    private final int examsUnseen;
+
+    private LowestScores(int assignmentsCapacity, double[] assignments, int assignmentsUnseen, int examsCapacity,
+                         double[] exams, int examsUnseen) {
+        this.assignmentsCapacity = assignmentsCapacity;
+        this.assignments = assignments;
+        this.assignmentsUnseen = assignmentsUnseen;
+        this.examsCapacity = examsCapacity;
+        this.exams = exams;
+        this.examsUnseen = examsUnseen;
+    }
+
+    /**
+     * @param assignments number of lowest assignment scores to keep
+     * @param exams number of lowest exam scores to keep
+     * @return a record with no scores
+     */
+    static LowestScores empty(int assignments, int exams) {
+        return new LowestScores(assignments, NONE, 0, exams, NONE, 0);
+    }
+
+    LowestScores plusAssignment(double score) {
+        double[] kept = insert(assignments, assignmentsCapacity, score);
+        return kept == assignments ? this
+                : new LowestScores(assignmentsCapacity, kept, assignmentsUnseen, examsCapacity, exams, examsUnseen);
+    }
+
+    LowestScores plusExam(double score) {
+        double[] kept = insert(exams, examsCapacity, score);
+        return kept == exams ? this : new LowestScores(assignmentsCapacity, assignments, assignmentsUnseen,
+                examsCapacity, kept, examsUnseen);
+    }
+
+    /**
+     * @param assignments number of assignment scores recorded without the record seeing them
+     * @param exams number of exam scores recorded without the record seeing them
+     * @return the same record, incomplete for each category with unseen scores
+     */
+    LowestScores plusUnseen(int assignments, int exams) {
+        if (assignments == 0 && exams == 0) {
+            return this;
+        }
+        return new LowestScores(assignmentsCapacity, this.assignments, assignmentsUnseen + assignments, examsCapacity,
+                this.exams, examsUnseen + exams);
+    }
+
+    /**
+     * Add the scores behind a delta.  Its own lowest scores are merged in; a delta without them contributes a score
+     * only when it holds a single score of a category, which is then known exactly, and counts as unseen otherwise.
+     * @param delta totals being added
+     * @return the record including the delta's scores
+     */
+    LowestScores plus(ScoreTotals delta) {
+        LowestScores other = delta.getLowest();
+        if (other != null) {
+            return new LowestScores(Math.max(assignmentsCapacity, other.assignmentsCapacity),
+                    merge(assignments, other.assignments, Math.max(assignmentsCapacity, other.assignmentsCapacity)),
+                    assignmentsUnseen + other.assignmentsUnseen, Math.max(examsCapacity, other.examsCapacity),
+                    merge(exams, other.exams, Math.max(examsCapacity, other.examsCapacity)),
+                    examsUnseen + other.examsUnseen);
+        }
+        LowestScores result = this;
+        if (delta.getAssignmentsCount() == 1) {
+            result = result.plusAssignment(delta.getAssignmentsSum());
+        }
+        if (delta.getExamsCount() == 1) {
+            result = result.plusExam(delta.getExamsSum());
+        }
+        return result.plusUnseen(delta.getAssignmentsCount() > 1 ? delta.getAssignmentsCount() : 0,
+                delta.getExamsCount() > 1 ? delta.getExamsCount() : 0);
+    }
+
+    /**
+     * @return a record keeping at least as many scores of each category, with the scores kept so far
+     */
+    LowestScores withCapacity(int assignments, int exams) {
+        if (assignments <= assignmentsCapacity && exams <= examsCapacity) {
+            return this;
+        }
+        return new LowestScores(Math.max(assignments, assignmentsCapacity), this.assignments, assignmentsUnseen,
+                Math.max(exams, examsCapacity), this.exams, examsUnseen);
+    }
+
+    /**
+     * @return a record with the same capacities and no scores, complete again
+     */
+    LowestScores cleared() {
+        return assignments.length == 0 && exams.length == 0 && assignmentsUnseen == 0 && examsUnseen == 0 ? this
+                : empty(assignmentsCapacity, examsCapacity);
+    }
+
+    /**
+     * @param count number of scores wanted
+     * @return sum of up to count of the lowest assignment scores kept
+     */
+    double sumLowestAssignments(int count) {
+        return sum(assignments, count);
+    }
+
+    /**
+     * @return number of assignment scores kept
+     */
+    int getAssignmentsSize() {
+        return assignments.length;
+    }
+
+    /**
+     * @return true when the record saw every assignment score, so the kept ones are the lowest of them all
+     */
+    boolean isAssignmentsComplete() {
+        return assignmentsUnseen == 0;
+    }
+
+    /**
+     * @param count number of scores wanted
+     * @return sum of up to count of the lowest exam scores kept
+     */
+    double sumLowestExams(int count) {
+        return sum(exams, count);
+    }
+
+    /**
+     * @return number of exam scores kept
+     */
+    int getExamsSize() {
+        return exams.length;
+    }
+
+    /**
+     * @return true when the record saw every exam score, so the kept ones are the lowest of them all
+     */
+    boolean isExamsComplete() {
+        return examsUnseen == 0;
+    }
+
+    int getAssignmentsCapacity() {
+        return assignmentsCapacity;
+    }
+
+    int getExamsCapacity() {
+        return examsCapacity;
+    }
+
+    private static double sum(double[] scores, int count) {
+        double sum = 0;
+        for (int i = 0; i < count && i < scores.length; i++) {
+            sum += scores[i];
+        }
+        return sum;
+    }
+
+    private static double[] insert(double[] scores, int capacity, double score) {
+        int size = scores.length;
+        if (size == capacity && (size == 0 || score >= scores[size - 1])) {
+            return scores;
+        }
+        int at = size;
+        while (at > 0 && scores[at - 1] > score) {
+            at--;
+        }
+        double[] kept = new double[Math.min(size + 1, capacity)];
+        System.arraycopy(scores, 0, kept, 0, at);
+        kept[at] = score;
+        System.arraycopy(scores, at, kept, at + 1, kept.length - at - 1);
+        return kept;
+    }
+
+    private static double[] merge(double[] left, double[] right, int capacity) {
+        if (right.length == 0 && left.length <= capacity) {
+            return left;
+        }
+        double[] merged = new double[Math.min(left.length + right.length, capacity)];
+        int l = 0;
+        int r = 0;
+        for (int i = 0; i < merged.length; i++) {
+            merged[i] = r == right.length || (l < left.length && left[l] <= right[r]) ? left[l++] : right[r++];
+        }
+        return merged;
+    }
+
+    /**
+     * @return bytes {@link #put(ByteBuffer)} writes
+     */
+    int encodedSize() {
+        return Journal.sizeOf(assignmentsCapacity) + Journal.sizeOf(assignments.length)
+                + Journal.sizeOf(assignmentsUnseen) + Journal.sizeOf(examsCapacity) + Journal.sizeOf(exams.length)
+                + Journal.sizeOf(examsUnseen) + 8 * (assignments.length + exams.length);
+    }
+
+    void put(ByteBuffer buffer) {
+        Journal.putVarint(buffer, assignmentsCapacity);
+        Journal.putVarint(buffer, assignments.length);
+        for (double score : assignments) {
+            buffer.putDouble(score);
+        }
+        Journal.putVarint(buffer, assignmentsUnseen);
+        Journal.putVarint(buffer, examsCapacity);
+        Journal.putVarint(buffer, exams.length);
+        for (double score : exams) {
+            buffer.putDouble(score);
+        }
+        Journal.putVarint(buffer, examsUnseen);
+    }
+
+    static LowestScores get(ByteBuffer buffer) {
+        int assignmentsCapacity = Journal.getVarint(buffer);
+        double[] assignments = getScores(buffer);
+        int assignmentsUnseen = Journal.getVarint(buffer);
+        int examsCapacity = Journal.getVarint(buffer);
+        double[] exams = getScores(buffer);
+        int examsUnseen = Journal.getVarint(buffer);
+        return new LowestScores(assignmentsCapacity, assignments, assignmentsUnseen, examsCapacity, exams,
+                examsUnseen);
+    }
+
+    private static double[] getScores(ByteBuffer buffer) {
+        int size = Journal.getVarint(buffer);
+        if (size == 0) {
+            return NONE;
+        }
+        double[] scores = new double[size];
+        for (int i = 0; i < size; i++) {
+            scores[i] = buffer.getDouble();
+        }
+        return scores;
+    }
+
+    @Override
+    public String toString() {
+        return "LowestScores{" +
+                "assignments=" + Arrays.toString(assignments) +
+                ", assignmentsUnseen=" + assignmentsUnseen +
+                ", exams=" + Arrays.toString(exams) +
+                ", examsUnseen=" + examsUnseen +
+                '}';
+    }
+}
@@ -0,0 +1,139 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded queue of operations that runs them one at a time, in the order they were submitted, on a shared
+ * {@link Executor}.  At most one thread runs a mailbox's operations at any moment, so they never contend with each
+ * other.  Submitting to a full mailbox blocks the caller until an operation finishes, for at most the mailbox's offer
+ * timeout; the returned future then fails with {@link MailboxFullError}.  Operations that submit to their own mailbox
+ * never wait, since nothing can finish while they run.
+ */
+class Mailbox implements Runnable {
+    // operations run per turn on the executor before giving other mailboxes a chance
+    static final int OPERATIONS_PER_TURN = 256;
+
+    private final String name;
+    private final Executor executor;
+    private final int capacity;
+    private final long offerTimeoutNanos;
+    private final Queue<Runnable> operations = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // thread running the mailbox's operations, null between turns
+    private volatile Thread runner;
+    // callers waiting for room; only changed while holding this
+    private volatile int waiters = 0;
+
+    Mailbox(String name, Executor executor, int capacity, long offerTimeoutMillis) {
+        this.name = name;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+    }
+
+    /**
+     * Queue an operation
+     * @param operation work to run on the mailbox's turn
+     * @return completes with the operation's result, or exceptionally with what it threw or with
+     * {@link MailboxFullError} when the mailbox stayed full for the whole offer timeout
+     */
+    <T> CompletableFuture<T> submit(final Callable<T> operation) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            MailboxFullError full = awaitRoom();
+            if (full != null) {
+                future.completeExceptionally(full);
+                return future;
+            }
+        }
+        operations.add(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(operation.call());
+                }
+                catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this);
+        }
+        return future;
+    }
+
+    /**
+     * Wait for an operation to finish and take its place
+     * @return null once the caller holds a place, otherwise why it does not
+     */
+    private synchronized MailboxFullError awaitRoom() {
+        if (runner == Thread.currentThread()) {
+            return full(null);
+        }
+        long deadline = System.nanoTime() + offerTimeoutNanos;
+        waiters++;
+        try {
+            while (size.incrementAndGet() > capacity) {
+                size.decrementAndGet();
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return full(null);
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return null;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return full(e);
+        }
+        finally {
+            waiters--;
+        }
+    }
+
+    private MailboxFullError full(InterruptedException cause) {
+        return new MailboxFullError("Mailbox for " + name + " already holds " + capacity + " pending operations",
+                cause);
+    }
+
+    /**
+     * @return number of operations waiting or running
+     */
+    int getPending() {
+        return size.get();
+    }
+
+    @Override
+    public void run() {
+        Runnable operation;
+        int ran = 0;
+        runner = Thread.currentThread();
+        while (ran < OPERATIONS_PER_TURN && (operation = operations.poll()) != null) {
+            operation.run();
+            size.decrementAndGet();
+            ran++;
+            if (waiters > 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+        runner = null;
+        scheduled.set(false);
+        // an operation added after the last poll but before the flag was cleared would otherwise be stranded
+        if (!operations.isEmpty() && scheduled.compareAndSet(false, true)) {
+            executor.execute(this);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Runtime error thrown when a teacher's mailbox held as many pending operations as it is allowed to for as long as the
+ * caller was willing to wait for room.  The caller should back off and retry.
+ */
+public class MailboxFullError extends RuntimeException {
+    public MailboxFullError() {
+    }
+
+    public MailboxFullError(String s) {
+        super(s);
+    }
+
+    public MailboxFullError(String s, Throwable throwable) {
+        super(s, throwable);
+    }
+
+    public MailboxFullError(Throwable throwable) {
+        super(throwable);
+    }
+}
@@ -0,0 +1,90 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.Map;
+
+/**
+ * Immutable point-in-time copy of a service's {@link GradeTrackerMetrics}
+ */
+public class MetricsSnapshot {
+    private final Map<String, LatencySnapshot> latencies;
+    private final long objectNotFoundErrors;
+    private final long nameCollisionErrors;
+    private final long duplicateEvents;
+    private final long contendedStudentUpdates;
+    private final Map<String, Integer> rosterSizes;
+    private final RosterTierSnapshot rosterTier;
+
+    MetricsSnapshot(Map<String, LatencySnapshot> latencies, long objectNotFoundErrors, long nameCollisionErrors,
+                    long duplicateEvents, long contendedStudentUpdates, Map<String, Integer> rosterSizes, RosterTierSnapshot rosterTier) {
+        this.latencies = latencies;
+        this.objectNotFoundErrors = objectNotFoundErrors;
+        this.nameCollisionErrors = nameCollisionErrors;
+        this.duplicateEvents = duplicateEvents;
+        this.contendedStudentUpdates = contendedStudentUpdates;
+        this.rosterSizes = rosterSizes;
+        this.rosterTier = rosterTier;
+    }
+
+    /**
+     * @return latency of each {@link GradeTracker} operation, keyed by method name
+     */
+    public Map<String, LatencySnapshot> getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return number of {@link ObjectNotFoundError}s thrown or reported in a batch
+     */
+    public long getObjectNotFoundErrors() {
+        return objectNotFoundErrors;
+    }
+
+    /**
+     * @return number of {@link NameCollisionError}s thrown
+     */
+    public long getNameCollisionErrors() {
+        return nameCollisionErrors;
+    }
+
+    /**
+     * @return number of score events dropped because the teacher had recorded their ids before
+     */
+    public long getDuplicateEvents() {
+        return duplicateEvents;
+    }
+
+    /**
+     * @return number of times a {@link Student}'s totals update lost a compare-and-set race and had to be retried,
+     * across every service in the JVM
+     */
+    public long getContendedStudentUpdates() {
+        return contendedStudentUpdates;
+    }
+
+    /**
+     * @return number of students in each teacher's roster, keyed by teacher name
+     */
+    public Map<String, Integer> getRosterSizes() {
+        return rosterSizes;
+    }
+
+    /**
+     * @return the service's {@link RosterTier} counters, null when it has none
+     */
+    public RosterTierSnapshot getRosterTier() {
+        return rosterTier;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{" +
+                "latencies=" + latencies +
+                ", objectNotFoundErrors=" + objectNotFoundErrors +
+                ", nameCollisionErrors=" + nameCollisionErrors +
+                ", duplicateEvents=" + duplicateEvents +
+                ", contendedStudentUpdates=" + contendedStudentUpdates +
+                ", rosterSizes=" + rosterSizes +
+                ", rosterTier=" + rosterTier +
+                '}';
+    }
+}
@@ -0,0 +1,96 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Roster that keeps one {@link Student} object per student in a ConcurrentHashMap.  Ids are handed out in the order
+ * students are added.
+ */
+class ObjectRoster implements Roster {
+    private ConcurrentMap<String, Student> studentsByName = new ConcurrentHashMap<String, Student>();
+    private AtomicInteger nextId = new AtomicInteger();
+    // totals new students start with
+    private volatile ScoreTotals empty = ScoreTotals.EMPTY;
+
+    @Override
+    public Student get(String name) {
+        return studentsByName.get(name);
+    }
+
+    @Override
+    public Student add(String name) {
+        StudentFactory factory = new StudentFactory();
+        Student student = studentsByName.computeIfAbsent(name, factory);
+        if (student != factory.created) {
+            throw new NameCollisionError("A student already exists with the name " + name);
+        }
+        factory.checkEmpty();
+        return student;
+    }
+
+    @Override
+    public Student getOrAdd(String name) {
+        Student student = studentsByName.get(name);
+        if (student == null) {
+            StudentFactory factory = new StudentFactory();
+            student = studentsByName.computeIfAbsent(name, factory);
+            factory.checkEmpty();
+        }
+        return student;
+    }
+
+    @Override
+    public Collection<Student> getStudents() {
+        return studentsByName.values();
+    }
+
+    @Override
+    public int size() {
+        return studentsByName.size();
+    }
+
+    @Override
+    public synchronized void trackLowest(int assignments, int exams) {
+        empty = empty.tracking(assignments, exams);
+        // a student created with the old empty totals is either in the map by now or catches up in checkEmpty
+        for (Student student : studentsByName.values()) {
+            student.trackLowest(assignments, exams);
+        }
+    }
+
+    /**
+     * Creates the Student for a name that is not in the map yet.  computeIfAbsent runs it at most once per name, so
+     * ids are never skipped or handed out twice.
+     */
+    private class StudentFactory implements Function<String, Student> {
+        private Student created;
+        private ScoreTotals createdWith;
+
+        @Override
+        public Student apply(String studentName) {
+            createdWith = empty;
+            created = new Student(studentName, nextId.getAndIncrement(), createdWith);
+            return created;
+        }
+
+        /**
+         * Bring a student just added up to the lowest scores the roster keeps, when they changed meanwhile
+         */
+        void checkEmpty() {
+            ScoreTotals current = empty;
+            if (created != null && createdWith != current) {
+                LowestScores lowest = current.getLowest();
+                created.trackLowest(lowest.getAssignmentsCapacity(), lowest.getExamsCapacity());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return studentsByName.toString();
+    }
+}
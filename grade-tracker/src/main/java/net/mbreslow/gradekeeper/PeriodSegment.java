@@ -0,0 +1,206 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.Arrays;
+
+/**
+ * Immutable, read-optimized record of one Teacher's closed grading period.  Every student's counts and sums are kept in
+ * parallel primitive arrays indexed by the student's roster id, next to the weighted average precomputed with the
+ * preferences the period was graded with, so a sealed period holds no per-student objects and answers every query
+ * without recomputing anything.
+ * <br/>
+ * Sealed periods keep their grades: later changes to the Teacher's scoring preferences only regrade the active period.
+ * <br/>
+ * Students' {@link LowestScores}, when their Teacher's policy kept them, are kept in one more column, so periods
+ * combined later drop scores the same way.
+ * <br/>
+ * A period is visible to a {@link GradeSnapshot} opened in or after the {@link VersionClock} epoch it was sealed in.
+ */
+class PeriodSegment {
+    // heap per student: three int and three double columns
+    static final int BYTES_PER_STUDENT = 36;
+
+    private final String name;
+    private final ScoringPreferences preferences;
+    private final int[] extraCredits;
+    private final int[] examsCounts;
+    private final double[] examsSums;
+    private final int[] assignmentsCounts;
+    private final double[] assignmentsSums;
+    private final double[] averages;
+    private final ClassStatistics statistics;
+    private final long epoch;
+    // each student's lowest scores when the Teacher's policy kept them, otherwise null
+    private final LowestScores[] lowest;
+
+    private PeriodSegment(String name, ScoringPreferences preferences, int[] extraCredits, int[] examsCounts,
+                          double[] examsSums, int[] assignmentsCounts, double[] assignmentsSums, LowestScores[] lowest,
+                          long epoch) {
+        this.name = name;
+        this.epoch = epoch;
+        this.lowest = lowest;
+        this.preferences = preferences;
+        this.extraCredits = extraCredits;
+        this.examsCounts = examsCounts;
+        this.examsSums = examsSums;
+        this.assignmentsCounts = assignmentsCounts;
+        this.assignmentsSums = assignmentsSums;
+        this.averages = new double[extraCredits.length];
+        int count = 0;
+        double sum = 0;
+        double minimum = Double.POSITIVE_INFINITY;
+        double maximum = Double.NEGATIVE_INFINITY;
+        for (int id = 0; id < averages.length; id++) {
+            ScoreTotals totals = totalsAt(id);
+            averages[id] = totals.getEventCount() == 0 ? Double.NaN : totals.getWeightedAverage(preferences);
+            if (!Double.isNaN(averages[id])) {
+                count++;
+                sum += averages[id];
+                minimum = Math.min(minimum, averages[id]);
+                maximum = Math.max(maximum, averages[id]);
+            }
+        }
+        this.statistics = count == 0 ? ClassStatistics.EMPTY
+                : new ClassStatistics(count, sum / count, minimum, maximum);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the preferences the period was graded with
+     */
+    ScoringPreferences getPreferences() {
+        return preferences;
+    }
+
+    /**
+     * @return the {@link VersionClock} epoch the period was sealed in, 0 for a period restored from storage
+     */
+    long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return number of roster ids the segment covers; students added after the period closed are not in it
+     */
+    int size() {
+        return averages.length;
+    }
+
+    /**
+     * @param id roster id of the student
+     * @return the student's totals for the period, {@link ScoreTotals#EMPTY} when they recorded nothing in it
+     */
+    ScoreTotals getTotals(int id) {
+        return id < averages.length ? totalsAt(id) : ScoreTotals.EMPTY;
+    }
+
+    /**
+     * @param id roster id of the student
+     * @return the student's weighted average for the period, NaN when they recorded nothing in it
+     */
+    double getAverage(int id) {
+        return id < averages.length ? averages[id] : Double.NaN;
+    }
+
+    /**
+     * @return statistics over the students with scores in the period
+     */
+    ClassStatistics getStatistics() {
+        return statistics;
+    }
+
+    private ScoreTotals totalsAt(int id) {
+        ScoreTotals totals = new ScoreTotals(extraCredits[id], examsCounts[id], examsSums[id], assignmentsCounts[id],
+                assignmentsSums[id]);
+        return lowest == null ? totals : totals.withLowest(lowest[id]);
+    }
+
+    @Override
+    public String toString() {
+        return "PeriodSegment{" +
+                "name='" + name + '\'' +
+                ", preferences=" + preferences +
+                ", statistics=" + statistics +
+                '}';
+    }
+
+    /**
+     * Collects each student's totals for a period as it is sealed.  Not thread safe.
+     */
+    static class Builder {
+        private int[] extraCredits;
+        private int[] examsCounts;
+        private double[] examsSums;
+        private int[] assignmentsCounts;
+        private double[] assignmentsSums;
+        private LowestScores[] lowest;
+        private int size = 0;
+
+        /**
+         * @param expectedSize number of students expected, the arrays grow past it when needed
+         */
+        Builder(int expectedSize) {
+            int capacity = Math.max(1, expectedSize);
+            extraCredits = new int[capacity];
+            examsCounts = new int[capacity];
+            examsSums = new double[capacity];
+            assignmentsCounts = new int[capacity];
+            assignmentsSums = new double[capacity];
+        }
+
+        /**
+         * @param id roster id of the student
+         * @param totals the student's totals for the period
+         */
+        Builder add(int id, ScoreTotals totals) {
+            if (id >= extraCredits.length) {
+                int capacity = Math.max(id + 1, extraCredits.length * 2);
+                extraCredits = Arrays.copyOf(extraCredits, capacity);
+                examsCounts = Arrays.copyOf(examsCounts, capacity);
+                examsSums = Arrays.copyOf(examsSums, capacity);
+                assignmentsCounts = Arrays.copyOf(assignmentsCounts, capacity);
+                assignmentsSums = Arrays.copyOf(assignmentsSums, capacity);
+                if (lowest != null) {
+                    lowest = Arrays.copyOf(lowest, capacity);
+                }
+            }
+            if (totals.getLowest() != null) {
+                if (lowest == null) {
+                    lowest = new LowestScores[extraCredits.length];
+                }
+                lowest[id] = totals.getLowest();
+            }
+            extraCredits[id] = totals.getExtraCredits();
+            examsCounts[id] = totals.getExamsCount();
+            examsSums[id] = totals.getExamsSum();
+            assignmentsCounts[id] = totals.getAssignmentsCount();
+            assignmentsSums[id] = totals.getAssignmentsSum();
+            size = Math.max(size, id + 1);
+            return this;
+        }
+
+        /**
+         * @param name name of the period
+         * @param preferences preferences the period is graded with
+         * @return the sealed period
+         */
+        PeriodSegment build(String name, ScoringPreferences preferences) {
+            return build(name, preferences, 0);
+        }
+
+        /**
+         * @param name name of the period
+         * @param preferences preferences the period is graded with
+         * @param epoch the {@link VersionClock} epoch the period is sealed in
+         * @return the sealed period
+         */
+        PeriodSegment build(String name, ScoringPreferences preferences, long epoch) {
+            return new PeriodSegment(name, preferences, Arrays.copyOf(extraCredits, size),
+                    Arrays.copyOf(examsCounts, size), Arrays.copyOf(examsSums, size),
+                    Arrays.copyOf(assignmentsCounts, size), Arrays.copyOf(assignmentsSums, size),
+                    lowest == null ? null : Arrays.copyOf(lowest, size), epoch);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Immutable class holding where a student stands in their class
+ */
+public class RankedStudent {
+    private final String name;
+    private final double average;
+    private final int rank;
+    private final double percentile;
+
+    RankedStudent(String name, double average, int rank, double percentile) {
+        this.name = name;
+        this.average = average;
+        this.rank = rank;
+        this.percentile = percentile;
+    }
+
+    /**
+     * @return name of the student
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the student's weighted average
+     */
+    public double getAverage() {
+        return average;
+    }
+
+    /**
+     * @return position in the class, 1 for the highest average.  Students with equal averages share a rank.
+     */
+    public int getRank() {
+        return rank;
+    }
+
+    /**
+     * @return percentile rank: percentage of the class with a lower average, counting students with an equal average
+     * as half below
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+
+    @Override
+    public String toString() {
+        return "RankedStudent{" +
+                "name='" + name + '\'' +
+                ", average=" + average +
+                ", rank=" + rank +
+                ", percentile=" + percentile +
+                '}';
+    }
+}
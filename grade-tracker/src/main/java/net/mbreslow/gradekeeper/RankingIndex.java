@@ -0,0 +1,343 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Order-statistic tree of a class's weighted averages, used to answer rank, percentile and top-N/bottom-N queries in
+ * O(log n) (plus N for the range queries).  Implemented as a treap ordered by (average, student id) in which every
+ * node also counts the nodes below it.
+ * <br/>
+ * Not thread-safe; {@link ClassAverages} guards it with its lock.
+ */
+class RankingIndex {
+    private static final Comparator<Node> ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(Node a, Node b) {
+            return compareKeys(a.average, a.id, b.average, b.id);
+        }
+    };
+
+    private final Random random = new Random();
+    private Node root;
+
+    /**
+     * @return number of ranked students
+     */
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * Add a student to the index
+     * @param average the student's weighted average
+     * @param student the student, whose id must not already be in the index
+     */
+    void insert(double average, Student student) {
+        root = insert(root, new Node(average, student, random.nextInt()));
+    }
+
+    /**
+     * Remove a student from the index
+     * @param average the weighted average the student was inserted with
+     * @param id the student's id
+     */
+    void remove(double average, int id) {
+        root = remove(root, average, id);
+    }
+
+    /**
+     * Replace the whole index in O(n log n), much faster than n inserts
+     * @param averages weighted average of each student, parallel to students
+     * @param students students to rank
+     * @param count number of entries to use from the arrays
+     */
+    void rebuild(double[] averages, Student[] students, int count) {
+        Node[] nodes = new Node[count];
+        for (int i = 0; i < count; i++) {
+            nodes[i] = new Node(averages[i], students[i], random.nextInt());
+        }
+        Arrays.parallelSort(nodes, ORDER);
+        // nodes are in key order, so the treap is the Cartesian tree of their priorities, built with a stack in O(n)
+        Deque<Node> rightSpine = new ArrayDeque<Node>();
+        for (Node node : nodes) {
+            Node last = null;
+            while (!rightSpine.isEmpty() && rightSpine.peek().priority < node.priority) {
+                last = rightSpine.pop();
+            }
+            node.left = last;
+            if (!rightSpine.isEmpty()) {
+                rightSpine.peek().right = node;
+            }
+            rightSpine.push(node);
+        }
+        root = rightSpine.isEmpty() ? null : rightSpine.peekLast();
+        updateSizes(root);
+    }
+
+    /**
+     * @return number of students whose average is strictly higher
+     */
+    int countAbove(double average) {
+        int count = 0;
+        Node node = root;
+        while (node != null) {
+            if (node.average > average) {
+                count += size(node.right) + 1;
+                node = node.left;
+            }
+            else {
+                node = node.right;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of students whose average is strictly lower
+     */
+    int countBelow(double average) {
+        int count = 0;
+        Node node = root;
+        while (node != null) {
+            if (node.average < average) {
+                count += size(node.left) + 1;
+                node = node.right;
+            }
+            else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param index zero-based position in ascending order of average
+     * @return the weighted average at that position
+     */
+    double select(int index) {
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            }
+            else if (index == leftSize) {
+                return node.average;
+            }
+            else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * @return lowest average, NaN when empty
+     */
+    double first() {
+        return root == null ? Double.NaN : select(0);
+    }
+
+    /**
+     * @return highest average, NaN when empty
+     */
+    double last() {
+        return root == null ? Double.NaN : select(size(root) - 1);
+    }
+
+    /**
+     * Walks the tree in order, so only the first of each run of equal averages is counted against the index; the
+     * rest carry its rank forward
+     * @param count maximum number of students
+     * @return the highest ranked students, best first
+     */
+    List<RankedStudent> top(int count) {
+        int size = size();
+        List<RankedStudent> result = new ArrayList<RankedStudent>(Math.min(count, size));
+        Deque<Node> stack = new ArrayDeque<Node>();
+        Node node = root;
+        while ((node != null || !stack.isEmpty()) && result.size() < count) {
+            while (node != null) {
+                stack.push(node);
+                node = node.right;
+            }
+            node = stack.pop();
+            RankedStudent previous = result.isEmpty() ? null : result.get(result.size() - 1);
+            if (previous != null && Double.compare(previous.getAverage(), node.average) == 0) {
+                // students with equal averages share the rank of the first of them
+                result.add(new RankedStudent(node.student.getName(), node.average, previous.getRank(),
+                        previous.getPercentile()));
+            }
+            else {
+                // every student listed so far is above this one
+                int above = result.size();
+                result.add(ranked(node.student, node.average, above, countBelow(node.average), size));
+            }
+            node = node.left;
+        }
+        return result;
+    }
+
+    /**
+     * Like {@link #top(int)}, from the other end
+     * @param count maximum number of students
+     * @return the lowest ranked students, worst first
+     */
+    List<RankedStudent> bottom(int count) {
+        int size = size();
+        List<RankedStudent> result = new ArrayList<RankedStudent>(Math.min(count, size));
+        Deque<Node> stack = new ArrayDeque<Node>();
+        Node node = root;
+        while ((node != null || !stack.isEmpty()) && result.size() < count) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+            node = stack.pop();
+            RankedStudent previous = result.isEmpty() ? null : result.get(result.size() - 1);
+            if (previous != null && Double.compare(previous.getAverage(), node.average) == 0) {
+                result.add(new RankedStudent(node.student.getName(), node.average, previous.getRank(),
+                        previous.getPercentile()));
+            }
+            else {
+                // every student listed so far is below this one
+                int below = result.size();
+                result.add(ranked(node.student, node.average, countAbove(node.average), below, size));
+            }
+            node = node.right;
+        }
+        return result;
+    }
+
+    /**
+     * Rank a student with a given average against the index.  Students with equal averages share a rank.
+     * @return rank (1 is best) and percentile rank of the student
+     */
+    RankedStudent rank(Student student, double average) {
+        return ranked(student, average, countAbove(average), countBelow(average), size());
+    }
+
+    private static RankedStudent ranked(Student student, double average, int above, int below, int size) {
+        int equal = size - above - below;
+        double percentile = 100.0 * (below + 0.5 * equal) / size;
+        return new RankedStudent(student.getName(), average, above + 1, percentile);
+    }
+
+    private static Node insert(Node tree, Node node) {
+        if (tree == null) {
+            return node;
+        }
+        if (node.priority > tree.priority) {
+            // node becomes the root of this subtree
+            Node[] parts = split(tree, node.average, node.id);
+            node.left = parts[0];
+            node.right = parts[1];
+        }
+        else if (ORDER.compare(node, tree) < 0) {
+            tree.left = insert(tree.left, node);
+        }
+        else {
+            tree.right = insert(tree.right, node);
+        }
+        Node updated = node.priority > tree.priority ? node : tree;
+        updated.size = size(updated.left) + size(updated.right) + 1;
+        return updated;
+    }
+
+    /**
+     * @return {nodes less than the key, nodes greater than or equal to the key}
+     */
+    private static Node[] split(Node tree, double average, int id) {
+        if (tree == null) {
+            return new Node[2];
+        }
+        Node[] parts;
+        if (compareKeys(tree.average, tree.id, average, id) < 0) {
+            parts = split(tree.right, average, id);
+            tree.right = parts[0];
+            parts[0] = tree;
+        }
+        else {
+            parts = split(tree.left, average, id);
+            tree.left = parts[1];
+            parts[1] = tree;
+        }
+        tree.size = size(tree.left) + size(tree.right) + 1;
+        return parts;
+    }
+
+    private static Node remove(Node tree, double average, int id) {
+        if (tree == null) {
+            return null;
+        }
+        int comparison = compareKeys(average, id, tree.average, tree.id);
+        if (comparison == 0) {
+            return merge(tree.left, tree.right);
+        }
+        if (comparison < 0) {
+            tree.left = remove(tree.left, average, id);
+        }
+        else {
+            tree.right = remove(tree.right, average, id);
+        }
+        tree.size = size(tree.left) + size(tree.right) + 1;
+        return tree;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.size = size(left.left) + size(left.right) + 1;
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.size = size(right.left) + size(right.right) + 1;
+        return right;
+    }
+
+    private static int updateSizes(Node node) {
+        if (node == null) {
+            return 0;
+        }
+        node.size = updateSizes(node.left) + updateSizes(node.right) + 1;
+        return node.size;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int compareKeys(double average1, int id1, double average2, int id2) {
+        int comparison = Double.compare(average1, average2);
+        return comparison != 0 ? comparison : (id1 < id2 ? -1 : (id1 == id2 ? 0 : 1));
+    }
+
+    private static class Node {
+        final double average;
+        final int id;
+        final Student student;
+        final int priority;
+        Node left;
+        Node right;
+        int size = 1;
+
+        Node(double average, Student student, int priority) {
+            this.average = average;
+            this.id = student.getId();
+            this.student = student;
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,571 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Proxy for a node served by a {@link ShardServer}, handed out by {@link SocketTransport}.  Every call borrows an idle
+ * connection, or opens one, sends the request and waits for the response; errors thrown by the node are thrown here
+ * with the same type.
+ */
+class RemoteShardNode implements ShardNode {
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final String address;
+    private final String host;
+    private final int port;
+    private final int connectTimeoutMillis;
+    private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<Connection>();
+    private volatile boolean closed = false;
+
+    RemoteShardNode(String address, String host, int port, int connectTimeoutMillis) {
+        this.address = address;
+        this.host = host;
+        this.port = port;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * One socket to the server, used by one call at a time
+     */
+    private static class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+        }
+
+        void close() {
+            try {
+                socket.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    private Connection borrow() {
+        if (closed) {
+            throw new ShardError("Transport to " + address + " is closed");
+        }
+        Connection connection = idle.poll();
+        if (connection != null) {
+            return connection;
+        }
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            return new Connection(socket);
+        }
+        catch (IOException e) {
+            try {
+                socket.close();
+            }
+            catch (IOException ignored) {
+            }
+            throw new ShardError("Unable to connect to node " + address, e);
+        }
+    }
+
+    private void release(Connection connection) {
+        idle.add(connection);
+        // a close racing with the add must not strand the connection
+        if (closed && idle.remove(connection)) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Send the request written to the connection and read the response status
+     * @return the stream holding the result
+     * @throws RuntimeException the node's error, once the connection has been released
+     */
+    private DataInputStream call(Connection connection) throws IOException {
+        connection.out.flush();
+        DataInputStream in = connection.in;
+        if (in.readByte() != ShardProtocol.OK) {
+            RuntimeException error = ShardProtocol.readError(in);
+            release(connection);
+            throw error;
+        }
+        return in;
+    }
+
+    /**
+     * @return the error to throw for a connection that failed; the connection is closed
+     */
+    private ShardError failed(Connection connection, IOException e) {
+        connection.close();
+        return new ShardError("Call to node " + address + " failed", e);
+    }
+
+    @Override
+    public void recordAssignmentScore(String teacherName, String studentName, double score) {
+        recordScore(ShardProtocol.RECORD_ASSIGNMENT_SCORE, teacherName, studentName, score);
+    }
+
+    @Override
+    public void recordExamScore(String teacherName, String studentName, double score) {
+        recordScore(ShardProtocol.RECORD_EXAM_SCORE, teacherName, studentName, score);
+    }
+
+    @Override
+    public void recordExtraCredit(String teacherName, String studentName) {
+        recordScore(ShardProtocol.RECORD_EXTRA_CREDIT, teacherName, studentName, 0);
+    }
+
+    @Override
+    public boolean recordAssignmentScore(String teacherName, String studentName, double score, String eventId) {
+        return recordEvent(ScoreType.ASSIGNMENT, teacherName, studentName, score, eventId);
+    }
+
+    @Override
+    public boolean recordExamScore(String teacherName, String studentName, double score, String eventId) {
+        return recordEvent(ScoreType.EXAM, teacherName, studentName, score, eventId);
+    }
+
+    @Override
+    public boolean recordExtraCredit(String teacherName, String studentName, String eventId) {
+        return recordEvent(ScoreType.EXTRA_CREDIT, teacherName, studentName, 0, eventId);
+    }
+
+    private boolean recordEvent(ScoreType type, String teacherName, String studentName, double score, String eventId) {
+        if (eventId == null) {
+            throw new IllegalArgumentException("Event id is null");
+        }
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.RECORD_EVENT);
+            ShardProtocol.writeScoreType(connection.out, type);
+            connection.out.writeUTF(teacherName);
+            connection.out.writeUTF(studentName);
+            connection.out.writeDouble(score);
+            connection.out.writeUTF(eventId);
+            boolean recorded = call(connection).readBoolean();
+            release(connection);
+            return recorded;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    private void recordScore(byte operation, String teacherName, String studentName, double score) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(operation);
+            connection.out.writeUTF(teacherName);
+            connection.out.writeUTF(studentName);
+            connection.out.writeDouble(score);
+            call(connection);
+            release(connection);
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    /**
+     * Send a batch in one request.  Events that do not name a teacher and a student fail here without being sent.
+     */
+    @Override
+    public BatchResult recordScores(Iterable<ScoreEvent> events) {
+        BatchResult result = new BatchResult();
+        List<ScoreEvent> sent = new ArrayList<ScoreEvent>();
+        List<Integer> indexes = new ArrayList<Integer>();
+        int index = 0;
+        for (ScoreEvent event : events) {
+            if (event == null || event.getTeacherName() == null || event.getStudentName() == null) {
+                result.failed(index, event, new IllegalArgumentException("Score events must name a teacher and a student: " + event));
+            }
+            else {
+                sent.add(event);
+                indexes.add(index);
+            }
+            index++;
+        }
+        if (sent.isEmpty()) {
+            return result;
+        }
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.RECORD_SCORES);
+            connection.out.writeInt(sent.size());
+            for (ScoreEvent event : sent) {
+                ShardProtocol.writeScoreType(connection.out, event.getType());
+                connection.out.writeUTF(event.getTeacherName());
+                connection.out.writeUTF(event.getStudentName());
+                connection.out.writeDouble(event.getScore());
+                ShardProtocol.writeEventId(connection.out, event.getEventId());
+            }
+            DataInputStream in = call(connection);
+            result.applied(in.readInt());
+            result.duplicates(in.readInt());
+            int failures = in.readInt();
+            for (int i = 0; i < failures; i++) {
+                int failed = in.readInt();
+                in.readByte();
+                result.failed(indexes.get(failed), sent.get(failed), ShardProtocol.readError(in));
+            }
+            release(connection);
+            return result;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    /**
+     * Not available: a handle is an object of the node's JVM
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public StudentHandle resolveStudent(String teacherName, String studentName) {
+        throw new UnsupportedOperationException("Student handles are only available in the node's own JVM");
+    }
+
+    @Override
+    public void addTeacher(String name, ScoringPreferences scoringPreferences) {
+        sendTeacher(ShardProtocol.ADD_TEACHER, name, scoringPreferences);
+    }
+
+    @Override
+    public void updateTeacher(String name, ScoringPreferences scoringPreferences) {
+        sendTeacher(ShardProtocol.UPDATE_TEACHER, name, scoringPreferences);
+    }
+
+    /**
+     * Update the teacher and wait for the regrade; the returned future is already complete
+     */
+    @Override
+    public CompletableFuture<Void> updateTeacherAsync(String name, ScoringPreferences scoringPreferences) {
+        updateTeacher(name, scoringPreferences);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private void sendTeacher(byte operation, String name, ScoringPreferences scoringPreferences) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(operation);
+            connection.out.writeUTF(name);
+            ShardProtocol.writePreferences(connection.out, scoringPreferences);
+            call(connection);
+            release(connection);
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public double getStudentAverage(String teacherName, String studentName) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.GET_STUDENT_AVERAGE);
+            connection.out.writeUTF(teacherName);
+            connection.out.writeUTF(studentName);
+            double average = call(connection).readDouble();
+            release(connection);
+            return average;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public ClassStatistics getClassStatistics(String teacherName) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.GET_CLASS_STATISTICS);
+            connection.out.writeUTF(teacherName);
+            ClassStatistics statistics = ShardProtocol.readStatistics(call(connection));
+            release(connection);
+            return statistics;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public RankedStudent getStudentRank(String teacherName, String studentName) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.GET_STUDENT_RANK);
+            connection.out.writeUTF(teacherName);
+            connection.out.writeUTF(studentName);
+            RankedStudent rank = ShardProtocol.readRankedStudent(call(connection));
+            release(connection);
+            return rank;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public List<RankedStudent> getTopStudents(String teacherName, int count) {
+        return getRankedStudents(ShardProtocol.GET_TOP_STUDENTS, teacherName, count);
+    }
+
+    @Override
+    public List<RankedStudent> getBottomStudents(String teacherName, int count) {
+        return getRankedStudents(ShardProtocol.GET_BOTTOM_STUDENTS, teacherName, count);
+    }
+
+    private List<RankedStudent> getRankedStudents(byte operation, String teacherName, int count) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(operation);
+            connection.out.writeUTF(teacherName);
+            connection.out.writeInt(count);
+            List<RankedStudent> students = ShardProtocol.readRankedStudents(call(connection));
+            release(connection);
+            return students;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public double getPercentile(String teacherName, double percentile) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.GET_PERCENTILE);
+            connection.out.writeUTF(teacherName);
+            connection.out.writeDouble(percentile);
+            double value = call(connection).readDouble();
+            release(connection);
+            return value;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    /**
+     * The node collects the history and sends it in one response, which is then replayed to the visitor
+     */
+    @Override
+    public void visitStudentHistory(String teacherName, String studentName, ScoreHistoryVisitor visitor) {
+        visitHistory(ShardProtocol.VISIT_STUDENT_HISTORY, teacherName, studentName, visitor);
+    }
+
+    @Override
+    public void visitClassHistory(String teacherName, ScoreHistoryVisitor visitor) {
+        visitHistory(ShardProtocol.VISIT_CLASS_HISTORY, teacherName, null, visitor);
+    }
+
+    private void visitHistory(byte operation, String teacherName, String studentName, ScoreHistoryVisitor visitor) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(operation);
+            connection.out.writeUTF(teacherName);
+            if (studentName != null) {
+                connection.out.writeUTF(studentName);
+            }
+            DataInputStream in = call(connection);
+            int count = in.readInt();
+            List<String> students = new ArrayList<String>(count);
+            List<ScoreType> types = new ArrayList<ScoreType>(count);
+            double[] scores = new double[count];
+            for (int i = 0; i < count; i++) {
+                students.add(in.readUTF());
+                types.add(ShardProtocol.readScoreType(in));
+                scores[i] = in.readDouble();
+            }
+            release(connection);
+            // the connection is back in the pool before the visitor runs, so a visitor may call the node
+            for (int i = 0; i < count; i++) {
+                visitor.score(students.get(i), types.get(i), scores[i]);
+            }
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public void closeGradingPeriod(String teacherName, String periodName) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.CLOSE_GRADING_PERIOD);
+            connection.out.writeUTF(teacherName);
+            connection.out.writeUTF(periodName);
+            call(connection);
+            release(connection);
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public List<String> getGradingPeriods(String teacherName) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.GET_GRADING_PERIODS);
+            connection.out.writeUTF(teacherName);
+            List<String> periods = ShardProtocol.readStrings(call(connection));
+            release(connection);
+            return periods;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public double getPeriodAverage(String teacherName, String studentName, String periodName) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.GET_PERIOD_AVERAGE);
+            connection.out.writeUTF(teacherName);
+            connection.out.writeUTF(studentName);
+            connection.out.writeUTF(periodName);
+            double average = call(connection).readDouble();
+            release(connection);
+            return average;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public ClassStatistics getPeriodStatistics(String teacherName, String periodName) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.GET_PERIOD_STATISTICS);
+            connection.out.writeUTF(teacherName);
+            connection.out.writeUTF(periodName);
+            ClassStatistics statistics = ShardProtocol.readStatistics(call(connection));
+            release(connection);
+            return statistics;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public double getCombinedAverage(String teacherName, String studentName, Collection<String> periodNames,
+                                     boolean includeCurrentPeriod) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.GET_COMBINED_AVERAGE);
+            connection.out.writeUTF(teacherName);
+            connection.out.writeUTF(studentName);
+            ShardProtocol.writeStrings(connection.out, new ArrayList<String>(periodNames));
+            connection.out.writeBoolean(includeCurrentPeriod);
+            double average = call(connection).readDouble();
+            release(connection);
+            return average;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    /**
+     * Not available: a subscription is an object of the node's JVM
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public GradeSubscription subscribe(GradeChangeListener listener) {
+        throw new UnsupportedOperationException("Subscriptions are only available in the node's own JVM");
+    }
+
+    @Override
+    public List<String> getTeacherNames() {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.GET_TEACHER_NAMES);
+            List<String> names = ShardProtocol.readStrings(call(connection));
+            release(connection);
+            return names;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public byte[] exportTeacher(String teacherName) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.EXPORT_TEACHER);
+            connection.out.writeUTF(teacherName);
+            byte[] teacher = ShardProtocol.readBytes(call(connection));
+            release(connection);
+            return teacher;
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public void importTeacher(byte[] teacher) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.IMPORT_TEACHER);
+            ShardProtocol.writeBytes(connection.out, teacher);
+            call(connection);
+            release(connection);
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    @Override
+    public void removeTeacher(String teacherName) {
+        Connection connection = borrow();
+        try {
+            connection.out.writeByte(ShardProtocol.REMOVE_TEACHER);
+            connection.out.writeUTF(teacherName);
+            call(connection);
+            release(connection);
+        }
+        catch (IOException e) {
+            throw failed(connection, e);
+        }
+    }
+
+    /**
+     * Close the idle connections and fail later calls; connections in use are closed when their call returns
+     */
+    void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteShardNode{" +
+                "address='" + address + '\'' +
+                ", idleConnections=" + idle.size() +
+                '}';
+    }
+}
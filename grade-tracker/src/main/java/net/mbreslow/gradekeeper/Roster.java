@@ -0,0 +1,45 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.Collection;
+
+/**
+ * Storage for a Teacher's students, keyed by their unique name within the class.  See {@link RosterLayout} for the
+ * available implementations.
+ */
+interface Roster {
+    /**
+     * @param name unique name of the Student in the class
+     * @return the student, or null when there is no student by that name
+     */
+    Student get(String name);
+
+    /**
+     * @param name unique name of the Student in the class
+     * @return the new student
+     * @throws NameCollisionError when a student by that name already exists
+     */
+    Student add(String name);
+
+    /**
+     * @param name unique name of the Student in the class
+     * @return the existing student by that name, or a new one when there is none
+     */
+    Student getOrAdd(String name);
+
+    /**
+     * @return all students in the class
+     */
+    Collection<Student> getStudents();
+
+    /**
+     * @return number of students in the class
+     */
+    int size();
+
+    /**
+     * Keep at least this many of every student's lowest scores from now on, including students added later
+     * @param assignments number of lowest assignment scores
+     * @param exams number of lowest exam scores
+     */
+    void trackLowest(int assignments, int exams);
+}
@@ -0,0 +1,45 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * How a Teacher's roster of students is stored.  Chosen when a {@link GradeTrackerImpl} or {@link Teacher} is
+ * constructed; both layouts behave identically through the {@link GradeTracker} API.
+ */
+public enum RosterLayout {
+    /**
+     * One {@link Student} object per student in a ConcurrentHashMap.  Writers never block each other.
+     */
+    OBJECTS {
+        @Override
+        Roster newRoster() {
+            return new ObjectRoster();
+        }
+
+        @Override
+        int bytesPerStudent() {
+            return 120;
+        }
+    },
+    /**
+     * Student names interned to dense int ids with the counts and sums held in parallel primitive arrays that grow
+     * in chunks.  Uses a fraction of the heap of {@link #OBJECTS} for large classes; writers take one of a fixed set
+     * of striped locks.
+     */
+    COLUMNAR {
+        @Override
+        Roster newRoster() {
+            return new ColumnarRoster();
+        }
+
+        @Override
+        int bytesPerStudent() {
+            return 61;
+        }
+    };
+
+    abstract Roster newRoster();
+
+    /**
+     * @return retained heap per student, names excluded, as measured by {@code RosterFootprintBenchmark}
+     */
+    abstract int bytesPerStudent();
+}
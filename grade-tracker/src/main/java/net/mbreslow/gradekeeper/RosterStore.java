@@ -0,0 +1,136 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local file store for evicted rosters.  Each roster is appended to the current segment file in the snapshot's section
+ * encoding, so it is decoded back with {@link Snapshot.Section#decodeInto(Roster)} and copied into snapshots as it
+ * is.  A segment is deleted once it is full and every roster in it has been read back; the store never rewrites a
+ * segment, so a few rosters that stay evicted for a long time can keep an otherwise dead segment on disk.
+ * <br/>
+ * The store is scratch space, not a source of truth: the journal and snapshots hold every score, and segments left
+ * behind by a previous process are deleted when a store is opened on the same directory.
+ */
+class RosterStore {
+    static final long DEFAULT_SEGMENT_SIZE = 64 << 20;
+    private static final String PREFIX = "roster-";
+    private static final String SUFFIX = ".seg";
+
+    private final File directory;
+    private final long segmentSize;
+    private final AtomicLong diskBytes = new AtomicLong();
+    private int nextSegment = 0;
+    private Segment active;
+
+    /**
+     * @param directory directory holding the segment files, created when missing
+     * @param segmentSize size after which a new segment is started
+     * @throws JournalError when the directory cannot be used
+     */
+    RosterStore(File directory, long segmentSize) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new JournalError("Unable to create roster store directory " + directory);
+        }
+        File[] leftovers = directory.listFiles();
+        if (leftovers != null) {
+            for (File file : leftovers) {
+                if (file.getName().startsWith(PREFIX) && file.getName().endsWith(SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Append a roster to the store
+     * @param students the teacher's students
+     * @param periods the teacher's sealed periods
+     * @return the section to decode the roster from
+     * @throws JournalError when the roster cannot be written
+     */
+    synchronized Snapshot.Section write(Collection<Student> students, PeriodSegment[] periods) {
+        try {
+            if (active == null || active.output.position() >= segmentSize) {
+                if (active != null) {
+                    active.seal();
+                }
+                active = new Segment(new File(directory, PREFIX + nextSegment++ + SUFFIX));
+            }
+            Snapshot.Output output = active.output;
+            long offset = output.position();
+            int count = Snapshot.writeSection(output, students, periods);
+            output.flush();
+            long length = output.position() - offset;
+            diskBytes.addAndGet(length);
+            active.sectionWritten();
+            return new Snapshot.Section(active, offset, length, count, Snapshot.FORMAT_VERSION);
+        }
+        catch (IOException e) {
+            throw new JournalError("Unable to write roster to " + directory, e);
+        }
+    }
+
+    /**
+     * @return bytes held by segment files
+     */
+    long getDiskBytes() {
+        return diskBytes.get();
+    }
+
+    /**
+     * One segment file.  Kept open while it is being appended to or any roster in it has not been read back.
+     */
+    private class Segment extends Snapshot.SharedFile {
+        private final File path;
+        private final RandomAccessFile file;
+        private final Snapshot.Output output;
+        // guarded by this
+        private int live = 0;
+        private boolean sealed = false;
+
+        Segment(File path) throws IOException {
+            this(path, new RandomAccessFile(path, "rw"));
+        }
+
+        private Segment(File path, RandomAccessFile file) throws IOException {
+            super(file, 0);
+            this.path = path;
+            this.file = file;
+            this.output = new Snapshot.Output(file.getChannel(), 0);
+        }
+
+        synchronized void sectionWritten() {
+            live++;
+        }
+
+        synchronized void seal() {
+            sealed = true;
+            deleteWhenUnused();
+        }
+
+        @Override
+        synchronized void sectionDecoded() {
+            live--;
+            deleteWhenUnused();
+        }
+
+        private void deleteWhenUnused() {
+            if (sealed && live == 0) {
+                try {
+                    diskBytes.addAndGet(-file.length());
+                    file.close();
+                }
+                catch (IOException e) {
+                    throw new JournalError("Unable to close roster segment " + path, e);
+                }
+                path.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded in-memory tier over a service's rosters.  When the estimated heap held by decoded rosters exceeds the
+ * budget, idle teachers' students and sealed periods are written to a {@link RosterStore} in the given directory and
+ * dropped from the heap; the next operation on such a teacher decodes them again, transparently.
+ * <br/>
+ * Teachers are chosen for eviction with the CLOCK approximation of LRU: every use sets the teacher's reference bit,
+ * and the clock hand sweeps the teachers, clearing set bits and evicting the first decoded teacher whose bit was
+ * already clear.  Keeping LRU order costs the hot path one volatile write at most, instead of a shared list update.
+ * Teachers in use, being regraded, or retaining score history are never evicted.
+ * <br/>
+ * Eviction runs on the caller's thread once an operation finishes: after a roster is faulted in, and after a sampled
+ * one in {@link #CHECK_EVERY} operations, which catches rosters that grew.  Only one thread evicts at a time; the
+ * others carry on.  Heap use is estimated from roster sizes, see {@link RosterLayout#bytesPerStudent()}.
+ * <br/>
+ * A tier serves a single service; pass it to {@link GradeTrackerImpl.Builder#rosterTier(RosterTier)}.
+ */
+public class RosterTier {
+    // check the budget after one in this many operations, a power of two
+    static final int CHECK_EVERY = 1024;
+    // estimated heap per student for the name String and its roster entry
+    static final int NAME_BYTES = 64;
+
+    private final RosterStore store;
+    private final long memoryBudgetBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final ReentrantLock evictLock = new ReentrantLock();
+    private volatile boolean trimRequested = false;
+    private volatile RuntimeException lastError;
+    private volatile Map<String, Teacher> teachers;
+    // clock hand, guarded by evictLock
+    private Iterator<Teacher> hand;
+
+    /**
+     * @param directory directory for evicted rosters; segment files left in it by a previous process are deleted
+     * @param memoryBudgetBytes estimated heap the decoded rosters may use before idle ones are evicted
+     * @throws JournalError when the directory cannot be used
+     */
+    public RosterTier(File directory, long memoryBudgetBytes) {
+        this(directory, memoryBudgetBytes, RosterStore.DEFAULT_SEGMENT_SIZE);
+    }
+
+    RosterTier(File directory, long memoryBudgetBytes, long segmentSize) {
+        if (memoryBudgetBytes < 0) {
+            throw new IllegalArgumentException("memoryBudgetBytes (" + memoryBudgetBytes + ") must not be negative");
+        }
+        this.store = new RosterStore(directory, segmentSize);
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    /**
+     * @param teachersByName the service's teachers, swept for eviction
+     * @throws IllegalStateException when the tier already serves a service
+     */
+    synchronized void attach(Map<String, Teacher> teachersByName) {
+        if (teachers != null) {
+            throw new IllegalStateException("A RosterTier serves a single service");
+        }
+        teachers = teachersByName;
+    }
+
+    /**
+     * Count an operation that pinned a teacher
+     * @param resident whether the roster was decoded when the operation started
+     */
+    void used(boolean resident) {
+        if (resident) {
+            hits.increment();
+        }
+    }
+
+    /**
+     * Count a roster decoded from the store, and check the budget once the operation finishes
+     */
+    void faultedIn() {
+        misses.increment();
+        trimRequested = true;
+    }
+
+    /**
+     * Called when an operation unpins a teacher
+     */
+    void afterUse() {
+        if (trimRequested || (ThreadLocalRandom.current().nextInt() & (CHECK_EVERY - 1)) == 0) {
+            trim();
+        }
+    }
+
+    /**
+     * Evict idle rosters until the estimated heap is within the budget.  Returns at once when another thread is
+     * already evicting.  A roster that cannot be written stays on the heap, see {@link #getLastError()}.
+     */
+    public void trim() {
+        Map<String, Teacher> all = teachers;
+        if (all == null || !evictLock.tryLock()) {
+            return;
+        }
+        try {
+            trimRequested = false;
+            long resident = getResidentBytes();
+            // two sweeps: the first may only clear reference bits
+            int remaining = 2 * all.size() + 1;
+            while (resident > memoryBudgetBytes && remaining-- > 0) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = all.values().iterator();
+                    if (!hand.hasNext()) {
+                        break;
+                    }
+                }
+                Teacher teacher = hand.next();
+                if (!teacher.isLoaded() || teacher.clearReferenced()) {
+                    continue;
+                }
+                long bytes = teacher.estimateHeapBytes();
+                try {
+                    if (teacher.evict(store)) {
+                        resident -= bytes;
+                        evictions.increment();
+                    }
+                }
+                catch (RuntimeException e) {
+                    lastError = e;
+                    return;
+                }
+            }
+        }
+        finally {
+            evictLock.unlock();
+        }
+    }
+
+    /**
+     * @return estimated heap held by decoded rosters
+     */
+    public long getResidentBytes() {
+        Map<String, Teacher> all = teachers;
+        long bytes = 0;
+        if (all != null) {
+            for (Teacher teacher : all.values()) {
+                bytes += teacher.estimateHeapBytes();
+            }
+        }
+        return bytes;
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    /**
+     * @return the error from the most recent eviction that failed, null when none has
+     */
+    public RuntimeException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @return hit, miss and eviction counts and the tier's current size
+     */
+    public RosterTierSnapshot getSnapshot() {
+        Map<String, Teacher> all = teachers;
+        int resident = 0;
+        int evicted = 0;
+        long residentBytes = 0;
+        if (all != null) {
+            for (Teacher teacher : all.values()) {
+                if (teacher.isLoaded()) {
+                    resident++;
+                    residentBytes += teacher.estimateHeapBytes();
+                }
+                else if (teacher.getGeneration() > 0) {
+                    evicted++;
+                }
+            }
+        }
+        return new RosterTierSnapshot(memoryBudgetBytes, residentBytes, resident, evicted, store.getDiskBytes(),
+                hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    @Override
+    public String toString() {
+        return "RosterTier{" +
+                "memoryBudgetBytes=" + memoryBudgetBytes +
+                ", snapshot=" + getSnapshot() +
+                '}';
+    }
+}
@@ -0,0 +1,98 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Immutable point-in-time copy of a {@link RosterTier}'s counters and size
+ */
+public class RosterTierSnapshot {
+    private final long memoryBudgetBytes;
+    private final long residentBytes;
+    private final int residentTeachers;
+    private final int evictedTeachers;
+    private final long diskBytes;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    RosterTierSnapshot(long memoryBudgetBytes, long residentBytes, int residentTeachers, int evictedTeachers,
+                       long diskBytes, long hits, long misses, long evictions) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.residentBytes = residentBytes;
+        this.residentTeachers = residentTeachers;
+        this.evictedTeachers = evictedTeachers;
+        this.diskBytes = diskBytes;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    /**
+     * @return estimated heap held by decoded rosters
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return number of teachers whose roster is decoded
+     */
+    public int getResidentTeachers() {
+        return residentTeachers;
+    }
+
+    /**
+     * @return number of teachers whose roster is in the store
+     */
+    public int getEvictedTeachers() {
+        return evictedTeachers;
+    }
+
+    /**
+     * @return bytes of segment files on disk
+     */
+    public long getDiskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * @return number of operations that found their teacher's roster decoded
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of rosters decoded from the store or a snapshot
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return hits as a fraction of hits and misses, NaN before any operation
+     */
+    public double getHitRate() {
+        return (double) hits / (hits + misses);
+    }
+
+    @Override
+    public String toString() {
+        return "RosterTierSnapshot{" +
+                "memoryBudgetBytes=" + memoryBudgetBytes +
+                ", residentBytes=" + residentBytes +
+                ", residentTeachers=" + residentTeachers +
+                ", evictedTeachers=" + evictedTeachers +
+                ", diskBytes=" + diskBytes +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+}
@@ -0,0 +1,97 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Immutable class describing one score to be recorded for a student, used for bulk uploads through
+ * {@link GradeTracker#recordScores(Iterable)}
+ */
+public class ScoreEvent {
+    private final ScoreType type;
+    private final String teacherName;
+    private final String studentName;
+    private final double score;
+    private final String eventId;
+
+    /**
+     * Constructor.
+     * @param type kind of score
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @param score score (percentage), ignored for {@link ScoreType#EXTRA_CREDIT}
+     */
+    public ScoreEvent(ScoreType type, String teacherName, String studentName, double score) {
+        this(type, teacherName, studentName, score, null);
+    }
+
+    /**
+     * Constructor.
+     * @param type kind of score
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @param score score (percentage), ignored for {@link ScoreType#EXTRA_CREDIT}
+     * @param eventId id the upstream system gave the event, unique per teacher, so that a redelivery is recorded once;
+     * null when the event has none
+     */
+    public ScoreEvent(ScoreType type, String teacherName, String studentName, double score, String eventId) {
+        assert type != null;
+        this.type = type;
+        this.teacherName = teacherName;
+        this.studentName = studentName;
+        this.score = score;
+        this.eventId = eventId;
+    }
+
+    public static ScoreEvent assignment(String teacherName, String studentName, double score) {
+        return new ScoreEvent(ScoreType.ASSIGNMENT, teacherName, studentName, score);
+    }
+
+    public static ScoreEvent exam(String teacherName, String studentName, double score) {
+        return new ScoreEvent(ScoreType.EXAM, teacherName, studentName, score);
+    }
+
+    public static ScoreEvent extraCredit(String teacherName, String studentName) {
+        return new ScoreEvent(ScoreType.EXTRA_CREDIT, teacherName, studentName, 0);
+    }
+
+    /**
+     * @param eventId id the upstream system gave the event, see {@link GradeTracker#recordExamScore(String, String,
+     * double, String)}
+     * @return a copy of this event carrying the id
+     */
+    public ScoreEvent withEventId(String eventId) {
+        return new ScoreEvent(type, teacherName, studentName, score, eventId);
+    }
+
+    public ScoreType getType() {
+        return type;
+    }
+
+    public String getTeacherName() {
+        return teacherName;
+    }
+
+    public String getStudentName() {
+        return studentName;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * @return the upstream system's id for the event, or null
+     */
+    public String getEventId() {
+        return eventId;
+    }
+
+    @Override
+    public String toString() {
+        return "ScoreEvent{" +
+                "type=" + type +
+                ", teacherName='" + teacherName + '\'' +
+                ", studentName='" + studentName + '\'' +
+                ", score=" + score +
+                (eventId == null ? "" : ", eventId='" + eventId + '\'') +
+                '}';
+    }
+}
@@ -0,0 +1,239 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retains every score recorded for a teacher's students in compact form.  Each score is one 16 bit code: the top bit
+ * tells an exam from an assignment and the other 15 bits hold the score in hundredths of a percent (0 to 327.65).
+ * Extra credit is a reserved code, and a score that cannot be held exactly that way is an escape code followed by the
+ * raw 64 bit double, so every score reads back exactly.
+ * <br/>
+ * Codes live in fixed-size blocks of shorts carved out of large pages.  A student's blocks are chained (the last two
+ * shorts of a block link to the next), and each student has a head block, a tail block and a length, kept in int
+ * arrays indexed by the student's roster id.  A student with n scores therefore costs about 2n bytes plus at most one
+ * partly filled block.
+ * <br/>
+ * Thread safety: a student's scores are appended under one of {@link #LOCK_STRIPES} locks chosen by student id, and
+ * blocks are allocated under the history's own lock.  Readers take the student's lock only to read its head and
+ * length, then decode the blocks without locking; blocks are never moved or rewritten.
+ */
+class ScoreHistory {
+    static final int PAGE_BITS = 14;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int BLOCK_SIZE = 32;
+    static final int STUDENT_CHUNK_BITS = 10;
+    static final int STUDENT_CHUNK_SIZE = 1 << STUDENT_CHUNK_BITS;
+    static final int LOCK_STRIPES = 64;
+    static final int MAX_HUNDREDTHS = 0x7FFD;
+
+    // usable shorts per block; the rest link to the next block
+    private static final int BLOCK_CAPACITY = BLOCK_SIZE - 2;
+    private static final int EXAM_BIT = 0x8000;
+    private static final int VALUE_MASK = 0x7FFF;
+    private static final int EXTRA_CREDIT = 0x7FFF;
+    private static final int ESCAPE = 0x7FFE;
+    // per student: head block, tail block, number of shorts written
+    private static final int HEAD = 0;
+    private static final int TAIL = 1;
+    private static final int LENGTH = 2;
+    private static final int STATE_INTS = 3;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private volatile short[][] pages = new short[0][];
+    private volatile int[][] states = new int[0][];
+    // block 0 is never handed out so 0 can mean "no block"; guarded by this
+    private int blockCount = 1;
+    private final AtomicLong scoreCount = new AtomicLong();
+
+    ScoreHistory() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Retain a score
+     * @param id roster id of the student
+     * @param type kind of score
+     * @param score score (percentage), ignored for extra credit
+     */
+    void append(int id, ScoreType type, double score) {
+        int code;
+        boolean escaped = false;
+        if (type == ScoreType.EXTRA_CREDIT) {
+            code = EXTRA_CREDIT;
+        }
+        else {
+            long hundredths = Math.round(score * 100);
+            if (hundredths >= 0 && hundredths <= MAX_HUNDREDTHS && hundredths / 100.0 == score) {
+                code = (int) hundredths;
+            }
+            else {
+                code = ESCAPE;
+                escaped = true;
+            }
+            if (type == ScoreType.EXAM) {
+                code |= EXAM_BIT;
+            }
+        }
+        synchronized (locks[id & (LOCK_STRIPES - 1)]) {
+            int[] state = stateFor(id);
+            int base = (id & (STUDENT_CHUNK_SIZE - 1)) * STATE_INTS;
+            put(state, base, code);
+            if (escaped) {
+                long bits = Double.doubleToRawLongBits(score);
+                for (int shift = 48; shift >= 0; shift -= 16) {
+                    put(state, base, (int) (bits >>> shift));
+                }
+            }
+        }
+        scoreCount.incrementAndGet();
+    }
+
+    /**
+     * Stream a student's retained scores, oldest first.  Scores appended while visiting are not included.
+     * @param id roster id of the student
+     * @param name name passed to the visitor
+     * @param visitor receives each score
+     */
+    void visit(int id, String name, ScoreHistoryVisitor visitor) {
+        int head;
+        int length;
+        synchronized (locks[id & (LOCK_STRIPES - 1)]) {
+            int[][] chunks = states;
+            int chunk = id >>> STUDENT_CHUNK_BITS;
+            if (chunk >= chunks.length) {
+                return;
+            }
+            int base = (id & (STUDENT_CHUNK_SIZE - 1)) * STATE_INTS;
+            head = chunks[chunk][base + HEAD];
+            length = chunks[chunk][base + LENGTH];
+        }
+        Reader reader = new Reader(pages, head);
+        int read = 0;
+        while (read < length) {
+            int code = reader.next();
+            read++;
+            int value = code & VALUE_MASK;
+            ScoreType type = (code & EXAM_BIT) != 0 ? ScoreType.EXAM : ScoreType.ASSIGNMENT;
+            if (value == EXTRA_CREDIT) {
+                visitor.score(name, ScoreType.EXTRA_CREDIT, 0);
+            }
+            else if (value == ESCAPE) {
+                long bits = 0;
+                for (int i = 0; i < 4; i++) {
+                    bits = bits << 16 | reader.next();
+                }
+                read += 4;
+                visitor.score(name, type, Double.longBitsToDouble(bits));
+            }
+            else {
+                visitor.score(name, type, value / 100.0);
+            }
+        }
+    }
+
+    /**
+     * @return number of scores retained
+     */
+    long getScoreCount() {
+        return scoreCount.get();
+    }
+
+    /**
+     * @return bytes held by the pages and per-student state
+     */
+    long getRetainedBytes() {
+        return (long) pages.length * PAGE_SIZE * 2 + (long) states.length * STUDENT_CHUNK_SIZE * STATE_INTS * 4;
+    }
+
+    /**
+     * Append one short to a student's chain, starting a new block when the tail is full.  Caller holds the student's
+     * lock.
+     */
+    private void put(int[] state, int base, int value) {
+        int length = state[base + LENGTH];
+        int offset = length % BLOCK_CAPACITY;
+        int block;
+        if (offset == 0) {
+            block = allocateBlock();
+            if (length == 0) {
+                state[base + HEAD] = block;
+            }
+            else {
+                int tail = state[base + TAIL];
+                write((long) tail * BLOCK_SIZE + BLOCK_CAPACITY, block >>> 16);
+                write((long) tail * BLOCK_SIZE + BLOCK_CAPACITY + 1, block);
+            }
+            state[base + TAIL] = block;
+        }
+        else {
+            block = state[base + TAIL];
+        }
+        write((long) block * BLOCK_SIZE + offset, value);
+        state[base + LENGTH] = length + 1;
+    }
+
+    private void write(long position, int value) {
+        pages[(int) (position >>> PAGE_BITS)][(int) (position & (PAGE_SIZE - 1))] = (short) value;
+    }
+
+    private synchronized int allocateBlock() {
+        int block = blockCount++;
+        int page = (int) ((long) block * BLOCK_SIZE >>> PAGE_BITS);
+        if (page == pages.length) {
+            short[][] grown = new short[page + 1][];
+            System.arraycopy(pages, 0, grown, 0, page);
+            grown[page] = new short[PAGE_SIZE];
+            pages = grown;
+        }
+        return block;
+    }
+
+    private int[] stateFor(int id) {
+        int chunk = id >>> STUDENT_CHUNK_BITS;
+        int[][] chunks = states;
+        if (chunk >= chunks.length) {
+            synchronized (this) {
+                chunks = states;
+                if (chunk >= chunks.length) {
+                    int[][] grown = new int[chunk + 1][];
+                    System.arraycopy(chunks, 0, grown, 0, chunks.length);
+                    for (int i = chunks.length; i < grown.length; i++) {
+                        grown[i] = new int[STUDENT_CHUNK_SIZE * STATE_INTS];
+                    }
+                    states = grown;
+                    chunks = grown;
+                }
+            }
+        }
+        return chunks[chunk];
+    }
+
+    /**
+     * Walks one student's chain of blocks
+     */
+    private static class Reader {
+        private final short[][] pages;
+        private int block;
+        private int offset = 0;
+
+        Reader(short[][] pages, int head) {
+            this.pages = pages;
+            this.block = head;
+        }
+
+        int next() {
+            if (offset == BLOCK_CAPACITY) {
+                block = read((long) block * BLOCK_SIZE + BLOCK_CAPACITY) << 16
+                        | read((long) block * BLOCK_SIZE + BLOCK_CAPACITY + 1);
+                offset = 0;
+            }
+            return read((long) block * BLOCK_SIZE + offset++);
+        }
+
+        private int read(long position) {
+            return pages[(int) (position >>> PAGE_BITS)][(int) (position & (PAGE_SIZE - 1))] & 0xFFFF;
+        }
+    }
+}
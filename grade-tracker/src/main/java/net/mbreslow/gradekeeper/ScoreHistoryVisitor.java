@@ -0,0 +1,13 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Receives retained scores one at a time, in the order they were recorded for each student
+ */
+public interface ScoreHistoryVisitor {
+    /**
+     * @param studentName name of the student the score was recorded for
+     * @param type kind of score
+     * @param score score (percentage), 0 for extra credit
+     */
+    void score(String studentName, ScoreType type, double score);
+}
@@ -0,0 +1,295 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ring-buffer ingestion stage in front of a {@link GradeTracker}.  Producers claim a preallocated slot, copy the score
+ * into it and publish it; nothing is allocated per event.  Consumer threads read published slots in batches and apply
+ * each batch to the service with one {@link GradeTracker#recordScores(Iterable)} call.
+ * <br/>
+ * Every consumer has a ring of its own and owns the teachers whose name hashes to it, so one teacher's scores (and so
+ * each student's) are applied in the order they were published, by a single thread, and a consumer only ever reads
+ * slots it applies.  A slot is reused once its consumer has moved past it, so a producer that gets a full lap ahead of
+ * that consumer waits, using the pipeline's {@link WaitStrategy}.
+ * <br/>
+ * Events are applied after {@link #publish} returns, so errors such as an unknown teacher cannot be thrown to the
+ * producer; they are counted (see {@link #getFailedCount()}) and passed to the {@link FailureHandler}, if any.  A
+ * consumer that stops on anything else (an {@link Error}, say) stops its ring: publishing to it, {@link #flush()} and
+ * {@link #close()} then throw instead of waiting for it.
+ */
+public class ScorePipeline implements Closeable {
+    // most events a consumer takes in one batch before publishing its progress
+    static final int MAX_BATCH = 1024;
+
+    /**
+     * Receives events that could not be applied.  Called on a consumer thread.
+     */
+    public interface FailureHandler {
+        void eventFailed(ScoreType type, String teacherName, String studentName, double score, RuntimeException error);
+    }
+
+    private final GradeTracker service;
+    private final WaitStrategy waitStrategy;
+    private final FailureHandler failureHandler;
+    private final AtomicInteger publishing = new AtomicInteger();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final Consumer[] consumers;
+    private volatile boolean closed = false;
+
+    private ScorePipeline(GradeTracker service, int bufferSize, int consumerCount, WaitStrategy waitStrategy,
+                          FailureHandler failureHandler) {
+        this.service = service;
+        this.waitStrategy = waitStrategy;
+        this.failureHandler = failureHandler;
+        consumers = new Consumer[consumerCount];
+        for (int i = 0; i < consumerCount; i++) {
+            consumers[i] = new Consumer(i, bufferSize);
+        }
+    }
+
+    /**
+     * Start a pipeline
+     * @param service service the events are applied to
+     * @param bufferSize number of slots in each consumer's ring, a power of two
+     * @param consumerCount number of consumer threads
+     * @param waitStrategy how idle producers and consumers wait
+     * @param failureHandler receives events that could not be applied, or null
+     * @return the running pipeline
+     */
+    public static ScorePipeline start(GradeTracker service, int bufferSize, int consumerCount,
+                                      WaitStrategy waitStrategy, FailureHandler failureHandler) {
+        assert service != null;
+        assert waitStrategy != null;
+        if (bufferSize <= 0 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("bufferSize (" + bufferSize + ") must be a power of two");
+        }
+        if (consumerCount <= 0) {
+            throw new IllegalArgumentException("consumerCount (" + consumerCount + ") must be positive");
+        }
+        ScorePipeline pipeline = new ScorePipeline(service, bufferSize, consumerCount, waitStrategy, failureHandler);
+        for (Consumer consumer : pipeline.consumers) {
+            consumer.thread.start();
+        }
+        return pipeline;
+    }
+
+    /**
+     * Queue a score.  Returns once the score is in the ring; it is applied to the service shortly after.
+     * @param type kind of score
+     * @param teacherName unique name of the teacher
+     * @param studentName unique name of the student
+     * @param score score (percentage), ignored for extra credit
+     * @throws IllegalStateException when the pipeline has been closed, or the teacher's consumer has stopped
+     */
+    public void publish(ScoreType type, String teacherName, String studentName, double score) {
+        if (type == null || teacherName == null || studentName == null) {
+            throw new IllegalArgumentException("Score events must have a type, a teacher and a student");
+        }
+        publishing.incrementAndGet();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The pipeline has been closed");
+            }
+            consumerFor(teacherName).publish(type, teacherName, studentName, score);
+        }
+        finally {
+            publishing.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wait until every score published before the call has been applied
+     * @throws IllegalStateException when a consumer stopped before applying them
+     */
+    public void flush() {
+        long[] targets = new long[consumers.length];
+        for (int i = 0; i < consumers.length; i++) {
+            targets[i] = consumers[i].next.get() - 1;
+        }
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i].awaitConsumed(targets[i]);
+        }
+    }
+
+    /**
+     * Stop accepting scores, apply every score already published and stop the consumer threads
+     * @throws IllegalStateException when a consumer stopped before applying every score
+     */
+    @Override
+    public void close() {
+        closed = true;
+        int attempt = 0;
+        // let producers that got past the closed check finish claiming and filling their slots
+        while (publishing.get() > 0) {
+            waitStrategy.idle(attempt++);
+        }
+        for (Consumer consumer : consumers) {
+            consumer.finalSequence = consumer.next.get() - 1;
+        }
+        for (Consumer consumer : consumers) {
+            try {
+                consumer.thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        for (Consumer consumer : consumers) {
+            consumer.checkRunning();
+        }
+    }
+
+    /**
+     * @return number of events that could not be applied
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    private Consumer consumerFor(String teacherName) {
+        int hash = teacherName.hashCode();
+        return consumers[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % consumers.length];
+    }
+
+    private void failed(ScoreEvent event, RuntimeException error) {
+        failedCount.incrementAndGet();
+        if (failureHandler != null) {
+            try {
+                failureHandler.eventFailed(event.getType(), event.getTeacherName(), event.getStudentName(),
+                        event.getScore(), error);
+            }
+            catch (RuntimeException ignored) {
+                // the event is counted; a broken handler must not stop the teachers behind it
+            }
+        }
+    }
+
+    /**
+     * A reusable event.  Written by one producer before the slot's sequence is published, read by its consumer after.
+     */
+    private static class Slot {
+        ScoreType type;
+        String teacherName;
+        String studentName;
+        double score;
+    }
+
+    /**
+     * Ring of the teachers that hash to one consumer thread, which applies their events
+     */
+    private class Consumer implements Runnable {
+        final Thread thread;
+        final Slot[] slots;
+        final int mask;
+        // sequence each slot was last published with, -1 before its first use
+        final AtomicLongArray published;
+        final AtomicLong next = new AtomicLong();
+        // last sequence this consumer has finished with
+        final AtomicLong consumed = new AtomicLong(-1);
+        // last sequence that will ever be published, set by close()
+        volatile long finalSequence = Long.MAX_VALUE;
+        // why the thread stopped before close() asked it to, null while it runs
+        volatile Throwable failure;
+        // reused for every batch; the service is done with the events when recordScores returns
+        private final List<ScoreEvent> batch = new ArrayList<ScoreEvent>();
+
+        Consumer(int partition, int bufferSize) {
+            slots = new Slot[bufferSize];
+            published = new AtomicLongArray(bufferSize);
+            for (int i = 0; i < bufferSize; i++) {
+                slots[i] = new Slot();
+                published.set(i, -1);
+            }
+            mask = bufferSize - 1;
+            this.thread = new Thread(this, "score-pipeline-" + partition);
+            this.thread.setDaemon(true);
+        }
+
+        void publish(ScoreType type, String teacherName, String studentName, double score) {
+            long sequence = next.getAndIncrement();
+            int attempt = 0;
+            while (sequence - slots.length > consumed.get()) {
+                // a stopped consumer never frees the slot
+                checkRunning();
+                waitStrategy.idle(attempt++);
+            }
+            int index = (int) (sequence & mask);
+            Slot slot = slots[index];
+            slot.type = type;
+            slot.teacherName = teacherName;
+            slot.studentName = studentName;
+            slot.score = score;
+            published.lazySet(index, sequence);
+        }
+
+        void awaitConsumed(long target) {
+            int attempt = 0;
+            while (consumed.get() < target) {
+                checkRunning();
+                waitStrategy.idle(attempt++);
+            }
+        }
+
+        void checkRunning() {
+            Throwable cause = failure;
+            if (cause != null) {
+                throw new IllegalStateException("Consumer " + thread.getName() + " stopped", cause);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                consume();
+            }
+            catch (Throwable e) {
+                // reported to the producers, flush and close as the cause of their IllegalStateException
+                failure = e;
+            }
+        }
+
+        private void consume() {
+            long nextSequence = 0;
+            int attempt = 0;
+            while (nextSequence <= finalSequence) {
+                long end = nextSequence;
+                while (end - nextSequence < MAX_BATCH && published.get((int) (end & mask)) == end) {
+                    end++;
+                }
+                if (end == nextSequence) {
+                    waitStrategy.idle(attempt++);
+                    continue;
+                }
+                attempt = 0;
+                apply(nextSequence, end);
+                consumed.lazySet(end - 1);
+                nextSequence = end;
+            }
+        }
+
+        private void apply(long from, long end) {
+            batch.clear();
+            for (long sequence = from; sequence < end; sequence++) {
+                Slot slot = slots[(int) (sequence & mask)];
+                batch.add(new ScoreEvent(slot.type, slot.teacherName, slot.studentName, slot.score));
+            }
+            try {
+                for (BatchResult.Failure failure : service.recordScores(batch).getFailures()) {
+                    failed(failure.getEvent(), failure.getError());
+                }
+            }
+            catch (RuntimeException e) {
+                // the whole batch failed, for example on a journal error; which parts were applied is unknown
+                for (ScoreEvent event : batch) {
+                    failed(event, e);
+                }
+            }
+        }
+    }
+}
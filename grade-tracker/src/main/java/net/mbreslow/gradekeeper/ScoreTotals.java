@@ -0,0 +1,282 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Immutable value class holding the running totals for a Student: the number and sum of assignment and exam scores
+ * and the number of extra credit assignments completed.
+ * <br/>
+ * Every change produces a new instance, so a reference to a ScoreTotals is always a consistent snapshot of a Student's
+ * scores.  {@link Student} publishes a new instance with a compare-and-set instead of locking.
+ * <br/>
+ * A Student's totals also carry the {@link VersionClock} epoch they were written in, which tells a
+ * {@link GradeSnapshot} whether they are older or newer than the snapshot.
+ * <br/>
+ * Totals of a Teacher whose {@link GradingPolicy} drops low scores are a package-private subclass that also carries the
+ * student's {@link LowestScores}; everyone else's totals do not pay for them.
+ */
+public class ScoreTotals {
+    /**
+     * Totals for a Student that has not recorded any scores yet
+     */
+    public static final ScoreTotals EMPTY = new ScoreTotals(0, 0, 0, 0, 0);
+
+    private final int extraCredits;
+    private final int examsCount;
+    private final double examsSum;
+    private final int assignmentsCount;
+    private final double assignmentsSum;
+    private final long epoch;
+
+    ScoreTotals(int extraCredits, int examsCount, double examsSum, int assignmentsCount, double assignmentsSum) {
+        this(extraCredits, examsCount, examsSum, assignmentsCount, assignmentsSum, 0);
+    }
+
+    ScoreTotals(int extraCredits, int examsCount, double examsSum, int assignmentsCount, double assignmentsSum,
+                long epoch) {
+        this.extraCredits = extraCredits;
+        this.examsCount = examsCount;
+        this.examsSum = examsSum;
+        this.assignmentsCount = assignmentsCount;
+        this.assignmentsSum = assignmentsSum;
+        this.epoch = epoch;
+    }
+
+    /**
+     * @param score score (percentage) for a new assignment
+     * @return totals with the assignment added
+     */
+    public ScoreTotals plusAssignment(double score) {
+        return plusAssignment(score, epoch);
+    }
+
+    ScoreTotals plusAssignment(double score, long epoch) {
+        return new ScoreTotals(extraCredits, examsCount, examsSum, assignmentsCount + 1, assignmentsSum + score, epoch);
+    }
+
+    /**
+     * @param score score (percentage) for a new exam
+     * @return totals with the exam added
+     */
+    public ScoreTotals plusExam(double score) {
+        return plusExam(score, epoch);
+    }
+
+    ScoreTotals plusExam(double score, long epoch) {
+        return new ScoreTotals(extraCredits, examsCount + 1, examsSum + score, assignmentsCount, assignmentsSum, epoch);
+    }
+
+    /**
+     * @return totals with one more extra credit assignment completed
+     */
+    public ScoreTotals plusExtraCredit() {
+        return plusExtraCredit(epoch);
+    }
+
+    ScoreTotals plusExtraCredit(long epoch) {
+        return new ScoreTotals(extraCredits + 1, examsCount, examsSum, assignmentsCount, assignmentsSum, epoch);
+    }
+
+    /**
+     * @param delta totals to add, for example the scores of a batch upload for this student
+     * @return totals with every count and sum in delta added
+     */
+    public ScoreTotals plus(ScoreTotals delta) {
+        return plus(delta, epoch);
+    }
+
+    ScoreTotals plus(ScoreTotals delta, long epoch) {
+        LowestScores lowest = delta.getLowest();
+        if (lowest != null) {
+            // these totals keep no lowest scores, so the delta's are the only ones known
+            return new Tracked(extraCredits + delta.extraCredits,
+                    examsCount + delta.examsCount, examsSum + delta.examsSum,
+                    assignmentsCount + delta.assignmentsCount, assignmentsSum + delta.assignmentsSum, epoch,
+                    lowest.plusUnseen(assignmentsCount, examsCount));
+        }
+        return new ScoreTotals(extraCredits + delta.extraCredits,
+                examsCount + delta.examsCount, examsSum + delta.examsSum,
+                assignmentsCount + delta.assignmentsCount, assignmentsSum + delta.assignmentsSum, epoch);
+    }
+
+    /**
+     * @return no scores, written in the given epoch
+     */
+    static ScoreTotals empty(long epoch) {
+        return epoch == 0 ? EMPTY : new ScoreTotals(0, 0, 0, 0, 0, epoch);
+    }
+
+    /**
+     * @return no scores, written in the given epoch, keeping as many lowest scores as these totals do
+     */
+    ScoreTotals cleared(long epoch) {
+        return empty(epoch);
+    }
+
+    /**
+     * @return the same totals, tagged with the given epoch
+     */
+    ScoreTotals tagged(long epoch) {
+        return new ScoreTotals(extraCredits, examsCount, examsSum, assignmentsCount, assignmentsSum, epoch);
+    }
+
+    /**
+     * @param assignments number of lowest assignment scores to keep from now on
+     * @param exams number of lowest exam scores to keep from now on
+     * @return the same totals, keeping at least that many lowest scores; the scores already counted are unseen
+     */
+    ScoreTotals tracking(int assignments, int exams) {
+        if (assignments == 0 && exams == 0) {
+            return this;
+        }
+        return new Tracked(extraCredits, examsCount, examsSum, assignmentsCount, assignmentsSum, epoch,
+                LowestScores.empty(assignments, exams).plusUnseen(assignmentsCount, examsCount));
+    }
+
+    /**
+     * @param lowest lowest scores behind these totals, or null
+     * @return the same totals with those lowest scores
+     */
+    ScoreTotals withLowest(LowestScores lowest) {
+        if (lowest == null) {
+            return this;
+        }
+        return new Tracked(extraCredits, examsCount, examsSum, assignmentsCount, assignmentsSum, epoch, lowest);
+    }
+
+    /**
+     * @return the lowest scores kept for the policy's drop rules, null when none are kept
+     */
+    LowestScores getLowest() {
+        return null;
+    }
+
+    /**
+     * @return the {@link VersionClock} epoch these totals were written in, 0 for totals that are not a Student's or
+     * were restored from storage
+     */
+    long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Calculate the weighted average given a set of scoring weights
+     * @param weights the scoring preferences for a teacher
+     * @return weighted average as a percent
+     */
+    public double getWeightedAverage(ScoringPreferences weights) {
+        return weights.getScorer().score(this);
+    }
+
+    /**
+     * @return total number of assignments, exams and extra credits recorded
+     */
+    public int getEventCount() {
+        return assignmentsCount + examsCount + extraCredits;
+    }
+
+    public int getExtraCredits() {
+        return extraCredits;
+    }
+
+    public int getExamsCount() {
+        return examsCount;
+    }
+
+    public double getExamsSum() {
+        return examsSum;
+    }
+
+    public int getAssignmentsCount() {
+        return assignmentsCount;
+    }
+
+    public double getAssignmentsSum() {
+        return assignmentsSum;
+    }
+
+    /**
+     * Totals that also keep the student's lowest scores
+     */
+    private static final class Tracked extends ScoreTotals {
+        private final LowestScores lowest;
+
+        Tracked(int extraCredits, int examsCount, double examsSum, int assignmentsCount, double assignmentsSum,
+                long epoch, LowestScores lowest) {
+            super(extraCredits, examsCount, examsSum, assignmentsCount, assignmentsSum, epoch);
+            this.lowest = lowest;
+        }
+
+        @Override
+        ScoreTotals plusAssignment(double score, long epoch) {
+            return new Tracked(getExtraCredits(), getExamsCount(), getExamsSum(), getAssignmentsCount() + 1,
+                    getAssignmentsSum() + score, epoch, lowest.plusAssignment(score));
+        }
+
+        @Override
+        ScoreTotals plusExam(double score, long epoch) {
+            return new Tracked(getExtraCredits(), getExamsCount() + 1, getExamsSum() + score, getAssignmentsCount(),
+                    getAssignmentsSum(), epoch, lowest.plusExam(score));
+        }
+
+        @Override
+        ScoreTotals plusExtraCredit(long epoch) {
+            return new Tracked(getExtraCredits() + 1, getExamsCount(), getExamsSum(), getAssignmentsCount(),
+                    getAssignmentsSum(), epoch, lowest);
+        }
+
+        @Override
+        ScoreTotals plus(ScoreTotals delta, long epoch) {
+            return new Tracked(getExtraCredits() + delta.getExtraCredits(),
+                    getExamsCount() + delta.getExamsCount(), getExamsSum() + delta.getExamsSum(),
+                    getAssignmentsCount() + delta.getAssignmentsCount(),
+                    getAssignmentsSum() + delta.getAssignmentsSum(), epoch, lowest.plus(delta));
+        }
+
+        @Override
+        ScoreTotals cleared(long epoch) {
+            return new Tracked(0, 0, 0, 0, 0, epoch, lowest.cleared());
+        }
+
+        @Override
+        ScoreTotals tagged(long epoch) {
+            return new Tracked(getExtraCredits(), getExamsCount(), getExamsSum(), getAssignmentsCount(),
+                    getAssignmentsSum(), epoch, lowest);
+        }
+
+        @Override
+        ScoreTotals tracking(int assignments, int exams) {
+            LowestScores wider = lowest.withCapacity(assignments, exams);
+            return wider == lowest ? this : withLowest(wider);
+        }
+
+        @Override
+        ScoreTotals withLowest(LowestScores lowest) {
+            if (lowest == null) {
+                return new ScoreTotals(getExtraCredits(), getExamsCount(), getExamsSum(), getAssignmentsCount(),
+                        getAssignmentsSum(), getEpoch());
+            }
+            return new Tracked(getExtraCredits(), getExamsCount(), getExamsSum(), getAssignmentsCount(),
+                    getAssignmentsSum(), getEpoch(), lowest);
+        }
+
+        @Override
+        LowestScores getLowest() {
+            return lowest;
+        }
+
+        @Override
+        public String toString() {
+            return super.toString() + "+" + lowest;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ScoreTotals{" +
+                "extraCredits=" + extraCredits +
+                ", examsCount=" + examsCount +
+                ", examsSum=" + examsSum +
+                ", assignmentsCount=" + assignmentsCount +
+                ", assignmentsSum=" + assignmentsSum +
+                '}';
+    }
+}
@@ -0,0 +1,33 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * The kinds of scores that can be recorded for a Student
+ */
+public enum ScoreType {
+    ASSIGNMENT {
+        @Override
+        ScoreTotals applyTo(ScoreTotals totals, double score) {
+            return totals.plusAssignment(score);
+        }
+    },
+    EXAM {
+        @Override
+        ScoreTotals applyTo(ScoreTotals totals, double score) {
+            return totals.plusExam(score);
+        }
+    },
+    EXTRA_CREDIT {
+        @Override
+        ScoreTotals applyTo(ScoreTotals totals, double score) {
+            return totals.plusExtraCredit();
+        }
+    };
+
+    /**
+     * Add a score of this type to a set of totals
+     * @param totals totals to add to
+     * @param score score (percentage), ignored for extra credit
+     * @return new totals
+     */
+    abstract ScoreTotals applyTo(ScoreTotals totals, double score);
+}
@@ -0,0 +1,214 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * A {@link ScoringPreferences}' weights and {@link GradingPolicy} compiled into the code that grades a student's
+ * {@link ScoreTotals}.  Compiling picks the simplest scorer the policy allows and folds the rules into final fields,
+ * so grading reads no rules and takes no branches a policy does not need; the default policy gets exactly the original
+ * weighted average.
+ * <br/>
+ * Every scorer grades a category that has no scores as missing: with one category missing the other is the average,
+ * with both missing the average is 0.
+ */
+abstract class Scorer {
+    /**
+     * @param preferences the weights, extra credit bonus and policy to grade with
+     * @return the scorer for them
+     */
+    static Scorer compile(ScoringPreferences preferences) {
+        GradingPolicy policy = preferences.getPolicy();
+        if (policy.isDefault()) {
+            return new WeightedAverage(preferences);
+        }
+        return new PolicyAverage(preferences, category(policy.getDroppedAssignments(), policy.getCurveAssignments(),
+                policy.getCapAssignments(), true), category(policy.getDroppedExams(), policy.getCurveExams(),
+                policy.getCapExams(), false));
+    }
+
+    private static Category category(int dropped, double curve, double cap, boolean assignments) {
+        Category category;
+        if (assignments) {
+            category = dropped == 0 ? new AssignmentMean() : new AssignmentDropLowest(dropped);
+        }
+        else {
+            category = dropped == 0 ? new ExamMean() : new ExamDropLowest(dropped);
+        }
+        return curve == 0 && cap == Double.POSITIVE_INFINITY ? category : new Adjusted(category, curve, cap);
+    }
+
+    /**
+     * @param totals a student's totals
+     * @return the student's weighted average as a percent
+     */
+    abstract double score(ScoreTotals totals);
+
+    /**
+     * The original formula: the weighted category means, with the extra credit bonus added to the assignment mean
+     */
+    private static final class WeightedAverage extends Scorer {
+        private final double weightAssignments;
+        private final double weightExams;
+        private final double extraCreditBonus;
+
+        WeightedAverage(ScoringPreferences preferences) {
+            this.weightAssignments = preferences.getWeightAssignments();
+            this.weightExams = preferences.getWeightExams();
+            this.extraCreditBonus = preferences.getExtraCreditBonus();
+        }
+
+        @Override
+        double score(ScoreTotals totals) {
+            int examsCount = totals.getExamsCount();
+            int assignmentsCount = totals.getAssignmentsCount();
+            double examAverage = 0;
+            if (examsCount != 0) {
+                examAverage = totals.getExamsSum() / examsCount;
+            }
+            double assignmentAverage = 0;
+            if (assignmentsCount != 0) {
+                assignmentAverage = totals.getAssignmentsSum() / assignmentsCount;
+                assignmentAverage += totals.getExtraCredits() * extraCreditBonus;
+            }
+            if (examsCount != 0 && assignmentsCount != 0) {
+                // apply allocations
+                return (examAverage * weightExams) + (assignmentAverage * weightAssignments);
+            }
+            else if (examsCount != 0) {
+                return examAverage;
+            }
+            return assignmentAverage;
+        }
+    }
+
+    /**
+     * The same combination of category averages, each computed by its compiled {@link Category}
+     */
+    private static final class PolicyAverage extends Scorer {
+        private final double weightAssignments;
+        private final double weightExams;
+        private final double extraCreditBonus;
+        private final int maxExtraCredits;
+        private final Category assignments;
+        private final Category exams;
+
+        PolicyAverage(ScoringPreferences preferences, Category assignments, Category exams) {
+            this.weightAssignments = preferences.getWeightAssignments();
+            this.weightExams = preferences.getWeightExams();
+            this.extraCreditBonus = preferences.getExtraCreditBonus();
+            this.maxExtraCredits = preferences.getPolicy().getMaxExtraCredits();
+            this.assignments = assignments;
+            this.exams = exams;
+        }
+
+        @Override
+        double score(ScoreTotals totals) {
+            int examsCount = totals.getExamsCount();
+            int assignmentsCount = totals.getAssignmentsCount();
+            double examAverage = 0;
+            if (examsCount != 0) {
+                examAverage = exams.average(totals, 0);
+            }
+            double assignmentAverage = 0;
+            if (assignmentsCount != 0) {
+                assignmentAverage = assignments.average(totals,
+                        Math.min(totals.getExtraCredits(), maxExtraCredits) * extraCreditBonus);
+            }
+            if (examsCount != 0 && assignmentsCount != 0) {
+                return (examAverage * weightExams) + (assignmentAverage * weightAssignments);
+            }
+            else if (examsCount != 0) {
+                return examAverage;
+            }
+            return assignmentAverage;
+        }
+    }
+
+    /**
+     * One category's average, for a student with at least one score in it
+     */
+    private abstract static class Category {
+        /**
+         * @param bonus points added to the mean before any curve and cap
+         */
+        abstract double average(ScoreTotals totals, double bonus);
+    }
+
+    private static final class AssignmentMean extends Category {
+        @Override
+        double average(ScoreTotals totals, double bonus) {
+            return totals.getAssignmentsSum() / totals.getAssignmentsCount() + bonus;
+        }
+    }
+
+    private static final class ExamMean extends Category {
+        @Override
+        double average(ScoreTotals totals, double bonus) {
+            return totals.getExamsSum() / totals.getExamsCount() + bonus;
+        }
+    }
+
+    /**
+     * Mean without the lowest scores, of those the student's {@link LowestScores} kept, leaving at least one score.
+     * Nothing is dropped while the kept scores may miss lower ones recorded before they were kept.
+     */
+    private static final class AssignmentDropLowest extends Category {
+        private final int dropped;
+
+        AssignmentDropLowest(int dropped) {
+            this.dropped = dropped;
+        }
+
+        @Override
+        double average(ScoreTotals totals, double bonus) {
+            int count = totals.getAssignmentsCount();
+            LowestScores lowest = totals.getLowest();
+            if (lowest == null || count == 1 || !lowest.isAssignmentsComplete()) {
+                return totals.getAssignmentsSum() / count + bonus;
+            }
+            int drop = Math.min(Math.min(dropped, count - 1), lowest.getAssignmentsSize());
+            return (totals.getAssignmentsSum() - lowest.sumLowestAssignments(drop)) / (count - drop) + bonus;
+        }
+    }
+
+    /**
+     * Mean without the lowest scores, of those the student's {@link LowestScores} kept, leaving at least one score.
+     * Nothing is dropped while the kept scores may miss lower ones recorded before they were kept.
+     */
+    private static final class ExamDropLowest extends Category {
+        private final int dropped;
+
+        ExamDropLowest(int dropped) {
+            this.dropped = dropped;
+        }
+
+        @Override
+        double average(ScoreTotals totals, double bonus) {
+            int count = totals.getExamsCount();
+            LowestScores lowest = totals.getLowest();
+            if (lowest == null || count == 1 || !lowest.isExamsComplete()) {
+                return totals.getExamsSum() / count + bonus;
+            }
+            int drop = Math.min(Math.min(dropped, count - 1), lowest.getExamsSize());
+            return (totals.getExamsSum() - lowest.sumLowestExams(drop)) / (count - drop) + bonus;
+        }
+    }
+
+    /**
+     * A category's average, curved and then capped
+     */
+    private static final class Adjusted extends Category {
+        private final Category category;
+        private final double curve;
+        private final double cap;
+
+        Adjusted(Category category, double curve, double cap) {
+            this.category = category;
+            this.curve = curve;
+            this.cap = cap;
+        }
+
+        @Override
+        double average(ScoreTotals totals, double bonus) {
+            return Math.min(category.average(totals, bonus) + curve, cap);
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package net.mbreslow.gradekeeper;
 
 /**
- * Immutable class holds a teacher's scoring preferences (weights)
+ * Immutable class holds a teacher's scoring preferences (weights) and the {@link GradingPolicy} applied with them,
+ * compiled into a {@link Scorer} when the preferences are created
  */
 public class ScoringPreferences {
     private double weightAssignments = 1;
     private double weightExams = 1;
     private double extraCreditBonus = .02f;
+    private final GradingPolicy policy;
+    private final Scorer scorer;
 
     /**
      * Constructor.
@@ -16,12 +19,30 @@ public class ScoringPreferences {
      * @throws IllegalArgumentException when weightAssignments + weightExams does not sum to 1
      */
     public ScoringPreferences(double weightAssignments, double weightExams, double extraCreditBonus) {
+        this(weightAssignments, weightExams, extraCreditBonus, GradingPolicy.DEFAULT);
+    }
+
+    /**
+     * Constructor.
+     * @param weightAssignments
+     * @param weightExams
+     * @param extraCreditBonus
+     * @param policy grading rules applied on top of the weights, see {@link GradingPolicy#parse(String)}
+     * @throws IllegalArgumentException when weightAssignments + weightExams does not sum to 1
+     */
+    public ScoringPreferences(double weightAssignments, double weightExams, double extraCreditBonus,
+                              GradingPolicy policy) {
         this.weightAssignments = weightAssignments;
         this.weightExams = weightExams;
         this.extraCreditBonus = extraCreditBonus;
         if (weightAssignments + weightExams != 1) {
             throw new IllegalArgumentException("weightAssignments (" + weightAssignments + ") + weightExams (" + weightExams + ") must sum to 1.  " + (weightAssignments + weightExams) + " != 1");
         }
+        if (policy == null) {
+            throw new IllegalArgumentException("Grading policy is null");
+        }
+        this.policy = policy;
+        this.scorer = Scorer.compile(this);
     }
 
     public double getWeightAssignments() {
@@ -36,6 +57,14 @@ public class ScoringPreferences {
         return extraCreditBonus;
     }
 
+    public GradingPolicy getPolicy() {
+        return policy;
+    }
+
+    Scorer getScorer() {
+        return scorer;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -46,6 +75,7 @@ public class ScoringPreferences {
         if (Double.compare(that.extraCreditBonus, extraCreditBonus) != 0) return false;
         if (Double.compare(that.weightAssignments, weightAssignments) != 0) return false;
         if (Double.compare(that.weightExams, weightExams) != 0) return false;
+        if (!policy.equals(that.policy)) return false;
 
         return true;
     }
@@ -60,6 +90,7 @@ public class ScoringPreferences {
         result = 31 * result + (int) (temp ^ (temp >>> 32));
         temp = Double.doubleToLongBits(extraCreditBonus);
         result = 31 * result + (int) (temp ^ (temp >>> 32));
+        result = 31 * result + policy.hashCode();
         return result;
     }
 
@@ -69,6 +100,7 @@ public class ScoringPreferences {
                 "weightAssignments=" + weightAssignments +
                 ", weightExams=" + weightExams +
                 ", extraCreditBonus=" + extraCreditBonus +
+                (policy.isDefault() ? "" : ", policy=" + policy.getDefinition()) +
                 '}';
     }
 }
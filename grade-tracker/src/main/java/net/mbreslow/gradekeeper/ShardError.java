@@ -0,0 +1,21 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Runtime error thrown when a shard node cannot be reached, or fails in a way its callers have no error type for
+ */
+public class ShardError extends RuntimeException {
+    public ShardError() {
+    }
+
+    public ShardError(String s) {
+        super(s);
+    }
+
+    public ShardError(String s, Throwable throwable) {
+        super(s, throwable);
+    }
+
+    public ShardError(Throwable throwable) {
+        super(throwable);
+    }
+}
@@ -0,0 +1,38 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.List;
+
+/**
+ * One node of a sharded deployment, as a {@link ShardedGradeTracker} sees it: a {@link GradeTracker} for the teachers
+ * it owns, plus the operations that move a teacher to another node.  {@link GradeTrackerImpl} is a node; a
+ * {@link ShardTransport} may hand out proxies for nodes elsewhere.
+ */
+public interface ShardNode extends GradeTracker {
+    /**
+     * @return names of the teachers on this node, in ascending order
+     */
+    List<String> getTeacherNames();
+
+    /**
+     * Encode a teacher's scoring preferences, students and sealed grading periods.  Retained score history is not
+     * included.
+     * @param teacherName name of the teacher
+     * @return the teacher, for {@link #importTeacher(byte[])} on another node
+     * @throws ObjectNotFoundError when teacher not found
+     */
+    byte[] exportTeacher(String teacherName);
+
+    /**
+     * Add a teacher exported by another node
+     * @param teacher bytes returned by {@link #exportTeacher(String)}
+     * @throws NameCollisionError when this node already has a teacher by that name
+     */
+    void importTeacher(byte[] teacher);
+
+    /**
+     * Remove a teacher and every student in its class from this node
+     * @param teacherName name of the teacher
+     * @throws ObjectNotFoundError when teacher not found
+     */
+    void removeTeacher(String teacherName);
+}
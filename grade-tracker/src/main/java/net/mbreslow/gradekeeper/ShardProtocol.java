@@ -0,0 +1,207 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request/response protocol between {@link SocketTransport} and {@link ShardServer}.  A request is an operation byte
+ * followed by the arguments; the response is {@link #OK} followed by the result, or {@link #FAILED} followed by the
+ * error's kind, class name and message.  Strings are modified UTF-8 as written by {@link DataOutputStream#writeUTF},
+ * numbers are big-endian.  Each connection carries one request at a time.
+ */
+class ShardProtocol {
+    static final byte RECORD_ASSIGNMENT_SCORE = 1;
+    static final byte RECORD_EXAM_SCORE = 2;
+    static final byte RECORD_EXTRA_CREDIT = 3;
+    static final byte RECORD_SCORES = 4;
+    static final byte ADD_TEACHER = 5;
+    static final byte UPDATE_TEACHER = 6;
+    static final byte GET_STUDENT_AVERAGE = 7;
+    static final byte GET_CLASS_STATISTICS = 8;
+    static final byte GET_STUDENT_RANK = 9;
+    static final byte GET_TOP_STUDENTS = 10;
+    static final byte GET_BOTTOM_STUDENTS = 11;
+    static final byte GET_PERCENTILE = 12;
+    static final byte VISIT_STUDENT_HISTORY = 13;
+    static final byte VISIT_CLASS_HISTORY = 14;
+    static final byte CLOSE_GRADING_PERIOD = 15;
+    static final byte GET_GRADING_PERIODS = 16;
+    static final byte GET_PERIOD_AVERAGE = 17;
+    static final byte GET_PERIOD_STATISTICS = 18;
+    static final byte GET_COMBINED_AVERAGE = 19;
+    static final byte GET_TEACHER_NAMES = 20;
+    static final byte EXPORT_TEACHER = 21;
+    static final byte IMPORT_TEACHER = 22;
+    static final byte REMOVE_TEACHER = 23;
+    static final byte RECORD_EVENT = 24;
+
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+
+    // error kinds, so the caller sees the same exception type the node threw
+    private static final byte OTHER = 0;
+    private static final byte NOT_FOUND = 1;
+    private static final byte NAME_COLLISION = 2;
+    private static final byte ILLEGAL_ARGUMENT = 3;
+    private static final byte ILLEGAL_STATE = 4;
+    private static final byte UNSUPPORTED = 5;
+    private static final byte JOURNAL = 6;
+
+    // writeUTF takes at most 65535 bytes
+    private static final int MAX_MESSAGE_LENGTH = 8192;
+
+    private static final ScoreType[] SCORE_TYPES = ScoreType.values();
+
+    static void writePreferences(DataOutputStream out, ScoringPreferences preferences) throws IOException {
+        out.writeDouble(preferences.getWeightAssignments());
+        out.writeDouble(preferences.getWeightExams());
+        out.writeDouble(preferences.getExtraCreditBonus());
+        out.writeUTF(preferences.getPolicy().getDefinition());
+    }
+
+    static ScoringPreferences readPreferences(DataInputStream in) throws IOException {
+        return new ScoringPreferences(in.readDouble(), in.readDouble(), in.readDouble(),
+                GradingPolicy.parse(in.readUTF()));
+    }
+
+    static void writeStatistics(DataOutputStream out, ClassStatistics statistics) throws IOException {
+        out.writeInt(statistics.getStudentCount());
+        out.writeDouble(statistics.getAverage());
+        out.writeDouble(statistics.getMinimum());
+        out.writeDouble(statistics.getMaximum());
+    }
+
+    static ClassStatistics readStatistics(DataInputStream in) throws IOException {
+        return new ClassStatistics(in.readInt(), in.readDouble(), in.readDouble(), in.readDouble());
+    }
+
+    static void writeRankedStudent(DataOutputStream out, RankedStudent student) throws IOException {
+        out.writeUTF(student.getName());
+        out.writeDouble(student.getAverage());
+        out.writeInt(student.getRank());
+        out.writeDouble(student.getPercentile());
+    }
+
+    static RankedStudent readRankedStudent(DataInputStream in) throws IOException {
+        return new RankedStudent(in.readUTF(), in.readDouble(), in.readInt(), in.readDouble());
+    }
+
+    static void writeRankedStudents(DataOutputStream out, List<RankedStudent> students) throws IOException {
+        out.writeInt(students.size());
+        for (RankedStudent student : students) {
+            writeRankedStudent(out, student);
+        }
+    }
+
+    static List<RankedStudent> readRankedStudents(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<RankedStudent> students = new ArrayList<RankedStudent>(count);
+        for (int i = 0; i < count; i++) {
+            students.add(readRankedStudent(in));
+        }
+        return students;
+    }
+
+    static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    static void writeScoreType(DataOutputStream out, ScoreType type) throws IOException {
+        out.writeByte(type.ordinal());
+    }
+
+    static ScoreType readScoreType(DataInputStream in) throws IOException {
+        int ordinal = in.readByte();
+        if (ordinal < 0 || ordinal >= SCORE_TYPES.length) {
+            throw new IOException("Unknown score type " + ordinal);
+        }
+        return SCORE_TYPES[ordinal];
+    }
+
+    /**
+     * Write an event id that may be null
+     */
+    static void writeEventId(DataOutputStream out, String eventId) throws IOException {
+        out.writeBoolean(eventId != null);
+        if (eventId != null) {
+            out.writeUTF(eventId);
+        }
+    }
+
+    static String readEventId(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Write a {@link #FAILED} response
+     */
+    static void writeError(DataOutputStream out, RuntimeException error) throws IOException {
+        byte kind = error instanceof ObjectNotFoundError ? NOT_FOUND
+                : error instanceof NameCollisionError ? NAME_COLLISION
+                : error instanceof IllegalArgumentException ? ILLEGAL_ARGUMENT
+                : error instanceof IllegalStateException ? ILLEGAL_STATE
+                : error instanceof UnsupportedOperationException ? UNSUPPORTED
+                : error instanceof JournalError ? JOURNAL
+                : OTHER;
+        String message = error.getMessage() == null ? "" : error.getMessage();
+        if (message.length() > MAX_MESSAGE_LENGTH) {
+            message = message.substring(0, MAX_MESSAGE_LENGTH);
+        }
+        out.writeByte(FAILED);
+        out.writeByte(kind);
+        out.writeUTF(error.getClass().getName());
+        out.writeUTF(message);
+    }
+
+    /**
+     * Read the rest of a {@link #FAILED} response
+     * @return the error to throw on the caller's side
+     */
+    static RuntimeException readError(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        String className = in.readUTF();
+        String message = in.readUTF();
+        switch (kind) {
+            case NOT_FOUND:
+                return new ObjectNotFoundError(message);
+            case NAME_COLLISION:
+                return new NameCollisionError(message);
+            case ILLEGAL_ARGUMENT:
+                return new IllegalArgumentException(message);
+            case ILLEGAL_STATE:
+                return new IllegalStateException(message);
+            case UNSUPPORTED:
+                return new UnsupportedOperationException(message);
+            case JOURNAL:
+                return new JournalError(message);
+            default:
+                return new ShardError("Node failed with " + className + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a {@link ShardNode} to {@link SocketTransport} clients.  Each connection gets its own thread, which reads a
+ * request, calls the node and writes the response; clients open one connection per concurrent call.
+ * <br/>
+ * There is no authentication or encryption: bind to the loopback interface, the default, or a trusted network.
+ */
+public class ShardServer implements Closeable {
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final ShardNode node;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    /**
+     * Serve a node on an ephemeral port of the loopback interface
+     * @param node the node to serve
+     * @throws ShardError when the port cannot be opened
+     */
+    public ShardServer(ShardNode node) {
+        this(node, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    /**
+     * @param node the node to serve
+     * @param bindAddress interface and port to listen on; port 0 picks a free one
+     * @throws ShardError when the port cannot be opened
+     */
+    public ShardServer(ShardNode node, InetSocketAddress bindAddress) {
+        assert node != null;
+        this.node = node;
+        try {
+            this.serverSocket = new ServerSocket();
+            serverSocket.bind(bindAddress);
+        }
+        catch (IOException e) {
+            throw new ShardError("Unable to listen on " + bindAddress, e);
+        }
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "shard-server-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return host:port to pass to {@link SocketTransport#connect(String)}
+     */
+    public String getAddress() {
+        return serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+            }
+            catch (IOException e) {
+                // closed, or a connection that failed before it was accepted
+                continue;
+            }
+            connections.add(socket);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "shard-connection-" + connectionCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+                    BUFFER_SIZE));
+            while (!closed) {
+                byte operation;
+                try {
+                    operation = in.readByte();
+                }
+                catch (EOFException e) {
+                    return;
+                }
+                handle(operation, in, out);
+                out.flush();
+            }
+        }
+        catch (IOException e) {
+            // the client went away; its call fails on its side
+        }
+        finally {
+            connections.remove(socket);
+            try {
+                socket.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Read one request's arguments, call the node and write the response
+     */
+    private void handle(byte operation, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (operation) {
+            case ShardProtocol.RECORD_ASSIGNMENT_SCORE:
+            case ShardProtocol.RECORD_EXAM_SCORE:
+            case ShardProtocol.RECORD_EXTRA_CREDIT: {
+                String teacherName = in.readUTF();
+                String studentName = in.readUTF();
+                double score = in.readDouble();
+                try {
+                    if (operation == ShardProtocol.RECORD_ASSIGNMENT_SCORE) {
+                        node.recordAssignmentScore(teacherName, studentName, score);
+                    }
+                    else if (operation == ShardProtocol.RECORD_EXAM_SCORE) {
+                        node.recordExamScore(teacherName, studentName, score);
+                    }
+                    else {
+                        node.recordExtraCredit(teacherName, studentName);
+                    }
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                return;
+            }
+            case ShardProtocol.RECORD_EVENT: {
+                ScoreType type = ShardProtocol.readScoreType(in);
+                String teacherName = in.readUTF();
+                String studentName = in.readUTF();
+                double score = in.readDouble();
+                String eventId = in.readUTF();
+                boolean recorded;
+                try {
+                    switch (type) {
+                        case ASSIGNMENT:
+                            recorded = node.recordAssignmentScore(teacherName, studentName, score, eventId);
+                            break;
+                        case EXAM:
+                            recorded = node.recordExamScore(teacherName, studentName, score, eventId);
+                            break;
+                        default:
+                            recorded = node.recordExtraCredit(teacherName, studentName, eventId);
+                    }
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                out.writeBoolean(recorded);
+                return;
+            }
+            case ShardProtocol.RECORD_SCORES: {
+                int count = in.readInt();
+                List<ScoreEvent> events = new ArrayList<ScoreEvent>(count);
+                for (int i = 0; i < count; i++) {
+                    events.add(new ScoreEvent(ShardProtocol.readScoreType(in), in.readUTF(), in.readUTF(),
+                            in.readDouble(), ShardProtocol.readEventId(in)));
+                }
+                BatchResult result;
+                try {
+                    result = node.recordScores(events);
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                out.writeInt(result.getAppliedCount());
+                out.writeInt(result.getDuplicateCount());
+                out.writeInt(result.getFailures().size());
+                for (BatchResult.Failure failure : result.getFailures()) {
+                    out.writeInt(failure.getIndex());
+                    ShardProtocol.writeError(out, failure.getError());
+                }
+                return;
+            }
+            case ShardProtocol.ADD_TEACHER:
+            case ShardProtocol.UPDATE_TEACHER: {
+                String name = in.readUTF();
+                ScoringPreferences preferences;
+                try {
+                    preferences = ShardProtocol.readPreferences(in);
+                    if (operation == ShardProtocol.ADD_TEACHER) {
+                        node.addTeacher(name, preferences);
+                    }
+                    else {
+                        node.updateTeacher(name, preferences);
+                    }
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                return;
+            }
+            case ShardProtocol.GET_STUDENT_AVERAGE: {
+                String teacherName = in.readUTF();
+                String studentName = in.readUTF();
+                double average;
+                try {
+                    average = node.getStudentAverage(teacherName, studentName);
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                out.writeDouble(average);
+                return;
+            }
+            case ShardProtocol.GET_CLASS_STATISTICS:
+            case ShardProtocol.GET_PERIOD_STATISTICS: {
+                String teacherName = in.readUTF();
+                String periodName = operation == ShardProtocol.GET_PERIOD_STATISTICS ? in.readUTF() : null;
+                ClassStatistics statistics;
+                try {
+                    statistics = periodName == null ? node.getClassStatistics(teacherName)
+                            : node.getPeriodStatistics(teacherName, periodName);
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                ShardProtocol.writeStatistics(out, statistics);
+                return;
+            }
+            case ShardProtocol.GET_STUDENT_RANK: {
+                String teacherName = in.readUTF();
+                String studentName = in.readUTF();
+                RankedStudent rank;
+                try {
+                    rank = node.getStudentRank(teacherName, studentName);
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                ShardProtocol.writeRankedStudent(out, rank);
+                return;
+            }
+            case ShardProtocol.GET_TOP_STUDENTS:
+            case ShardProtocol.GET_BOTTOM_STUDENTS: {
+                String teacherName = in.readUTF();
+                int count = in.readInt();
+                List<RankedStudent> students;
+                try {
+                    students = operation == ShardProtocol.GET_TOP_STUDENTS ? node.getTopStudents(teacherName, count)
+                            : node.getBottomStudents(teacherName, count);
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                ShardProtocol.writeRankedStudents(out, students);
+                return;
+            }
+            case ShardProtocol.GET_PERCENTILE: {
+                String teacherName = in.readUTF();
+                double percentile = in.readDouble();
+                double value;
+                try {
+                    value = node.getPercentile(teacherName, percentile);
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                out.writeDouble(value);
+                return;
+            }
+            case ShardProtocol.VISIT_STUDENT_HISTORY:
+            case ShardProtocol.VISIT_CLASS_HISTORY: {
+                String teacherName = in.readUTF();
+                String studentName = operation == ShardProtocol.VISIT_STUDENT_HISTORY ? in.readUTF() : null;
+                final List<String> students = new ArrayList<String>();
+                final List<ScoreType> types = new ArrayList<ScoreType>();
+                final List<Double> scores = new ArrayList<Double>();
+                ScoreHistoryVisitor collector = new ScoreHistoryVisitor() {
+                    @Override
+                    public void score(String studentName, ScoreType type, double score) {
+                        students.add(studentName);
+                        types.add(type);
+                        scores.add(score);
+                    }
+                };
+                try {
+                    if (studentName == null) {
+                        node.visitClassHistory(teacherName, collector);
+                    }
+                    else {
+                        node.visitStudentHistory(teacherName, studentName, collector);
+                    }
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                // the whole history is collected first so that a failure part way is reported, not half-streamed
+                out.writeByte(ShardProtocol.OK);
+                out.writeInt(students.size());
+                for (int i = 0; i < students.size(); i++) {
+                    out.writeUTF(students.get(i));
+                    ShardProtocol.writeScoreType(out, types.get(i));
+                    out.writeDouble(scores.get(i));
+                }
+                return;
+            }
+            case ShardProtocol.CLOSE_GRADING_PERIOD: {
+                String teacherName = in.readUTF();
+                String periodName = in.readUTF();
+                try {
+                    node.closeGradingPeriod(teacherName, periodName);
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                return;
+            }
+            case ShardProtocol.GET_GRADING_PERIODS:
+            case ShardProtocol.GET_TEACHER_NAMES: {
+                String teacherName = operation == ShardProtocol.GET_GRADING_PERIODS ? in.readUTF() : null;
+                List<String> names;
+                try {
+                    names = teacherName == null ? node.getTeacherNames() : node.getGradingPeriods(teacherName);
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                ShardProtocol.writeStrings(out, names);
+                return;
+            }
+            case ShardProtocol.GET_PERIOD_AVERAGE: {
+                String teacherName = in.readUTF();
+                String studentName = in.readUTF();
+                String periodName = in.readUTF();
+                double average;
+                try {
+                    average = node.getPeriodAverage(teacherName, studentName, periodName);
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                out.writeDouble(average);
+                return;
+            }
+            case ShardProtocol.GET_COMBINED_AVERAGE: {
+                String teacherName = in.readUTF();
+                String studentName = in.readUTF();
+                List<String> periodNames = ShardProtocol.readStrings(in);
+                boolean includeCurrentPeriod = in.readBoolean();
+                double average;
+                try {
+                    average = node.getCombinedAverage(teacherName, studentName, periodNames, includeCurrentPeriod);
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                out.writeDouble(average);
+                return;
+            }
+            case ShardProtocol.EXPORT_TEACHER: {
+                String teacherName = in.readUTF();
+                byte[] teacher;
+                try {
+                    teacher = node.exportTeacher(teacherName);
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                ShardProtocol.writeBytes(out, teacher);
+                return;
+            }
+            case ShardProtocol.IMPORT_TEACHER:
+            case ShardProtocol.REMOVE_TEACHER: {
+                byte[] teacher = operation == ShardProtocol.IMPORT_TEACHER ? ShardProtocol.readBytes(in) : null;
+                String teacherName = teacher == null ? in.readUTF() : null;
+                try {
+                    if (teacher != null) {
+                        node.importTeacher(teacher);
+                    }
+                    else {
+                        node.removeTeacher(teacherName);
+                    }
+                }
+                catch (RuntimeException e) {
+                    ShardProtocol.writeError(out, e);
+                    return;
+                }
+                out.writeByte(ShardProtocol.OK);
+                return;
+            }
+            default:
+                throw new IOException("Unknown shard operation " + operation);
+        }
+    }
+
+    /**
+     * Stop accepting connections and close the open ones.  Calls being served may fail on the client's side.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        }
+        catch (IOException ignored) {
+        }
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ShardServer{" +
+                "address=" + getAddress() +
+                ", connections=" + connections.size() +
+                '}';
+    }
+}
@@ -0,0 +1,14 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * How a {@link ShardedGradeTracker} reaches its nodes.  {@link InProcessTransport} hands out nodes in the same JVM;
+ * {@link SocketTransport} reaches nodes served by a {@link ShardServer}.
+ */
+public interface ShardTransport {
+    /**
+     * @param address address of a node, in the transport's own format
+     * @return the node at that address
+     * @throws ShardError when there is no node at the address
+     */
+    ShardNode connect(String address);
+}
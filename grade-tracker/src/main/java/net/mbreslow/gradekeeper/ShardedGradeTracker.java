@@ -0,0 +1,561 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * {@link GradeTracker} partitioned across {@link ShardNode}s by teacher.  Each teacher lives on exactly one node,
+ * chosen by consistent hashing of the teacher's name, so every call goes to a single node and batches are split into
+ * one request per node, sent in parallel.
+ * <br/>
+ * {@link #addNode} and {@link #removeNode} move only the teachers whose owner changes, about 1/N of them, with their
+ * students, scores and closed periods.  Calls wait while teachers move.
+ * <br/>
+ * {@link #resolveStudent} and {@link #subscribe} are not supported: handles and subscriptions belong to one node's
+ * JVM and would not follow a teacher to another node.
+ */
+public class ShardedGradeTracker implements GradeTracker {
+    private final ShardTransport transport;
+    private final Executor executor;
+    // routed calls hold the read lock, topology changes the write lock
+    private final ReadWriteLock topologyLock = new ReentrantReadWriteLock();
+    private volatile HashRing ring;
+    private volatile Map<String, ShardNode> nodesByAddress;
+
+    /**
+     * @param transport how to reach the nodes
+     * @param addresses the nodes, which must already hold the teachers their addresses own
+     */
+    public ShardedGradeTracker(ShardTransport transport, Collection<String> addresses) {
+        this(transport, addresses, HashRing.DEFAULT_VIRTUAL_NODES, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param virtualNodes points per node on the hash ring; more points spread teachers more evenly
+     * @param executor sends the per-node requests of a batch
+     */
+    public ShardedGradeTracker(ShardTransport transport, Collection<String> addresses, int virtualNodes,
+                               Executor executor) {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("At least one node address is required");
+        }
+        this.transport = transport;
+        this.executor = executor;
+        this.ring = new HashRing(addresses, virtualNodes);
+        if (ring.getNodes().size() != addresses.size()) {
+            throw new IllegalArgumentException("Node addresses " + addresses + " are not unique");
+        }
+        Map<String, ShardNode> nodes = new HashMap<String, ShardNode>();
+        for (String address : ring.getNodes()) {
+            nodes.put(address, transport.connect(address));
+        }
+        this.nodesByAddress = nodes;
+    }
+
+    /**
+     * @return the node owning the teacher; the caller holds the read lock
+     */
+    private ShardNode nodeFor(String teacherName) {
+        return nodesByAddress.get(ring.nodeFor(teacherName));
+    }
+
+    @Override
+    public void recordAssignmentScore(String teacherName, String studentName, double score) {
+        topologyLock.readLock().lock();
+        try {
+            nodeFor(teacherName).recordAssignmentScore(teacherName, studentName, score);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void recordExamScore(String teacherName, String studentName, double score) {
+        topologyLock.readLock().lock();
+        try {
+            nodeFor(teacherName).recordExamScore(teacherName, studentName, score);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void recordExtraCredit(String teacherName, String studentName) {
+        topologyLock.readLock().lock();
+        try {
+            nodeFor(teacherName).recordExtraCredit(teacherName, studentName);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean recordAssignmentScore(String teacherName, String studentName, double score, String eventId) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).recordAssignmentScore(teacherName, studentName, score, eventId);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean recordExamScore(String teacherName, String studentName, double score, String eventId) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).recordExamScore(teacherName, studentName, score, eventId);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean recordExtraCredit(String teacherName, String studentName, String eventId) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).recordExtraCredit(teacherName, studentName, eventId);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The events of one node's share of the batch, and their positions in the whole batch
+     */
+    private static class NodeBatch {
+        final ShardNode node;
+        final List<ScoreEvent> events = new ArrayList<ScoreEvent>();
+        final List<Integer> indexes = new ArrayList<Integer>();
+
+        NodeBatch(ShardNode node) {
+            this.node = node;
+        }
+    }
+
+    /**
+     * Split the batch by node and send the shares in parallel, one request per node.  Failure indexes refer to the
+     * whole batch; when a node cannot be reached, all of its events fail with the node's error.
+     */
+    @Override
+    public BatchResult recordScores(Iterable<ScoreEvent> events) {
+        BatchResult result = new BatchResult();
+        topologyLock.readLock().lock();
+        try {
+            Map<String, NodeBatch> batches = new LinkedHashMap<String, NodeBatch>();
+            int index = 0;
+            for (ScoreEvent event : events) {
+                if (event == null || event.getTeacherName() == null) {
+                    result.failed(index, event, new IllegalArgumentException("Score events must name a teacher and a student: " + event));
+                }
+                else {
+                    String address = ring.nodeFor(event.getTeacherName());
+                    NodeBatch batch = batches.get(address);
+                    if (batch == null) {
+                        batch = new NodeBatch(nodesByAddress.get(address));
+                        batches.put(address, batch);
+                    }
+                    batch.events.add(event);
+                    batch.indexes.add(index);
+                }
+                index++;
+            }
+            if (batches.isEmpty()) {
+                return result;
+            }
+            List<NodeBatch> ordered = new ArrayList<NodeBatch>(batches.values());
+            // the last share is sent by this thread while the others are in flight
+            List<CompletableFuture<BatchResult>> futures = new ArrayList<CompletableFuture<BatchResult>>();
+            for (int i = 0; i < ordered.size() - 1; i++) {
+                final NodeBatch batch = ordered.get(i);
+                futures.add(CompletableFuture.supplyAsync(new Supplier<BatchResult>() {
+                    @Override
+                    public BatchResult get() {
+                        return batch.node.recordScores(batch.events);
+                    }
+                }, executor));
+            }
+            NodeBatch last = ordered.get(ordered.size() - 1);
+            try {
+                merge(result, last, last.node.recordScores(last.events));
+            }
+            catch (RuntimeException e) {
+                failAll(result, last, e);
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    merge(result, ordered.get(i), futures.get(i).join());
+                }
+                catch (CompletionException e) {
+                    Throwable cause = e.getCause();
+                    failAll(result, ordered.get(i), cause instanceof RuntimeException ? (RuntimeException) cause
+                            : new ShardError("Batch for " + ordered.get(i).node + " failed", cause));
+                }
+            }
+            return result;
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    private static void merge(BatchResult result, NodeBatch batch, BatchResult nodeResult) {
+        result.applied(nodeResult.getAppliedCount());
+        result.duplicates(nodeResult.getDuplicateCount());
+        for (BatchResult.Failure failure : nodeResult.getFailures()) {
+            result.failed(batch.indexes.get(failure.getIndex()), failure.getEvent(), failure.getError());
+        }
+    }
+
+    private static void failAll(BatchResult result, NodeBatch batch, RuntimeException error) {
+        for (int i = 0; i < batch.events.size(); i++) {
+            result.failed(batch.indexes.get(i), batch.events.get(i), error);
+        }
+    }
+
+    /**
+     * Not supported: a handle would not follow its teacher to another node
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public StudentHandle resolveStudent(String teacherName, String studentName) {
+        throw new UnsupportedOperationException("Student handles are not available on a sharded tracker");
+    }
+
+    @Override
+    public void addTeacher(String name, ScoringPreferences scoringPreferences) {
+        topologyLock.readLock().lock();
+        try {
+            nodeFor(name).addTeacher(name, scoringPreferences);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateTeacher(String name, ScoringPreferences scoringPreferences) {
+        topologyLock.readLock().lock();
+        try {
+            nodeFor(name).updateTeacher(name, scoringPreferences);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> updateTeacherAsync(String name, ScoringPreferences scoringPreferences) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(name).updateTeacherAsync(name, scoringPreferences);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public double getStudentAverage(String teacherName, String studentName) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).getStudentAverage(teacherName, studentName);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ClassStatistics getClassStatistics(String teacherName) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).getClassStatistics(teacherName);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public RankedStudent getStudentRank(String teacherName, String studentName) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).getStudentRank(teacherName, studentName);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<RankedStudent> getTopStudents(String teacherName, int count) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).getTopStudents(teacherName, count);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<RankedStudent> getBottomStudents(String teacherName, int count) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).getBottomStudents(teacherName, count);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public double getPercentile(String teacherName, double percentile) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).getPercentile(teacherName, percentile);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void visitStudentHistory(String teacherName, String studentName, ScoreHistoryVisitor visitor) {
+        topologyLock.readLock().lock();
+        try {
+            nodeFor(teacherName).visitStudentHistory(teacherName, studentName, visitor);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void visitClassHistory(String teacherName, ScoreHistoryVisitor visitor) {
+        topologyLock.readLock().lock();
+        try {
+            nodeFor(teacherName).visitClassHistory(teacherName, visitor);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void closeGradingPeriod(String teacherName, String periodName) {
+        topologyLock.readLock().lock();
+        try {
+            nodeFor(teacherName).closeGradingPeriod(teacherName, periodName);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> getGradingPeriods(String teacherName) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).getGradingPeriods(teacherName);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public double getPeriodAverage(String teacherName, String studentName, String periodName) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).getPeriodAverage(teacherName, studentName, periodName);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ClassStatistics getPeriodStatistics(String teacherName, String periodName) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).getPeriodStatistics(teacherName, periodName);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public double getCombinedAverage(String teacherName, String studentName, Collection<String> periodNames,
+                                     boolean includeCurrentPeriod) {
+        topologyLock.readLock().lock();
+        try {
+            return nodeFor(teacherName).getCombinedAverage(teacherName, studentName, periodNames, includeCurrentPeriod);
+        }
+        finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Not supported: a subscription would not follow its teachers to other nodes
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public GradeSubscription subscribe(GradeChangeListener listener) {
+        throw new UnsupportedOperationException("Subscriptions are not available on a sharded tracker");
+    }
+
+    /**
+     * @return addresses of the nodes, in ascending order
+     */
+    public List<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    /**
+     * Add a node and move to it the teachers it now owns.  Calls wait until the teachers have moved.
+     * @param address a node not yet in the tracker
+     * @return the number of teachers moved
+     * @throws IllegalArgumentException when the node is already in the tracker
+     */
+    public int addNode(String address) {
+        topologyLock.writeLock().lock();
+        try {
+            HashRing added = ring.withNode(address);
+            Map<String, ShardNode> nodes = new HashMap<String, ShardNode>(nodesByAddress);
+            nodes.put(address, transport.connect(address));
+            int moved = rebalance(added, nodes);
+            ring = added;
+            nodesByAddress = nodes;
+            return moved;
+        }
+        finally {
+            topologyLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Move a node's teachers to the nodes that now own them and drop the node.  Calls wait until the teachers have
+     * moved.
+     * @param address a node in the tracker
+     * @return the number of teachers moved
+     * @throws IllegalArgumentException when the node is not in the tracker
+     * @throws IllegalStateException when it is the last node
+     */
+    public int removeNode(String address) {
+        topologyLock.writeLock().lock();
+        try {
+            HashRing removed = ring.withoutNode(address);
+            if (removed.getNodes().isEmpty()) {
+                throw new IllegalStateException("Node " + address + " is the last node");
+            }
+            int moved = rebalance(removed, nodesByAddress);
+            Map<String, ShardNode> nodes = new HashMap<String, ShardNode>(nodesByAddress);
+            nodes.remove(address);
+            ring = removed;
+            nodesByAddress = nodes;
+            return moved;
+        }
+        finally {
+            topologyLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A teacher moved during a rebalance
+     */
+    private static class Move {
+        final String teacherName;
+        final ShardNode from;
+        final ShardNode to;
+
+        Move(String teacherName, ShardNode from, ShardNode to) {
+            this.teacherName = teacherName;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Move every teacher not on its owner under the new ring.  When a move fails, the teachers already moved are
+     * moved back and the error is thrown.  The caller holds the write lock.
+     * @param nodes every node, including any being added or removed
+     */
+    private int rebalance(HashRing target, Map<String, ShardNode> nodes) {
+        List<Move> moves = new ArrayList<Move>();
+        try {
+            List<String> addresses = new ArrayList<String>(nodes.keySet());
+            Collections.sort(addresses);
+            for (String address : addresses) {
+                ShardNode from = nodes.get(address);
+                for (String teacherName : from.getTeacherNames()) {
+                    String owner = target.nodeFor(teacherName);
+                    if (!owner.equals(address)) {
+                        ShardNode to = nodes.get(owner);
+                        move(teacherName, from, to);
+                        moves.add(new Move(teacherName, from, to));
+                    }
+                }
+            }
+            return moves.size();
+        }
+        catch (RuntimeException e) {
+            for (int i = moves.size() - 1; i >= 0; i--) {
+                Move move = moves.get(i);
+                try {
+                    move(move.teacherName, move.to, move.from);
+                }
+                catch (RuntimeException rollback) {
+                    e.addSuppressed(rollback);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Copy a teacher to its new node, then remove it from the old one
+     */
+    private static void move(String teacherName, ShardNode from, ShardNode to) {
+        to.importTeacher(from.exportTeacher(teacherName));
+        try {
+            from.removeTeacher(teacherName);
+        }
+        catch (RuntimeException e) {
+            try {
+                to.removeTeacher(teacherName);
+            }
+            catch (RuntimeException undo) {
+                e.addSuppressed(undo);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedGradeTracker{" +
+                "ring=" + ring +
+                '}';
+    }
+}
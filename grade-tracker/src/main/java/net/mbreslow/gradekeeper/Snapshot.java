@@ -0,0 +1,511 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point-in-time binary snapshot of a {@link GradeTrackerImpl}: every teacher, their scoring preferences, every
+ * student's {@link ScoreTotals} for the active grading period and every sealed {@link PeriodSegment}.
+ * <br/>
+ * File layout: a header (magic number, format version, journal position, directory offset, teacher count), one section
+ * per teacher holding its students (varint-length UTF-8 name, varint counts and double sums) followed by its sealed
+ * grading periods (name, preferences, then each student's counts and sums in the same order as the students), then a
+ * directory with each teacher's name, preferences and section offset, length and student count.  Preferences end with
+ * the {@link GradingPolicy} definition, empty for the default, and each totals with a flag byte followed, when set, by
+ * the student's {@link LowestScores}.  Loading reads only the header and directory; each teacher's section is
+ * memory-mapped and decoded the first time the teacher is used.
+ * <br/>
+ * Writing never pauses writers, but must not run while a grading period is being closed.  The journal position is
+ * read before any student is, and every student's totals are read atomically, so replaying the journal from that
+ * position while skipping records whose version the student's snapshotted totals already include (see
+ * {@link ScoreTotals#getEventCount()}) reproduces the exact state.
+ */
+class Snapshot {
+    static final int MAGIC = 0x47545331;
+    static final int FORMAT_VERSION = 3;
+    // version 1 sections have no sealed periods, version 2 no grading policies or lowest scores
+    static final int FIRST_FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    // a single teacher moved between services, see writeTeacher
+    static final int TEACHER_MAGIC = 0x47545432;
+    // a teacher encoded in format version 2
+    static final int TEACHER_MAGIC_V2 = 0x47545431;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * A teacher read from a snapshot's directory
+     */
+    static class TeacherEntry {
+        final String name;
+        final ScoringPreferences preferences;
+        final Section section;
+
+        TeacherEntry(String name, ScoringPreferences preferences, Section section) {
+            this.name = name;
+            this.preferences = preferences;
+            this.section = section;
+        }
+    }
+
+    /**
+     * Contents of a snapshot file once its directory has been read
+     */
+    static class Contents {
+        final long journalPosition;
+        final List<TeacherEntry> teachers;
+
+        Contents(long journalPosition, List<TeacherEntry> teachers) {
+            this.journalPosition = journalPosition;
+            this.teachers = teachers;
+        }
+    }
+
+    /**
+     * Write a snapshot to a temporary file next to the target and rename it into place, so the target is always a
+     * complete snapshot
+     * @param teachersByName teachers to write
+     * @param journalPosition position the journal had reached before any student was read, -1 without a journal
+     * @param target snapshot file
+     */
+    static void write(Map<String, Teacher> teachersByName, long journalPosition, File target) {
+        File temporary = new File(target.getPath() + ".tmp");
+        try {
+            RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+            try {
+                file.setLength(0);
+                Output output = new Output(file.getChannel(), HEADER_SIZE);
+                List<byte[]> names = new ArrayList<byte[]>();
+                List<byte[]> policies = new ArrayList<byte[]>();
+                List<ScoringPreferences> preferences = new ArrayList<ScoringPreferences>();
+                List<long[]> sections = new ArrayList<long[]>();
+                for (Teacher teacher : teachersByName.values()) {
+                    long offset = output.position();
+                    int count = -1;
+                    teacher.pin();
+                    try {
+                        synchronized (teacher) {
+                            // an evicted roster is copied as it is rather than decoded onto the heap
+                            Section evicted = teacher.getPendingSection();
+                            if (evicted != null && evicted.format == FORMAT_VERSION) {
+                                count = evicted.copyTo(output);
+                            }
+                        }
+                        if (count < 0) {
+                            count = writeSection(output, teacher.getStudents(), teacher.getPeriods());
+                        }
+                    }
+                    finally {
+                        teacher.unpin();
+                    }
+                    names.add(teacher.getName().getBytes(UTF_8));
+                    preferences.add(teacher.getLatestScoringPreferences());
+                    policies.add(policyBytes(teacher.getLatestScoringPreferences()));
+                    sections.add(new long[]{offset, output.position() - offset, count});
+                }
+                long directoryOffset = output.position();
+                for (int i = 0; i < names.size(); i++) {
+                    ByteBuffer buffer = output.reserve(Journal.sizeOf(names.get(i)) + 24
+                            + Journal.sizeOf(policies.get(i)) + 20);
+                    Journal.putBytes(buffer, names.get(i));
+                    buffer.putDouble(preferences.get(i).getWeightAssignments());
+                    buffer.putDouble(preferences.get(i).getWeightExams());
+                    buffer.putDouble(preferences.get(i).getExtraCreditBonus());
+                    Journal.putBytes(buffer, policies.get(i));
+                    buffer.putLong(sections.get(i)[0]);
+                    buffer.putLong(sections.get(i)[1]);
+                    buffer.putInt((int) sections.get(i)[2]);
+                }
+                output.flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(journalPosition).putLong(directoryOffset)
+                        .putInt(names.size());
+                header.flip();
+                file.getChannel().write(header, 0);
+                file.getChannel().force(true);
+            }
+            finally {
+                file.close();
+            }
+            if (!temporary.renameTo(target)) {
+                target.delete();
+                if (!temporary.renameTo(target)) {
+                    throw new JournalError("Unable to move snapshot " + temporary + " to " + target);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new JournalError("Unable to write snapshot " + target, e);
+        }
+    }
+
+    /**
+     * Write one teacher's section: the students, then the sealed periods
+     * @param output where the section is written
+     * @param students the teacher's students
+     * @param periods the teacher's sealed periods, oldest first
+     * @return number of students written
+     */
+    static int writeSection(Output output, Collection<Student> students, PeriodSegment[] periods) throws IOException {
+        if (periods.length > 0) {
+            // the periods are written in the students' order, which a student added meanwhile could change
+            students = new ArrayList<Student>(students);
+        }
+        int count = 0;
+        for (Student student : students) {
+            byte[] studentName = student.getName().getBytes(UTF_8);
+            ScoreTotals totals = student.getTotals();
+            ByteBuffer buffer = output.reserve(Journal.sizeOf(studentName) + sizeOf(totals));
+            Journal.putBytes(buffer, studentName);
+            putTotals(buffer, totals);
+            count++;
+        }
+        Journal.putVarint(output.reserve(5), periods.length);
+        for (PeriodSegment period : periods) {
+            byte[] periodName = period.getName().getBytes(UTF_8);
+            byte[] policy = policyBytes(period.getPreferences());
+            ByteBuffer buffer = output.reserve(Journal.sizeOf(periodName) + 24 + Journal.sizeOf(policy));
+            Journal.putBytes(buffer, periodName);
+            buffer.putDouble(period.getPreferences().getWeightAssignments());
+            buffer.putDouble(period.getPreferences().getWeightExams());
+            buffer.putDouble(period.getPreferences().getExtraCreditBonus());
+            Journal.putBytes(buffer, policy);
+            for (Student student : students) {
+                ScoreTotals totals = period.getTotals(student.getId());
+                putTotals(output.reserve(sizeOf(totals)), totals);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Encode one teacher on its own, for moving it to another service: a magic number, the name, the scoring
+     * preferences and student count, then the teacher's section
+     * @param name the teacher's name
+     * @param preferences the teacher's scoring preferences
+     * @param students the teacher's students
+     * @param periods the teacher's sealed periods, oldest first
+     * @return the encoded teacher
+     */
+    static byte[] writeTeacher(String name, ScoringPreferences preferences, Collection<Student> students,
+                               PeriodSegment[] periods) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Output output = new Output(Channels.newChannel(bytes), 0);
+            byte[] nameBytes = name.getBytes(UTF_8);
+            byte[] policy = policyBytes(preferences);
+            ByteBuffer header = output.reserve(4 + Journal.sizeOf(nameBytes) + 24 + Journal.sizeOf(policy));
+            header.putInt(TEACHER_MAGIC);
+            Journal.putBytes(header, nameBytes);
+            header.putDouble(preferences.getWeightAssignments());
+            header.putDouble(preferences.getWeightExams());
+            header.putDouble(preferences.getExtraCreditBonus());
+            Journal.putBytes(header, policy);
+            // the count is only known once the section is written
+            long countPosition = output.position();
+            output.reserve(4).putInt(0);
+            int count = writeSection(output, students, periods);
+            output.flush();
+            byte[] teacher = bytes.toByteArray();
+            ByteBuffer.wrap(teacher).putInt((int) countPosition, count);
+            return teacher;
+        }
+        catch (IOException e) {
+            throw new JournalError("Unable to encode teacher " + name, e);
+        }
+    }
+
+    /**
+     * Read a teacher encoded by {@link #writeTeacher}.  The students are decoded later, through {@link Section}.
+     * @param teacher the encoded teacher
+     * @return the teacher's name, preferences and section
+     * @throws JournalError when the bytes are not an encoded teacher
+     */
+    static TeacherEntry readTeacher(byte[] teacher) {
+        ByteBuffer buffer = ByteBuffer.wrap(teacher);
+        int magic = buffer.remaining() < 4 ? 0 : buffer.getInt();
+        if (magic != TEACHER_MAGIC && magic != TEACHER_MAGIC_V2) {
+            throw new JournalError("Not an encoded teacher");
+        }
+        int format = magic == TEACHER_MAGIC ? FORMAT_VERSION : 2;
+        String name = Journal.getString(buffer);
+        ScoringPreferences preferences = getPreferences(buffer, format);
+        int count = buffer.getInt();
+        return new TeacherEntry(name, preferences, new Section(new SharedBytes(buffer), buffer.position(),
+                buffer.remaining(), count, format));
+    }
+
+    private static byte[] policyBytes(ScoringPreferences preferences) {
+        return preferences.getPolicy().getDefinition().getBytes(UTF_8);
+    }
+
+    private static ScoringPreferences getPreferences(ByteBuffer buffer, int format) {
+        double weightAssignments = buffer.getDouble();
+        double weightExams = buffer.getDouble();
+        double extraCreditBonus = buffer.getDouble();
+        GradingPolicy policy = format > 2 ? GradingPolicy.parse(Journal.getString(buffer)) : GradingPolicy.DEFAULT;
+        return new ScoringPreferences(weightAssignments, weightExams, extraCreditBonus, policy);
+    }
+
+    /**
+     * @return bytes {@link #putTotals(ByteBuffer, ScoreTotals)} writes, at most
+     */
+    private static int sizeOf(ScoreTotals totals) {
+        LowestScores lowest = totals.getLowest();
+        return 5 * 5 + 16 + 1 + (lowest == null ? 0 : lowest.encodedSize());
+    }
+
+    private static void putTotals(ByteBuffer buffer, ScoreTotals totals) {
+        Journal.putVarint(buffer, totals.getExtraCredits());
+        Journal.putVarint(buffer, totals.getExamsCount());
+        buffer.putDouble(totals.getExamsSum());
+        Journal.putVarint(buffer, totals.getAssignmentsCount());
+        buffer.putDouble(totals.getAssignmentsSum());
+        LowestScores lowest = totals.getLowest();
+        buffer.put((byte) (lowest == null ? 0 : 1));
+        if (lowest != null) {
+            lowest.put(buffer);
+        }
+    }
+
+    private static ScoreTotals getTotals(ByteBuffer buffer, int format) {
+        int extraCredits = Journal.getVarint(buffer);
+        int examsCount = Journal.getVarint(buffer);
+        double examsSum = buffer.getDouble();
+        int assignmentsCount = Journal.getVarint(buffer);
+        double assignmentsSum = buffer.getDouble();
+        ScoreTotals totals = new ScoreTotals(extraCredits, examsCount, examsSum, assignmentsCount, assignmentsSum);
+        if (format > 2 && buffer.get() != 0) {
+            return totals.withLowest(LowestScores.get(buffer));
+        }
+        return totals;
+    }
+
+    /**
+     * Read a snapshot's header and directory.  Teacher sections are decoded later, through {@link Section}.
+     * @param file snapshot file
+     * @return the journal position and the teachers in the snapshot
+     */
+    static Contents read(File file) {
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            int magic = header.getInt();
+            int version = header.getInt();
+            if (magic != MAGIC || version < FIRST_FORMAT_VERSION || version > FORMAT_VERSION) {
+                randomAccessFile.close();
+                throw new JournalError(file + " is not a grade tracker snapshot");
+            }
+            long journalPosition = header.getLong();
+            long directoryOffset = header.getLong();
+            int teacherCount = header.getInt();
+            MappedByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset,
+                    channel.size() - directoryOffset);
+            SharedFile shared = new SharedFile(randomAccessFile, teacherCount);
+            List<TeacherEntry> teachers = new ArrayList<TeacherEntry>(teacherCount);
+            for (int i = 0; i < teacherCount; i++) {
+                String name = Journal.getString(directory);
+                ScoringPreferences preferences = getPreferences(directory, version);
+                long offset = directory.getLong();
+                long length = directory.getLong();
+                int count = directory.getInt();
+                teachers.add(new TeacherEntry(name, preferences, new Section(shared, offset, length, count,
+                        version)));
+            }
+            if (teacherCount == 0) {
+                randomAccessFile.close();
+            }
+            return new Contents(journalPosition, teachers);
+        }
+        catch (IOException e) {
+            throw new JournalError("Unable to read snapshot " + file, e);
+        }
+    }
+
+    /**
+     * One teacher's students, mapped and decoded on demand
+     */
+    static class Section {
+        private final SharedFile file;
+        private final long offset;
+        private final long length;
+        private final int count;
+        private final int format;
+
+        /**
+         * @param format the format version the section is written in
+         */
+        Section(SharedFile file, long offset, long length, int count, int format) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.format = format;
+        }
+
+        /**
+         * @return number of students in the section
+         */
+        int getCount() {
+            return count;
+        }
+
+        /**
+         * Copy the encoded section as it is, without decoding it
+         * @param output where the section is written
+         * @return number of students in the section
+         */
+        int copyTo(Output output) throws IOException {
+            ByteBuffer buffer = file.map(offset, length);
+            while (buffer.hasRemaining()) {
+                ByteBuffer target = output.reserve(Math.min(buffer.remaining(), BUFFER_SIZE));
+                ByteBuffer slice = buffer.duplicate();
+                slice.limit(slice.position() + Math.min(slice.remaining(), target.remaining()));
+                target.put(slice);
+                buffer.position(slice.position());
+            }
+            return count;
+        }
+
+        /**
+         * Add every student in the section to a roster.  Each section can be decoded once.
+         * @param roster an empty roster, which hands out ids in the order students are added
+         * @return the sealed periods, oldest first
+         */
+        PeriodSegment[] decodeInto(Roster roster) {
+            ByteBuffer buffer = file.map(offset, length);
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                Student student = roster.add(Journal.getString(buffer));
+                student.restoreTotals(getTotals(buffer, format));
+                ids[i] = student.getId();
+            }
+            PeriodSegment[] periods = new PeriodSegment[format > FIRST_FORMAT_VERSION ? Journal.getVarint(buffer) : 0];
+            for (int p = 0; p < periods.length; p++) {
+                String name = Journal.getString(buffer);
+                ScoringPreferences preferences = getPreferences(buffer, format);
+                PeriodSegment.Builder builder = new PeriodSegment.Builder(count);
+                for (int i = 0; i < count; i++) {
+                    builder.add(ids[i], getTotals(buffer, format));
+                }
+                periods[p] = builder.build(name, preferences);
+            }
+            file.sectionDecoded();
+            return periods;
+        }
+    }
+
+    /**
+     * The snapshot file, kept open until every teacher's section has been decoded.  {@link RosterStore} segments
+     * extend it to be deleted instead.
+     */
+    static class SharedFile {
+        private final RandomAccessFile file;
+        private int remaining;
+
+        SharedFile(RandomAccessFile file, int sections) {
+            this.file = file;
+            this.remaining = sections;
+        }
+
+        synchronized ByteBuffer map(long offset, long length) {
+            try {
+                return file.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+            catch (IOException e) {
+                throw new JournalError("Unable to map snapshot section at " + offset, e);
+            }
+        }
+
+        synchronized void sectionDecoded() {
+            if (--remaining == 0) {
+                try {
+                    file.close();
+                }
+                catch (IOException e) {
+                    throw new JournalError("Unable to close snapshot", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A section held on the heap rather than in a file, such as a teacher read by {@link #readTeacher(byte[])}
+     */
+    static class SharedBytes extends SharedFile {
+        private final ByteBuffer bytes;
+
+        SharedBytes(ByteBuffer bytes) {
+            super(null, 1);
+            this.bytes = bytes;
+        }
+
+        @Override
+        synchronized ByteBuffer map(long offset, long length) {
+            ByteBuffer section = bytes.duplicate();
+            section.limit((int) (offset + length));
+            section.position((int) offset);
+            return section.slice();
+        }
+
+        @Override
+        synchronized void sectionDecoded() {
+        }
+    }
+
+    /**
+     * Buffered sequential writer that tracks the position in the file or stream
+     */
+    static class Output {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long flushed;
+
+        /**
+         * @param channel where the bytes go; a file channel is first moved to the start position
+         * @param start position of the first byte written
+         */
+        Output(WritableByteChannel channel, long start) throws IOException {
+            if (channel instanceof FileChannel) {
+                ((FileChannel) channel).position(start);
+            }
+            this.channel = channel;
+            this.flushed = start;
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        ByteBuffer reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+            return buffer;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
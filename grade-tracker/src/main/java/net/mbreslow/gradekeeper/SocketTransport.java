@@ -0,0 +1,72 @@
+package net.mbreslow.gradekeeper;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link ShardTransport} that reaches nodes served by a {@link ShardServer}, at addresses of the form host:port.  Each
+ * node keeps a pool of connections, one per concurrent call, opened on demand and kept until the transport is closed.
+ * <br/>
+ * {@link GradeTracker#resolveStudent} and {@link GradeTracker#subscribe} are not available on remote nodes: handles
+ * and subscriptions are objects of the node's own JVM.
+ */
+public class SocketTransport implements ShardTransport, Closeable {
+    private final int connectTimeoutMillis;
+    private final List<RemoteShardNode> nodes = new CopyOnWriteArrayList<RemoteShardNode>();
+
+    public SocketTransport() {
+        this(5000);
+    }
+
+    /**
+     * @param connectTimeoutMillis how long to wait for a connection to a node
+     */
+    public SocketTransport(int connectTimeoutMillis) {
+        if (connectTimeoutMillis < 0) {
+            throw new IllegalArgumentException("connectTimeoutMillis (" + connectTimeoutMillis + ") must not be negative");
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * @param address host:port of a {@link ShardServer}
+     * @return a proxy for the node; connections are opened by the first call
+     * @throws IllegalArgumentException when the address is not host:port
+     */
+    @Override
+    public ShardNode connect(String address) {
+        int colon = address.lastIndexOf(':');
+        int port;
+        try {
+            port = colon < 0 ? -1 : Integer.parseInt(address.substring(colon + 1));
+        }
+        catch (NumberFormatException e) {
+            port = -1;
+        }
+        if (colon <= 0 || port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Node address " + address + " is not host:port");
+        }
+        RemoteShardNode node = new RemoteShardNode(address, address.substring(0, colon), port, connectTimeoutMillis);
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Close every connection the transport opened.  Calls in progress finish; later calls on its nodes fail with
+     * {@link ShardError}.
+     */
+    @Override
+    public void close() {
+        for (RemoteShardNode node : nodes) {
+            node.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SocketTransport{" +
+                "nodes=" + nodes +
+                '}';
+    }
+}
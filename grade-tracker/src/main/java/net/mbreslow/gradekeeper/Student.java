@@ -1,7 +1,8 @@
 package net.mbreslow.gradekeeper;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Keeps a sum Student's test and exam scores as well as the number of extra credit assignments completed and the
@@ -11,78 +12,287 @@ import java.util.List;
  * NOTE: In this version of the code, we do not retain the individual scores as the requirements specify that we should
  * be able to accomodate an unlimited number of assignments and exams and does not require an API for producing a report
  * of the actual records.
+ * <br/>
+ * The sums and counts live in an immutable {@link ScoreTotals} that is swapped with a compare-and-set, so writers never
+ * block each other and readers always see a consistent set of totals without taking a lock.
+ * <br/>
+ * The last weighted average computed is cached together with the totals and preferences it was computed from.  Both
+ * are immutable, so the cache is valid exactly when they are still the same instances: any score replaces the totals
+ * and any preference change replaces the preferences.
+ * <br/>
+ * A roster's students count the compare-and-set races they lose in a counter the roster's Teacher hands them, so each
+ * tracker's metrics see only their own contention.
+ * <br/>
+ * Every write through a Teacher is tagged with its service's {@link VersionClock} epoch; a write that replaces totals
+ * an open {@link GradeSnapshot} still sees hands them to the snapshot.
  */
 public class Student {
-    private int extraCredits = 0;
-    private String name;
+    private static final AtomicReferenceFieldUpdater<Student, ScoreTotals> TOTALS =
+            AtomicReferenceFieldUpdater.newUpdater(Student.class, ScoreTotals.class, "totals");
+    private static final AtomicIntegerFieldUpdater<Student> DIRTY =
+            AtomicIntegerFieldUpdater.newUpdater(Student.class, "dirty");
 
-    private int   examsCount = 0;
-    private double examsSum = 0;
-    private int   assignmentsCount = 0;
-    private double assignmentsSum = 0;
+    private String name;
+    private int id;
+    private volatile ScoreTotals totals;
+    private volatile int dirty = 0;
+    private volatile CachedAverage cachedAverage;
 
     /**
      * Create a new Student with the given Name
      * @param name unique name of th student
      */
     public Student(String name) {
+        this(name, -1);
+    }
+
+    /**
+     * Create a new Student for a roster
+     * @param name unique name of the student
+     * @param id dense id of the student within the roster
+     */
+    Student(String name, int id) {
+        this(name, id, ScoreTotals.EMPTY);
+    }
+
+    /**
+     * Create a new Student for a roster that keeps its students' lowest scores
+     * @param name unique name of the student
+     * @param id dense id of the student within the roster
+     * @param empty totals with no scores, keeping as many lowest scores as the roster does
+     */
+    Student(String name, int id, ScoreTotals empty) {
         assert name != null;
         this.name = name;
+        this.id = id;
+        this.totals = empty;
     }
 
     /**
      * Record the score for a new assignment
      * @param score score (percentage)
+     * @return the student's totals including this score
      */
-    public synchronized void addAssignment(double score) {
-        assignmentsCount++;
-        assignmentsSum += score;
+    public ScoreTotals addAssignment(double score) {
+        return addAssignment(score, null, null);
+    }
+
+    /**
+     * Record the score for a new assignment
+     * @param score score (percentage)
+     * @param clock clock of the snapshots that may see the student, or null
+     * @param contended counts compare-and-set races lost, or null
+     * @return the student's totals including this score
+     */
+    ScoreTotals addAssignment(double score, VersionClock clock, LongAdder contended) {
+        return update(ADD_ASSIGNMENT, score, null, clock, contended);
     }
 
     /**
      * Record the score for a new exam
      * @param score score (percentage)
+     * @return the student's totals including this score
      */
-    public synchronized void addExam(double score) {
-        examsCount++;
-        examsSum += score;
+    public ScoreTotals addExam(double score) {
+        return addExam(score, null, null);
+    }
+
+    /**
+     * Record the score for a new exam
+     * @param score score (percentage)
+     * @param clock clock of the snapshots that may see the student, or null
+     * @param contended counts compare-and-set races lost, or null
+     * @return the student's totals including this score
+     */
+    ScoreTotals addExam(double score, VersionClock clock, LongAdder contended) {
+        return update(ADD_EXAM, score, null, clock, contended);
     }
 
     /**
      * Record the completion of an extra credit assignment
+     * @return the student's totals including this extra credit
      */
-    public synchronized void addExtraCredit() {
-        extraCredits++;
+    public ScoreTotals addExtraCredit() {
+        return addExtraCredit(null, null);
     }
 
     /**
-     * Calculate the weighted average given a set of scoring weights
-     * @param weights the scoring preferences for a teacher
-     * @return weighted average as a percent
+     * Record the completion of an extra credit assignment
+     * @param clock clock of the snapshots that may see the student, or null
+     * @param contended counts compare-and-set races lost, or null
+     * @return the student's totals including this extra credit
+     */
+    ScoreTotals addExtraCredit(VersionClock clock, LongAdder contended) {
+        return update(ADD_EXTRA_CREDIT, 0, null, clock, contended);
+    }
+
+    /**
+     * Record several scores at once with a single update
+     * @param delta totals of the scores to add
+     * @return the student's totals including these scores
      */
-    public synchronized double getWeightedAverage(ScoringPreferences weights) {
-        double examAverage = 0;
-        if (examsCount != 0) {
-            examAverage = examsSum/examsCount;
+    public ScoreTotals addTotals(ScoreTotals delta) {
+        return addTotals(delta, null, null);
+    }
+
+    /**
+     * Record several scores at once with a single update
+     * @param delta totals of the scores to add
+     * @param clock clock of the snapshots that may see the student, or null
+     * @param contended counts compare-and-set races lost, or null
+     * @return the student's totals including these scores
+     */
+    ScoreTotals addTotals(ScoreTotals delta, VersionClock clock, LongAdder contended) {
+        return update(ADD_TOTALS, 0, delta, clock, contended);
+    }
+
+    /**
+     * Start the student's totals over for a new grading period.  A concurrent score lands either in the totals returned
+     * here or in the new ones, never in both or neither.
+     * @param clock clock of the snapshots that may see the student, or null
+     * @param contended counts compare-and-set races lost, or null
+     * @return the totals up to now
+     */
+    ScoreTotals resetTotals(VersionClock clock, LongAdder contended) {
+        return update(RESET, 0, null, clock, contended);
+    }
+
+    /**
+     * Replace the totals with a compare-and-set, retrying until no concurrent update gets in between.  The new totals
+     * are tagged with the clock's current epoch and the ones replaced are handed to the snapshots that still see them.
+     * @param transition how the totals change
+     * @param score the score being recorded, if any
+     * @param delta the totals being added, if any
+     * @param clock clock of the snapshots that may see the student, or null
+     * @param contended counts compare-and-set races lost, or null
+     * @return the totals the transition picks, normally the new ones
+     */
+    private ScoreTotals update(Transition transition, double score, ScoreTotals delta, VersionClock clock,
+                               LongAdder contended) {
+        for (;;) {
+            ScoreTotals current = totals;
+            // read after the totals, so that totals a snapshot has retagged are never replaced with an older tag
+            long tag = clock == null ? current.getEpoch() : Math.max(clock.current(), current.getEpoch());
+            ScoreTotals updated = transition.apply(current, score, delta, tag);
+            if (TOTALS.compareAndSet(this, current, updated)) {
+                replaced(clock, current, tag);
+                return transition.result(current, updated);
+            }
+            if (contended != null) {
+                contended.increment();
+            }
         }
-        double assignmentAverage = 0;
-        if (assignmentsCount != 0) {
-            assignmentAverage = assignmentsSum/assignmentsCount;
-            assignmentAverage += extraCredits * weights.getExtraCreditBonus();
+    }
+
+    /**
+     * Read the student's totals for an open snapshot.  Totals tagged before the snapshot are first retagged with its
+     * epoch, so that a writer that read the epoch before the snapshot opened can no longer change what it sees.
+     * @param versions the snapshot's versions
+     * @return the student's totals as of the snapshot
+     */
+    ScoreTotals totalsAsOf(VersionClock.Versions versions) {
+        for (;;) {
+            ScoreTotals current = totals;
+            if (current.getEpoch() > versions.epoch) {
+                return versions.preserved(this);
+            }
+            if (current.getEpoch() == versions.epoch) {
+                return current;
+            }
+            ScoreTotals retagged = current.tagged(versions.epoch);
+            if (TOTALS.compareAndSet(this, current, retagged)) {
+                // older snapshots still see the totals under their old tag
+                replaced(versions.getClock(), current, versions.epoch);
+                return retagged;
+            }
         }
-        double result = 0;
-        if (examsCount != 0 && assignmentsCount != 0) {
-            // apply allocations
-            result = (examAverage * weights.getWeightExams()) + (assignmentAverage * weights.getWeightAssignments());
+    }
+
+    /**
+     * Keep at least this many of the student's lowest scores from now on, for a {@link GradingPolicy} that drops them
+     * @param assignments number of lowest assignment scores
+     * @param exams number of lowest exam scores
+     */
+    void trackLowest(int assignments, int exams) {
+        for (;;) {
+            ScoreTotals current = totals;
+            ScoreTotals updated = current.tracking(assignments, exams);
+            if (updated == current) {
+                return;
+            }
+            // the counts and sums are unchanged, so unlike update() the new totals keep their tag and no snapshot
+            // needs the old ones
+            if (TOTALS.compareAndSet(this, current, updated)) {
+                return;
+            }
         }
-        else if (examsCount != 0) {
-            result = examAverage;
+    }
+
+    /**
+     * Set the totals of a student just decoded from storage, before anyone else can see the student
+     * @param restored the student's totals
+     */
+    void restoreTotals(ScoreTotals restored) {
+        LowestScores lowest = totals.getLowest();
+        // totals stored before the roster kept lowest scores start keeping them now, without the scores stored
+        totals = lowest == null || restored.getLowest() != null ? restored : restored.withLowest(
+                lowest.cleared().plusUnseen(restored.getAssignmentsCount(), restored.getExamsCount()));
+    }
+
+    /**
+     * Hand totals just replaced to the open {@link GradeSnapshot}s that still see them
+     */
+    private void replaced(VersionClock clock, ScoreTotals current, long tag) {
+        if (current.getEpoch() < tag && clock.isVisible(current.getEpoch(), tag)) {
+            clock.preserve(this, current, tag);
         }
-        else {
-            result = assignmentAverage;
+    }
+
+    /**
+     * Calculate the weighted average given a set of scoring weights
+     * @param weights the scoring preferences for a teacher
+     * @return weighted average as a percent
+     */
+    public double getWeightedAverage(ScoringPreferences weights) {
+        ScoreTotals current = totals;
+        CachedAverage cached = cachedAverage;
+        if (cached != null && cached.totals == current && cached.preferences == weights) {
+            return cached.average;
         }
-        return result;
+        double average = current.getWeightedAverage(weights);
+        // a racing reader may replace this with an older entry; that only costs a recomputation later
+        cachedAverage = new CachedAverage(current, weights, average);
+        return average;
+    }
+
+    /**
+     * Get a consistent snapshot of the Student's running totals
+     * @return current totals
+     */
+    public ScoreTotals getTotals() {
+        return totals;
+    }
+
+    /**
+     * Flag the student as changed since the class-level averages last accounted for it
+     * @return true when the flag was newly set, false when the student was already flagged
+     */
+    boolean markDirty() {
+        return DIRTY.compareAndSet(this, 0, 1);
+    }
+
+    /**
+     * Clear the changed flag before the class-level averages read the student's totals
+     */
+    void clearDirty() {
+        dirty = 0;
+    }
 
+    /**
+     * @return dense id of the student within its roster, -1 for a student created outside a roster
+     */
+    int getId() {
+        return id;
     }
 
     /**
@@ -93,15 +303,82 @@ public class Student {
         return name;
     }
 
+    /**
+     * One way of changing a student's totals.  The instances are shared and take their arguments on each call, so an
+     * update allocates nothing but the new totals.
+     */
+    private abstract static class Transition {
+        abstract ScoreTotals apply(ScoreTotals current, double score, ScoreTotals delta, long tag);
+
+        /**
+         * @return what the update returns once the new totals are in place
+         */
+        ScoreTotals result(ScoreTotals current, ScoreTotals updated) {
+            return updated;
+        }
+    }
+
+    private static final Transition ADD_ASSIGNMENT = new Transition() {
+        @Override
+        ScoreTotals apply(ScoreTotals current, double score, ScoreTotals delta, long tag) {
+            return current.plusAssignment(score, tag);
+        }
+    };
+
+    private static final Transition ADD_EXAM = new Transition() {
+        @Override
+        ScoreTotals apply(ScoreTotals current, double score, ScoreTotals delta, long tag) {
+            return current.plusExam(score, tag);
+        }
+    };
+
+    private static final Transition ADD_EXTRA_CREDIT = new Transition() {
+        @Override
+        ScoreTotals apply(ScoreTotals current, double score, ScoreTotals delta, long tag) {
+            return current.plusExtraCredit(tag);
+        }
+    };
+
+    private static final Transition ADD_TOTALS = new Transition() {
+        @Override
+        ScoreTotals apply(ScoreTotals current, double score, ScoreTotals delta, long tag) {
+            return current.plus(delta, tag);
+        }
+    };
+
+    private static final Transition RESET = new Transition() {
+        @Override
+        ScoreTotals apply(ScoreTotals current, double score, ScoreTotals delta, long tag) {
+            return current.cleared(tag);
+        }
+
+        @Override
+        ScoreTotals result(ScoreTotals current, ScoreTotals updated) {
+            // the period being sealed needs the totals up to now
+            return current;
+        }
+    };
+
+    /**
+     * A weighted average and the totals and preferences it was computed from
+     */
+    private static class CachedAverage {
+        final ScoreTotals totals;
+        final ScoringPreferences preferences;
+        final double average;
+
+        CachedAverage(ScoreTotals totals, ScoringPreferences preferences, double average) {
+            this.totals = totals;
+            this.preferences = preferences;
+            this.average = average;
+        }
+    }
+
     @Override
     public String toString() {
         return "Student{" +
-                "extraCredits=" + extraCredits +
-                ", name='" + name + '\'' +
-                ", examsCount=" + examsCount +
-                ", examsSum=" + examsSum +
-                ", assignmentsCount=" + assignmentsCount +
-                ", assignmentsSum=" + assignmentsSum +
+                "name='" + name + '\'' +
+                ", totals=" + totals +
                 '}';
     }
 }
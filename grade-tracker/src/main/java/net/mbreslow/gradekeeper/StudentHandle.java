@@ -0,0 +1,111 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * A teacher/student pair resolved once by {@link GradeTracker#resolveStudent}.  Recording and reading through the
+ * handle behaves exactly like the by-name methods, including journaling, history, the change feed and metrics, but
+ * skips the teacher and roster lookups: no name is hashed or compared.
+ * <br/>
+ * A handle stays valid until its teacher is removed from the service, as when the teacher moves to another shard;
+ * after that it throws {@link ObjectNotFoundError}.  A student keeps its place in the roster across preference changes
+ * and grading period closes, so a handle can be cached and shared between threads.
+ * When a {@link RosterTier} evicts the teacher's roster, the next use of the handle looks the student up once in the
+ * reloaded roster and keeps using that.
+ */
+public final class StudentHandle {
+    private final GradeTrackerImpl service;
+    final Teacher teacher;
+    private volatile Resolved resolved;
+
+    /**
+     * @param service the service the handle records through
+     * @param teacher the student's teacher, pinned by the caller
+     * @param student the student
+     */
+    StudentHandle(GradeTrackerImpl service, Teacher teacher, Student student) {
+        this.service = service;
+        this.teacher = teacher;
+        this.resolved = new Resolved(student, teacher.getGeneration());
+    }
+
+    /**
+     * Call while the teacher is pinned
+     * @return the student in the teacher's current roster
+     */
+    Student student() {
+        Resolved current = resolved;
+        int generation = teacher.getGeneration();
+        if (current.generation != generation) {
+            // the roster was evicted since the student was looked up
+            current = new Resolved(teacher.getOrAddStudent(current.student.getName()), generation);
+            resolved = current;
+        }
+        return current.student;
+    }
+
+    public String getTeacherName() {
+        return teacher.getName();
+    }
+
+    public String getStudentName() {
+        return resolved.student.getName();
+    }
+
+    /**
+     * Record the score for an assignment
+     * @param score score for the assignment
+     */
+    public void recordAssignmentScore(double score) {
+        service.recordScore(this, ScoreType.ASSIGNMENT, score);
+    }
+
+    /**
+     * Record the score for an exam
+     * @param score score for the exam
+     */
+    public void recordExamScore(double score) {
+        service.recordScore(this, ScoreType.EXAM, score);
+    }
+
+    /**
+     * Record an extra-credit for the student
+     */
+    public void recordExtraCredit() {
+        service.recordScore(this, ScoreType.EXTRA_CREDIT, 0);
+    }
+
+    /**
+     * @return the student's current weighted average
+     */
+    public double getAverage() {
+        return service.getAverage(this);
+    }
+
+    /**
+     * @return the student's rank (1 is best) and percentile rank
+     * @throws ObjectNotFoundError when the student has no scores in the active grading period
+     */
+    public RankedStudent getRank() {
+        return service.getRank(this);
+    }
+
+    /**
+     * A student and the roster generation it was looked up in
+     */
+    private static final class Resolved {
+        private final Student student;
+        private final int generation;
+
+        Resolved(Student student, int generation) {
+            this.student = student;
+            this.generation = generation;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StudentHandle{" +
+                "teacher='" + teacher.getName() + '\'' +
+                ", student='" + resolved.student.getName() + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,62 @@
+package net.mbreslow.gradekeeper;
+
+/**
+ * Immutable class describing when a {@link Journal} forces its appended records to disk.  Writers that are waiting for
+ * the same force share it (group commit), so a busier journal does not force more often.
+ */
+public class SyncPolicy {
+    enum Kind { EVERY_WRITE, EVERY_MILLIS, EVERY_RECORDS }
+
+    private final Kind kind;
+    private final long interval;
+
+    private SyncPolicy(Kind kind, long interval) {
+        this.kind = kind;
+        this.interval = interval;
+    }
+
+    /**
+     * Every mutation is on disk before the call that made it returns
+     */
+    public static SyncPolicy everyWrite() {
+        return new SyncPolicy(Kind.EVERY_WRITE, 1);
+    }
+
+    /**
+     * A background thread forces the journal on a fixed schedule; at most that much time's worth of writes can be lost
+     * @param millis milliseconds between forces
+     */
+    public static SyncPolicy everyMillis(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("millis (" + millis + ") must be positive");
+        }
+        return new SyncPolicy(Kind.EVERY_MILLIS, millis);
+    }
+
+    /**
+     * The writer of every Nth record forces the journal; at most that many records can be lost
+     * @param records number of records between forces
+     */
+    public static SyncPolicy everyRecords(int records) {
+        if (records <= 0) {
+            throw new IllegalArgumentException("records (" + records + ") must be positive");
+        }
+        return new SyncPolicy(Kind.EVERY_RECORDS, records);
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    long getInterval() {
+        return interval;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncPolicy{" +
+                "kind=" + kind +
+                ", interval=" + interval +
+                '}';
+    }
+}
@@ -1,28 +1,277 @@
 package net.mbreslow.gradekeeper;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
 
 /**
- * Teacher class holds a roster of students
+ * Teacher class holds a roster of students.
+ * <br/>
+ * Scores are kept per grading period.  Only the active period has mutable accumulators, in the students themselves;
+ * closing it seals every student's totals into an immutable {@link PeriodSegment} and starts them over, so the cost
+ * of recording a score and the heap held by the roster do not grow with the number of periods.
+ * <br/>
+ * With a {@link RosterTier}, an idle Teacher's students and sealed periods can be evicted to the tier's file store and
+ * are decoded again, like a snapshot section, the next time the roster is used.  Callers pin the Teacher for as long as
+ * they hold any of its Students, so a roster is never evicted from under an operation.
+ * <br/>
+ * Once a {@link GradingPolicy} that drops low scores is set, the roster keeps each student's lowest scores from then
+ * on, as many as any of the Teacher's policies has dropped.  Scores recorded before are counted as unseen, so they are
+ * never dropped in place of a higher one.
  */
 public class Teacher {
     private String name;
-    private ScoringPreferences scoringPreferences = null;
-    private Map<String, Student> studentsByName = new ConcurrentHashMap<String, Student>();
+    // the most recently requested preferences; the class is graded with them once the regrade finishes
+    private volatile ScoringPreferences scoringPreferences = null;
+    private final RosterLayout rosterLayout;
+    private volatile Roster roster;
+    // students still to be decoded from a snapshot or the roster store, guarded by this
+    private Snapshot.Section pending;
+    // null unless the roster can be evicted
+    private volatile RosterTier tier;
+    // read-held by operations holding Students of this roster, which may unpin on another thread; eviction only tries
+    // the write lock, so it waits for none of them
+    private final StampedLock pins = new StampedLock();
+    // set on each use, cleared by the tier's clock hand
+    private volatile boolean referenced = true;
+    // number of times the roster was evicted; Students obtained before an eviction are stale
+    private volatile int generation = 0;
+    // set when the teacher is removed from the service, such as when it moves to another shard
+    private volatile boolean removed = false;
+    private ClassAverages classAverages;
+    private volatile ScoreHistory history;
+    // ids of the events most recently recorded, created with the first event that has an id
+    private volatile EventWindow eventWindow;
+    // sealed grading periods, oldest first; replaced with a longer array when a period closes
+    private volatile PeriodSegment[] periods = new PeriodSegment[0];
+    // completes when the most recently requested preferences are in effect, guarded by this
+    private CompletableFuture<Void> regrade = CompletableFuture.completedFuture(null);
+    // lowest scores kept per student for the grading policies' drop rules, guarded by this; never shrink
+    private int droppedAssignments = 0;
+    private int droppedExams = 0;
+    // totals with no scores that keep as many lowest scores as the roster
+    private volatile ScoreTotals emptyTotals = ScoreTotals.EMPTY;
+    // compare-and-set races lost by the students, normally the service's counter
+    private volatile LongAdder contendedUpdates = new LongAdder();
+    // epochs of the snapshots that may see the students, normally the service's clock
+    private volatile VersionClock clock = new VersionClock();
+    // read-held by journaled score writes in progress; a period close write-locks it to drain them and hold off new
+    // ones while it seals
+    private final ReentrantReadWriteLock journaledWrites = new ReentrantReadWriteLock();
 
     /**
-     * Create a new Teacher with the given attributes
+     * Create a new Teacher with the given attributes and a {@link RosterLayout#OBJECTS} roster
      * @param teacherName name of the Teacher
      * @param scoringPreferences Teacher's scoring preferences
      */
     public Teacher(String teacherName, ScoringPreferences scoringPreferences) {
+        this(teacherName, scoringPreferences, RosterLayout.OBJECTS);
+    }
+
+    /**
+     * Create a new Teacher with the given attributes
+     * @param teacherName name of the Teacher
+     * @param scoringPreferences Teacher's scoring preferences
+     * @param rosterLayout how the Teacher's students are stored
+     */
+    public Teacher(String teacherName, ScoringPreferences scoringPreferences, RosterLayout rosterLayout) {
+        assert teacherName != null;
+        assert scoringPreferences != null;
+        assert rosterLayout != null;
+        this.name = teacherName;
+        this.scoringPreferences = scoringPreferences;
+        this.rosterLayout = rosterLayout;
+        this.roster = rosterLayout.newRoster();
+        this.classAverages = new ClassAverages(scoringPreferences);
+        trackLowest(scoringPreferences.getPolicy());
+    }
+
+    /**
+     * Create a Teacher whose students are decoded from a snapshot the first time the roster is used
+     * @param teacherName name of the Teacher
+     * @param scoringPreferences Teacher's scoring preferences
+     * @param rosterLayout how the Teacher's students are stored
+     * @param pending the Teacher's section of the snapshot
+     */
+    Teacher(String teacherName, ScoringPreferences scoringPreferences, RosterLayout rosterLayout,
+            Snapshot.Section pending) {
         assert teacherName != null;
         assert scoringPreferences != null;
+        assert rosterLayout != null;
         this.name = teacherName;
         this.scoringPreferences = scoringPreferences;
+        this.rosterLayout = rosterLayout;
+        this.pending = pending;
+        this.classAverages = new ClassAverages(scoringPreferences);
+        trackLowest(scoringPreferences.getPolicy());
+    }
+
+    /**
+     * @return the roster, decoding it from the snapshot first when the Teacher was loaded from one
+     */
+    private Roster roster() {
+        Roster loaded = roster;
+        return loaded != null ? loaded : load();
+    }
+
+    private synchronized Roster load() {
+        if (roster == null) {
+            Roster loaded = rosterLayout.newRoster();
+            if (droppedAssignments > 0 || droppedExams > 0) {
+                loaded.trackLowest(droppedAssignments, droppedExams);
+            }
+            periods = pending.decodeInto(loaded);
+            pending = null;
+            classAverages.rebuild(classAverages.getPreferences(), loaded.getStudents(), false);
+            roster = loaded;
+            RosterTier current = tier;
+            if (current != null) {
+                current.faultedIn();
+            }
+        }
+        return roster;
+    }
+
+    /**
+     * Keep as many of every student's lowest scores as a grading policy drops, from now on
+     */
+    private synchronized void trackLowest(GradingPolicy policy) {
+        if (policy.getDroppedAssignments() <= droppedAssignments && policy.getDroppedExams() <= droppedExams) {
+            return;
+        }
+        droppedAssignments = Math.max(droppedAssignments, policy.getDroppedAssignments());
+        droppedExams = Math.max(droppedExams, policy.getDroppedExams());
+        emptyTotals = ScoreTotals.EMPTY.tracking(droppedAssignments, droppedExams);
+        Roster loaded = roster;
+        if (loaded != null) {
+            loaded.trackLowest(droppedAssignments, droppedExams);
+        }
+    }
+
+    /**
+     * @return totals with no scores to add a batch of scores to, keeping as many lowest scores as the roster does
+     */
+    ScoreTotals getEmptyTotals() {
+        return emptyTotals;
+    }
+
+    /**
+     * Let a tier evict this Teacher's roster when it is idle
+     * @param tier the tier accounting for the roster
+     */
+    void useTier(RosterTier tier) {
+        this.tier = tier;
+    }
+
+    /**
+     * Hold off eviction while the caller uses the roster's Students.  Every pin must be followed by an
+     * {@link #unpin()}.  Does nothing when the Teacher has no tier.
+     */
+    void pin() {
+        RosterTier current = tier;
+        if (current == null) {
+            return;
+        }
+        // blocks only while an eviction is writing the roster out
+        pins.readLock();
+        if (!referenced) {
+            referenced = true;
+        }
+        current.used(roster != null);
+    }
+
+    boolean isRemoved() {
+        return removed;
+    }
+
+    void markRemoved() {
+        removed = true;
+    }
+
+    void unpin() {
+        RosterTier current = tier;
+        if (current != null) {
+            pins.tryUnlockRead();
+            current.afterUse();
+        }
+    }
+
+    /**
+     * Clock hand of the tier's eviction: give the Teacher a second chance when it was used since the last sweep
+     * @return true when the Teacher was used since the last call
+     */
+    boolean clearReferenced() {
+        if (referenced) {
+            referenced = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return number of times the roster was evicted
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Write the roster and sealed periods to a store and drop them from the heap.  Declined while any operation has
+     * the Teacher pinned, while a regrade is running, and when the Teacher retains history, which is kept in memory
+     * only and indexed by roster ids that a reload may change.
+     * @param store where the roster is written
+     * @return true when the roster was evicted
+     */
+    synchronized boolean evict(RosterStore store) {
+        Roster loaded = roster;
+        if (loaded == null || history != null || !regrade.isDone()) {
+            return false;
+        }
+        long stamp = pins.tryWriteLock();
+        if (stamp == 0) {
+            return false;
+        }
+        try {
+            pending = store.write(loaded.getStudents(), periods);
+            classAverages.clear();
+            roster = null;
+            periods = new PeriodSegment[0];
+            generation++;
+            return true;
+        }
+        finally {
+            pins.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the section the roster will be decoded from, null when the roster is on the heap.  Call while holding
+     * this Teacher's monitor, which keeps the section from being decoded meanwhile.
+     */
+    Snapshot.Section getPendingSection() {
+        assert Thread.holdsLock(this);
+        return pending;
+    }
+
+    /**
+     * @return the class-level averages, which cover the snapshot's students once the roster is decoded
+     */
+    private ClassAverages classAverages() {
+        roster();
+        return classAverages;
+    }
+
+    /**
+     * @return false while the Teacher's students are still waiting to be decoded from a snapshot or the roster store
+     */
+    boolean isLoaded() {
+        return roster != null;
     }
 
     /**
@@ -31,7 +280,7 @@ public class Teacher {
      * @return lookup an individual student in the class by unique name
      */
     public Student getStudent(String name) {
-        return studentsByName.get(name);
+        return roster().get(name);
     }
 
     /**
@@ -39,7 +288,7 @@ public class Teacher {
      * @return Collection of Students
      */
     public Collection<Student> getStudents() {
-        return studentsByName.values();
+        return roster().getStudents();
     }
 
     /**
@@ -49,29 +298,395 @@ public class Teacher {
      * @throws NameCollisionError when attempting to add a student by a name that already exists
      */
     public Student addStudent(String studentName) {
-        Student student = new Student(studentName);
-        Student previous = studentsByName.put(studentName, student);
-        if (previous != null) {
-            studentsByName.put(studentName, previous);
-            throw new NameCollisionError("A student already exists with the name " + studentName);
+        return roster().add(studentName);
+    }
+
+    /**
+     * Get a student by their unique name, adding them to the roster if they are not in it yet
+     * @param studentName unique name of the Student
+     * @return existing or new Student
+     */
+    public Student getOrAddStudent(String studentName) {
+        return roster().getOrAdd(studentName);
+    }
+
+    /**
+     * @return number of students in the class
+     */
+    public int getStudentCount() {
+        return roster().size();
+    }
+
+    /**
+     * @return estimated heap held by the roster and sealed periods, 0 when they are not decoded
+     */
+    long estimateHeapBytes() {
+        Roster loaded = roster;
+        if (loaded == null) {
+            return 0;
+        }
+        return (long) loaded.size() * (rosterLayout.bytesPerStudent() + RosterTier.NAME_BYTES
+                + PeriodSegment.BYTES_PER_STUDENT * periods.length);
+    }
+
+    /**
+     * @return number of students in the class, without decoding them when the Teacher was loaded from a snapshot
+     */
+    int peekStudentCount() {
+        Roster loaded = roster;
+        if (loaded != null) {
+            return loaded.size();
+        }
+        synchronized (this) {
+            return roster != null ? roster.size() : pending.getCount();
         }
-        return student;
+    }
+
+    /**
+     * Let the class-level statistics account for new scores.  Call after updating the student's scores.
+     * @param student student in this Teacher's roster whose scores changed
+     */
+    public void studentChanged(Student student) {
+        classAverages.studentChanged(student);
+    }
 
+    /**
+     * Get the class-level statistics.  Kept up to date incrementally by {@link #studentChanged(Student)}.
+     * @return statistics over the students with recorded scores
+     */
+    public ClassStatistics getClassStatistics() {
+        return classAverages().getStatistics();
     }
 
     /**
-     * Replace the teacher's scoring preferences
+     * @param student a student in this Teacher's roster
+     * @return the student's rank and percentile in the class, or null when the student has no recorded scores
+     */
+    public RankedStudent getRank(Student student) {
+        return classAverages().getRank(student);
+    }
+
+    /**
+     * @param count maximum number of students
+     * @return the students with the highest weighted averages, best first
+     */
+    public List<RankedStudent> getTopStudents(int count) {
+        return classAverages().getTop(count);
+    }
+
+    /**
+     * @param count maximum number of students
+     * @return the students with the lowest weighted averages, worst first
+     */
+    public List<RankedStudent> getBottomStudents(int count) {
+        return classAverages().getBottom(count);
+    }
+
+    /**
+     * @param percentile percentile between 0 (exclusive) and 100 (inclusive)
+     * @return nearest-rank percentile of the class's weighted averages, NaN when no student has a score
+     */
+    public double getPercentile(double percentile) {
+        return classAverages().getPercentile(percentile);
+    }
+
+    /**
+     * Hold off closing a grading period while the caller applies a score and publishes its journal record, so the
+     * record lands on the same side of the period's close record as the score.  Every call must be followed by an
+     * {@link #endJournaledWrite()}.
+     */
+    void beginJournaledWrite() {
+        journaledWrites.readLock().lock();
+    }
+
+    void endJournaledWrite() {
+        journaledWrites.readLock().unlock();
+    }
+
+    /**
+     * Close the active grading period: seal every student's totals into an immutable segment, start the totals over
+     * and recompute the class-level statistics for the new, empty period.  Scores recorded concurrently land in exactly
+     * one of the two periods.
+     * @param periodName name of the period being closed, unique for this Teacher
+     * @throws NameCollisionError when the Teacher already has a period by that name
+     */
+    public void closePeriod(String periodName) {
+        sealPeriod(periodName, null);
+        recountActivePeriod();
+    }
+
+    /**
+     * First half of {@link #closePeriod(String)}: seal the active period and start every student's totals over.  The
+     * class-level statistics still describe the sealed period until {@link #recountActivePeriod()} runs.
+     * <br/>
+     * With a journal, journaled score writes to this Teacher are drained and held off until the close is appended,
+     * so each score's record is before the close exactly when the score is in the sealed period.  Writers to other
+     * teachers go on.
+     * @param periodName name of the period being closed, unique for this Teacher
+     * @param journal journal the close is appended to, or null
+     * @return the sealed period
+     * @throws NameCollisionError when the Teacher already has a period by that name
+     */
+    synchronized PeriodSegment sealPeriod(String periodName, Journal journal) {
+        assert periodName != null;
+        Roster loaded = roster();
+        if (getPeriod(periodName) != null) {
+            throw new NameCollisionError("Teacher " + name + " already has a grading period named " + periodName);
+        }
+        if (journal != null) {
+            // waits for the journaled writes in progress
+            journaledWrites.writeLock().lock();
+        }
+        try {
+            // a snapshot sees the whole period sealed or none of it
+            VersionClock clock = this.clock;
+            long epoch = clock.beginSeal();
+            try {
+                PeriodSegment.Builder builder = new PeriodSegment.Builder(loaded.size());
+                for (Student student : loaded.getStudents()) {
+                    builder.add(student.getId(), student.resetTotals(clock, contendedUpdates));
+                }
+                PeriodSegment sealed = builder.build(periodName, classAverages.getPreferences(), epoch);
+                PeriodSegment[] closed = Arrays.copyOf(periods, periods.length + 1);
+                closed[closed.length - 1] = sealed;
+                periods = closed;
+                if (journal != null) {
+                    journal.appendPeriodClosed(name, periodName, closed.length);
+                }
+                return sealed;
+            }
+            finally {
+                clock.endSeal();
+            }
+        }
+        finally {
+            if (journal != null) {
+                journaledWrites.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Second half of {@link #closePeriod(String)}: recompute the class-level statistics from the students' totals
+     */
+    void recountActivePeriod() {
+        classAverages.recount(roster().getStudents());
+    }
+
+    /**
+     * @return the sealed grading periods, oldest first
+     */
+    PeriodSegment[] getPeriods() {
+        roster();
+        return periods;
+    }
+
+    /**
+     * @return names of the sealed grading periods, oldest first
+     */
+    public List<String> getPeriodNames() {
+        PeriodSegment[] sealed = getPeriods();
+        List<String> names = new ArrayList<String>(sealed.length);
+        for (PeriodSegment period : sealed) {
+            names.add(period.getName());
+        }
+        return names;
+    }
+
+    /**
+     * @param periodName name of a sealed grading period
+     * @return the period, or null when the Teacher has not closed a period by that name
+     */
+    PeriodSegment getPeriod(String periodName) {
+        for (PeriodSegment period : getPeriods()) {
+            if (period.getName().equals(periodName)) {
+                return period;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Grade a student over several grading periods at once.  The periods' counts and sums are added together, so the
+     * result is the average over every score in them, graded with the current preferences.
+     * @param student a student in this Teacher's roster
+     * @param sealed sealed periods to include
+     * @param includeActive whether to include the active period
+     * @return weighted average over the combined scores, NaN when the student recorded nothing in those periods
+     */
+    double getCombinedAverage(Student student, Collection<PeriodSegment> sealed, boolean includeActive) {
+        int id = student.getId();
+        ScoreTotals combined = includeActive ? student.getTotals() : emptyTotals;
+        for (PeriodSegment period : sealed) {
+            combined = combined.plus(period.getTotals(id));
+        }
+        return combined.getEventCount() == 0 ? Double.NaN : combined.getWeightedAverage(getScoringPreferences());
+    }
+
+    /**
+     * Report every change to a student's weighted average from now on, whether from a new score or new preferences
+     * @param feed receives the changes
+     */
+    void publishChangesTo(final GradeFeed feed) {
+        classAverages.setListener(new ClassAverages.Listener() {
+            @Override
+            public void averageChanged(Student student, double average) {
+                feed.averageChanged(name, student, average);
+            }
+        });
+    }
+
+    /**
+     * Count the compare-and-set races the students lose in the service's counter rather than the Teacher's own
+     * @param contendedUpdates the service's counter
+     */
+    void countContentionIn(LongAdder contendedUpdates) {
+        this.contendedUpdates = contendedUpdates;
+    }
+
+    /**
+     * @return the counter to pass to the students' updates
+     */
+    LongAdder getContendedUpdates() {
+        return contendedUpdates;
+    }
+
+    /**
+     * Tag the students' totals with the service's clock rather than the Teacher's own, so the service's snapshots see
+     * them.  Called before the Teacher is shared.
+     * @param clock the service's clock
+     */
+    void useClock(VersionClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return the clock to pass to the students' updates
+     */
+    VersionClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Start retaining every score recorded from now on, see {@link #recordHistory(Student, ScoreType, double)}
+     */
+    void retainHistory() {
+        history = new ScoreHistory();
+    }
+
+    /**
+     * @return the retained scores, or null when the teacher does not retain history
+     */
+    ScoreHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Retain a score that was just recorded for a student, if this Teacher retains history
+     * @param student student in this Teacher's roster
+     * @param type kind of score
+     * @param score score (percentage), ignored for extra credit
+     */
+    public void recordHistory(Student student, ScoreType type, double score) {
+        ScoreHistory retained = history;
+        if (retained != null) {
+            retained.append(student.getId(), type, score);
+        }
+    }
+
+    /**
+     * Stream a student's retained scores, oldest first
+     * @param student student in this Teacher's roster
+     * @param visitor receives each score
+     * @throws IllegalStateException when the Teacher does not retain history
+     */
+    public void visitHistory(Student student, ScoreHistoryVisitor visitor) {
+        retainedHistory().visit(student.getId(), student.getName(), visitor);
+    }
+
+    /**
+     * Stream the retained scores of every student in the class, one student at a time and each student's oldest first
+     * @param visitor receives each score
+     * @throws IllegalStateException when the Teacher does not retain history
+     */
+    public void visitHistory(ScoreHistoryVisitor visitor) {
+        ScoreHistory retained = retainedHistory();
+        for (Student student : roster().getStudents()) {
+            retained.visit(student.getId(), student.getName(), visitor);
+        }
+    }
+
+    /**
+     * @return the window of recently recorded event ids, created the first time it is asked for
+     */
+    EventWindow getEventWindow() {
+        EventWindow window = eventWindow;
+        if (window == null) {
+            synchronized (this) {
+                window = eventWindow;
+                if (window == null) {
+                    window = new EventWindow(EventWindow.DEFAULT_CAPACITY);
+                    eventWindow = window;
+                }
+            }
+        }
+        return window;
+    }
+
+    private ScoreHistory retainedHistory() {
+        ScoreHistory retained = history;
+        if (retained == null) {
+            throw new IllegalStateException("Score history is not retained for teacher " + name);
+        }
+        return retained;
+    }
+
+    /**
+     * Replace the teacher's scoring preferences, waiting until the class has been regraded with them
      * @param scoringPreferences updated preferences
      */
     public void setScoringPreferences(ScoringPreferences scoringPreferences) {
+        setScoringPreferencesAsync(scoringPreferences).join();
+    }
+
+    /**
+     * Replace the teacher's scoring preferences.  The class is regraded in the background, in parallel across the
+     * roster; until it is, {@link #getScoringPreferences()} and every class-level query keep answering with the old
+     * preferences, and then all switch to the new ones at once.  Regrades run in the order they were requested.
+     * @param scoringPreferences updated preferences
+     * @return completes once the class has been regraded with the new preferences
+     */
+    public synchronized CompletableFuture<Void> setScoringPreferencesAsync(final ScoringPreferences scoringPreferences) {
         this.scoringPreferences = scoringPreferences;
+        trackLowest(scoringPreferences.getPolicy());
+        regrade = regrade.handle(new BiFunction<Void, Throwable, Void>() {
+            @Override
+            public Void apply(Void ignored, Throwable previousFailure) {
+                // a failed regrade must not stop later ones; its caller already saw the failure
+                return null;
+            }
+        }).thenRunAsync(new Runnable() {
+            @Override
+            public void run() {
+                classAverages.rebuild(scoringPreferences, roster().getStudents());
+            }
+        });
+        return regrade;
     }
 
     /**
-     * Get the teacher's scoring preferences
+     * Get the preferences the class is currently graded with.  While a regrade is running these are the previous
+     * preferences, consistent with the class statistics and rankings.
      * @return the teacher's scoringPreferences
      */
     public ScoringPreferences getScoringPreferences() {
+        return classAverages.getPreferences();
+    }
+
+    /**
+     * @return the most recently requested preferences, which may still be being applied
+     */
+    ScoringPreferences getLatestScoringPreferences() {
         return scoringPreferences;
     }
 
@@ -88,7 +703,7 @@ public class Teacher {
         return "Teacher{" +
                 "name='" + name + '\'' +
                 ", scoringPreferences=" + scoringPreferences +
-                ", studentsByName=" + studentsByName +
+                ", roster=" + roster +
                 '}';
     }
 }
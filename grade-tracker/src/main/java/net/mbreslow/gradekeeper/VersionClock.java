@@ -0,0 +1,180 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Epoch clock behind a service's {@link GradeSnapshot}s.  Each {@link GradeTrackerImpl} owns one and hands it to its
+ * Teachers, so snapshots of one service never cost the writers of another anything.
+ * <br/>
+ * Every change to a student's totals is tagged with the epoch the writer read just before it (see
+ * {@link ScoreTotals#getEpoch()}), or the totals' own tag when that is later, so tags never go backwards for a
+ * student.  Opening a snapshot reserves the epoch after the current one for the snapshot and moves writers on to the
+ * one after that.  No writer ever tags totals with a snapshot's epoch: a reader of the snapshot that finds totals
+ * tagged earlier retags them with it, by compare-and-set, before using them.  A writer that read the epoch before the
+ * snapshot opened can therefore still land a change the snapshot includes, but only until the snapshot reads that
+ * student; after that its compare-and-set fails and the retry is tagged in the new epoch.  Opening never waits for
+ * writers, and writers never wait for snapshots.
+ * <br/>
+ * The first writer to replace, in a later epoch, totals that an open snapshot sees hands the replaced totals to the
+ * snapshot just after its compare-and-set, and the snapshot keeps them until it is closed; students that are not
+ * written while a snapshot is open cost it nothing.  A reader that finds later totals before they are handed over
+ * backs off briefly, see {@link Versions#preserved(Student)}.
+ * <br/>
+ * Thread safety: opening and closing snapshots is serialized; opening also excludes closing grading periods, so a
+ * period is sealed entirely before or entirely after a snapshot.
+ */
+final class VersionClock {
+    // a reader waiting for replaced totals spins this many times, then yields as many, then parks
+    private static final int SPINS = 64;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ReentrantReadWriteLock seals = new ReentrantReadWriteLock();
+    private volatile long epoch = 0;
+    private volatile Versions[] open = new Versions[0];
+
+    /**
+     * Read before each attempt to write a student's totals
+     * @return the epoch to tag the totals with, unless the student's totals already have a later tag
+     */
+    long current() {
+        return epoch;
+    }
+
+    /**
+     * @param replaced epoch of the totals being replaced
+     * @param tag epoch of the totals replacing them
+     * @return true when an open snapshot sees the replaced totals and not their replacement
+     */
+    boolean isVisible(long replaced, long tag) {
+        for (Versions versions : open) {
+            if (replaced <= versions.epoch && versions.epoch < tag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hand totals that were just replaced to every open snapshot that sees them and not their replacement
+     * @param student the student, a key equal to the one a snapshot reads the student through
+     * @param replaced the replaced totals
+     * @param tag epoch of the totals replacing them
+     */
+    void preserve(Student student, ScoreTotals replaced, long tag) {
+        for (Versions versions : open) {
+            if (replaced.getEpoch() <= versions.epoch && versions.epoch < tag) {
+                versions.preserved.putIfAbsent(student, replaced);
+            }
+        }
+    }
+
+    /**
+     * Hold off new snapshots while a grading period is sealed.  Every call must be followed by {@link #endSeal()}.
+     * @return the epoch the period is sealed in
+     */
+    long beginSeal() {
+        seals.readLock().lock();
+        return epoch;
+    }
+
+    void endSeal() {
+        seals.readLock().unlock();
+    }
+
+    /**
+     * Start a snapshot in the next epoch and move writers on to the one after it
+     * @return the snapshot's versions; pass them to {@link #close(Versions)} when done
+     */
+    synchronized Versions open() {
+        seals.writeLock().lock();
+        try {
+            Versions versions = new Versions(epoch + 1);
+            Versions[] opened = Arrays.copyOf(open, open.length + 1);
+            opened[opened.length - 1] = versions;
+            // writers in the new epoch must find the snapshot
+            open = opened;
+            epoch = versions.epoch + 1;
+            return versions;
+        }
+        finally {
+            seals.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stop handing replaced totals to a snapshot
+     */
+    synchronized void close(Versions versions) {
+        Versions[] remaining = new Versions[open.length];
+        int count = 0;
+        for (Versions other : open) {
+            if (other != versions) {
+                remaining[count++] = other;
+            }
+        }
+        open = Arrays.copyOf(remaining, count);
+    }
+
+    /**
+     * @return number of snapshots open on this clock
+     */
+    int getOpenCount() {
+        return open.length;
+    }
+
+    /**
+     * A snapshot's epoch and the totals writers replaced since it was opened
+     */
+    final class Versions {
+        final long epoch;
+        private final ConcurrentMap<Student, ScoreTotals> preserved = new ConcurrentHashMap<Student, ScoreTotals>();
+
+        private Versions(long epoch) {
+            this.epoch = epoch;
+        }
+
+        /**
+         * @return the clock the snapshot was opened on
+         */
+        VersionClock getClock() {
+            return VersionClock.this;
+        }
+
+        /**
+         * Called once a student's totals are found tagged after the snapshot.  The writer that replaced the totals
+         * the snapshot sees hands them over right after its compare-and-set, so this waits at most as long as a
+         * writer between two of its own instructions; it spins, then yields, then parks for up to a millisecond at a
+         * time in case that writer was descheduled.
+         * @param student the student
+         * @return the student's totals as of the snapshot
+         */
+        ScoreTotals preserved(Student student) {
+            long parkNanos = 1000;
+            for (int attempt = 0; ; attempt++) {
+                ScoreTotals replaced = preserved.get(student);
+                if (replaced != null) {
+                    return replaced;
+                }
+                if (attempt >= 2 * SPINS) {
+                    LockSupport.parkNanos(parkNanos);
+                    parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+                }
+                else if (attempt >= SPINS) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        /**
+         * @return number of replaced totals kept for the snapshot
+         */
+        int getPreservedCount() {
+            return preserved.size();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package net.mbreslow.gradekeeper;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a {@link ScorePipeline} thread waits when it cannot make progress: a consumer with no new events, or a producer
+ * whose next slot has not been consumed yet.  Trades latency against CPU burned while idle.
+ */
+public enum WaitStrategy {
+    /**
+     * Retry immediately.  Lowest latency, but each waiting thread keeps a core busy.
+     */
+    BUSY_SPIN {
+        @Override
+        void idle(int attempt) {
+        }
+    },
+    /**
+     * Give up the core to other runnable threads between retries
+     */
+    YIELD {
+        @Override
+        void idle(int attempt) {
+            Thread.yield();
+        }
+    },
+    /**
+     * Spin briefly, then yield, then sleep for short periods.  Best when cores are scarce or the feed is bursty.
+     */
+    BACK_OFF {
+        @Override
+        void idle(int attempt) {
+            if (attempt < 100) {
+                return;
+            }
+            if (attempt < 200) {
+                Thread.yield();
+                return;
+            }
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    };
+
+    static final long PARK_NANOS = 50000;
+
+    /**
+     * Wait before the next attempt
+     * @param attempt number of consecutive attempts that made no progress, starting at 0
+     */
+    abstract void idle(int attempt);
+}
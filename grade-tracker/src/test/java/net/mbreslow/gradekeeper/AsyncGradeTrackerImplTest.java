@@ -0,0 +1,167 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the mailbox-per-teacher asynchronous service
+ */
+public class AsyncGradeTrackerImplTest {
+    private AsyncGradeTracker service = new AsyncGradeTrackerImpl();
+
+    @Test
+    public void testOperationsApplyInOrder() throws Exception {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        List<CompletableFuture<Double>> averages = new ArrayList<CompletableFuture<Double>>();
+        for (int i = 1; i <= 100; i++) {
+            service.recordExamScore("teacher", "student", i);
+            averages.add(service.getStudentAverage("teacher", "student"));
+        }
+        // each read sees exactly the scores submitted before it
+        for (int i = 1; i <= 100; i++) {
+            assertEquals((i + 1) / 2.0, averages.get(i - 1).get(), 1e-9);
+        }
+        assertEquals(1, service.getClassStatistics("teacher").get().getStudentCount());
+    }
+
+    @Test
+    public void testUnknownTeacherFails() throws Exception {
+        try {
+            service.recordExamScore("nobody", "student", 80).get();
+            fail("expected the future to fail");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ObjectNotFoundError);
+        }
+    }
+
+    @Test
+    public void testFullMailboxRejects() throws Exception {
+        final List<Runnable> parked = new ArrayList<Runnable>();
+        Executor manual = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                parked.add(command);
+            }
+        };
+        AsyncGradeTrackerImpl bounded = new AsyncGradeTrackerImpl(new GradeTrackerImpl(), manual, 3, 0);
+        CompletableFuture<Void> added = bounded.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        bounded.recordExamScore("teacher", "student", 80);
+        bounded.recordExamScore("teacher", "student", 90);
+        CompletableFuture<Void> rejected = bounded.recordExamScore("teacher", "student", 100);
+        assertTrue(rejected.isCompletedExceptionally());
+        assertFalse(added.isDone());
+        assertEquals(3, bounded.getPending("teacher"));
+
+        parked.remove(0).run();
+        assertTrue(added.isDone());
+        assertEquals(0, bounded.getPending("teacher"));
+        CompletableFuture<Double> average = bounded.getStudentAverage("teacher", "student");
+        parked.remove(0).run();
+        assertEquals(85, average.get(), 0);
+    }
+
+    @Test
+    public void testFullMailboxWaitsForRoom() throws Exception {
+        final LinkedBlockingQueue<Runnable> parked = new LinkedBlockingQueue<Runnable>();
+        Executor manual = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                parked.add(command);
+            }
+        };
+        final AsyncGradeTrackerImpl bounded = new AsyncGradeTrackerImpl(new GradeTrackerImpl(), manual, 1, 60000);
+        bounded.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        final AtomicReference<CompletableFuture<Void>> recorded = new AtomicReference<CompletableFuture<Void>>();
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                recorded.set(bounded.recordExamScore("teacher", "student", 80));
+            }
+        };
+        caller.start();
+        caller.join(100);
+        // the caller waits for the teacher to be added rather than fail
+        assertTrue(caller.isAlive());
+
+        parked.take().run();
+        caller.join();
+        // the score ran in the same turn unless the caller got its place after the turn ended
+        if (!recorded.get().isDone()) {
+            parked.take().run();
+        }
+        recorded.get().get();
+        CompletableFuture<Double> average = bounded.getStudentAverage("teacher", "student");
+        parked.take().run();
+        assertEquals(80, average.get(), 0);
+    }
+
+    @Test
+    public void testFailedAddTeacherLeavesNoMailbox() throws Exception {
+        GradeTrackerImpl failing = new GradeTrackerImpl() {
+            @Override
+            public void addTeacher(String name, ScoringPreferences scoringPreferences) {
+                throw new IllegalStateException("refused");
+            }
+        };
+        AsyncGradeTrackerImpl async = new AsyncGradeTrackerImpl(failing, ForkJoinPool.commonPool(), 16);
+        try {
+            async.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1)).get();
+            fail("Expected the teacher to be refused");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        try {
+            async.recordExamScore("teacher", "student", 80).get();
+            fail("Expected to get ObjectNotFoundError");
+        }
+        catch (ExecutionException e) {
+            assertEquals("No teacher with the name teacher exists", e.getCause().getMessage());
+        }
+        assertEquals(0, async.getPending("teacher"));
+    }
+
+    @Test
+    public void testRecordScoresAcrossTeachers() throws Exception {
+        service.addTeacher("first", new ScoringPreferences(0.5, 0.5, 1));
+        service.addTeacher("second", new ScoringPreferences(0.5, 0.5, 1));
+        BatchResult result = service.recordScores(Arrays.asList(
+                ScoreEvent.exam("first", "a", 80),
+                ScoreEvent.exam("missing", "b", 70),
+                ScoreEvent.exam("second", "c", 60),
+                ScoreEvent.exam("second", null, 60),
+                ScoreEvent.assignment("first", "a", 100))).get();
+        assertEquals(3, result.getAppliedCount());
+        assertEquals(2, result.getFailures().size());
+        List<Integer> failed = new ArrayList<Integer>();
+        for (BatchResult.Failure failure : result.getFailures()) {
+            failed.add(failure.getIndex());
+        }
+        assertTrue(failed.contains(1));
+        assertTrue(failed.contains(3));
+        assertEquals(90, service.getStudentAverage("first", "a").get(), 0);
+    }
+
+    @Test
+    public void testUpdateTeacherRegrades() throws Exception {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 0));
+        service.recordAssignmentScore("teacher", "student", 100);
+        service.recordExamScore("teacher", "student", 0);
+        service.updateTeacher("teacher", new ScoringPreferences(0.2, 0.8, 0)).get();
+        assertEquals(20, service.getClassStatistics("teacher").get().getAverage(), 1e-9);
+        service.updateTeacher("new", new ScoringPreferences(0.5, 0.5, 0)).get();
+        service.recordExamScore("new", "student", 70).get();
+    }
+}
@@ -0,0 +1,170 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the bulk average export
+ */
+public class AverageExporterTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] export(GradeTrackerImpl service, AverageExporter.Format format, int parallelism,
+                                 long expectedRecords) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(expectedRecords, AverageExporter.export(service, Channels.newChannel(output), format, parallelism));
+        return output.toByteArray();
+    }
+
+    private static Map<String, Double> readBinary(byte[] bytes) {
+        Map<String, Double> averages = new HashMap<String, Double>();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        assertEquals(AverageExporter.MAGIC, buffer.getInt());
+        assertEquals(AverageExporter.FORMAT_VERSION, buffer.getInt());
+        while (buffer.hasRemaining()) {
+            String teacher = readName(buffer);
+            int records = buffer.getInt();
+            assertTrue(records > 0);
+            for (int i = 0; i < records; i++) {
+                String student = readName(buffer);
+                assertNull(averages.put(teacher + "/" + student, buffer.getDouble()));
+            }
+        }
+        return averages;
+    }
+
+    private static String readName(ByteBuffer buffer) {
+        byte[] name = new byte[Journal.getVarint(buffer)];
+        buffer.get(name);
+        return new String(name, UTF_8);
+    }
+
+    @Test
+    public void testReadmeExampleAsCsv() {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("Tom Teacherman", new ScoringPreferences(0.101, 0.899, 2));
+        service.recordAssignmentScore("Tom Teacherman", "Sally Student", 85);
+        service.recordAssignmentScore("Tom Teacherman", "Sally Student", 88);
+        service.recordExtraCredit("Tom Teacherman", "Sally Student");
+        service.recordAssignmentScore("Tom Teacherman", "Sally Student", 92);
+        service.recordExamScore("Tom Teacherman", "Sally Student", 91);
+        service.addTeacher("Empty", new ScoringPreferences(0.5, 0.5, 1));
+
+        String csv = new String(export(service, AverageExporter.Format.CSV, 2, 1), UTF_8);
+
+        double average = service.getStudentAverage("Tom Teacherman", "Sally Student");
+        assertEquals("teacher,student,average\nTom Teacherman,Sally Student," +
+                (Math.round(average * 10000) / 10000.0) + "\n", csv);
+    }
+
+    @Test
+    public void testCsvImportsBackWithQuotedNames() throws Exception {
+        String teacher = "Ms. \"Q\", Smith";
+        String[] students = {"Sally\nStudent", "O\"Brien, Pat", "Bob\r\nJones", "Plain"};
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher(teacher, new ScoringPreferences(0.5, 0.5, 1));
+        for (int i = 0; i < students.length; i++) {
+            service.recordExamScore(teacher, students[i], 70 + i);
+            service.recordAssignmentScore(teacher, students[i], 85.125 + i);
+        }
+        String csv = new String(export(service, AverageExporter.Format.CSV, 1, students.length), UTF_8);
+
+        // each average becomes an exam score, so the imported average is the exported one
+        File file = folder.newFile();
+        Files.write(file.toPath(), csv.replaceAll(",([-0-9.]+)\n", ",exam,$1\n").getBytes(UTF_8));
+        GradeTrackerImpl imported = new GradeTrackerImpl();
+        imported.addTeacher(teacher, new ScoringPreferences(0.5, 0.5, 1));
+        ImportResult result = GradebookImporter.importFile(imported, file, GradebookImporter.Format.CSV, 1, null);
+
+        assertTrue(result.isSuccess());
+        assertEquals(students.length, result.getRowsImported());
+        for (String student : students) {
+            double average = service.getStudentAverage(teacher, student);
+            assertEquals(student, Math.round(average * 10000) / 10000.0, imported.getStudentAverage(teacher, student), 0);
+        }
+    }
+
+    @Test
+    public void testCsvQuotingAndNumbers() {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("Teacherman, Tom", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("Teacherman, Tom", "Sally \"Sal\" Student", 90);
+        service.recordExamScore("Teacherman, Tom", "Zo\u00eb", 87.123456);
+        service.recordExamScore("Teacherman, Tom", "Bob", 0.00004);
+
+        String csv = new String(export(service, AverageExporter.Format.CSV, 1, 3), UTF_8);
+
+        assertTrue(csv, csv.contains("\"Teacherman, Tom\",\"Sally \"\"Sal\"\" Student\",90\n"));
+        assertTrue(csv, csv.contains("\"Teacherman, Tom\",Zo\u00eb,87.1235\n"));
+        assertTrue(csv, csv.contains("\"Teacherman, Tom\",Bob,0\n"));
+    }
+
+    @Test
+    public void testPutAverage() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        for (double average : new double[] {0, 5, 100, 90.93, 102.5, 99.99996, -1.25, 1234567.0001}) {
+            buffer.clear();
+            AverageExporter.putAverage(buffer, average);
+            String written = new String(buffer.array(), 0, buffer.position(), UTF_8);
+            assertEquals(Math.round(average * 10000) / 10000.0, Double.parseDouble(written), 0);
+            assertFalse(written, written.contains(".") && written.endsWith("0"));
+        }
+    }
+
+    @Test
+    public void testUtf8MatchesStringEncoding() {
+        for (String name : Arrays.asList("plain", "Zo\u00eb", "\u65e5\u672c\u8a9e", "emoji \uD83D\uDE00 face",
+                "unpaired \uD800 here")) {
+            byte[] expected = name.getBytes(UTF_8);
+            assertEquals(name, expected.length, AverageExporter.utf8Length(name));
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            AverageExporter.putUtf8(buffer, name, false);
+            assertArrayEquals(name, expected, Arrays.copyOf(buffer.array(), buffer.position()));
+        }
+    }
+
+    @Test
+    public void testParallelBinaryExportSpansManyBuffers() {
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTrackerImpl service = new GradeTrackerImpl(layout);
+            for (int t = 0; t < 10; t++) {
+                service.addTeacher("teacher" + t, new ScoringPreferences(0.3, 0.7, 1));
+            }
+            for (int i = 0; i < 30000; i++) {
+                service.recordExamScore("teacher" + (i % 10), "student \u00e9" + i, i % 101);
+                service.recordAssignmentScore("teacher" + (i % 10), "student \u00e9" + i, i % 89);
+            }
+            StringBuilder longName = new StringBuilder();
+            while (longName.length() < AverageExporter.BUFFER_SIZE) {
+                longName.append("long name ");
+            }
+            service.recordExamScore("teacher0", longName.toString(), 75);
+
+            Map<String, Double> averages = readBinary(export(service, AverageExporter.Format.BINARY, 4, 30001));
+
+            assertEquals(30001, averages.size());
+            for (int i = 0; i < 30000; i++) {
+                String teacher = "teacher" + (i % 10);
+                String student = "student \u00e9" + i;
+                assertEquals(service.getStudentAverage(teacher, student), averages.get(teacher + "/" + student), 0);
+            }
+            assertEquals(75, averages.get("teacher0/" + longName), 0);
+        }
+    }
+}
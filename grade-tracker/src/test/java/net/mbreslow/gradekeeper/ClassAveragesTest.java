@@ -0,0 +1,110 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the incrementally maintained class-level statistics
+ */
+public class ClassAveragesTest {
+    private final ScoringPreferences preferences = new ScoringPreferences(0.5, 0.5, 2);
+
+    @Test
+    public void testEmptyClass() throws Exception {
+        Teacher teacher = new Teacher("teacher", preferences);
+        ClassStatistics statistics = teacher.getClassStatistics();
+        assertEquals(0, statistics.getStudentCount());
+        assertTrue(Double.isNaN(statistics.getAverage()));
+        assertTrue(Double.isNaN(statistics.getMinimum()));
+        assertTrue(Double.isNaN(statistics.getMaximum()));
+    }
+
+    @Test
+    public void testStatisticsFollowScores() throws Exception {
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTracker service = new GradeTrackerImpl(layout);
+            service.addTeacher("teacher", preferences);
+            service.recordExamScore("teacher", "a", 60);
+            service.recordExamScore("teacher", "b", 80);
+            service.recordExamScore("teacher", "c", 100);
+            assertStatistics(layout + " initial", service.getClassStatistics("teacher"), 3, 80, 60, 100);
+
+            // a's average rises above everyone else's, so both the minimum and the maximum move
+            service.recordExamScore("teacher", "a", 160);
+            assertStatistics(layout + " after update", service.getClassStatistics("teacher"), 3, 290.0 / 3, 80, 110);
+
+            service.recordAssignmentScore("teacher", "b", 40);
+            service.recordExtraCredit("teacher", "b");
+            assertStatistics(layout + " after extra credit", service.getClassStatistics("teacher"), 3, 271.0 / 3, 61, 110);
+        }
+    }
+
+    @Test
+    public void testStatisticsFollowPreferences() throws Exception {
+        GradeTracker service = new GradeTrackerImpl();
+        service.addTeacher("teacher", preferences);
+        service.recordExamScore("teacher", "a", 100);
+        service.recordAssignmentScore("teacher", "a", 50);
+        service.recordExamScore("teacher", "b", 80);
+        assertStatistics("before", service.getClassStatistics("teacher"), 2, 77.5, 75, 80);
+        service.updateTeacher("teacher", new ScoringPreferences(0.1, 0.9, 2));
+        assertStatistics("after", service.getClassStatistics("teacher"), 2, 87.5, 80, 95);
+    }
+
+    @Test
+    public void testStatisticsMatchRosterUnderConcurrentWrites() throws Exception {
+        final GradeTracker service = new GradeTrackerImpl();
+        service.addTeacher("teacher", preferences);
+        final int numThreads = 8;
+        final int numStudents = 50;
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        String studentName = "student" + ((i * 7 + seed) % numStudents);
+                        service.recordExamScore("teacher", studentName, (i * 13 + seed) % 101);
+                        if (i % 3 == 0) {
+                            service.recordAssignmentScore("teacher", studentName, i % 97);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int i = 0; i < numStudents; i++) {
+            double average = service.getStudentAverage("teacher", "student" + i);
+            sum += average;
+            min = Math.min(min, average);
+            max = Math.max(max, average);
+        }
+        assertStatistics("concurrent", service.getClassStatistics("teacher"), numStudents, sum / numStudents, min, max);
+    }
+
+    @Test
+    public void testMissingTeacher() throws Exception {
+        try {
+            new GradeTrackerImpl().getClassStatistics("Missing Teacher");
+            fail("Expected to get ObjectNotFoundError");
+        }
+        catch (ObjectNotFoundError e) {
+            assertEquals("No teacher found for name Missing Teacher", e.getMessage());
+        }
+    }
+
+    private void assertStatistics(String message, ClassStatistics statistics, int count, double average, double min, double max) {
+        assertEquals(message, count, statistics.getStudentCount());
+        assertEquals(message, average, statistics.getAverage(), 1e-9);
+        assertEquals(message, min, statistics.getMinimum(), 1e-9);
+        assertEquals(message, max, statistics.getMaximum(), 1e-9);
+    }
+}
@@ -0,0 +1,131 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the primitive-array roster
+ */
+public class ColumnarRosterTest {
+    @Test
+    public void testGivenSample() throws Exception {
+        ScoringPreferences tomTeachermanAllocations = new ScoringPreferences(0.101, 0.899, 2);
+        ColumnarRoster roster = new ColumnarRoster();
+        Student sally = roster.add("Sally Student");
+        sally.addAssignment(85);
+        sally.addAssignment(88);
+        sally.addExtraCredit();
+        sally.addAssignment(92);
+        sally.addExam(91);
+        Student lookedUp = roster.get("Sally Student");
+        assertEquals(sally, lookedUp);
+        assertEquals("Sally Student", lookedUp.getName());
+        assertEquals(90.93, (double) Math.round(lookedUp.getWeightedAverage(tomTeachermanAllocations) * 100) / 100, 0);
+        assertEquals(5, lookedUp.getTotals().getEventCount());
+    }
+
+    @Test
+    public void testGrowsAcrossChunks() throws Exception {
+        ColumnarRoster roster = new ColumnarRoster();
+        final int numStudents = ColumnarRoster.CHUNK_SIZE * 3 + 17;
+        for (int i = 0; i < numStudents; i++) {
+            roster.add("student" + i).addExam(i);
+        }
+        assertEquals(numStudents, roster.size());
+        for (int i = 0; i < numStudents; i++) {
+            Student student = roster.get("student" + i);
+            assertNotNull("student" + i, student);
+            assertEquals(i, student.getTotals().getExamsSum(), 0);
+        }
+        assertNull(roster.get("student" + numStudents));
+
+        Collection<Student> students = roster.getStudents();
+        assertEquals(numStudents, students.size());
+        Set<String> seen = new HashSet<String>();
+        for (Student student : students) {
+            assertTrue(seen.add(student.getName()));
+        }
+        assertEquals(numStudents, seen.size());
+    }
+
+    @Test
+    public void testGetOrAdd() throws Exception {
+        ColumnarRoster roster = new ColumnarRoster();
+        Student first = roster.getOrAdd("student");
+        Student second = roster.getOrAdd("student");
+        assertEquals(first, second);
+        assertEquals(1, roster.size());
+        try {
+            roster.add("student");
+            fail("Expected a NameCollisionError but none was thrown");
+        }
+        catch (NameCollisionError e) {
+            assertEquals("A student already exists with the name student", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLookupsReuseViews() throws Exception {
+        ColumnarRoster roster = new ColumnarRoster();
+        for (int i = 0; i <= ColumnarRoster.VIEW_CACHE_SIZE; i++) {
+            roster.add("student" + i);
+        }
+        Student first = roster.get("student0");
+        assertSame(first, roster.get("student0"));
+        first.addExam(90);
+        assertEquals(90, roster.get("student0").getTotals().getExamsSum(), 0);
+        // a student whose id shares the slot replaces the cached view, which still works
+        Student other = roster.get("student" + ColumnarRoster.VIEW_CACHE_SIZE);
+        assertNotSame(first, roster.get("student0"));
+        assertEquals(first, roster.get("student0"));
+        assertEquals("student" + ColumnarRoster.VIEW_CACHE_SIZE, other.getName());
+        first.addExam(80);
+        assertEquals(2, roster.get("student0").getTotals().getExamsCount());
+    }
+
+    @Test
+    public void testConcurrentWritersAndAdds() throws Exception {
+        final ColumnarRoster roster = new ColumnarRoster();
+        final int numThreads = 8;
+        final int numStudents = 5000;
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < numStudents; i++) {
+                        roster.getOrAdd("student" + i).addAssignment(1);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(numStudents, roster.size());
+        for (int i = 0; i < numStudents; i++) {
+            ScoreTotals totals = roster.get("student" + i).getTotals();
+            assertEquals(numThreads, totals.getAssignmentsCount());
+            assertEquals(numThreads, totals.getAssignmentsSum(), 0);
+        }
+    }
+
+    @Test
+    public void testGradeTrackerWithColumnarLayout() throws Exception {
+        GradeTracker service = new GradeTrackerImpl(RosterLayout.COLUMNAR);
+        service.addTeacher("Tom Teacherman", new ScoringPreferences(0.101, 0.899, 2));
+        service.recordAssignmentScore("Tom Teacherman", "Sally Student", 85);
+        service.recordAssignmentScore("Tom Teacherman", "Sally Student", 88);
+        service.recordExtraCredit("Tom Teacherman", "Sally Student");
+        service.recordAssignmentScore("Tom Teacherman", "Sally Student", 92);
+        service.recordExamScore("Tom Teacherman", "Sally Student", 91);
+        double avg = service.getStudentAverage("Tom Teacherman", "Sally Student");
+        assertEquals(90.93, (double) Math.round(avg * 100) / 100, 0);
+    }
+}
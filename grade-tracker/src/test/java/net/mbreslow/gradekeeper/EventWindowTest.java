@@ -0,0 +1,110 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the window of recently recorded event ids
+ */
+public class EventWindowTest {
+    @Test
+    public void testDropsDuplicatesWithinTheWindow() {
+        EventWindow window = new EventWindow(EventWindow.DEFAULT_CAPACITY);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(window.accept("event " + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertFalse("event " + i, window.accept("event " + i));
+        }
+        assertEquals(1000, window.size());
+    }
+
+    @Test
+    public void testForgetsIdsOlderThanTheWindow() {
+        // a single stripe, so the window is exact
+        EventWindow window = new EventWindow(64);
+        for (int i = 0; i < 64; i++) {
+            assertTrue(window.accept("event " + i));
+        }
+        assertFalse(window.accept("event 0"));
+        for (int i = 64; i < 100; i++) {
+            assertTrue(window.accept("event " + i));
+        }
+        // the oldest 36 have been overwritten, the rest are still there
+        for (int i = 36; i < 100; i++) {
+            assertFalse("event " + i, window.accept("event " + i));
+        }
+        for (int i = 0; i < 36; i++) {
+            assertTrue("event " + i, window.accept("event " + i));
+        }
+    }
+
+    @Test
+    public void testForgottenIdsAreAcceptedAgain() {
+        EventWindow window = new EventWindow(64);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(window.accept("event " + i));
+        }
+        window.forget("event 99");
+        window.forget("event 50");
+        // already overwritten
+        window.forget("event 0");
+        assertEquals(62, window.size());
+        assertTrue(window.accept("event 50"));
+        assertTrue(window.accept("event 99"));
+        for (int i = 36; i < 100; i++) {
+            assertFalse("event " + i, window.accept("event " + i));
+        }
+        // the ring is full again, so the oldest id goes next
+        assertTrue(window.accept("event 100"));
+        assertTrue(window.accept("event 36"));
+    }
+
+    @Test
+    public void testNewIdsAreNeverDroppedAndMemoryStaysFlat() {
+        EventWindow window = new EventWindow(EventWindow.DEFAULT_CAPACITY);
+        long heap = window.estimateHeapBytes();
+        for (int i = 0; i < 1000000; i++) {
+            assertTrue(window.accept("event " + i));
+        }
+        assertEquals(EventWindow.DEFAULT_CAPACITY, window.size());
+        assertEquals(heap, window.estimateHeapBytes());
+        assertTrue(String.valueOf(heap), heap < 16 * EventWindow.DEFAULT_CAPACITY);
+        // each stripe forgets its own oldest ids, so only the most recent half window is known for certain
+        for (int i = 1000000 - EventWindow.DEFAULT_CAPACITY / 2; i < 1000000; i++) {
+            assertFalse(window.accept("event " + i));
+        }
+    }
+
+    @Test
+    public void testConcurrentDeliveriesAreAcceptedOnce() throws Exception {
+        final EventWindow window = new EventWindow(EventWindow.DEFAULT_CAPACITY);
+        final AtomicInteger accepted = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        if (window.accept("event " + i)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(5000, accepted.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBeAPowerOfTwo() {
+        new EventWindow(1000);
+    }
+}
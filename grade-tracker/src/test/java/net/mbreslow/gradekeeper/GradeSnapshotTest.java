@@ -0,0 +1,186 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for point-in-time snapshots of a tracker
+ */
+public class GradeSnapshotTest {
+    @Test
+    public void testSnapshotIgnoresLaterChanges() {
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTrackerImpl service = new GradeTrackerImpl(layout);
+            service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+            service.recordExamScore("teacher", "Sally", 80);
+            service.recordAssignmentScore("teacher", "Sally", 90);
+            service.recordExamScore("teacher", "Bob", 60);
+            service.closeGradingPeriod("teacher", "Q1");
+            service.recordExamScore("teacher", "Bob", 70);
+
+            GradeSnapshot snapshot = service.openSnapshot("teacher");
+            service.recordExamScore("teacher", "Bob", 100);
+            service.recordExamScore("teacher", "Zoe", 100);
+            service.closeGradingPeriod("teacher", "Q2");
+            service.recordExamScore("teacher", "Bob", 10);
+            service.addTeacher("other", new ScoringPreferences(0.5, 0.5, 1));
+
+            assertEquals(Collections.singletonList("teacher"), snapshot.getTeacherNames());
+            assertEquals(Arrays.asList("Bob", "Sally"), snapshot.getStudentNames("teacher"));
+            assertEquals(70, snapshot.getStudentAverage("teacher", "Bob"), 0);
+            assertEquals(1, snapshot.getTotals("teacher", "Bob").getExamsCount());
+            assertEquals(0, snapshot.getTotals("teacher", "Sally").getEventCount());
+            assertEquals(1, snapshot.getClassStatistics("teacher").getStudentCount());
+            assertEquals(Collections.singletonList("Q1"), snapshot.getGradingPeriods("teacher"));
+            assertEquals(85, snapshot.getPeriodAverage("teacher", "Sally", "Q1"), 0);
+            assertEquals(2, snapshot.getPeriodStatistics("teacher", "Q1").getStudentCount());
+            try {
+                snapshot.getPeriodAverage("teacher", "Bob", "Q2");
+                fail("Q2 closed after the snapshot");
+            }
+            catch (ObjectNotFoundError expected) {
+            }
+            try {
+                snapshot.getStudentAverage("teacher", "Zoe");
+                fail("Zoe recorded after the snapshot");
+            }
+            catch (ObjectNotFoundError expected) {
+            }
+
+            // the tracker itself moved on
+            assertEquals(10, service.getStudentAverage("teacher", "Bob"), 0);
+            assertEquals(Arrays.asList("Q1", "Q2"), service.getGradingPeriods("teacher"));
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void testCloseReleasesVersions() {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 80);
+        int open = service.versionClock.getOpenCount();
+
+        GradeSnapshot snapshot = service.openSnapshot();
+        assertEquals(open + 1, service.versionClock.getOpenCount());
+        for (int i = 0; i < 100; i++) {
+            service.recordExamScore("teacher", "Sally", 100);
+        }
+        // only the totals the snapshot sees are kept, not every version since
+        assertEquals(1, snapshot.getPreservedCount());
+        assertEquals(80, snapshot.getStudentAverage("teacher", "Sally"), 0);
+
+        snapshot.close();
+        snapshot.close();
+        assertEquals(open, service.versionClock.getOpenCount());
+        try {
+            snapshot.getStudentAverage("teacher", "Sally");
+            fail("The snapshot is closed");
+        }
+        catch (IllegalStateException expected) {
+        }
+        try {
+            service.openSnapshot("nobody");
+            fail("No such teacher");
+        }
+        catch (ObjectNotFoundError expected) {
+        }
+    }
+
+    @Test
+    public void testSnapshotsBelongToOneTracker() {
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTrackerImpl service = new GradeTrackerImpl(layout);
+            service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+            GradeTrackerImpl other = new GradeTrackerImpl(layout);
+            other.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+            service.recordExamScore("teacher", "Sally", 80);
+            other.recordExamScore("teacher", "Sally", 80);
+
+            GradeSnapshot snapshot = service.openSnapshot();
+            assertEquals(0, other.versionClock.getOpenCount());
+            for (int i = 0; i < 10; i++) {
+                other.recordExamScore("teacher", "Sally", 100);
+            }
+            // the other tracker's writers keep nothing for the snapshot
+            assertEquals(0, snapshot.getPreservedCount());
+            assertEquals(80, snapshot.getStudentAverage("teacher", "Sally"), 0);
+            service.recordExamScore("teacher", "Sally", 100);
+            assertEquals(layout.toString(), 80, snapshot.getStudentAverage("teacher", "Sally"), 0);
+            snapshot.close();
+        }
+    }
+
+    /**
+     * A writer records a score for A and then one for B, over and over.  No snapshot may see more of B's scores than
+     * of A's, or miss more than the one score for A the writer may be about to follow with B's.
+     */
+    @Test
+    public void testSnapshotIsConsistentAcrossTeachers() throws Exception {
+        for (RosterLayout layout : RosterLayout.values()) {
+            final GradeTrackerImpl service = new GradeTrackerImpl(layout);
+            service.addTeacher("teacherA", new ScoringPreferences(0.5, 0.5, 1));
+            service.addTeacher("teacherB", new ScoringPreferences(0.5, 0.5, 1));
+            final AtomicBoolean writing = new AtomicBoolean(true);
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; writing.get(); i++) {
+                            service.recordExamScore("teacherA", "A", i % 101);
+                            service.recordExamScore("teacherB", "B", i % 101);
+                            if (i % 1000 == 999) {
+                                service.closeGradingPeriod("teacherA", "A" + i);
+                                service.closeGradingPeriod("teacherB", "B" + i);
+                            }
+                        }
+                    }
+                    catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            writer.start();
+            try {
+                for (int s = 0; s < 200; s++) {
+                    GradeSnapshot snapshot = service.openSnapshot();
+                    try {
+                        int a = count(snapshot, "teacherA", "A");
+                        int b = count(snapshot, "teacherB", "B");
+                        assertTrue("A " + a + ", B " + b, a - b == 0 || a - b == 1);
+                        List<String> periodsA = snapshot.getGradingPeriods("teacherA");
+                        List<String> periodsB = snapshot.getGradingPeriods("teacherB");
+                        assertTrue(periodsA.size() - periodsB.size() == 0 || periodsA.size() - periodsB.size() == 1);
+                        // reading again gives the same answer
+                        assertEquals(a, count(snapshot, "teacherA", "A"));
+                    }
+                    finally {
+                        snapshot.close();
+                    }
+                    Thread.yield();
+                }
+            }
+            finally {
+                writing.set(false);
+                writer.join();
+            }
+            assertNull(failure.get());
+        }
+    }
+
+    private static int count(GradeSnapshot snapshot, String teacherName, String studentName) {
+        if (!snapshot.getStudentNames(teacherName).contains(studentName)) {
+            return 0;
+        }
+        int count = snapshot.getTotals(teacherName, studentName).getExamsCount();
+        return count + 1000 * snapshot.getGradingPeriods(teacherName).size();
+    }
+}
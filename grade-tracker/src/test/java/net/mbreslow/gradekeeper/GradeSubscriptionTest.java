@@ -0,0 +1,142 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the student-average change feed
+ */
+public class GradeSubscriptionTest {
+    private GradeTrackerImpl service = new GradeTrackerImpl();
+    private List<Runnable> parked = new ArrayList<Runnable>();
+    // runs delivery only when the test calls deliver()
+    private Executor manual = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            parked.add(command);
+        }
+    };
+
+    @Test
+    public void testScoreChangesAreReported() throws Exception {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        final List<String> changes = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch reported = new CountDownLatch(2);
+        service.subscribe(new Recorder(changes) {
+            @Override
+            public void averageChanged(String teacherName, String studentName, double average) {
+                super.averageChanged(teacherName, studentName, average);
+                reported.countDown();
+            }
+        });
+        service.recordExamScore("teacher", "Sally", 80);
+        service.recordExamScore("teacher", "Bob", 70);
+        assertTrue(reported.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("teacher Sally 80.0", "teacher Bob 70.0"), changes);
+    }
+
+    @Test
+    public void testChangesAreCoalesced() {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        List<String> changes = new ArrayList<String>();
+        GradeSubscription subscription = service.subscribe(new Recorder(changes), manual, 100);
+        for (int i = 1; i <= 50; i++) {
+            service.recordExamScore("teacher", "Sally", i);
+            service.recordExamScore("teacher", "Bob", 100);
+        }
+        assertEquals(2, subscription.getPendingCount());
+        deliver();
+        // Sally's average changed 50 times and Bob's once; each is reported once, in order of first change
+        assertEquals(Arrays.asList("teacher Sally 25.5", "teacher Bob 100.0"), changes);
+        assertEquals(0, subscription.getPendingCount());
+
+        // an assignment at her exam average leaves Sally's average where it was, so nothing is reported
+        service.recordAssignmentScore("teacher", "Sally", 25.5);
+        deliver();
+        assertEquals(2, changes.size());
+        service.recordExtraCredit("teacher", "Sally");
+        deliver();
+        assertEquals("teacher Sally 26.0", changes.get(2));
+    }
+
+    @Test
+    public void testNewPreferencesReportChangedAverages() {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 80);
+        service.recordAssignmentScore("teacher", "Sally", 60);
+        service.recordExamScore("teacher", "Bob", 90);
+        service.recordAssignmentScore("teacher", "Bob", 90);
+        List<String> changes = new ArrayList<String>();
+        service.subscribe(new Recorder(changes), manual, 100);
+        service.updateTeacher("teacher", new ScoringPreferences(0.25, 0.75, 1));
+        deliver();
+        // Bob's average is 90 whatever the weights, so only Sally's changed
+        assertEquals(Collections.singletonList("teacher Sally 75.0"), changes);
+    }
+
+    @Test
+    public void testSlowListenerDoesNotBlockWriters() {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        List<String> changes = new ArrayList<String>();
+        GradeSubscription subscription = service.subscribe(new Recorder(changes), manual, 10);
+        // nothing is delivered while 100 students change; the buffer stops at 10 of them
+        for (int i = 0; i < 100; i++) {
+            service.recordExamScore("teacher", "student" + i, 80);
+        }
+        assertEquals(10, subscription.getPendingCount());
+        assertEquals(90, subscription.getDroppedCount());
+        deliver();
+        assertEquals("dropped", changes.get(0));
+        assertEquals(11, changes.size());
+        assertEquals("teacher student9 80.0", changes.get(10));
+    }
+
+    @Test
+    public void testCancel() {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        List<String> changes = new ArrayList<String>();
+        GradeSubscription subscription = service.subscribe(new Recorder(changes), manual, 100);
+        service.recordExamScore("teacher", "Sally", 80);
+        subscription.cancel();
+        service.recordExamScore("teacher", "Bob", 80);
+        deliver();
+        assertTrue(changes.isEmpty());
+        assertEquals(0, subscription.getPendingCount());
+    }
+
+    /**
+     * Run delivery tasks until none are left
+     */
+    private void deliver() {
+        while (!parked.isEmpty()) {
+            parked.remove(0).run();
+        }
+    }
+
+    private static class Recorder implements GradeChangeListener {
+        private final List<String> changes;
+
+        Recorder(List<String> changes) {
+            this.changes = changes;
+        }
+
+        @Override
+        public void averageChanged(String teacherName, String studentName, double average) {
+            changes.add(teacherName + " " + studentName + " " + average);
+        }
+
+        @Override
+        public void changesDropped() {
+            changes.add("dropped");
+        }
+    }
+}
@@ -3,6 +3,11 @@ package net.mbreslow.gradekeeper;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.fail;
 import static org.junit.Assert.*;
@@ -101,4 +106,197 @@ public class GradeTrackerImplTest {
             assertEquals(expectedErrorMessage, e.getMessage());
         }
     }
+
+    @Test
+    public void testRecordScores() throws Exception {
+        ScoringPreferences tomTeachermanAllocations = new ScoringPreferences(0.101, 0.899, 2);
+        final String teacherName = "Tom Teacherman";
+        final String studentName = "Sally Student";
+        final String missingTeacherName = "Missing Teacher";
+        service.addTeacher(teacherName, tomTeachermanAllocations);
+        List<ScoreEvent> events = Arrays.asList(
+                ScoreEvent.assignment(teacherName, studentName, 85),
+                ScoreEvent.assignment(teacherName, studentName, 88),
+                ScoreEvent.extraCredit(teacherName, studentName),
+                ScoreEvent.exam(missingTeacherName, studentName, 50),
+                ScoreEvent.assignment(teacherName, studentName, 92),
+                ScoreEvent.exam(teacherName, studentName, 91),
+                ScoreEvent.exam(teacherName, "Other Student", 70));
+
+        BatchResult result = service.recordScores(events);
+
+        assertEquals(6, result.getAppliedCount());
+        assertFalse(result.isSuccess());
+        assertEquals(1, result.getFailures().size());
+        BatchResult.Failure failure = result.getFailures().get(0);
+        assertEquals(3, failure.getIndex());
+        assertSame(events.get(3), failure.getEvent());
+        assertTrue(failure.getError() instanceof ObjectNotFoundError);
+        assertEquals("No teacher with the name " + missingTeacherName + " exists", failure.getError().getMessage());
+
+        double avg = service.getStudentAverage(teacherName, studentName);
+        assertEquals(90.93, (double) Math.round(avg * 100) / 100, 0);
+        assertEquals(70, service.getStudentAverage(teacherName, "Other Student"), 0);
+    }
+
+    @Test
+    public void testRecordScoresMatchesSingleCalls() throws Exception {
+        ScoringPreferences preferences = new ScoringPreferences(0.4, 0.6, 3);
+        GradeTracker single = new GradeTrackerImpl();
+        single.addTeacher("teacher", preferences);
+        service.addTeacher("teacher", preferences);
+        List<ScoreEvent> events = new ArrayList<ScoreEvent>();
+        for (int i = 0; i < 100; i++) {
+            String studentName = "student" + (i % 7);
+            events.add(ScoreEvent.assignment("teacher", studentName, i));
+            events.add(ScoreEvent.exam("teacher", studentName, 100 - i));
+            single.recordAssignmentScore("teacher", studentName, i);
+            single.recordExamScore("teacher", studentName, 100 - i);
+            if (i % 10 == 0) {
+                events.add(ScoreEvent.extraCredit("teacher", studentName));
+                single.recordExtraCredit("teacher", studentName);
+            }
+        }
+        BatchResult result = service.recordScores(events);
+        assertTrue(result.isSuccess());
+        assertEquals(events.size(), result.getAppliedCount());
+        for (int i = 0; i < 7; i++) {
+            assertEquals(single.getStudentAverage("teacher", "student" + i), service.getStudentAverage("teacher", "student" + i), 1e-9);
+        }
+    }
+
+    @Test
+    public void testRecordScoresRejectsIncompleteRows() throws Exception {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        BatchResult result = service.recordScores(Arrays.asList(
+                ScoreEvent.exam("teacher", null, 80),
+                null,
+                ScoreEvent.exam("teacher", "student", 80)));
+        assertEquals(1, result.getAppliedCount());
+        assertEquals(2, result.getFailures().size());
+        assertEquals(0, result.getFailures().get(0).getIndex());
+        assertEquals(1, result.getFailures().get(1).getIndex());
+        assertTrue(result.getFailures().get(1).getError() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testDuplicateEventsAreRecordedOnce() throws Exception {
+        GradeTracker once = new GradeTrackerImpl();
+        once.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        once.recordExamScore("teacher", "student", 80);
+        once.recordAssignmentScore("teacher", "student", 60);
+        once.recordExtraCredit("teacher", "student");
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.addTeacher("other", new ScoringPreferences(0.5, 0.5, 1));
+        assertTrue(service.recordExamScore("teacher", "student", 80, "e1"));
+        assertFalse(service.recordExamScore("teacher", "student", 80, "e1"));
+        assertFalse(service.recordAssignmentScore("teacher", "student", 10, "e1"));
+        assertTrue(service.recordAssignmentScore("teacher", "student", 60, "e2"));
+        assertTrue(service.recordExtraCredit("teacher", "student", "e3"));
+        assertFalse(service.recordExtraCredit("teacher", "student", "e3"));
+        // ids are per teacher
+        assertTrue(service.recordExamScore("other", "student", 50, "e1"));
+        assertEquals(once.getStudentAverage("teacher", "student"), service.getStudentAverage("teacher", "student"), 1e-9);
+
+        BatchResult result = service.recordScores(Arrays.asList(
+                ScoreEvent.exam("teacher", "student", 90).withEventId("e1"),
+                ScoreEvent.exam("teacher", "student", 90).withEventId("e4"),
+                ScoreEvent.exam("teacher", "student", 90).withEventId("e4"),
+                ScoreEvent.exam("teacher", "student", 90),
+                ScoreEvent.exam("teacher", "student", 90)));
+        assertTrue(result.isSuccess());
+        assertEquals(3, result.getAppliedCount());
+        assertEquals(2, result.getDuplicateCount());
+        assertEquals(5, ((GradeTrackerImpl) service).getMetrics().getDuplicateEvents());
+        once.recordScores(Arrays.asList(
+                ScoreEvent.exam("teacher", "student", 90),
+                ScoreEvent.exam("teacher", "student", 90),
+                ScoreEvent.exam("teacher", "student", 90)));
+        assertEquals(once.getStudentAverage("teacher", "student"), service.getStudentAverage("teacher", "student"), 1e-9);
+    }
+
+    @Test
+    public void testFailedEventIsRecordedOnRetry() throws Exception {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        try {
+            service.recordExamScore("teacher", null, 80, "e1");
+            fail("A student without a name cannot be added");
+        }
+        catch (RuntimeException expected) {
+        }
+        assertTrue(service.recordExamScore("teacher", "student", 80, "e1"));
+        assertFalse(service.recordExamScore("teacher", "student", 80, "e1"));
+        assertEquals(80, service.getStudentAverage("teacher", "student"), 0);
+    }
+
+    @Test
+    public void testUpdateTeacherAddsNewTeacher() throws Exception {
+        service.updateTeacher("new teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("new teacher", "student", 80);
+        assertEquals(80, service.getStudentAverage("new teacher", "student"), 0);
+    }
+
+    @Test
+    public void testServiceAverageFollowsUpdateTeacher() throws Exception {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 0));
+        service.recordAssignmentScore("teacher", "Sally", 80);
+        service.recordExamScore("teacher", "Sally", 90);
+        assertEquals(85, service.getStudentAverage("teacher", "Sally"), 0);
+        service.updateTeacher("teacher", new ScoringPreferences(0.2, 0.8, 0));
+        assertEquals(88, service.getStudentAverage("teacher", "Sally"), 1e-9);
+        service.recordExamScore("teacher", "Sally", 100);
+        assertEquals(92, service.getStudentAverage("teacher", "Sally"), 1e-9);
+    }
+
+    @Test
+    public void testAsyncRegradeIsAllOrNothing() throws Exception {
+        final ScoringPreferences before = new ScoringPreferences(0.5, 0.5, 0);
+        final ScoringPreferences after = new ScoringPreferences(0.1, 0.9, 0);
+        service.addTeacher("teacher", before);
+        List<ScoreEvent> events = new ArrayList<ScoreEvent>();
+        for (int i = 0; i < 50000; i++) {
+            events.add(ScoreEvent.assignment("teacher", "student" + i, 100));
+            events.add(ScoreEvent.exam("teacher", "student" + i, 0));
+        }
+        service.recordScores(events);
+        assertEquals(50, service.getClassStatistics("teacher").getAverage(), 1e-9);
+
+        final List<Double> seen = new ArrayList<Double>();
+        CompletableFuture<Void> regraded = service.updateTeacherAsync("teacher", after);
+        while (!regraded.isDone()) {
+            ClassStatistics statistics = service.getClassStatistics("teacher");
+            List<RankedStudent> top = service.getTopStudents("teacher", 1);
+            // a reader sees the old or new grading throughout, never a mix
+            assertEquals(statistics.getMaximum(), statistics.getMinimum(), 1e-9);
+            seen.add(statistics.getAverage());
+            assertTrue(top.get(0).getAverage() == 50 || Math.abs(top.get(0).getAverage() - 10) < 1e-9);
+        }
+        regraded.get();
+        for (double average : seen) {
+            assertTrue(average == 50 || Math.abs(average - 10) < 1e-9);
+        }
+        assertEquals(10, service.getClassStatistics("teacher").getAverage(), 1e-9);
+        assertEquals(10, service.getStudentAverage("teacher", "student7"), 1e-9);
+        assertEquals(after, ((GradeTrackerImpl) service).teachersByName.get("teacher").getScoringPreferences());
+    }
+
+    @Test
+    public void testScoresDuringRegradeAreKept() throws Exception {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 0));
+        for (int i = 0; i < 20000; i++) {
+            service.recordAssignmentScore("teacher", "student" + i, 100);
+        }
+        CompletableFuture<Void> regraded = service.updateTeacherAsync("teacher", new ScoringPreferences(0.2, 0.8, 0));
+        for (int i = 0; i < 20000; i += 2) {
+            service.recordExamScore("teacher", "student" + i, 50);
+        }
+        regraded.get();
+        ClassStatistics statistics = service.getClassStatistics("teacher");
+        assertEquals(20000, statistics.getStudentCount());
+        assertEquals(60, statistics.getMinimum(), 1e-9);
+        assertEquals(100, statistics.getMaximum(), 1e-9);
+        assertEquals(80, statistics.getAverage(), 1e-9);
+        assertEquals(10000, service.getBottomStudents("teacher", 10000).size());
+        assertEquals(60, service.getBottomStudents("teacher", 10000).get(9999).getAverage(), 1e-9);
+    }
 }
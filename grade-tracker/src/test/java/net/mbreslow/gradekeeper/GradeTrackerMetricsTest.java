@@ -0,0 +1,147 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the service's built-in metrics
+ */
+public class GradeTrackerMetricsTest {
+    // time every call so the tests see every latency
+    private GradeTrackerImpl service = GradeTrackerImpl.builder().metricsSampleEvery(1).build();
+
+    @Test
+    public void testOperationsAreCountedAndTimed() {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        for (int i = 0; i < 100; i++) {
+            service.recordExamScore("teacher", "student" + (i % 10), 80);
+        }
+        service.getStudentAverage("teacher", "student1");
+        service.updateTeacher("teacher", new ScoringPreferences(0.3, 0.7, 1));
+
+        MetricsSnapshot snapshot = service.getMetrics().getSnapshot();
+        LatencySnapshot exams = snapshot.getLatencies().get("recordExamScore");
+        assertEquals(100, exams.getEstimatedCount());
+        assertEquals(100, exams.getSampledCount());
+        assertTrue(exams.getP50Nanos() > 0);
+        assertTrue(exams.getP50Nanos() <= exams.getP99Nanos());
+        assertTrue(exams.getP99Nanos() <= exams.getMaxNanos());
+        assertEquals(1, snapshot.getLatencies().get("getStudentAverage").getEstimatedCount());
+        assertEquals(1, snapshot.getLatencies().get("addTeacher").getEstimatedCount());
+        // updateTeacher is counted once, not again as updateTeacherAsync
+        assertEquals(1, snapshot.getLatencies().get("updateTeacher").getEstimatedCount());
+        assertEquals(0, snapshot.getLatencies().get("updateTeacherAsync").getEstimatedCount());
+        assertEquals(Integer.valueOf(10), snapshot.getRosterSizes().get("teacher"));
+    }
+
+    @Test
+    public void testErrorsAreCounted() {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        try {
+            service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+            fail("expected a NameCollisionError");
+        }
+        catch (NameCollisionError expected) {
+        }
+        try {
+            service.getStudentAverage("teacher", "nobody");
+            fail("expected an ObjectNotFoundError");
+        }
+        catch (ObjectNotFoundError expected) {
+        }
+        service.recordScores(Arrays.asList(ScoreEvent.exam("nobody", "Sally", 80)));
+
+        MetricsSnapshot snapshot = service.getMetrics().getSnapshot();
+        assertEquals(1, snapshot.getNameCollisionErrors());
+        assertEquals(2, snapshot.getObjectNotFoundErrors());
+        // failed calls are still timed
+        assertEquals(2, snapshot.getLatencies().get("addTeacher").getEstimatedCount());
+    }
+
+    @Test
+    public void testSampling() {
+        GradeTrackerImpl sampled = GradeTrackerImpl.builder().metricsSampleEvery(16).build();
+        sampled.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        for (int i = 0; i < 16000; i++) {
+            sampled.recordAssignmentScore("teacher", "student", 90);
+        }
+        LatencySnapshot assignments = sampled.getMetrics().getLatencies().get("recordAssignmentScore");
+        assertTrue(assignments.getSampledCount() > 500 && assignments.getSampledCount() < 1500);
+        assertEquals(16 * assignments.getSampledCount(), assignments.getEstimatedCount());
+
+        GradeTrackerImpl off = GradeTrackerImpl.builder().metricsSampleEvery(0).build();
+        off.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        off.recordAssignmentScore("teacher", "student", 90);
+        assertEquals(0, off.getMetrics().getLatencies().get("recordAssignmentScore").getEstimatedCount());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 80);
+        ObjectName name = service.getMetrics().register("metrics-test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(0L, server.getAttribute(name, "NameCollisionErrors"));
+            CompositeData snapshot = (CompositeData) server.getAttribute(name, "Snapshot");
+            assertTrue(snapshot.containsKey("latencies"));
+            assertTrue(snapshot.containsKey("rosterSizes"));
+        }
+        finally {
+            service.getMetrics().unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long nanos : new long[] {0, 1, 7, 8, 15, 16, 100, 999, 123456, 987654321}) {
+            long midpoint = LatencyHistogram.midpoint(LatencyHistogram.bucket(nanos));
+            assertTrue(nanos + " -> " + midpoint, Math.abs(midpoint - nanos) <= nanos / 16 + 1);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        LatencySnapshot snapshot = histogram.snapshot(4);
+        assertEquals(4000, snapshot.getEstimatedCount());
+        assertEquals(1000, snapshot.getSampledCount());
+        assertEquals(500500, snapshot.getMeanNanos());
+        assertEquals(500000, snapshot.getP50Nanos(), 500000 / 16);
+        assertEquals(990000, snapshot.getP99Nanos(), 990000 / 16);
+        assertEquals(1000000, snapshot.getMaxNanos());
+    }
+
+    @Test
+    public void testContendedUpdatesAreRetried() throws Exception {
+        final GradeTrackerImpl tracker = new GradeTrackerImpl();
+        tracker.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        GradeTrackerImpl other = new GradeTrackerImpl();
+        other.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        tracker.recordExamScore("teacher", "Sally", 90);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, tracker.teachersByName.get("teacher").getStudent("Sally").getTotals().getExamsCount());
+        // another tracker's writers never show up here
+        assertEquals(0, other.getMetrics().getContendedStudentUpdates());
+    }
+}
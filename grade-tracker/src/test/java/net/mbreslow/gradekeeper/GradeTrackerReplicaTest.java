@@ -0,0 +1,186 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for read replicas fed by journal shipping
+ */
+public class GradeTrackerReplicaTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Journal openJournal(String name, int regionSize) {
+        return Journal.open(new File(folder.getRoot(), name), SyncPolicy.everyRecords(1000), regionSize);
+    }
+
+    @Test
+    public void testReplicaFollowsPrimary() throws Exception {
+        Journal journal = openJournal("primary.journal", Journal.DEFAULT_REGION_SIZE);
+        GradeTrackerImpl primary = GradeTrackerImpl.builder().journal(journal).build();
+        JournalShipper shipper = new JournalShipper(journal);
+        GradeTrackerReplica replica = new GradeTrackerReplica(shipper.getAddress(), RosterLayout.COLUMNAR);
+        try {
+            ShardedGradeTrackerTest.populate(primary);
+            assertTrue(replica.awaitPosition(shipper.getPosition(), TIMEOUT_MILLIS));
+            ShardedGradeTrackerTest.assertSameGrades(primary, replica);
+            assertEquals(0, replica.getLagBytes());
+            assertEquals(0, replica.getLagMillis());
+            assertTrue(replica.isConnected());
+            assertEquals(1, shipper.getReplicaCount());
+
+            // a teacher moved away and back is replicated too
+            byte[] exported = primary.exportTeacher("teacher 3");
+            primary.removeTeacher("teacher 3");
+            assertTrue(replica.awaitPosition(shipper.getPosition(), TIMEOUT_MILLIS));
+            try {
+                replica.getClassStatistics("teacher 3");
+                fail("removed");
+            }
+            catch (ObjectNotFoundError expected) {
+            }
+            primary.importTeacher(exported);
+            assertTrue(replica.awaitPosition(shipper.getPosition(), TIMEOUT_MILLIS));
+            ShardedGradeTrackerTest.assertSameGrades(primary, replica);
+
+            try {
+                replica.recordExamScore("teacher 1", "student 1", 50);
+                fail("read-only");
+            }
+            catch (UnsupportedOperationException expected) {
+            }
+        }
+        finally {
+            replica.close();
+            shipper.close();
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testLargeBacklogShipsInCompressedFrames() throws Exception {
+        // small regions, so the backlog crosses region padding
+        Journal journal = openJournal("primary.journal", 64 << 10);
+        GradeTrackerImpl primary = GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR).journal(journal)
+                .build();
+        primary.addTeacher("Tom", new ScoringPreferences(0.4, 0.6, 2));
+        for (int i = 0; i < 50000; i++) {
+            primary.recordExamScore("Tom", "student " + (i % 5000), i % 101);
+        }
+        primary.closeGradingPeriod("Tom", "Q1");
+        primary.recordAssignmentScore("Tom", "student 7", 77);
+        JournalShipper shipper = new JournalShipper(journal);
+        GradeTrackerReplica replica = new GradeTrackerReplica(shipper.getAddress());
+        try {
+            assertTrue(replica.awaitPosition(shipper.getPosition(), TIMEOUT_MILLIS));
+            assertEquals(50003, replica.getAppliedRecords());
+            long journaled = shipper.getPosition() - journal.getStartPosition();
+            assertTrue(replica.getReceivedBytes() + " of " + journaled, replica.getReceivedBytes() < journaled / 3);
+            for (int s = 0; s < 5000; s += 97) {
+                String student = "student " + s;
+                assertEquals(primary.getStudentAverage("Tom", student), replica.getStudentAverage("Tom", student), 0);
+                assertEquals(primary.getPeriodAverage("Tom", student, "Q1"), replica.getPeriodAverage("Tom", student, "Q1"), 0);
+            }
+            assertEquals(primary.getTopStudents("Tom", 10).toString(), replica.getTopStudents("Tom", 10).toString());
+        }
+        finally {
+            replica.close();
+            shipper.close();
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testReplicaResumesAfterReconnecting() throws Exception {
+        Journal journal = openJournal("primary.journal", Journal.DEFAULT_REGION_SIZE);
+        GradeTrackerImpl primary = GradeTrackerImpl.builder().journal(journal).build();
+        primary.addTeacher("Tom", new ScoringPreferences(0.5, 0.5, 1));
+        primary.recordExamScore("Tom", "Sally", 90);
+        JournalShipper shipper = new JournalShipper(journal);
+        int port = Integer.parseInt(shipper.getAddress().substring(shipper.getAddress().lastIndexOf(':') + 1));
+        GradeTrackerReplica replica = new GradeTrackerReplica(shipper.getAddress());
+        try {
+            assertTrue(replica.awaitPosition(shipper.getPosition(), TIMEOUT_MILLIS));
+            shipper.close();
+            primary.recordExamScore("Tom", "Sally", 70);
+            primary.recordAssignmentScore("Tom", "Bob", 60);
+            assertFalse(replica.awaitPosition(journal.getPosition(), 200));
+            assertFalse(replica.isConnected());
+            assertTrue(replica.getLagMillis() > 0);
+            assertEquals(90, replica.getStudentAverage("Tom", "Sally"), 0);
+
+            final List<String> changes = new ArrayList<String>();
+            final CountDownLatch changed = new CountDownLatch(2);
+            replica.subscribe(new GradeChangeListener() {
+                @Override
+                public void averageChanged(String teacherName, String studentName, double average) {
+                    synchronized (changes) {
+                        changes.add(studentName + " " + average);
+                    }
+                    changed.countDown();
+                }
+
+                @Override
+                public void changesDropped() {
+                }
+            });
+            shipper = new JournalShipper(journal, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            assertTrue(replica.awaitPosition(shipper.getPosition(), TIMEOUT_MILLIS));
+            assertEquals(primary.getStudentAverage("Tom", "Sally"), replica.getStudentAverage("Tom", "Sally"), 0);
+            assertEquals(primary.getStudentAverage("Tom", "Bob"), replica.getStudentAverage("Tom", "Bob"), 0);
+            assertTrue(changed.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            synchronized (changes) {
+                assertTrue(changes.toString(), changes.contains("Bob " + primary.getStudentAverage("Tom", "Bob")));
+            }
+        }
+        finally {
+            replica.close();
+            shipper.close();
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testReplicaAheadOfThePrimaryFails() throws Exception {
+        Journal journal = openJournal("primary.journal", Journal.DEFAULT_REGION_SIZE);
+        GradeTrackerImpl primary = GradeTrackerImpl.builder().journal(journal).build();
+        ShardedGradeTrackerTest.populate(primary);
+        JournalShipper shipper = new JournalShipper(journal);
+        int port = Integer.parseInt(shipper.getAddress().substring(shipper.getAddress().lastIndexOf(':') + 1));
+        GradeTrackerReplica replica = new GradeTrackerReplica(shipper.getAddress());
+        Journal other = openJournal("other.journal", Journal.DEFAULT_REGION_SIZE);
+        try {
+            assertTrue(replica.awaitPosition(shipper.getPosition(), TIMEOUT_MILLIS));
+            shipper.close();
+            // a different, shorter journal on the same address
+            GradeTrackerImpl.builder().journal(other).build().addTeacher("Tom", new ScoringPreferences(0.5, 0.5, 1));
+            shipper = new JournalShipper(other, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (replica.getFailure() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertNotNull(replica.getFailure());
+            assertFalse(replica.awaitPosition(Long.MAX_VALUE, 10));
+            ShardedGradeTrackerTest.assertSameGrades(primary, replica);
+        }
+        finally {
+            replica.close();
+            shipper.close();
+            other.close();
+            journal.close();
+        }
+    }
+}
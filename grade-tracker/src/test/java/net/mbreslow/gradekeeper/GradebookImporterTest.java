@@ -0,0 +1,187 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the gradebook importer
+ */
+public class GradebookImporterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> failedRows = new ArrayList<String>();
+    private final List<Long> failedOffsets = new ArrayList<Long>();
+    private long lastBytesRead = 0;
+
+    private final GradebookImporter.Listener listener = new GradebookImporter.Listener() {
+        @Override
+        public void progress(long bytesRead, long totalBytes, long rowsImported) {
+            assertTrue(bytesRead >= lastBytesRead && bytesRead <= totalBytes);
+            lastBytesRead = bytesRead;
+        }
+
+        @Override
+        public void rowFailed(long offset, String row, RuntimeException error) {
+            failedOffsets.add(offset);
+            failedRows.add(row);
+        }
+    };
+
+    private File write(String contents) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), contents.getBytes(Charset.forName("UTF-8")));
+        return file;
+    }
+
+    @Test
+    public void testReadmeExample() throws Exception {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("Tom Teacherman", new ScoringPreferences(0.101, 0.899, 2));
+        File file = write("teacher,student,type,score\n" +
+                "Tom Teacherman,Sally Student,assignment,85\n" +
+                "Tom Teacherman,Sally Student,assignment,88\n" +
+                "Tom Teacherman,Sally Student,extra_credit,\n" +
+                "Tom Teacherman,Sally Student,assignment,92\n" +
+                "Tom Teacherman,Sally Student,exam,91\n");
+
+        ImportResult result = GradebookImporter.importFile(service, file, GradebookImporter.Format.CSV, 4, listener);
+
+        assertTrue(result.isSuccess());
+        assertEquals(5, result.getRowsImported());
+        assertEquals(file.length(), lastBytesRead);
+        double avg = service.getStudentAverage("Tom Teacherman", "Sally Student");
+        assertEquals(90.93, (double) Math.round(avg * 100) / 100, 0);
+    }
+
+    @Test
+    public void testFailedRows() throws Exception {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        String good = "teacher,Sally,exam,80\n";
+        String badType = "teacher,Sally,quiz,80\n";
+        String badScore = "teacher,Sally,exam,eighty\r\n";
+        String noTeacher = "nobody,Sally,exam,80\n";
+        String tooFew = "teacher,Sally\n";
+        File file = write(good + badType + badScore + "\n" + noTeacher + tooFew + good);
+
+        ImportResult result = GradebookImporter.importFile(service, file, GradebookImporter.Format.CSV, 1, listener);
+
+        assertEquals(2, result.getRowsImported());
+        assertEquals(4, result.getRowsFailed());
+        assertTrue(failedRows.contains("teacher,Sally,quiz,80"));
+        assertTrue(failedRows.contains("teacher,Sally,exam,eighty"));
+        assertTrue(failedRows.contains("nobody,Sally,exam,80"));
+        assertTrue(failedRows.contains("teacher,Sally"));
+        int noTeacherRow = failedRows.indexOf("nobody,Sally,exam,80");
+        assertEquals((long) (good + badType + badScore + "\n").length(), (long) failedOffsets.get(noTeacherRow));
+        assertEquals(80, service.getStudentAverage("teacher", "Sally"), 0);
+    }
+
+    @Test
+    public void testRejectsScoresThatAreNotFinite() throws Exception {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        String[] invalid = {"NaN", "Infinity", "-Infinity", "85f", "85D", "1e400", "0x1p6"};
+        StringBuilder contents = new StringBuilder("teacher,Sally,exam,80\n");
+        for (String score : invalid) {
+            contents.append("teacher,Sally,exam,").append(score).append('\n');
+        }
+        contents.append("teacher,Sally,exam,1.2e1\n");
+        File file = write(contents.toString());
+
+        ImportResult result = GradebookImporter.importFile(service, file, GradebookImporter.Format.CSV, 1, listener);
+
+        assertEquals(2, result.getRowsImported());
+        assertEquals(invalid.length, result.getRowsFailed());
+        for (String score : invalid) {
+            assertTrue(score, failedRows.contains("teacher,Sally,exam," + score));
+        }
+        assertEquals(46, service.getStudentAverage("teacher", "Sally"), 0);
+    }
+
+    @Test
+    public void testQuotedFieldsSpanLines() throws Exception {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            contents.append("teacher,\"Sally\n\"\"").append(i % 10).append("\"\"\r\nStudent\",exam,90\r\n");
+        }
+        File file = write(contents.toString());
+
+        // small chunks so boundaries fall inside quoted fields
+        ImportResult result = GradebookImporter.importFile(service, file, GradebookImporter.Format.CSV, 4, listener,
+                100);
+
+        assertTrue(failedRows.toString(), result.isSuccess());
+        assertEquals(1000, result.getRowsImported());
+        assertEquals(10, service.getClassStatistics("teacher").getStudentCount());
+        for (int i = 0; i < 10; i++) {
+            Student sally = service.teachersByName.get("teacher").getStudent("Sally\n\"" + i + "\"\r\nStudent");
+            assertEquals(100, sally.getTotals().getExamsCount());
+        }
+    }
+
+    @Test
+    public void testQuotedTsv() throws Exception {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("Teacherman, Tom", new ScoringPreferences(0.5, 0.5, 1));
+        File file = write("\"Teacherman, Tom\"\t\"Sally \"\"Sal\"\" Student\"\tEXAM\t 90.5 \n" +
+                "Teacherman, Tom\tSally \"Sal\" Student\tExtra_Credit\n" +
+                "Teacherman, Tom\tSally \"Sal\" Student\tassignment\t1e2\n");
+
+        ImportResult result = GradebookImporter.importFile(service, file, GradebookImporter.Format.TSV, 2, listener);
+
+        assertTrue(failedRows.toString(), result.isSuccess());
+        Student sally = service.teachersByName.get("Teacherman, Tom").getStudent("Sally \"Sal\" Student");
+        assertEquals(90.5, sally.getTotals().getExamsSum(), 0);
+        assertEquals(100, sally.getTotals().getAssignmentsSum(), 0);
+        assertEquals(1, sally.getTotals().getExtraCredits());
+    }
+
+    @Test
+    public void testParallelChunks() throws Exception {
+        GradeTrackerImpl service = new GradeTrackerImpl(RosterLayout.COLUMNAR);
+        service.addTeacher("a", new ScoringPreferences(0.5, 0.5, 1));
+        service.addTeacher("b", new ScoringPreferences(0.5, 0.5, 1));
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            contents.append(i % 2 == 0 ? "a" : "b").append(",student").append(i % 37).append(",exam,")
+                    .append(i % 100).append('.').append(i % 4 * 25).append('\n');
+        }
+        File file = write(contents.toString());
+
+        // small chunks so rows straddle many chunk boundaries
+        ImportResult result = GradebookImporter.importFile(service, file, GradebookImporter.Format.CSV, 4, listener,
+                1000);
+
+        assertTrue(result.isSuccess());
+        assertEquals(10000, result.getRowsImported());
+        assertEquals(file.length(), lastBytesRead);
+        double sum = 0;
+        int count = 0;
+        for (String teacher : new String[] {"a", "b"}) {
+            for (Student student : service.teachersByName.get(teacher).getStudents()) {
+                sum += student.getTotals().getExamsSum();
+                count += student.getTotals().getExamsCount();
+            }
+        }
+        double expected = 0;
+        for (int i = 0; i < 10000; i++) {
+            expected += Double.parseDouble((i % 100) + "." + (i % 4 * 25));
+        }
+        assertEquals(10000, count);
+        assertEquals(expected, sum, 1e-6);
+    }
+}
@@ -0,0 +1,201 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for grading policies and the scores they keep
+ */
+public class GradingPolicyTest {
+    private static final GradingPolicy POLICY = GradingPolicy.parse(
+            "drop-lowest exams 1; curve assignments 5; cap assignments 100");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParse() {
+        GradingPolicy policy = GradingPolicy.parse(" cap extra-credit 2\ncurve exams -2.5;drop-lowest assignments 3 ; ");
+        assertEquals("drop-lowest assignments 3; curve exams -2.5; cap extra-credit 2", policy.getDefinition());
+        assertEquals(policy, GradingPolicy.parse(policy.getDefinition()));
+        assertFalse(policy.isDefault());
+        assertSame(GradingPolicy.DEFAULT, GradingPolicy.parse(""));
+        assertSame(GradingPolicy.DEFAULT, GradingPolicy.parse("curve exams 0"));
+        assertEquals(GradingPolicy.DEFAULT, new ScoringPreferences(0.5, 0.5, 1).getPolicy());
+
+        ScoringPreferences preferences = new ScoringPreferences(0.5, 0.5, 1, policy);
+        assertFalse(preferences.equals(new ScoringPreferences(0.5, 0.5, 1)));
+        assertEquals(preferences, new ScoringPreferences(0.5, 0.5, 1, GradingPolicy.parse(policy.getDefinition())));
+    }
+
+    @Test
+    public void testRejectsInvalidRules() {
+        String[] invalid = {"drop-lowest exams", "drop-lowest exams 0", "drop-lowest exams 17", "drop-lowest exams 1.5",
+                "curve exams NaN", "cap assignments -1", "cap extra-credit -1", "curve homework 5",
+                "curve exams 1; curve exams 2", "bonus exams 5"};
+        for (String definition : invalid) {
+            try {
+                GradingPolicy.parse(definition);
+                fail(definition);
+            }
+            catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            new ScoringPreferences(0.5, 0.5, 1, null);
+            fail("The policy is required");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testScoring() {
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTrackerImpl service = new GradeTrackerImpl(layout);
+            service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 10, POLICY));
+            recordSample(service);
+            // exams 80 and 90 once 60 is dropped; assignments 95 plus 10 of extra credit and the curve, capped
+            assertEquals(layout.toString(), 92.5, service.getStudentAverage("teacher", "Sally"), 1e-9);
+            // a single score is never dropped
+            assertEquals(70, service.getStudentAverage("teacher", "Bob"), 1e-9);
+
+            service.addTeacher("credits", new ScoringPreferences(0.5, 0.5, 1, GradingPolicy.parse("cap extra-credit 2")));
+            service.recordAssignmentScore("credits", "Sally", 90);
+            for (int i = 0; i < 3; i++) {
+                service.recordExtraCredit("credits", "Sally");
+            }
+            assertEquals(92, service.getStudentAverage("credits", "Sally"), 1e-9);
+        }
+    }
+
+    @Test
+    public void testBatchesKeepLowestScores() {
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTrackerImpl service = new GradeTrackerImpl(layout);
+            service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1,
+                    GradingPolicy.parse("drop-lowest exams 2")));
+            service.recordScores(Arrays.asList(
+                    ScoreEvent.exam("teacher", "Bob", 90),
+                    ScoreEvent.exam("teacher", "Bob", 50),
+                    ScoreEvent.exam("teacher", "Bob", 100),
+                    ScoreEvent.exam("teacher", "Bob", 40)));
+            assertEquals(layout.toString(), 95, service.getStudentAverage("teacher", "Bob"), 1e-9);
+            // 40 and 45 are dropped now
+            service.recordScores(Arrays.asList(ScoreEvent.exam("teacher", "Bob", 45)));
+            assertEquals(80, service.getStudentAverage("teacher", "Bob"), 1e-9);
+        }
+    }
+
+    @Test
+    public void testScoresBeforeThePolicyAreNeverDropped() {
+        File file = new File(folder.getRoot(), "grades.snapshot");
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTrackerImpl service = new GradeTrackerImpl(layout);
+            service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+            service.recordAssignmentScore("teacher", "Sally", 10);
+            service.recordAssignmentScore("teacher", "Sally", 90);
+            service.updateTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1,
+                    GradingPolicy.parse("drop-lowest assignments 1")));
+            service.recordAssignmentScore("teacher", "Sally", 95);
+            // 95 is the lowest score kept, but 10 is lower, so nothing is dropped
+            assertEquals(layout.toString(), 65, service.getStudentAverage("teacher", "Sally"), 1e-9);
+            service.recordScores(Arrays.asList(ScoreEvent.assignment("teacher", "Sally", 85),
+                    ScoreEvent.assignment("teacher", "Sally", 80)));
+            assertEquals(72, service.getStudentAverage("teacher", "Sally"), 1e-9);
+
+            service.writeSnapshot(file);
+            GradeTrackerImpl restored = GradeTrackerImpl.builder().rosterLayout(layout).snapshot(file).build();
+            assertEquals(72, restored.getStudentAverage("teacher", "Sally"), 1e-9);
+
+            // the period does not drop them either, and the next one starts with every score kept
+            service.closeGradingPeriod("teacher", "Q1");
+            assertEquals(72, service.getPeriodAverage("teacher", "Sally", "Q1"), 1e-9);
+            service.recordAssignmentScore("teacher", "Sally", 70);
+            service.recordAssignmentScore("teacher", "Sally", 80);
+            assertEquals(80, service.getStudentAverage("teacher", "Sally"), 1e-9);
+        }
+    }
+
+    @Test
+    public void testJournalReplay() throws Exception {
+        File file = new File(folder.getRoot(), "grades.journal");
+        Journal journal = Journal.open(file, SyncPolicy.everyWrite());
+        GradeTrackerImpl service = GradeTrackerImpl.builder().journal(journal).build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 10, POLICY));
+        recordSample(service);
+        service.recordScores(Arrays.asList(ScoreEvent.exam("teacher", "Bob", 40), ScoreEvent.exam("teacher", "Bob", 50)));
+        double sally = service.getStudentAverage("teacher", "Sally");
+        double bob = service.getStudentAverage("teacher", "Bob");
+        journal.close();
+
+        for (RosterLayout layout : RosterLayout.values()) {
+            journal = Journal.open(file, SyncPolicy.everyWrite());
+            GradeTrackerImpl restored = GradeTrackerImpl.builder().rosterLayout(layout).journal(journal).build();
+            assertEquals(POLICY, restored.teachersByName.get("teacher").getScoringPreferences().getPolicy());
+            assertEquals(layout.toString(), sally, restored.getStudentAverage("teacher", "Sally"), 1e-9);
+            assertEquals(bob, restored.getStudentAverage("teacher", "Bob"), 1e-9);
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testSnapshotAndExport() {
+        File file = new File(folder.getRoot(), "grades.snapshot");
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 10, POLICY));
+        recordSample(service);
+        service.closeGradingPeriod("teacher", "Q1");
+        recordSample(service);
+        service.writeSnapshot(file);
+
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTrackerImpl restored = GradeTrackerImpl.builder().rosterLayout(layout).snapshot(file).build();
+            assertEquals(92.5, restored.getPeriodAverage("teacher", "Sally", "Q1"), 1e-9);
+            assertRestored(restored);
+
+            GradeTrackerImpl imported = new GradeTrackerImpl(layout);
+            imported.importTeacher(service.exportTeacher("teacher"));
+            assertRestored(imported);
+        }
+    }
+
+    @Test
+    public void testEvictedRostersKeepLowestScores() throws Exception {
+        for (RosterLayout layout : RosterLayout.values()) {
+            RosterTier tier = new RosterTier(folder.newFolder(), 0);
+            GradeTrackerImpl service = GradeTrackerImpl.builder().rosterLayout(layout).metricsSampleEvery(0)
+                    .rosterTier(tier).build();
+            service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 10, POLICY));
+            recordSample(service);
+            tier.trim();
+            assertRestored(service);
+        }
+    }
+
+    /**
+     * The restored lowest exam, 60, is dropped rather than a new one of 70
+     */
+    private static void assertRestored(GradeTrackerImpl restored) {
+        assertEquals(POLICY, restored.teachersByName.get("teacher").getScoringPreferences().getPolicy());
+        assertEquals(92.5, restored.getStudentAverage("teacher", "Sally"), 1e-9);
+        restored.recordExamScore("teacher", "Sally", 70);
+        assertEquals(0.5 * 80 + 0.5 * 100, restored.getStudentAverage("teacher", "Sally"), 1e-9);
+    }
+
+    private static void recordSample(GradeTrackerImpl service) {
+        service.recordExamScore("teacher", "Sally", 80);
+        service.recordExamScore("teacher", "Sally", 60);
+        service.recordExamScore("teacher", "Sally", 90);
+        service.recordAssignmentScore("teacher", "Sally", 90);
+        service.recordAssignmentScore("teacher", "Sally", 100);
+        service.recordExtraCredit("teacher", "Sally");
+        service.recordExamScore("teacher", "Bob", 70);
+    }
+}
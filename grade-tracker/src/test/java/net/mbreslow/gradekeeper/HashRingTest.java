@@ -0,0 +1,87 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the consistent-hash ring
+ */
+public class HashRingTest {
+    private static final int KEYS = 20000;
+
+    @Test
+    public void testSpreadsKeysEvenly() {
+        HashRing ring = new HashRing(Arrays.asList("a:1", "b:2", "c:3", "d:4"), HashRing.DEFAULT_VIRTUAL_NODES);
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < KEYS; i++) {
+            String node = ring.nodeFor("teacher " + i);
+            Integer count = counts.get(node);
+            counts.put(node, count == null ? 1 : count + 1);
+        }
+        assertEquals(4, counts.size());
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            // within 25% of an even share
+            assertTrue(count.toString(), Math.abs(count.getValue() - KEYS / 4) < KEYS / 16);
+        }
+    }
+
+    @Test
+    public void testAddingANodeMovesOnlyItsShare() {
+        HashRing before = new HashRing(Arrays.asList("a:1", "b:2", "c:3", "d:4"), HashRing.DEFAULT_VIRTUAL_NODES);
+        HashRing after = before.withNode("e:5");
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "teacher " + i;
+            String owner = after.nodeFor(key);
+            if (!owner.equals(before.nodeFor(key))) {
+                assertEquals("only the new node takes keys", "e:5", owner);
+                moved++;
+            }
+        }
+        // about a fifth of the keys
+        assertTrue(String.valueOf(moved), moved > KEYS / 8 && moved < KEYS / 4);
+
+        HashRing removed = after.withoutNode("e:5");
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(before.nodeFor("teacher " + i), removed.nodeFor("teacher " + i));
+        }
+    }
+
+    @Test
+    public void testOrderOfNodesDoesNotMatter() {
+        HashRing one = new HashRing(Arrays.asList("a:1", "b:2", "c:3"), 16);
+        HashRing other = new HashRing(Arrays.asList("c:3", "a:1", "b:2"), 16);
+        assertEquals(Arrays.asList("a:1", "b:2", "c:3"), other.getNodes());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(one.nodeFor("teacher " + i), other.nodeFor("teacher " + i));
+        }
+    }
+
+    @Test
+    public void testInvalidChanges() {
+        HashRing ring = new HashRing(Arrays.asList("a:1"), 4);
+        try {
+            ring.withNode("a:1");
+            fail("duplicate node");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+        try {
+            ring.withoutNode("b:2");
+            fail("missing node");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+        try {
+            ring.withoutNode("a:1").nodeFor("teacher");
+            fail("empty ring");
+        }
+        catch (IllegalStateException expected) {
+        }
+    }
+}
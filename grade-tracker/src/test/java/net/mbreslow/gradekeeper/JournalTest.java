@@ -0,0 +1,270 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the write-ahead journal
+ */
+public class JournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplayRestoresState() throws Exception {
+        File file = new File(folder.getRoot(), "grades.journal");
+        Journal journal = Journal.open(file, SyncPolicy.everyWrite());
+        GradeTrackerImpl service = GradeTrackerImpl.builder().journal(journal).build();
+        recordSample(service);
+        service.addTeacher("Mr. Other", new ScoringPreferences(0.5, 0.5, 1));
+        service.updateTeacher("Mr. Other", new ScoringPreferences(0.3, 0.7, 5));
+        service.recordScores(Arrays.asList(
+                ScoreEvent.exam("Mr. Other", "Bob", 70),
+                ScoreEvent.assignment("Mr. Other", "Bob", 90),
+                ScoreEvent.extraCredit("Mr. Other", "Bob")));
+        double sally = service.getStudentAverage("Tom Teacherman", "Sally Student");
+        double bob = service.getStudentAverage("Mr. Other", "Bob");
+        journal.close();
+
+        for (RosterLayout layout : RosterLayout.values()) {
+            Journal reopened = Journal.open(file, SyncPolicy.everyRecords(10));
+            GradeTrackerImpl restored = GradeTrackerImpl.builder().rosterLayout(layout).journal(reopened).build();
+            assertEquals(layout.toString(), sally, restored.getStudentAverage("Tom Teacherman", "Sally Student"), 0);
+            assertEquals(bob, restored.getStudentAverage("Mr. Other", "Bob"), 0);
+            assertEquals(2, restored.getClassStatistics("Tom Teacherman").getStudentCount());
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testReplayRestoresEventIds() throws Exception {
+        File file = new File(folder.getRoot(), "grades.journal");
+        Journal journal = Journal.open(file, SyncPolicy.everyWrite());
+        GradeTrackerImpl service = GradeTrackerImpl.builder().journal(journal).build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 90, "e1");
+        service.recordScores(Arrays.asList(
+                ScoreEvent.assignment("teacher", "Sally", 70).withEventId("e2"),
+                ScoreEvent.assignment("teacher", "Bob", 60).withEventId("e3"),
+                ScoreEvent.assignment("teacher", "Bob", 50)));
+        double sally = service.getStudentAverage("teacher", "Sally");
+        journal.close();
+
+        journal = Journal.open(file, SyncPolicy.everyWrite());
+        service = GradeTrackerImpl.builder().journal(journal).build();
+        assertEquals(sally, service.getStudentAverage("teacher", "Sally"), 0);
+        assertEquals(55, service.getStudentAverage("teacher", "Bob"), 0);
+        assertFalse(service.recordExamScore("teacher", "Sally", 0, "e1"));
+        BatchResult result = service.recordScores(Arrays.asList(
+                ScoreEvent.assignment("teacher", "Sally", 0).withEventId("e2"),
+                ScoreEvent.assignment("teacher", "Bob", 0).withEventId("e3"),
+                ScoreEvent.assignment("teacher", "Bob", 100).withEventId("e4")));
+        assertEquals(1, result.getAppliedCount());
+        assertEquals(2, result.getDuplicateCount());
+        journal.close();
+    }
+
+    @Test
+    public void testEventsTheJournalRejectedAreNotDuplicates() throws Exception {
+        File file = new File(folder.getRoot(), "grades.journal");
+        Journal journal = Journal.open(file, SyncPolicy.everyWrite());
+        GradeTrackerImpl service = GradeTrackerImpl.builder().journal(journal).build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 90, "e1");
+        journal.close();
+        try {
+            service.recordExamScore("teacher", "Sally", 80, "e2");
+            fail("Expected a JournalError");
+        }
+        catch (JournalError expected) {
+        }
+        try {
+            service.recordScores(Arrays.asList(
+                    ScoreEvent.exam("teacher", "Sally", 70).withEventId("e3"),
+                    ScoreEvent.exam("teacher", "Bob", 60).withEventId("e4")));
+            fail("Expected a JournalError");
+        }
+        catch (JournalError expected) {
+        }
+        assertEquals(90, service.getStudentAverage("teacher", "Sally"), 0);
+        EventWindow window = service.teachersByName.get("teacher").getEventWindow();
+        assertFalse(window.accept("e1"));
+        for (String retried : new String[] {"e2", "e3", "e4"}) {
+            assertTrue(retried, window.accept(retried));
+        }
+    }
+
+    @Test
+    public void testAppendAfterReopen() throws Exception {
+        File file = new File(folder.getRoot(), "grades.journal");
+        Journal journal = Journal.open(file, SyncPolicy.everyMillis(5));
+        GradeTrackerImpl service = GradeTrackerImpl.builder().journal(journal).build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "student", 50);
+        journal.close();
+
+        journal = Journal.open(file, SyncPolicy.everyWrite());
+        service = GradeTrackerImpl.builder().journal(journal).build();
+        service.recordExamScore("teacher", "student", 100);
+        journal.close();
+
+        journal = Journal.open(file, SyncPolicy.everyWrite());
+        service = GradeTrackerImpl.builder().journal(journal).build();
+        assertEquals(75, service.getStudentAverage("teacher", "student"), 0);
+        journal.close();
+    }
+
+    @Test
+    public void testRecordsSpanManyRegions() throws Exception {
+        File file = new File(folder.getRoot(), "grades.journal");
+        final int regionSize = 4096;
+        Journal journal = Journal.open(file, SyncPolicy.everyRecords(100), regionSize);
+        GradeTrackerImpl service = GradeTrackerImpl.builder().journal(journal).build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        final int scores = 5000;
+        for (int i = 0; i < scores; i++) {
+            service.recordExamScore("teacher", "student" + (i % 10), i % 100);
+        }
+        journal.close();
+        assertTrue(file.length() > regionSize * 10);
+
+        journal = Journal.open(file, SyncPolicy.everyWrite());
+        GradeTrackerImpl restored = GradeTrackerImpl.builder().journal(journal).build();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(service.getStudentAverage("teacher", "student" + i), restored.getStudentAverage("teacher", "student" + i), 0);
+        }
+        journal.close();
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws Exception {
+        File file = new File(folder.getRoot(), "grades.journal");
+        Journal journal = Journal.open(file, SyncPolicy.everyWrite());
+        GradeTrackerImpl service = GradeTrackerImpl.builder().journal(journal).build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "student", 50);
+        long intact = journal.getPosition();
+        service.recordExamScore("teacher", "student", 100);
+        journal.close();
+
+        // flip a byte in the payload of the last record, as a crash mid-write would
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(intact + Journal.RECORD_HEADER_SIZE + 3);
+        int b = raf.read();
+        raf.seek(intact + Journal.RECORD_HEADER_SIZE + 3);
+        raf.write(b ^ 0xff);
+        raf.close();
+
+        journal = Journal.open(file, SyncPolicy.everyWrite());
+        assertEquals(intact, journal.getPosition());
+        service = GradeTrackerImpl.builder().journal(journal).build();
+        assertEquals(50, service.getStudentAverage("teacher", "student"), 0);
+        service.recordExamScore("teacher", "student", 70);
+        journal.close();
+
+        journal = Journal.open(file, SyncPolicy.everyWrite());
+        service = GradeTrackerImpl.builder().journal(journal).build();
+        assertEquals(60, service.getStudentAverage("teacher", "student"), 0);
+        journal.close();
+    }
+
+    @Test
+    public void testRecordsArePublishedInClaimOrder() throws Exception {
+        File file = new File(folder.getRoot(), "grades.journal");
+        Journal journal = Journal.open(file, SyncPolicy.everyWrite());
+        journal.appendTeacher(Journal.ADD_TEACHER, "teacher", new ScoringPreferences(0.5, 0.5, 1));
+        long published = journal.getPosition();
+        Journal.Slot first = journal.claimScore(Journal.EXAM, "teacher", "Sally", 10);
+        final Journal.Slot second = journal.claimScore(Journal.EXAM, "teacher", "Sally", 90);
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                second.commit(1);
+            }
+        });
+        publisher.start();
+        publisher.join(200);
+        // the second record waits for the first
+        assertTrue(publisher.isAlive());
+        assertEquals(published, journal.getPosition());
+        first.abandon();
+        publisher.join();
+        assertTrue(journal.getPosition() > published);
+        journal.close();
+
+        journal = Journal.open(file, SyncPolicy.everyWrite());
+        GradeTrackerImpl restored = GradeTrackerImpl.builder().journal(journal).build();
+        ScoreTotals totals = restored.teachersByName.get("teacher").getStudent("Sally").getTotals();
+        assertEquals(1, totals.getExamsCount());
+        assertEquals(90, totals.getExamsSum(), 0);
+        journal.close();
+    }
+
+    @Test
+    public void testRecordNeverPublishedStopsTheJournal() throws Exception {
+        File file = new File(folder.getRoot(), "grades.journal");
+        Journal journal = Journal.open(file, SyncPolicy.everyWrite());
+        journal.publishTimeoutMillis = 100;
+        journal.appendTeacher(Journal.ADD_TEACHER, "teacher", new ScoringPreferences(0.5, 0.5, 1));
+        // claimed by a writer that never comes back
+        journal.claimScore(Journal.EXAM, "teacher", "Sally", 10);
+        try {
+            journal.claimScore(Journal.EXAM, "teacher", "Sally", 90).commit(1);
+            fail("The first record was never published");
+        }
+        catch (JournalError expected) {
+        }
+        try {
+            journal.appendTeacherRemoved("teacher");
+            fail("The journal stopped");
+        }
+        catch (JournalError expected) {
+            assertTrue(expected.getMessage().contains("never published"));
+        }
+        journal.close();
+    }
+
+    @Test
+    public void testRejectsOtherFiles() throws Exception {
+        File file = folder.newFile("not-a-journal");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeLong(12345);
+        raf.close();
+        try {
+            Journal.open(file, SyncPolicy.everyWrite());
+            fail("Expected a JournalError");
+        }
+        catch (JournalError e) {
+            assertEquals(file + " is not a grade tracker journal", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testVarints() throws Exception {
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(16);
+        for (int value : new int[]{0, 1, 127, 128, 300, 1 << 21, Integer.MAX_VALUE}) {
+            buffer.clear();
+            Journal.putVarint(buffer, value);
+            assertEquals(Journal.sizeOf(value), buffer.position());
+            buffer.flip();
+            assertEquals(value, Journal.getVarint(buffer));
+        }
+    }
+
+    private void recordSample(GradeTracker service) {
+        service.addTeacher("Tom Teacherman", new ScoringPreferences(0.101, 0.899, 2));
+        service.recordAssignmentScore("Tom Teacherman", "Sally Student", 85);
+        service.recordAssignmentScore("Tom Teacherman", "Sally Student", 88);
+        service.recordExtraCredit("Tom Teacherman", "Sally Student");
+        service.recordAssignmentScore("Tom Teacherman", "Sally Student", 92);
+        service.recordExamScore("Tom Teacherman", "Sally Student", 91);
+        service.recordExamScore("Tom Teacherman", "Sam Student", 75);
+    }
+}
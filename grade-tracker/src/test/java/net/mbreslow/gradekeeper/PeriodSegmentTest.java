@@ -0,0 +1,227 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for grading periods: closing, sealed segments, cross-period queries and recovery
+ */
+public class PeriodSegmentTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testClosePeriod() {
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTrackerImpl service = new GradeTrackerImpl(layout);
+            service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+            service.recordExamScore("teacher", "Sally", 80);
+            service.recordAssignmentScore("teacher", "Sally", 90);
+            service.recordExamScore("teacher", "Bob", 60);
+            service.closeGradingPeriod("teacher", "Q1");
+
+            assertEquals(Arrays.asList("Q1"), service.getGradingPeriods("teacher"));
+            assertEquals(85, service.getPeriodAverage("teacher", "Sally", "Q1"), 0);
+            assertEquals(60, service.getPeriodAverage("teacher", "Bob", "Q1"), 0);
+            ClassStatistics q1 = service.getPeriodStatistics("teacher", "Q1");
+            assertEquals(2, q1.getStudentCount());
+            assertEquals(72.5, q1.getAverage(), 0);
+            assertEquals(60, q1.getMinimum(), 0);
+            assertEquals(85, q1.getMaximum(), 0);
+
+            // the new period starts empty
+            assertEquals(0, service.getClassStatistics("teacher").getStudentCount());
+            service.recordExamScore("teacher", "Bob", 100);
+            assertEquals(100, service.getStudentAverage("teacher", "Bob"), 0);
+            assertEquals(1, service.getClassStatistics("teacher").getStudentCount());
+            assertEquals("Bob", service.getTopStudents("teacher", 1).get(0).getName());
+            assertEquals(60, service.getPeriodAverage("teacher", "Bob", "Q1"), 0);
+        }
+    }
+
+    @Test
+    public void testCombinedAverage() {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 80);
+        service.closeGradingPeriod("teacher", "Q1");
+        service.recordExamScore("teacher", "Sally", 100);
+        service.recordExamScore("teacher", "Sally", 100);
+        service.recordAssignmentScore("teacher", "Bob", 70);
+        service.closeGradingPeriod("teacher", "Q2");
+        service.recordExamScore("teacher", "Sally", 50);
+
+        // scores are combined, not averages: (80 + 100 + 100) / 3
+        assertEquals(280.0 / 3, service.getCombinedAverage("teacher", "Sally", Arrays.asList("Q1", "Q2"), false), 1e-9);
+        assertEquals(330.0 / 4, service.getCombinedAverage("teacher", "Sally", Arrays.asList("Q1", "Q2"), true), 1e-9);
+        assertEquals(50, service.getCombinedAverage("teacher", "Sally", Collections.<String>emptyList(), true), 0);
+        assertTrue(Double.isNaN(service.getCombinedAverage("teacher", "Bob", Arrays.asList("Q1"), true)));
+        assertTrue(Double.isNaN(service.getPeriodAverage("teacher", "Bob", "Q1")));
+        assertEquals(70, service.getCombinedAverage("teacher", "Bob", Arrays.asList("Q1", "Q2"), false), 0);
+    }
+
+    @Test
+    public void testSealedPeriodKeepsItsPreferences() {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 0));
+        service.recordExamScore("teacher", "Sally", 80);
+        service.recordAssignmentScore("teacher", "Sally", 100);
+        service.closeGradingPeriod("teacher", "Q1");
+        service.updateTeacher("teacher", new ScoringPreferences(0.2, 0.8, 0));
+
+        assertEquals(90, service.getPeriodAverage("teacher", "Sally", "Q1"), 1e-9);
+        assertEquals(84, service.getCombinedAverage("teacher", "Sally", Arrays.asList("Q1"), false), 1e-9);
+    }
+
+    @Test
+    public void testErrors() {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 80);
+        service.closeGradingPeriod("teacher", "Q1");
+        try {
+            service.closeGradingPeriod("teacher", "Q1");
+            fail("expected a NameCollisionError");
+        }
+        catch (NameCollisionError expected) {
+        }
+        try {
+            service.getPeriodAverage("teacher", "Sally", "Q2");
+            fail("expected an ObjectNotFoundError");
+        }
+        catch (ObjectNotFoundError expected) {
+        }
+        try {
+            service.closeGradingPeriod("nobody", "Q1");
+            fail("expected an ObjectNotFoundError");
+        }
+        catch (ObjectNotFoundError expected) {
+        }
+        assertEquals(Arrays.asList("Q1"), service.getGradingPeriods("teacher"));
+    }
+
+    @Test
+    public void testScoresRacingWithCloseLandInOnePeriod() throws Exception {
+        final GradeTrackerImpl service = new GradeTrackerImpl(RosterLayout.COLUMNAR);
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20000; i++) {
+                    service.recordExamScore("teacher", "student" + (i % 100), 90);
+                }
+            }
+        });
+        writer.start();
+        for (int p = 0; p < 5; p++) {
+            service.closeGradingPeriod("teacher", "P" + p);
+        }
+        writer.join();
+
+        Teacher teacher = service.teachersByName.get("teacher");
+        int total = 0;
+        for (Student student : teacher.getStudents()) {
+            total += student.getTotals().getExamsCount();
+            for (PeriodSegment period : teacher.getPeriods()) {
+                total += period.getTotals(student.getId()).getExamsCount();
+            }
+        }
+        assertEquals(20000, total);
+    }
+
+    @Test
+    public void testJournaledScoresRacingWithCloseReplayIntoTheirPeriods() throws Exception {
+        File file = new File(folder.getRoot(), "grades.journal");
+        Journal journal = Journal.open(file, SyncPolicy.everyRecords(1000));
+        final GradeTrackerImpl service = GradeTrackerImpl.builder().journal(journal).build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.addTeacher("other", new ScoringPreferences(0.5, 0.5, 1));
+        Thread[] writers = new Thread[2];
+        for (int w = 0; w < writers.length; w++) {
+            final String teacherName = w == 0 ? "teacher" : "other";
+            writers[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        service.recordExamScore(teacherName, "student" + (i % 100), i % 101);
+                    }
+                }
+            });
+            writers[w].start();
+        }
+        for (int p = 0; p < 5; p++) {
+            service.closeGradingPeriod("teacher", "P" + p);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        journal.close();
+
+        journal = Journal.open(file, SyncPolicy.everyWrite());
+        GradeTrackerImpl restored = GradeTrackerImpl.builder().journal(journal).build();
+        for (int i = 0; i < 100; i++) {
+            String student = "student" + i;
+            for (int p = 0; p < 5; p++) {
+                assertEquals(service.getPeriodAverage("teacher", student, "P" + p),
+                        restored.getPeriodAverage("teacher", student, "P" + p), 0);
+            }
+            assertEquals(service.getStudentAverage("teacher", student), restored.getStudentAverage("teacher", student), 0);
+            assertEquals(service.getStudentAverage("other", student), restored.getStudentAverage("other", student), 0);
+        }
+        journal.close();
+    }
+
+    @Test
+    public void testRecoverFromJournalAndSnapshot() {
+        File journalFile = new File(folder.getRoot(), "grades.journal");
+        File snapshotFile = new File(folder.getRoot(), "grades.snapshot");
+        Journal journal = Journal.open(journalFile, SyncPolicy.everyRecords(10));
+        GradeTrackerImpl service = GradeTrackerImpl.builder().journal(journal).build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 80);
+        service.recordExamScore("teacher", "Bob", 70);
+        service.closeGradingPeriod("teacher", "Q1");
+        service.recordExamScore("teacher", "Sally", 90);
+        service.writeSnapshot(snapshotFile);
+        service.recordExamScore("teacher", "Sally", 100);
+        service.closeGradingPeriod("teacher", "Q2");
+        service.recordExamScore("teacher", "Sally", 60);
+        service.recordScores(Arrays.asList(ScoreEvent.exam("teacher", "Bob", 40)));
+        journal.close();
+
+        for (RosterLayout layout : RosterLayout.values()) {
+            for (File snapshot : new File[] {null, snapshotFile}) {
+                journal = Journal.open(journalFile, SyncPolicy.everyWrite());
+                GradeTrackerImpl restored = GradeTrackerImpl.builder().rosterLayout(layout).journal(journal)
+                        .snapshot(snapshot).build();
+                assertEquals(Arrays.asList("Q1", "Q2"), restored.getGradingPeriods("teacher"));
+                assertEquals(80, restored.getPeriodAverage("teacher", "Sally", "Q1"), 0);
+                assertEquals(95, restored.getPeriodAverage("teacher", "Sally", "Q2"), 0);
+                assertTrue(Double.isNaN(restored.getPeriodAverage("teacher", "Bob", "Q2")));
+                assertEquals(60, restored.getStudentAverage("teacher", "Sally"), 0);
+                assertEquals(40, restored.getStudentAverage("teacher", "Bob"), 0);
+                assertEquals(2, restored.getClassStatistics("teacher").getStudentCount());
+                journal.close();
+            }
+        }
+
+        // and from a snapshot that already has both periods
+        journal = Journal.open(journalFile, SyncPolicy.everyWrite());
+        GradeTrackerImpl restored = GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR).journal(journal)
+                .snapshot(snapshotFile).build();
+        restored.writeSnapshot(snapshotFile);
+        journal.close();
+        GradeTrackerImpl fromSnapshot = GradeTrackerImpl.builder().snapshot(snapshotFile).build();
+        assertEquals(Arrays.asList("Q1", "Q2"), fromSnapshot.getGradingPeriods("teacher"));
+        assertEquals(95, fromSnapshot.getPeriodAverage("teacher", "Sally", "Q2"), 0);
+        assertEquals(70, fromSnapshot.getPeriodAverage("teacher", "Bob", "Q1"), 0);
+        assertEquals(60, fromSnapshot.getStudentAverage("teacher", "Sally"), 0);
+    }
+}
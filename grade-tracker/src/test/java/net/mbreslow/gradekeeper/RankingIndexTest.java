@@ -0,0 +1,194 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the order-statistic ranking index
+ */
+public class RankingIndexTest {
+    @Test
+    public void testMatchesSortedArrayUnderRandomUpdates() throws Exception {
+        Random random = new Random(42);
+        final int numStudents = 300;
+        RankingIndex index = new RankingIndex();
+        Student[] students = new Student[numStudents];
+        double[] averages = new double[numStudents];
+        for (int i = 0; i < numStudents; i++) {
+            students[i] = new Student("student" + i, i);
+            averages[i] = random.nextInt(50);
+            index.insert(averages[i], students[i]);
+        }
+        for (int round = 0; round < 2000; round++) {
+            int i = random.nextInt(numStudents);
+            index.remove(averages[i], i);
+            averages[i] = random.nextInt(50);
+            index.insert(averages[i], students[i]);
+            if (round % 100 == 0) {
+                assertMatches(index, students, averages);
+            }
+        }
+        assertMatches(index, students, averages);
+    }
+
+    @Test
+    public void testRebuild() throws Exception {
+        final int numStudents = 1000;
+        Student[] students = new Student[numStudents];
+        double[] averages = new double[numStudents];
+        Random random = new Random(7);
+        for (int i = 0; i < numStudents; i++) {
+            students[i] = new Student("student" + i, i);
+            averages[i] = random.nextDouble() * 100;
+        }
+        RankingIndex index = new RankingIndex();
+        index.insert(5, new Student("discarded", numStudents));
+        index.rebuild(averages, students, numStudents);
+        assertMatches(index, students, averages);
+        index.remove(averages[0], 0);
+        assertEquals(numStudents - 1, index.size());
+    }
+
+    @Test
+    public void testRanksAndPercentiles() throws Exception {
+        RankingIndex index = new RankingIndex();
+        Student a = new Student("a", 0);
+        Student b = new Student("b", 1);
+        Student c = new Student("c", 2);
+        Student d = new Student("d", 3);
+        index.insert(70, a);
+        index.insert(90, b);
+        index.insert(90, c);
+        index.insert(50, d);
+
+        RankedStudent rankB = index.rank(b, 90);
+        assertEquals(1, rankB.getRank());
+        assertEquals(75, rankB.getPercentile(), 0);
+        assertEquals(1, index.rank(c, 90).getRank());
+        assertEquals(3, index.rank(a, 70).getRank());
+        assertEquals(4, index.rank(d, 50).getRank());
+        assertEquals(12.5, index.rank(d, 50).getPercentile(), 0);
+
+        List<RankedStudent> top = index.top(3);
+        assertEquals(3, top.size());
+        assertEquals(90, top.get(0).getAverage(), 0);
+        assertEquals(90, top.get(1).getAverage(), 0);
+        assertEquals("a", top.get(2).getName());
+        assertEquals(Arrays.asList("d", "a"), names(index.bottom(2)));
+        assertEquals(1, top.get(1).getRank());
+        assertEquals(75, top.get(1).getPercentile(), 0);
+        assertEquals(3, top.get(2).getRank());
+        assertEquals(1, index.bottom(4).get(3).getRank());
+        assertEquals(0, index.top(0).size());
+        assertEquals(4, index.top(10).size());
+    }
+
+    @Test
+    public void testGradeTrackerQueries() throws Exception {
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTracker service = new GradeTrackerImpl(layout);
+            service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 2));
+            for (int i = 1; i <= 10; i++) {
+                service.recordExamScore("teacher", "student" + i, i * 10);
+            }
+            assertEquals(layout.toString(), 1, service.getStudentRank("teacher", "student10").getRank());
+            assertEquals(10, service.getStudentRank("teacher", "student1").getRank());
+            assertEquals(90, service.getPercentile("teacher", 90), 0);
+            assertEquals(50, service.getPercentile("teacher", 50), 0);
+            assertEquals(100, service.getPercentile("teacher", 100), 0);
+            assertEquals(Arrays.asList("student10", "student9", "student8"), names(service.getTopStudents("teacher", 3)));
+            assertEquals(Arrays.asList("student1", "student2"), names(service.getBottomStudents("teacher", 2)));
+
+            service.recordExamScore("teacher", "student1", 1000);
+            assertEquals(1, service.getStudentRank("teacher", "student1").getRank());
+            assertEquals(2, service.getStudentRank("teacher", "student10").getRank());
+
+            // assignments count for most of the grade now, which reorders the class
+            service.recordAssignmentScore("teacher", "student2", 200);
+            service.updateTeacher("teacher", new ScoringPreferences(0.9, 0.1, 2));
+            assertEquals(1, service.getStudentRank("teacher", "student1").getRank());
+            assertEquals(2, service.getStudentRank("teacher", "student2").getRank());
+        }
+    }
+
+    @Test
+    public void testGradeTrackerErrors() throws Exception {
+        GradeTracker service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 2));
+        assertTrue(Double.isNaN(service.getPercentile("teacher", 90)));
+        try {
+            service.getStudentRank("teacher", "nobody");
+            fail("Expected to get ObjectNotFoundError");
+        }
+        catch (ObjectNotFoundError e) {
+            assertEquals("No student found for name nobody for teacher teacher", e.getMessage());
+        }
+        try {
+            service.getPercentile("teacher", 0);
+            fail("Expected to get IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            service.getTopStudents("teacher", -1);
+            fail("Expected to get IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals("count (-1) must not be negative", e.getMessage());
+        }
+        try {
+            service.getBottomStudents("teacher", -1);
+            fail("Expected to get IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals("count (-1) must not be negative", e.getMessage());
+        }
+    }
+
+    private void assertMatches(RankingIndex index, Student[] students, double[] averages) {
+        double[] sorted = averages.clone();
+        Arrays.sort(sorted);
+        assertEquals(sorted.length, index.size());
+        for (int k = 0; k < sorted.length; k++) {
+            assertEquals(sorted[k], index.select(k), 0);
+        }
+        for (int i = 0; i < students.length; i++) {
+            int above = 0;
+            for (double other : averages) {
+                if (other > averages[i]) {
+                    above++;
+                }
+            }
+            assertEquals(above + 1, index.rank(students[i], averages[i]).getRank());
+        }
+        List<RankedStudent> top = index.top(students.length);
+        List<RankedStudent> bottom = index.bottom(students.length);
+        for (int k = 0; k < sorted.length; k++) {
+            assertEquals(sorted[sorted.length - 1 - k], top.get(k).getAverage(), 0);
+            assertRankedLike(index, top.get(k), students);
+            assertRankedLike(index, bottom.get(k), students);
+        }
+    }
+
+    private void assertRankedLike(RankingIndex index, RankedStudent listed, Student[] students) {
+        int id = Integer.parseInt(listed.getName().substring("student".length()));
+        RankedStudent ranked = index.rank(students[id], listed.getAverage());
+        assertEquals(ranked.getRank(), listed.getRank());
+        assertEquals(ranked.getPercentile(), listed.getPercentile(), 0);
+    }
+
+    private List<String> names(List<RankedStudent> students) {
+        List<String> names = new ArrayList<String>();
+        for (RankedStudent student : students) {
+            names.add(student.getName());
+        }
+        return names;
+    }
+}
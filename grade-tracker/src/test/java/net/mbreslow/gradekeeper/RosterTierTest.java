@@ -0,0 +1,269 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for evicting rosters to disk
+ */
+public class RosterTierTest {
+    private static final String[] TEACHERS = {"alpha", "bravo", "charlie"};
+    private static final int STUDENTS = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void populate(GradeTracker service) {
+        for (int t = 0; t < TEACHERS.length; t++) {
+            service.addTeacher(TEACHERS[t], new ScoringPreferences(0.4, 0.6, t + 1));
+            for (int s = 0; s < STUDENTS; s++) {
+                service.recordAssignmentScore(TEACHERS[t], "student " + s, (s * 7 + t) % 101);
+                service.recordExamScore(TEACHERS[t], "student " + s, (s * 13 + t) % 101);
+            }
+            service.closeGradingPeriod(TEACHERS[t], "Q1");
+            for (int s = 0; s < STUDENTS; s += 2) {
+                service.recordExamScore(TEACHERS[t], "student " + s, (s * 3 + t) % 101);
+                if (s % 10 == 0) {
+                    service.recordExtraCredit(TEACHERS[t], "student " + s);
+                }
+            }
+        }
+    }
+
+    private static void assertSameGrades(GradeTracker expected, GradeTracker actual) {
+        for (String teacher : TEACHERS) {
+            for (int s = 0; s < STUDENTS; s++) {
+                String student = "student " + s;
+                assertEquals(expected.getStudentAverage(teacher, student), actual.getStudentAverage(teacher, student), 0);
+                assertEquals(expected.getPeriodAverage(teacher, student, "Q1"),
+                        actual.getPeriodAverage(teacher, student, "Q1"), 0);
+            }
+            assertSameStatistics(expected.getClassStatistics(teacher), actual.getClassStatistics(teacher));
+            assertSameStatistics(expected.getPeriodStatistics(teacher, "Q1"), actual.getPeriodStatistics(teacher, "Q1"));
+            assertEquals(expected.getTopStudents(teacher, 5).toString(), actual.getTopStudents(teacher, 5).toString());
+            assertEquals(expected.getGradingPeriods(teacher), actual.getGradingPeriods(teacher));
+        }
+    }
+
+    private static void assertSameStatistics(ClassStatistics expected, ClassStatistics actual) {
+        assertEquals(expected.getStudentCount(), actual.getStudentCount());
+        // a reloaded class sums the averages in a different order
+        assertEquals(expected.getAverage(), actual.getAverage(), 1e-9);
+        assertEquals(expected.getMinimum(), actual.getMinimum(), 0);
+        assertEquals(expected.getMaximum(), actual.getMaximum(), 0);
+    }
+
+    private static boolean isEvicted(GradeTrackerImpl service, String teacher) {
+        return !service.teachersByName.get(teacher).isLoaded();
+    }
+
+    @Test
+    public void testEvictsToBudgetAndFaultsBackIn() throws Exception {
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTrackerImpl expected = new GradeTrackerImpl(layout);
+            populate(expected);
+            long oneRoster = expected.teachersByName.get("alpha").estimateHeapBytes();
+
+            RosterTier tier = new RosterTier(folder.newFolder(), oneRoster);
+            GradeTrackerImpl service = GradeTrackerImpl.builder().rosterLayout(layout).metricsSampleEvery(0)
+                    .rosterTier(tier).build();
+            populate(service);
+            tier.trim();
+            assertTrue(tier.getResidentBytes() <= oneRoster);
+            assertTrue(isEvicted(service, "alpha"));
+            assertTrue(isEvicted(service, "bravo"));
+            RosterTierSnapshot snapshot = tier.getSnapshot();
+            assertEquals(1, snapshot.getResidentTeachers());
+            assertEquals(2, snapshot.getEvictedTeachers());
+            assertTrue(snapshot.getDiskBytes() > 0);
+            assertNull(tier.getLastError());
+
+            assertSameGrades(expected, service);
+            // writes to an evicted teacher land in the reloaded roster
+            service.recordExamScore("alpha", "student 1", 100);
+            service.recordExamScore("alpha", "newcomer", 90);
+            expected.recordExamScore("alpha", "student 1", 100);
+            expected.recordExamScore("alpha", "newcomer", 90);
+            assertEquals(expected.getStudentAverage("alpha", "student 1"), service.getStudentAverage("alpha", "student 1"), 0);
+            assertEquals(90, service.getStudentAverage("alpha", "newcomer"), 0);
+            assertEquals(expected.getStudentRank("alpha", "newcomer").getRank(),
+                    service.getStudentRank("alpha", "newcomer").getRank());
+            assertTrue(tier.getResidentBytes() <= oneRoster);
+        }
+    }
+
+    @Test
+    public void testHitMissAndEvictionCounts() throws Exception {
+        RosterTier tier = new RosterTier(folder.newFolder(), 0);
+        GradeTrackerImpl service = GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR).metricsSampleEvery(0)
+                .rosterTier(tier).build();
+        service.addTeacher("alpha", new ScoringPreferences(0.5, 0.5, 1));
+        service.addTeacher("bravo", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("alpha", "Sally", 80);
+        service.recordExamScore("bravo", "Sam", 70);
+        tier.trim();
+        RosterTierSnapshot before = tier.getSnapshot();
+        assertEquals(2, before.getEvictedTeachers());
+        assertEquals(0, before.getResidentBytes());
+        assertEquals(2, before.getHits());
+        assertEquals(0, before.getMisses());
+        assertEquals(2, before.getEvictions());
+
+        // each use faults the roster in, and the budget of 0 evicts it again once the operation finishes
+        assertEquals(80, service.getStudentAverage("alpha", "Sally"), 0);
+        assertEquals(80, service.getStudentAverage("alpha", "Sally"), 0);
+        RosterTierSnapshot after = service.getMetrics().getRosterTier();
+        assertEquals(2, after.getHits());
+        assertEquals(2, after.getMisses());
+        assertEquals(4, after.getEvictions());
+        assertEquals(0.5, after.getHitRate(), 0);
+        assertEquals(Integer.valueOf(1), service.getMetrics().getRosterSizes().get("alpha"));
+        assertNull(new GradeTrackerImpl().getMetrics().getRosterTier());
+    }
+
+    @Test
+    public void testHandlesFollowEvictedStudents() throws Exception {
+        RosterTier tier = new RosterTier(folder.newFolder(), 0);
+        GradeTrackerImpl service = GradeTrackerImpl.builder().metricsSampleEvery(0).rosterTier(tier).build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sam", 50);
+        StudentHandle sally = service.resolveStudent("teacher", "Sally");
+        sally.recordExamScore(80);
+        tier.trim();
+        assertTrue(isEvicted(service, "teacher"));
+        sally.recordExamScore(90);
+        assertEquals(85, sally.getAverage(), 0);
+        assertEquals(85, service.getStudentAverage("teacher", "Sally"), 0);
+        assertEquals(1, sally.getRank().getRank());
+        assertEquals(2, service.getClassStatistics("teacher").getStudentCount());
+    }
+
+    @Test
+    public void testHistoryIsNeverEvicted() throws Exception {
+        RosterTier tier = new RosterTier(folder.newFolder(), 0);
+        GradeTrackerImpl service = GradeTrackerImpl.builder().retainHistory(true).metricsSampleEvery(0).rosterTier(tier)
+                .build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 80);
+        tier.trim();
+        assertFalse(isEvicted(service, "teacher"));
+        assertEquals(0, tier.getSnapshot().getEvictions());
+    }
+
+    @Test
+    public void testSnapshotOfEvictedRosters() throws Exception {
+        File snapshotFile = new File(folder.getRoot(), "grades.snapshot");
+        GradeTrackerImpl expected = new GradeTrackerImpl(RosterLayout.COLUMNAR);
+        populate(expected);
+        RosterTier tier = new RosterTier(folder.newFolder(), 0);
+        GradeTrackerImpl service = GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR).metricsSampleEvery(0)
+                .rosterTier(tier).build();
+        populate(service);
+        tier.trim();
+        assertEquals(TEACHERS.length, tier.getSnapshot().getEvictedTeachers());
+        long misses = tier.getSnapshot().getMisses();
+        service.writeSnapshot(snapshotFile);
+        // the evicted sections are copied without decoding them
+        assertEquals(misses, tier.getSnapshot().getMisses());
+        assertEquals(TEACHERS.length, tier.getSnapshot().getEvictedTeachers());
+
+        assertSameGrades(expected, GradeTrackerImpl.builder().snapshot(snapshotFile).build());
+        // a tiered service restored from a snapshot evicts the rosters it decodes
+        RosterTier restoredTier = new RosterTier(folder.newFolder(), 0);
+        GradeTrackerImpl restored = GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR)
+                .snapshot(snapshotFile).metricsSampleEvery(0).rosterTier(restoredTier).build();
+        assertSameGrades(expected, restored);
+        assertEquals(0, restoredTier.getResidentBytes());
+    }
+
+    @Test
+    public void testSegmentsDeletedOnceReadBack() throws Exception {
+        File directory = folder.newFolder();
+        assertTrue(new File(directory, "roster-7.seg").createNewFile());
+        RosterTier tier = new RosterTier(directory, 0, 1);
+        assertEquals(0, directory.list().length);
+        GradeTrackerImpl service = GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR).metricsSampleEvery(0)
+                .rosterTier(tier).build();
+        populate(service);
+        tier.trim();
+        List<String> evicted = Arrays.asList(directory.list());
+        assertEquals(TEACHERS.length, evicted.size());
+        for (String teacher : TEACHERS) {
+            // read back, then evicted again into a new segment by the budget of 0
+            service.getClassStatistics(teacher);
+        }
+        List<String> remaining = Arrays.asList(directory.list());
+        assertEquals(remaining.toString(), TEACHERS.length, remaining.size());
+        for (String segment : evicted) {
+            assertFalse(segment, remaining.contains(segment));
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersWhileEvicting() throws Exception {
+        for (RosterLayout layout : RosterLayout.values()) {
+            final RosterTier tier = new RosterTier(folder.newFolder(), 0);
+            final GradeTrackerImpl service = GradeTrackerImpl.builder().rosterLayout(layout).metricsSampleEvery(0)
+                    .rosterTier(tier).build();
+            for (String teacher : TEACHERS) {
+                service.addTeacher(teacher, new ScoringPreferences(0.5, 0.5, 1));
+            }
+            final AtomicBoolean done = new AtomicBoolean();
+            Thread evictor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!done.get()) {
+                        tier.trim();
+                    }
+                }
+            });
+            evictor.start();
+            Thread[] writers = new Thread[4];
+            for (int w = 0; w < writers.length; w++) {
+                final int writer = w;
+                writers[w] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        StudentHandle handle = service.resolveStudent(TEACHERS[writer % TEACHERS.length], "handle " + writer);
+                        for (int i = 0; i < 2000; i++) {
+                            service.recordExamScore(TEACHERS[i % TEACHERS.length], "student " + (i % 50), 100);
+                            handle.recordAssignmentScore(100);
+                            while (i == 1000 && tier.getSnapshot().getEvictions() == 0) {
+                                // on a single core the writers could otherwise finish before the evictor ever runs
+                                Thread.yield();
+                            }
+                        }
+                    }
+                });
+                writers[w].start();
+            }
+            for (Thread thread : writers) {
+                thread.join();
+            }
+            done.set(true);
+            evictor.join();
+            assertNull(tier.getLastError());
+            assertTrue(tier.getSnapshot().getEvictions() > 0);
+
+            long exams = 0;
+            long assignments = 0;
+            for (String teacher : TEACHERS) {
+                for (Student student : service.teachersByName.get(teacher).getStudents()) {
+                    exams += student.getTotals().getExamsCount();
+                    assignments += student.getTotals().getAssignmentsCount();
+                }
+                assertEquals(100, service.getClassStatistics(teacher).getAverage(), 0);
+            }
+            assertEquals(writers.length * 2000, exams);
+            assertEquals(writers.length * 2000, assignments);
+        }
+    }
+}
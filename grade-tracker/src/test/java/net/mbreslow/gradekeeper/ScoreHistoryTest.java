@@ -0,0 +1,137 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for compact score history
+ */
+public class ScoreHistoryTest {
+
+    @Test
+    public void testScoresReadBackExactly() {
+        ScoreHistory history = new ScoreHistory();
+        double[] scores = {0, 90.93, 100, 327.65, 327.66, -5, 1.0 / 3, 85.5, Double.NaN};
+        for (double score : scores) {
+            history.append(7, ScoreType.EXAM, score);
+            history.append(7, ScoreType.ASSIGNMENT, score);
+        }
+        history.append(7, ScoreType.EXTRA_CREDIT, 0);
+
+        List<String> expected = new ArrayList<String>();
+        for (double score : scores) {
+            expected.add("EXAM " + score);
+            expected.add("ASSIGNMENT " + score);
+        }
+        expected.add("EXTRA_CREDIT 0.0");
+        assertEquals(expected, collect(history, 7));
+        assertEquals(scores.length * 2 + 1, history.getScoreCount());
+    }
+
+    @Test
+    public void testStudentsSpanManyBlocks() {
+        ScoreHistory history = new ScoreHistory();
+        final int students = 3000;
+        final int scores = 100;
+        for (int i = 0; i < scores; i++) {
+            for (int id = 0; id < students; id++) {
+                history.append(id, ScoreType.ASSIGNMENT, (id + i) % 101);
+            }
+        }
+        for (int id = 0; id < students; id += 499) {
+            List<String> actual = collect(history, id);
+            assertEquals(scores, actual.size());
+            for (int i = 0; i < scores; i++) {
+                assertEquals("ASSIGNMENT " + (double) ((id + i) % 101), actual.get(i));
+            }
+        }
+        assertTrue(collect(history, students + 5000).isEmpty());
+        // 2 bytes per score plus block links and partly filled blocks
+        assertTrue(history.getRetainedBytes() < 3L * students * scores);
+    }
+
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        final ScoreHistory history = new ScoreHistory();
+        final int perThread = 10000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        history.append(id, ScoreType.EXAM, i % 100);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int id = 0; id < threads.length; id++) {
+            List<String> scores = collect(history, id);
+            assertEquals(perThread, scores.size());
+            assertEquals("EXAM 99.0", scores.get(perThread - 1));
+        }
+    }
+
+    @Test
+    public void testServiceHistory() {
+        GradeTrackerImpl service = GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR).retainHistory(true)
+                .build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 80);
+        service.recordScores(Arrays.asList(
+                ScoreEvent.assignment("teacher", "Bob", 70),
+                ScoreEvent.assignment("teacher", "Sally", 95),
+                ScoreEvent.extraCredit("teacher", "Sally")));
+
+        final List<String> sally = new ArrayList<String>();
+        service.visitStudentHistory("teacher", "Sally", new ScoreHistoryVisitor() {
+            @Override
+            public void score(String studentName, ScoreType type, double score) {
+                sally.add(studentName + " " + type + " " + score);
+            }
+        });
+        assertEquals(Arrays.asList("Sally EXAM 80.0", "Sally ASSIGNMENT 95.0", "Sally EXTRA_CREDIT 0.0"), sally);
+
+        final int[] count = new int[1];
+        service.visitClassHistory("teacher", new ScoreHistoryVisitor() {
+            @Override
+            public void score(String studentName, ScoreType type, double score) {
+                count[0]++;
+            }
+        });
+        assertEquals(4, count[0]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testHistoryNotRetained() {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 80);
+        service.visitClassHistory("teacher", new ScoreHistoryVisitor() {
+            @Override
+            public void score(String studentName, ScoreType type, double score) {
+            }
+        });
+    }
+
+    private static List<String> collect(ScoreHistory history, int id) {
+        final List<String> scores = new ArrayList<String>();
+        history.visit(id, "student", new ScoreHistoryVisitor() {
+            @Override
+            public void score(String studentName, ScoreType type, double score) {
+                scores.add(type + " " + score);
+            }
+        });
+        return scores;
+    }
+}
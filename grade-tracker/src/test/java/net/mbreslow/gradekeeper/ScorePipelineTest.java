@@ -0,0 +1,142 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ring-buffer ingestion pipeline
+ */
+public class ScorePipelineTest {
+    private GradeTrackerImpl service = GradeTrackerImpl.builder().retainHistory(true).build();
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final int teachers = 3;
+        final int perThread = 5000;
+        for (int t = 0; t < teachers; t++) {
+            service.addTeacher("teacher" + t, new ScoringPreferences(0.5, 0.5, 1));
+        }
+        final ScorePipeline pipeline = ScorePipeline.start(service, 64, 2, WaitStrategy.BACK_OFF, null);
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            final int producer = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        pipeline.publish(ScoreType.EXAM, "teacher" + (i % teachers), "student" + producer, 80);
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        pipeline.close();
+
+        assertEquals(0, pipeline.getFailedCount());
+        final int[] scores = new int[1];
+        for (int t = 0; t < teachers; t++) {
+            assertEquals(producers.length, service.getClassStatistics("teacher" + t).getStudentCount());
+            service.visitClassHistory("teacher" + t, new ScoreHistoryVisitor() {
+                @Override
+                public void score(String studentName, ScoreType type, double score) {
+                    scores[0]++;
+                }
+            });
+        }
+        assertEquals(producers.length * perThread, scores[0]);
+    }
+
+    @Test
+    public void testScoresApplyInPublishOrder() {
+        service.addTeacher("teacher", new ScoringPreferences(0, 1, 1));
+        ScorePipeline pipeline = ScorePipeline.start(service, 4, 3, WaitStrategy.YIELD, null);
+        // wraps the 4 slot ring many times
+        for (int i = 1; i <= 1000; i++) {
+            pipeline.publish(ScoreType.ASSIGNMENT, "teacher", "student", i);
+        }
+        pipeline.flush();
+        assertEquals(500.5, service.getStudentAverage("teacher", "student"), 1e-9);
+        pipeline.publish(ScoreType.EXTRA_CREDIT, "teacher", "student", 0);
+        pipeline.flush();
+        assertEquals(501.5, service.getStudentAverage("teacher", "student"), 1e-9);
+        pipeline.close();
+    }
+
+    @Test
+    public void testFailuresAreReported() {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        final List<String> failed = new ArrayList<String>();
+        ScorePipeline pipeline = ScorePipeline.start(service, 16, 1, WaitStrategy.BACK_OFF,
+                new ScorePipeline.FailureHandler() {
+                    @Override
+                    public void eventFailed(ScoreType type, String teacherName, String studentName, double score,
+                                            RuntimeException error) {
+                        assertTrue(error instanceof ObjectNotFoundError);
+                        failed.add(teacherName + " " + studentName);
+                    }
+                });
+        pipeline.publish(ScoreType.EXAM, "nobody", "Sally", 80);
+        pipeline.publish(ScoreType.EXAM, "teacher", "Sally", 80);
+        pipeline.close();
+        assertEquals(1, pipeline.getFailedCount());
+        assertEquals(1, failed.size());
+        assertEquals("nobody Sally", failed.get(0));
+        assertEquals(80, service.getStudentAverage("teacher", "Sally"), 1e-9);
+    }
+
+    @Test
+    public void testStoppedConsumerStopsProducers() {
+        final Error broken = new Error("broken");
+        GradeTrackerImpl failing = new GradeTrackerImpl() {
+            @Override
+            public BatchResult recordScores(Iterable<ScoreEvent> events) {
+                throw broken;
+            }
+        };
+        ScorePipeline pipeline = ScorePipeline.start(failing, 2, 1, WaitStrategy.BACK_OFF, null);
+        try {
+            // the consumer stops on the first batch, so the ring fills up within a lap
+            for (int i = 0; i < 4; i++) {
+                pipeline.publish(ScoreType.EXAM, "teacher", "Sally", 80);
+            }
+            fail("Expected to get IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            assertSame(broken, e.getCause());
+        }
+        try {
+            pipeline.flush();
+            fail("Expected to get IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            assertSame(broken, e.getCause());
+        }
+        try {
+            pipeline.close();
+            fail("Expected to get IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            assertSame(broken, e.getCause());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPublishAfterClose() {
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        ScorePipeline pipeline = ScorePipeline.start(service, 16, 1, WaitStrategy.BUSY_SPIN, null);
+        pipeline.close();
+        pipeline.publish(ScoreType.EXAM, "teacher", "Sally", 80);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBufferSizeMustBePowerOfTwo() {
+        ScorePipeline.start(service, 12, 1, WaitStrategy.YIELD, null);
+    }
+}
@@ -0,0 +1,232 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for routing a GradeTracker across in-process nodes
+ */
+public class ShardedGradeTrackerTest {
+    private static final int TEACHERS = 40;
+    private static final int STUDENTS = 25;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static void populate(GradeTracker service) {
+        for (int t = 0; t < TEACHERS; t++) {
+            String teacher = "teacher " + t;
+            service.addTeacher(teacher, new ScoringPreferences(0.4, 0.6, t % 3));
+            List<ScoreEvent> events = new ArrayList<ScoreEvent>();
+            for (int s = 0; s < STUDENTS; s++) {
+                events.add(ScoreEvent.assignment(teacher, "student " + s, (s * 7 + t) % 101));
+                events.add(ScoreEvent.exam(teacher, "student " + s, (s * 13 + t) % 101));
+            }
+            assertTrue(service.recordScores(events).isSuccess());
+            service.closeGradingPeriod(teacher, "Q1");
+            if (t % 2 == 0) {
+                service.updateTeacher(teacher, new ScoringPreferences(0.5, 0.5, 1));
+            }
+            for (int s = 0; s < STUDENTS; s += 3) {
+                service.recordExamScore(teacher, "student " + s, (s * 3 + t) % 101);
+                service.recordExtraCredit(teacher, "student " + s);
+            }
+        }
+    }
+
+    static void assertSameGrades(GradeTracker expected, GradeTracker actual) {
+        for (int t = 0; t < TEACHERS; t++) {
+            String teacher = "teacher " + t;
+            for (int s = 0; s < STUDENTS; s++) {
+                String student = "student " + s;
+                assertEquals(expected.getStudentAverage(teacher, student), actual.getStudentAverage(teacher, student), 0);
+                assertEquals(expected.getPeriodAverage(teacher, student, "Q1"),
+                        actual.getPeriodAverage(teacher, student, "Q1"), 0);
+            }
+            ClassStatistics expectedStatistics = expected.getClassStatistics(teacher);
+            ClassStatistics actualStatistics = actual.getClassStatistics(teacher);
+            assertEquals(expectedStatistics.getStudentCount(), actualStatistics.getStudentCount());
+            // a moved class sums the averages in a different order
+            assertEquals(expectedStatistics.getAverage(), actualStatistics.getAverage(), 1e-9);
+            assertEquals(expected.getTopStudents(teacher, 3).toString(), actual.getTopStudents(teacher, 3).toString());
+            assertEquals(expected.getGradingPeriods(teacher), actual.getGradingPeriods(teacher));
+        }
+    }
+
+    private static InProcessTransport cluster(GradeTrackerImpl... nodes) {
+        InProcessTransport transport = new InProcessTransport();
+        for (int i = 0; i < nodes.length; i++) {
+            transport.register("node-" + i, nodes[i]);
+        }
+        return transport;
+    }
+
+    @Test
+    public void testRoutesEachTeacherToOneNode() {
+        GradeTrackerImpl[] nodes = {new GradeTrackerImpl(), new GradeTrackerImpl(), new GradeTrackerImpl()};
+        ShardedGradeTracker sharded = new ShardedGradeTracker(cluster(nodes), Arrays.asList("node-0", "node-1", "node-2"));
+        populate(sharded);
+        GradeTrackerImpl single = new GradeTrackerImpl();
+        populate(single);
+        assertSameGrades(single, sharded);
+
+        int total = 0;
+        for (GradeTrackerImpl node : nodes) {
+            assertFalse("every node holds some teachers", node.getTeacherNames().isEmpty());
+            total += node.getTeacherNames().size();
+        }
+        assertEquals(TEACHERS, total);
+    }
+
+    @Test
+    public void testBatchFailuresKeepTheirIndexes() {
+        ShardedGradeTracker sharded = new ShardedGradeTracker(cluster(new GradeTrackerImpl(), new GradeTrackerImpl()),
+                Arrays.asList("node-0", "node-1"));
+        for (int t = 0; t < 10; t++) {
+            sharded.addTeacher("teacher " + t, new ScoringPreferences(0.5, 0.5, 0));
+        }
+        List<ScoreEvent> events = new ArrayList<ScoreEvent>();
+        for (int t = 0; t < 10; t++) {
+            events.add(ScoreEvent.exam("teacher " + t, "Sally", 80));
+        }
+        events.add(3, ScoreEvent.exam("nobody", "Sally", 80));
+        events.add(7, null);
+        BatchResult result = sharded.recordScores(events);
+        assertEquals(10, result.getAppliedCount());
+        assertEquals(2, result.getFailures().size());
+        for (BatchResult.Failure failure : result.getFailures()) {
+            if (failure.getIndex() == 3) {
+                assertTrue(failure.getError() instanceof ObjectNotFoundError);
+            }
+            else {
+                assertEquals(7, failure.getIndex());
+                assertTrue(failure.getError() instanceof IllegalArgumentException);
+            }
+        }
+        for (int t = 0; t < 10; t++) {
+            assertEquals(80, sharded.getStudentAverage("teacher " + t, "Sally"), 0);
+        }
+    }
+
+    @Test
+    public void testAddAndRemoveNodesMoveOnlyTheirTeachers() {
+        GradeTrackerImpl[] nodes = {new GradeTrackerImpl(), new GradeTrackerImpl(RosterLayout.COLUMNAR),
+                new GradeTrackerImpl()};
+        ShardedGradeTracker sharded = new ShardedGradeTracker(cluster(nodes), Arrays.asList("node-0", "node-1"));
+        populate(sharded);
+        GradeTrackerImpl single = new GradeTrackerImpl();
+        populate(single);
+
+        int moved = sharded.addNode("node-2");
+        assertEquals(nodes[2].getTeacherNames().size(), moved);
+        assertTrue(String.valueOf(moved), moved > 0 && moved < TEACHERS / 2);
+        assertEquals(TEACHERS, nodes[0].getTeacherNames().size() + nodes[1].getTeacherNames().size() + moved);
+        assertSameGrades(single, sharded);
+
+        // moved classes keep taking scores and closing periods
+        sharded.recordExamScore(nodes[2].getTeacherNames().get(0), "student 1", 12);
+        single.recordExamScore(nodes[2].getTeacherNames().get(0), "student 1", 12);
+        assertSameGrades(single, sharded);
+
+        int returned = sharded.removeNode("node-0");
+        assertEquals(0, nodes[0].getTeacherNames().size());
+        assertTrue(returned > 0);
+        assertEquals(Arrays.asList("node-1", "node-2"), sharded.getNodes());
+        assertSameGrades(single, sharded);
+
+        sharded.removeNode("node-1");
+        try {
+            sharded.removeNode("node-2");
+            fail("last node");
+        }
+        catch (IllegalStateException expected) {
+        }
+        assertEquals(TEACHERS, nodes[2].getTeacherNames().size());
+        assertSameGrades(single, sharded);
+    }
+
+    @Test
+    public void testFailedMoveIsRolledBack() {
+        GradeTrackerImpl[] nodes = {new GradeTrackerImpl(), new GradeTrackerImpl()};
+        ShardedGradeTracker sharded = new ShardedGradeTracker(cluster(nodes), Arrays.asList("node-0"));
+        populate(sharded);
+        // the new node already has one of the teachers it would take
+        String taken = null;
+        HashRing ring = new HashRing(Arrays.asList("node-0", "node-1"), HashRing.DEFAULT_VIRTUAL_NODES);
+        for (int t = TEACHERS - 1; taken == null; t--) {
+            if (ring.nodeFor("teacher " + t).equals("node-1")) {
+                taken = "teacher " + t;
+            }
+        }
+        nodes[1].addTeacher(taken, new ScoringPreferences(0.5, 0.5, 0));
+        try {
+            sharded.addNode("node-1");
+            fail("name collision");
+        }
+        catch (NameCollisionError expected) {
+        }
+        assertEquals(TEACHERS, nodes[0].getTeacherNames().size());
+        assertEquals(Arrays.asList(taken), nodes[1].getTeacherNames());
+        assertEquals(Arrays.asList("node-0"), sharded.getNodes());
+        GradeTrackerImpl single = new GradeTrackerImpl();
+        populate(single);
+        assertSameGrades(single, sharded);
+    }
+
+    @Test
+    public void testMovedTeachersSurviveRestart() throws Exception {
+        File[] files = {new File(folder.getRoot(), "node-0.journal"), new File(folder.getRoot(), "node-1.journal")};
+        Journal[] journals = {Journal.open(files[0], SyncPolicy.everyRecords(100)), Journal.open(files[1], SyncPolicy.everyRecords(100))};
+        GradeTrackerImpl[] nodes = {GradeTrackerImpl.builder().journal(journals[0]).build(),
+                GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR).journal(journals[1]).build()};
+        ShardedGradeTracker sharded = new ShardedGradeTracker(cluster(nodes), Arrays.asList("node-0"));
+        populate(sharded);
+        sharded.addNode("node-1");
+        List<String> moved = nodes[1].getTeacherNames();
+        assertFalse(moved.isEmpty());
+        journals[0].close();
+        journals[1].close();
+
+        GradeTrackerImpl[] restarted = {
+                GradeTrackerImpl.builder().journal(Journal.open(files[0], SyncPolicy.everyWrite())).build(),
+                GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR)
+                        .journal(Journal.open(files[1], SyncPolicy.everyWrite())).build()};
+        assertEquals(moved, restarted[1].getTeacherNames());
+        assertEquals(TEACHERS - moved.size(), restarted[0].getTeacherNames().size());
+        ShardedGradeTracker reopened = new ShardedGradeTracker(cluster(restarted), Arrays.asList("node-0", "node-1"));
+        GradeTrackerImpl single = new GradeTrackerImpl();
+        populate(single);
+        assertSameGrades(single, reopened);
+    }
+
+    @Test
+    public void testHandlesOfAMovedTeacherFail() {
+        GradeTrackerImpl[] nodes = {new GradeTrackerImpl(), new GradeTrackerImpl()};
+        ShardedGradeTracker sharded = new ShardedGradeTracker(cluster(nodes), Arrays.asList("node-0"));
+        populate(sharded);
+        StudentHandle handle = nodes[0].resolveStudent("teacher 0", "student 0");
+        handle.getAverage();
+        nodes[1].importTeacher(nodes[0].exportTeacher("teacher 0"));
+        nodes[0].removeTeacher("teacher 0");
+        try {
+            handle.recordExamScore(90);
+            fail("removed teacher");
+        }
+        catch (ObjectNotFoundError expected) {
+        }
+        try {
+            sharded.resolveStudent("teacher 0", "student 0");
+            fail("not routed");
+        }
+        catch (UnsupportedOperationException expected) {
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for snapshots and restarting from a snapshot plus the journal tail
+ */
+public class SnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSnapshotWithoutJournal() {
+        File file = new File(folder.getRoot(), "grades.snapshot");
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.3, 0.7, 2));
+        service.addTeacher("empty", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 80);
+        service.recordAssignmentScore("teacher", "Sally", 95);
+        service.recordExtraCredit("teacher", "Sally");
+        service.recordExamScore("teacher", "Bob", 60);
+        service.writeSnapshot(file);
+
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTrackerImpl restored = GradeTrackerImpl.builder().rosterLayout(layout).snapshot(file).build();
+            Teacher teacher = restored.teachersByName.get("teacher");
+            assertFalse(teacher.isLoaded());
+            assertEquals(new ScoringPreferences(0.3, 0.7, 2), teacher.getScoringPreferences());
+            assertEquals(service.getStudentAverage("teacher", "Sally"), restored.getStudentAverage("teacher", "Sally"), 0);
+            assertTrue(teacher.isLoaded());
+            assertFalse(restored.teachersByName.get("empty").isLoaded());
+            assertEquals(2, restored.getClassStatistics("teacher").getStudentCount());
+            assertEquals(0, restored.getClassStatistics("empty").getStudentCount());
+            assertEquals("Sally", restored.getTopStudents("teacher", 1).get(0).getName());
+        }
+    }
+
+    @Test
+    public void testReplayJournalTailOnly() throws Exception {
+        File journalFile = new File(folder.getRoot(), "grades.journal");
+        File snapshotFile = new File(folder.getRoot(), "grades.snapshot");
+        Journal journal = Journal.open(journalFile, SyncPolicy.everyRecords(10));
+        GradeTrackerImpl service = GradeTrackerImpl.builder().journal(journal).build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 50);
+        service.writeSnapshot(snapshotFile);
+        service.recordExamScore("teacher", "Sally", 100);
+        service.recordScores(Arrays.asList(ScoreEvent.assignment("teacher", "Bob", 70)));
+        service.addTeacher("later", new ScoringPreferences(0.5, 0.5, 1));
+        service.updateTeacher("teacher", new ScoringPreferences(0.2, 0.8, 1));
+        double sally = service.getStudentAverage("teacher", "Sally");
+        journal.close();
+
+        journal = Journal.open(journalFile, SyncPolicy.everyWrite());
+        GradeTrackerImpl restored = GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR).journal(journal)
+                .snapshot(snapshotFile).build();
+        assertEquals(sally, restored.getStudentAverage("teacher", "Sally"), 0);
+        assertEquals(70, restored.getStudentAverage("teacher", "Bob"), 0);
+        assertEquals(2, restored.getClassStatistics("teacher").getStudentCount());
+        assertEquals(0, restored.getClassStatistics("later").getStudentCount());
+        journal.close();
+    }
+
+    @Test
+    public void testSnapshotWhileWriting() throws Exception {
+        File journalFile = new File(folder.getRoot(), "grades.journal");
+        File snapshotFile = new File(folder.getRoot(), "grades.snapshot");
+        Journal journal = Journal.open(journalFile, SyncPolicy.everyRecords(1000));
+        final GradeTrackerImpl service = GradeTrackerImpl.builder().journal(journal).build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; !stop.get() || i < 1000; i++) {
+                    service.recordExamScore("teacher", "student" + (i % 50), i % 101);
+                }
+            }
+        });
+        writer.start();
+        for (int i = 0; i < 20; i++) {
+            service.writeSnapshot(snapshotFile);
+        }
+        stop.set(true);
+        writer.join();
+        journal.close();
+
+        journal = Journal.open(journalFile, SyncPolicy.everyWrite());
+        GradeTrackerImpl restored = GradeTrackerImpl.builder().journal(journal).snapshot(snapshotFile).build();
+        for (int i = 0; i < 50; i++) {
+            ScoreTotals expected = service.teachersByName.get("teacher").getStudent("student" + i).getTotals();
+            ScoreTotals actual = restored.teachersByName.get("teacher").getStudent("student" + i).getTotals();
+            assertEquals(expected.getExamsCount(), actual.getExamsCount());
+            assertEquals(expected.getExamsSum(), actual.getExamsSum(), 0);
+        }
+        journal.close();
+    }
+
+    @Test
+    public void testCheckpointer() throws Exception {
+        File file = new File(folder.getRoot(), "grades.snapshot");
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 80);
+        Checkpointer checkpointer = Checkpointer.start(service, file, 10);
+        for (int i = 0; i < 500 && !file.exists(); i++) {
+            Thread.sleep(10);
+        }
+        checkpointer.close();
+        assertNull(checkpointer.getLastError());
+        assertEquals(80, GradeTrackerImpl.builder().snapshot(file).build().getStudentAverage("teacher", "Sally"), 0);
+    }
+
+    @Test(expected = JournalError.class)
+    public void testNotASnapshot() throws Exception {
+        File file = folder.newFile("garbage");
+        Files.write(file.toPath(), new byte[64]);
+        GradeTrackerImpl.builder().snapshot(file).build();
+    }
+}
@@ -0,0 +1,204 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for nodes served over loopback sockets
+ */
+public class SocketTransportTest {
+    private GradeTrackerImpl[] nodes;
+    private ShardServer[] servers;
+    private SocketTransport transport;
+
+    @Before
+    public void setUp() {
+        nodes = new GradeTrackerImpl[]{new GradeTrackerImpl(), new GradeTrackerImpl(RosterLayout.COLUMNAR),
+                new GradeTrackerImpl()};
+        servers = new ShardServer[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            servers[i] = new ShardServer(nodes[i]);
+        }
+        transport = new SocketTransport();
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+        for (ShardServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testClusterOverLoopback() {
+        ShardedGradeTracker sharded = new ShardedGradeTracker(transport,
+                Arrays.asList(servers[0].getAddress(), servers[1].getAddress()));
+        ShardedGradeTrackerTest.populate(sharded);
+        GradeTrackerImpl single = new GradeTrackerImpl();
+        ShardedGradeTrackerTest.populate(single);
+        ShardedGradeTrackerTest.assertSameGrades(single, sharded);
+
+        assertTrue(sharded.addNode(servers[2].getAddress()) > 0);
+        ShardedGradeTrackerTest.assertSameGrades(single, sharded);
+        sharded.removeNode(servers[0].getAddress());
+        assertTrue(nodes[0].getTeacherNames().isEmpty());
+        ShardedGradeTrackerTest.assertSameGrades(single, sharded);
+    }
+
+    @Test
+    public void testDuplicateEventsAcrossTheCluster() {
+        ShardedGradeTracker sharded = new ShardedGradeTracker(transport,
+                Arrays.asList(servers[0].getAddress(), servers[1].getAddress()));
+        List<ScoreEvent> events = new ArrayList<ScoreEvent>();
+        for (int t = 0; t < 10; t++) {
+            sharded.addTeacher("teacher " + t, new ScoringPreferences(0.5, 0.5, 1));
+            assertTrue(sharded.recordExamScore("teacher " + t, "student", 80, "exam"));
+            assertFalse(sharded.recordExamScore("teacher " + t, "student", 0, "exam"));
+            events.add(ScoreEvent.assignment("teacher " + t, "student", 60).withEventId("assignment"));
+            events.add(ScoreEvent.assignment("teacher " + t, "student", 0).withEventId("exam"));
+        }
+        events.addAll(events);
+        BatchResult result = sharded.recordScores(events);
+        assertTrue(result.isSuccess());
+        assertEquals(10, result.getAppliedCount());
+        assertEquals(30, result.getDuplicateCount());
+        for (int t = 0; t < 10; t++) {
+            assertEquals(70, sharded.getStudentAverage("teacher " + t, "student"), 0);
+        }
+    }
+
+    private static ScoreHistoryVisitor collect(final List<String> entries) {
+        return new ScoreHistoryVisitor() {
+            @Override
+            public void score(String studentName, ScoreType type, double score) {
+                entries.add(studentName + " " + type + " " + score);
+            }
+        };
+    }
+
+    @Test
+    public void testHistoryIsReplayedToTheVisitor() {
+        GradeTrackerImpl retaining = GradeTrackerImpl.builder().retainHistory(true).build();
+        ShardServer server = new ShardServer(retaining);
+        try {
+            ShardNode node = transport.connect(server.getAddress());
+            node.addTeacher("Tom", new ScoringPreferences(0.5, 0.5, 1));
+            node.recordExamScore("Tom", "Sally", 90);
+            node.recordAssignmentScore("Tom", "Bob", 70);
+            node.recordExtraCredit("Tom", "Sally");
+            List<String> expected = new ArrayList<String>();
+            retaining.visitClassHistory("Tom", collect(expected));
+            List<String> visited = new ArrayList<String>();
+            node.visitClassHistory("Tom", collect(visited));
+            assertEquals(3, visited.size());
+            assertEquals(expected, visited);
+            visited.clear();
+            node.visitStudentHistory("Tom", "Sally", collect(visited));
+            assertEquals(Arrays.asList("Sally EXAM 90.0", "Sally EXTRA_CREDIT 0.0"), visited);
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testErrorsKeepTheirType() {
+        ShardNode node = transport.connect(servers[0].getAddress());
+        node.addTeacher("Tom", new ScoringPreferences(0.5, 0.5, 1));
+        try {
+            node.addTeacher("Tom", new ScoringPreferences(0.5, 0.5, 1));
+            fail("collision");
+        }
+        catch (NameCollisionError expected) {
+        }
+        try {
+            node.getStudentAverage("Nobody", "Sally");
+            fail("not found");
+        }
+        catch (ObjectNotFoundError expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("Nobody"));
+        }
+        try {
+            node.visitClassHistory("Tom", null);
+            fail("history not retained");
+        }
+        catch (IllegalStateException expected) {
+        }
+        try {
+            node.subscribe(null);
+            fail("not remote");
+        }
+        catch (UnsupportedOperationException expected) {
+        }
+
+        BatchResult result = node.recordScores(Arrays.asList(
+                ScoreEvent.exam("Tom", "Sally", 90),
+                ScoreEvent.exam("Nobody", "Sally", 90),
+                ScoreEvent.exam("Tom", null, 90),
+                ScoreEvent.assignment("Tom", "Sally", 70)));
+        assertEquals(2, result.getAppliedCount());
+        assertEquals(2, result.getFailures().size());
+        for (BatchResult.Failure failure : result.getFailures()) {
+            assertTrue(failure.toString(), failure.getIndex() == 1 ? failure.getError() instanceof ObjectNotFoundError
+                    : failure.getIndex() == 2 && failure.getError() instanceof IllegalArgumentException);
+        }
+        // the connection is still usable after errors
+        assertEquals(nodes[0].getStudentAverage("Tom", "Sally"), node.getStudentAverage("Tom", "Sally"), 0);
+    }
+
+    @Test
+    public void testConcurrentCallsAndClosedServer() throws Exception {
+        final ShardNode node = transport.connect(servers[1].getAddress());
+        node.addTeacher("Tom", new ScoringPreferences(0.5, 0.5, 0));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 4; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < 500; i++) {
+                            node.recordExamScore("Tom", "student " + thread, i % 101);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        assertEquals(4, node.getClassStatistics("Tom").getStudentCount());
+        assertEquals(nodes[1].getStudentAverage("Tom", "student 2"), node.getStudentAverage("Tom", "student 2"), 0);
+
+        servers[1].close();
+        try {
+            node.getClassStatistics("Tom");
+            fail("server closed");
+        }
+        catch (ShardError expected) {
+        }
+        try {
+            transport.connect("no port");
+            fail("bad address");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package net.mbreslow.gradekeeper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for resolved student handles
+ */
+public class StudentHandleTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadmeExample() {
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTrackerImpl service = new GradeTrackerImpl(layout);
+            service.addTeacher("Tom Teacherman", new ScoringPreferences(0.101, 0.899, 2));
+            StudentHandle sally = service.resolveStudent("Tom Teacherman", "Sally Student");
+            assertEquals("Tom Teacherman", sally.getTeacherName());
+            assertEquals("Sally Student", sally.getStudentName());
+
+            sally.recordAssignmentScore(85);
+            assertEquals(85, sally.getAverage(), 0);
+            sally.recordAssignmentScore(88);
+            sally.recordExtraCredit();
+            sally.recordAssignmentScore(92);
+            sally.recordExamScore(91);
+
+            assertEquals(90.93, (double) Math.round(sally.getAverage() * 100) / 100, 0);
+            assertEquals(sally.getAverage(), service.getStudentAverage("Tom Teacherman", "Sally Student"), 0);
+            assertEquals(1, sally.getRank().getRank());
+            assertEquals(1, service.getClassStatistics("Tom Teacherman").getStudentCount());
+        }
+    }
+
+    @Test
+    public void testHandleSharesStateWithNames() {
+        GradeTrackerImpl service = new GradeTrackerImpl(RosterLayout.COLUMNAR);
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        service.recordExamScore("teacher", "Sally", 80);
+        StudentHandle sally = service.resolveStudent("teacher", "Sally");
+        StudentHandle again = service.resolveStudent("teacher", "Sally");
+        sally.recordExamScore(100);
+        again.recordExamScore(90);
+        assertEquals(90, service.getStudentAverage("teacher", "Sally"), 0);
+
+        // preference changes and period closes keep the handle pointing at the same student
+        service.updateTeacher("teacher", new ScoringPreferences(0.2, 0.8, 1));
+        sally.recordAssignmentScore(40);
+        assertEquals(90 * 0.8 + 40 * 0.2, sally.getAverage(), 1e-9);
+        service.closeGradingPeriod("teacher", "Q1");
+        sally.recordExamScore(70);
+        assertEquals(70, sally.getAverage(), 0);
+        assertEquals(70, service.getStudentAverage("teacher", "Sally"), 0);
+        assertEquals(90 * 0.8 + 40 * 0.2, service.getPeriodAverage("teacher", "Sally", "Q1"), 1e-9);
+    }
+
+    @Test
+    public void testErrors() {
+        GradeTrackerImpl service = new GradeTrackerImpl();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        try {
+            service.resolveStudent("nobody", "Sally");
+            fail("expected an ObjectNotFoundError");
+        }
+        catch (ObjectNotFoundError expected) {
+        }
+        StudentHandle sally = service.resolveStudent("teacher", "Sally");
+        try {
+            sally.getRank();
+            fail("expected an ObjectNotFoundError");
+        }
+        catch (ObjectNotFoundError expected) {
+        }
+        assertEquals(2, service.getMetrics().getObjectNotFoundErrors());
+    }
+
+    @Test
+    public void testJournaledAndRecoveredFromSnapshot() {
+        File journalFile = new File(folder.getRoot(), "grades.journal");
+        File snapshotFile = new File(folder.getRoot(), "grades.snapshot");
+        Journal journal = Journal.open(journalFile, SyncPolicy.everyWrite());
+        GradeTrackerImpl service = GradeTrackerImpl.builder().journal(journal).build();
+        service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+        StudentHandle sally = service.resolveStudent("teacher", "Sally");
+        sally.recordExamScore(80);
+        sally.recordAssignmentScore(60);
+        service.writeSnapshot(snapshotFile);
+        sally.recordExtraCredit();
+        journal.close();
+
+        journal = Journal.open(journalFile, SyncPolicy.everyWrite());
+        GradeTrackerImpl restored = GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR).journal(journal)
+                .snapshot(snapshotFile).build();
+        assertEquals(70.5, restored.getStudentAverage("teacher", "Sally"), 0);
+        // resolving a student of a teacher not yet decoded from the snapshot loads the teacher first
+        GradeTrackerImpl lazy = GradeTrackerImpl.builder().rosterLayout(RosterLayout.COLUMNAR).snapshot(snapshotFile)
+                .build();
+        StudentHandle lazySally = lazy.resolveStudent("teacher", "Sally");
+        assertEquals(70, lazySally.getAverage(), 0);
+        journal.close();
+    }
+
+    @Test
+    public void testConcurrentWritersThroughOneHandle() throws Exception {
+        for (RosterLayout layout : RosterLayout.values()) {
+            GradeTrackerImpl service = new GradeTrackerImpl(layout);
+            service.addTeacher("teacher", new ScoringPreferences(0.5, 0.5, 1));
+            final StudentHandle sally = service.resolveStudent("teacher", "Sally");
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < 10000; i++) {
+                            sally.recordExamScore(i % 2 == 0 ? 100 : 50);
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            ScoreTotals totals = service.teachersByName.get("teacher").getStudent("Sally").getTotals();
+            assertEquals(40000, totals.getExamsCount());
+            assertEquals(75, sally.getAverage(), 0);
+        }
+    }
+}
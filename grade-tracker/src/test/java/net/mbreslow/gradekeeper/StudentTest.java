@@ -93,6 +93,64 @@ public class StudentTest {
 
 
 
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final Student sally = new Student("Sally Student");
+        final int numThreads = 8;
+        final int scoresPerThread = 10000;
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < scoresPerThread; j++) {
+                        sally.addAssignment(1);
+                        sally.addExam(2);
+                        sally.addExtraCredit();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ScoreTotals totals = sally.getTotals();
+        final int expectedCount = numThreads * scoresPerThread;
+        assertEquals(expectedCount, totals.getAssignmentsCount());
+        assertEquals(expectedCount, totals.getAssignmentsSum(), 0);
+        assertEquals(expectedCount, totals.getExamsCount());
+        assertEquals(expectedCount * 2, totals.getExamsSum(), 0);
+        assertEquals(expectedCount, totals.getExtraCredits());
+    }
+
+    @Test
+    public void testTotalsAreSnapshots() throws Exception {
+        Student sally = new Student("Sally Student");
+        sally.addAssignment(85);
+        ScoreTotals before = sally.getTotals();
+        sally.addAssignment(88);
+        assertEquals(1, before.getAssignmentsCount());
+        assertEquals(85, before.getAssignmentsSum(), 0);
+        assertEquals(2, sally.getTotals().getAssignmentsCount());
+    }
+
+    @Test
+    public void testCachedAverageInvalidation() {
+        Student sally = new Student("Sally Student");
+        ScoringPreferences even = new ScoringPreferences(0.5, 0.5, 1);
+        sally.addAssignment(80);
+        sally.addExam(90);
+        assertEquals(85, sally.getWeightedAverage(even), 0);
+        assertEquals(85, sally.getWeightedAverage(even), 0);
+        sally.addExam(60);
+        assertEquals(77.5, sally.getWeightedAverage(even), 0);
+        sally.addExtraCredit();
+        assertEquals(78, sally.getWeightedAverage(even), 0);
+        assertEquals(76.2, sally.getWeightedAverage(new ScoringPreferences(0.2, 0.8, 1)), 1e-9);
+        assertEquals(78, sally.getWeightedAverage(even), 0);
+    }
+
     @Test
     public void testRoundingFunction() {
         assertEquals(1.01, roundToTwoPlaces(1.01111111111), 0);